@@ -0,0 +1,35 @@
+package com.zouyao.objectdetector;
+
+import com.zouyao.objectdetector.pipeline.FrameSink;
+import com.zouyao.objectdetector.pipeline.FrameSource;
+
+import io.fotoapparat.preview.Frame;
+import io.fotoapparat.preview.FrameProcessor;
+
+/**
+ * {@link FrameSource} of the live camera preview. It is given to Fotoapparat as its frame
+ * processor, and frames are delivered on the camera's frame thread.
+ */
+public class CameraFrameSource implements FrameSource, FrameProcessor {
+
+    private volatile FrameSink sink = null;
+
+    @Override
+    public void start(FrameSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void stop() {
+        sink = null;
+    }
+
+    @Override
+    public void processFrame(Frame frame) {
+        FrameSink current = sink;
+        if (current != null) {
+            current.onFrame(frame.image, frame.size.width, frame.size.height, frame.rotation,
+                    System.nanoTime());
+        }
+    }
+}
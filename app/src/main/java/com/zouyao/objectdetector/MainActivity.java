@@ -1,36 +1,54 @@
 package com.zouyao.objectdetector;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Paint;
 import android.os.AsyncTask;
+import android.os.BatteryManager;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.annotation.NonNull;
 
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import io.fotoapparat.Fotoapparat;
 
+import com.zouyao.objectdetector.pipeline.FrameBufferPool;
+import com.zouyao.objectdetector.pipeline.FrameRecorder;
+import com.zouyao.objectdetector.pipeline.FrameSink;
+import com.zouyao.objectdetector.pipeline.LumaChangeDetector;
+import com.zouyao.objectdetector.pipeline.PreviewDetector;
+import com.zouyao.objectdetector.pipeline.PreviewSizePolicy;
+import com.zouyao.objectdetector.pipeline.SessionPool;
+import com.zouyao.objectdetector.quality.AdaptiveQualityController;
+import com.zouyao.objectdetector.store.DetectionLogWriter;
+import com.zouyao.objectdetector.tracking.ObjectTracker;
 import com.zouyao.objectdetector.view.RecognitionView;
 
 import io.fotoapparat.parameter.LensPosition;
 import io.fotoapparat.parameter.ScaleType;
-import io.fotoapparat.photo.BitmapPhoto;
+import io.fotoapparat.parameter.Size;
+import io.fotoapparat.parameter.selector.SelectorFunction;
+import io.fotoapparat.photo.Photo;
 import io.fotoapparat.result.PhotoResult;
 import io.fotoapparat.view.CameraView;
 
@@ -50,6 +68,16 @@ import static io.fotoapparat.parameter.selector.SizeSelectors.biggestSize;
 public class MainActivity extends AppCompatActivity {
 
     private static String TAG = "MainActivity";
+    // Preview frames between two full detections, the tracker fills in the rest.
+    private static final int DETECTION_INTERVAL = 3;
+    // Fraction of a photo tile shared with its neighbours.
+    private static final float PHOTO_TILE_OVERLAP = 0.2f;
+    // Detections buffered while the log writer catches up.
+    private static final int DETECTION_LOG_CAPACITY = 1024;
+    // Detections kept before the log is rotated, 40 MB per file and two files at most.
+    private static final int DETECTION_LOG_MAX_RECORDS = 1_000_000;
+    // Longest a static scene goes without detection.
+    private static final long STATIC_SCENE_REFRESH_NANOS = 2_000_000_000L;
 
     private final PermissionsDelegate permissionsDelegate = new PermissionsDelegate(this);
     private boolean hasCameraPermission;
@@ -57,52 +85,55 @@ public class MainActivity extends AppCompatActivity {
     private RecognitionView recognitionView;
     private Fotoapparat camera;
     private FloatingActionButton takePictureBottom;
-    private ObjectDetector objectDetector = null;
+    private Future<SessionPool<ObjectDetector>> detectorPool = null;
+    private AdaptiveQualityController qualityController = null;
+    private PhotoAnnotator photoAnnotator = null;
+    private DetectionLogWriter detectionLog = null;
+    private final CameraFrameSource cameraFrameSource = new CameraFrameSource();
+    private FrameRecorder frameRecorder = null;
+    private PreviewDetectionProcessor previewProcessor = null;
+
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            boolean charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            // Reported in tenths of a degree.
+            int temperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+            if (level >= 0 && scale > 0) {
+                qualityController.setBatteryState(level / (float) scale, charging);
+            }
+            qualityController.setThermalState(AdaptiveQualityController.ThermalState
+                    .fromBatteryTemperature(temperature / 10f));
+        }
+    };
 
     private class RecognizeTakenPhotoTask extends AsyncTask<Object,Void,String> {
         @Override
         protected String doInBackground(Object... params) {
-            BitmapPhoto bitmapPhoto = (BitmapPhoto) params[0];
+            Photo photo = (Photo) params[0];
             File rcgImageFile = (File)params[1];
-            Bitmap bitmap = bitmapPhoto.bitmap;
-            int frameRotation = bitmapPhoto.rotationDegrees;
-            List<Recognition> recognitions = Utils.getRecognitionResult(
-                    objectDetector, bitmap, frameRotation, 0.3f);
-            int rotation = Utils.getRotation(frameRotation);
-            Matrix matrix = new Matrix();
-            matrix.setRotate(rotation);
-            Bitmap rotatedBitmap = null;
-            if (rotation != 0) {
-                 rotatedBitmap = Bitmap.createBitmap(
-                        bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, false);
-            }
-            else {
-                rotatedBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+            SessionPool<ObjectDetector> pool;
+            ObjectDetector objectDetector;
+            try {
+                pool = detectorPool.get();
+                objectDetector = pool.acquire(SessionPool.Priority.BACKGROUND);
+            } catch (InterruptedException e) {
+                return "recognition interrupted";
+            } catch (ExecutionException e) {
+                return "detector failed to load";
             }
-            Canvas canvas = new Canvas(rotatedBitmap);
-            Paint rectPaint = new Paint();
-            Paint textPaint = new Paint();
-            float textSize = Utils.setAttributes(
-                    MainActivity.this, rectPaint, textPaint);
-            Utils.drawRecognitions(canvas, recognitions, rectPaint, textPaint, textSize);
-            FileOutputStream out = null;
-            String returnStr = null;
             try {
-                out = new FileOutputStream(rcgImageFile);
-                rotatedBitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
-                returnStr =  "recognized file saved to " + rcgImageFile.getAbsolutePath();
-            } catch (FileNotFoundException e) {
-                returnStr = "file not found: " + rcgImageFile.getAbsolutePath();
+                photoAnnotator.annotate(objectDetector,
+                        photo.encodedImage, photo.rotationDegrees, rcgImageFile);
+                return "recognized file saved to " + rcgImageFile.getAbsolutePath();
+            } catch (IOException e) {
+                Log.e(TAG, "cannot annotate photo", e);
+                return "cannot save " + rcgImageFile.getAbsolutePath();
             } finally {
-                try {
-                    if (out != null) {
-                        out.close();
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                pool.release(objectDetector);
             }
-            return returnStr;
         }
 
         @Override
@@ -119,6 +150,9 @@ public class MainActivity extends AppCompatActivity {
 
         cameraView = findViewById(R.id.camera_view);
         recognitionView = findViewById(R.id.recognition_view);
+        if (getResources().getBoolean(R.bool.show_perf_hud)) {
+            recognitionView.setFrameMetrics(ObjectDetector.getFrameMetrics());
+        }
         takePictureBottom = findViewById(R.id.take_picture_button);
         hasCameraPermission = permissionsDelegate.hasCameraPermission();
 
@@ -127,8 +161,34 @@ public class MainActivity extends AppCompatActivity {
         } else {
             permissionsDelegate.requestCameraPermission();
         }
-        objectDetector = ObjectDetector.get(this);
+        // Load the model off the UI thread, preview frames are dropped until it is ready.
+        detectorPool = ObjectDetector.getPoolAsync(this);
 
+        qualityController = AdaptiveQualityController.getBuilder()
+                .targetLatencyMillis(getResources().getInteger(R.integer.target_latency_ms))
+                .build();
+        if (getResources().getBoolean(R.bool.log_detections)) {
+            detectionLog = new DetectionLogWriter(
+                    new File(getFilesDir(), "detections.log"), DETECTION_LOG_CAPACITY,
+                    DETECTION_LOG_MAX_RECORDS);
+        }
+        TilePlanner tilePlanner = null;
+        if (getResources().getBoolean(R.bool.tiled_photo_detection)) {
+            tilePlanner = TilePlanner.getBuilder()
+                    .inputSize(ObjectDetector.INPUT_SIZE)
+                    .overlap(PHOTO_TILE_OVERLAP)
+                    .maxTiles(getResources().getInteger(R.integer.max_photo_tiles))
+                    .build();
+        }
+        photoAnnotator = PhotoAnnotator.getBuilder()
+                .context(this)
+                .maxSize(getResources().getInteger(R.integer.max_photo_size))
+                .format(Bitmap.CompressFormat.valueOf(
+                        getString(R.string.photo_format).toUpperCase(Locale.US)),
+                        getResources().getInteger(R.integer.photo_quality))
+                .tilePlanner(tilePlanner)
+                .detectionLog(detectionLog)
+                .build();
         camera = createFotoapparat();
         takePictureBottom.setOnClickListener((view) -> {
             PhotoResult photoResult = camera.autoFocus().takePicture();
@@ -139,17 +199,19 @@ public class MainActivity extends AppCompatActivity {
             Log.i(TAG, "image folder is " + Environment.DIRECTORY_DCIM);
 
 
-            File rawImageFile = new File(imagesFolder, "RAW_" + timeStamp + ".png");
-            File rcgImageFile = new File(imagesFolder, "RCG_" + timeStamp + ".png");
+            // The camera delivers JPEG, which is written as is.
+            File rawImageFile = new File(imagesFolder, "RAW_" + timeStamp + ".jpg");
+            File rcgImageFile = new File(imagesFolder,
+                    "RCG_" + timeStamp + "." + photoAnnotator.getFileExtension());
             photoResult.saveToFile(rawImageFile).whenDone((result) -> {
                 Toast toast = Toast.makeText(MainActivity.this,
                         "raw image saved to file " + rawImageFile.getAbsolutePath(), Toast.LENGTH_SHORT);
                 toast.show();
             });
             photoResult
-                    .toBitmap()
-                    .whenAvailable((bitmapPhoto ->
-                            new RecognizeTakenPhotoTask().execute(bitmapPhoto, rcgImageFile)));
+                    .toPendingResult()
+                    .whenAvailable((photo ->
+                            new RecognizeTakenPhotoTask().execute(photo, rcgImageFile)));
         });
 
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -157,6 +219,35 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private Fotoapparat createFotoapparat() {
+        previewProcessor = PreviewDetectionProcessor
+                .getBuilder()
+                .detectorPool(detectorPool)
+                .tracker(ObjectTracker.getBuilder()
+                        .detectionInterval(DETECTION_INTERVAL)
+                        .build())
+                .qualityController(qualityController)
+                .detectionLog(detectionLog)
+                .changeDetector(LumaChangeDetector.getBuilder()
+                        .maxStalenessNanos(STATIC_SCENE_REFRESH_NANOS)
+                        .build())
+                .framePool(createFramePool())
+                .listener(recognitions
+                        -> recognitionView.setRecognitions(recognitions))
+                .build();
+        FrameSink detector = previewProcessor;
+        if (getResources().getBoolean(R.bool.record_frames)) {
+            // Frames can be replayed later through the same detector, see FrameReplayer.
+            File recording = new File(getExternalFilesDir(null), "preview.frames");
+            try {
+                frameRecorder = new FrameRecorder(recording, detector);
+                detector = frameRecorder;
+                Log.i(TAG, "recording preview frames to " + recording);
+            } catch (IOException e) {
+                Log.e(TAG, "cannot record preview frames", e);
+            }
+        }
+        cameraFrameSource.start(detector);
+
         Fotoapparat camera;
         camera = Fotoapparat
                 .with(this)
@@ -164,6 +255,7 @@ public class MainActivity extends AppCompatActivity {
                 .lensPosition(lensPosition(LensPosition.BACK))
                 .previewScaleType(ScaleType.CENTER_CROP)  // we want the preview to fill the view
                 .photoSize(biggestSize())   // we want to have the biggest photo possible
+                .previewSize(detectorPreviewSize())
                 .focusMode(firstAvailable(  // (optional) use the first focus mode which is supported by device
                         continuousFocus(),
                         autoFocus(),        // in case if continuous focus is not available on device, auto focus will be used
@@ -174,14 +266,7 @@ public class MainActivity extends AppCompatActivity {
                         autoFlash(),
                         torch()
                 ))
-                .frameProcessor(
-                           PreviewDetectionProcessor
-                                .getBuilder()
-                                .detector(objectDetector)
-                                .listener(recognitions
-                                        -> recognitionView.setRecognitions(recognitions))
-                                .build()
-                )
+                .frameProcessor(cameraFrameSource)
                 .logger(loggers(
                         logcat(),
                         fileLogger(this)
@@ -190,9 +275,46 @@ public class MainActivity extends AppCompatActivity {
         return camera;
     }
 
+    /**
+     * Pool preview frames are copied into, reporting frames held too long in debug builds.
+     */
+    private static FrameBufferPool createFramePool() {
+        FrameBufferPool.Builder builder = FrameBufferPool.getBuilder()
+                .capacity(PreviewDetector.FRAMES_IN_FLIGHT);
+        if (BuildConfig.DEBUG) {
+            builder.leakListener((acquiredAt, heldNanos) -> Log.w(TAG,
+                    "preview frame held for " + heldNanos / 1000000 + " ms", acquiredAt));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Picks the smallest preview size that still feeds the detector at full resolution and
+     * looks sharp on screen, the preview filling the whole display.
+     */
+    private SelectorFunction<Collection<Size>, Size> detectorPreviewSize() {
+        DisplayMetrics display = getResources().getDisplayMetrics();
+        PreviewSizePolicy policy = PreviewSizePolicy.getBuilder()
+                .inputSize(ObjectDetector.INPUT_SIZE)
+                .viewSize(display.widthPixels, display.heightPixels)
+                .build();
+        return sizes -> {
+            List<Size> candidates = new ArrayList<>(sizes);
+            int[] widths = new int[candidates.size()];
+            int[] heights = new int[candidates.size()];
+            for (int i = 0; i < widths.length; ++i) {
+                widths[i] = candidates.get(i).width;
+                heights[i] = candidates.get(i).height;
+            }
+            int selected = policy.select(widths, heights);
+            return selected >= 0 ? candidates.get(selected) : null;
+        };
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
         if (hasCameraPermission) {
             camera.start();
         }
@@ -201,11 +323,36 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onStop() {
         super.onStop();
+        unregisterReceiver(batteryReceiver);
         if (hasCameraPermission) {
             camera.stop();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cameraFrameSource.stop();
+        if (previewProcessor != null) {
+            // Otherwise every recreation leaks the detection threads and their buffers.
+            previewProcessor.shutdown();
+        }
+        if (frameRecorder != null) {
+            try {
+                frameRecorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "cannot record preview frames", e);
+            }
+        }
+        if (detectionLog != null) {
+            try {
+                detectionLog.close();
+            } catch (IOException e) {
+                Log.e(TAG, "cannot write detection log", e);
+            }
+        }
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode,
                                            @NonNull String[] permissions,
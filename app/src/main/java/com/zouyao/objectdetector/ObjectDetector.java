@@ -5,93 +5,254 @@ import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.util.Log;
-import android.widget.Toast;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.zouyao.objectdetector.image.ParallelKernels;
+import com.zouyao.objectdetector.inference.DetectionEngine;
+import com.zouyao.objectdetector.metrics.FrameMetrics;
+import com.zouyao.objectdetector.pipeline.SessionPool;
 
 import org.tensorflow.Graph;
 import org.tensorflow.Operation;
-import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
 
 /**
  * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
  * github.com/tensorflow/models/tree/master/research/object_detection
+ * <p>
+ * Inference runs through a {@link DetectionEngine} on a {@link TensorFlowBackend}.
  */
 public class ObjectDetector {
     private static final String TAG = "ObjectDetector";
     // Only return this many results.
-    private static final int MAX_RESULTS = 100;
+    public static final int MAX_RESULTS = Detections.MAX_DETECTIONS;
     public static final int INPUT_SIZE = 300;
+    // Memory the tensors of one batched run may use.
+    private static final long BATCH_MEMORY_BUDGET = 32L * 1024 * 1024;
     private static final String MODEL_FILE =
             "file:///android_asset/ssd_mobilenet_v1_android_export.pb";
     private static final String LABELS_FILE = "file:///android_asset/coco_labels_list.txt";
+    private static final String ASSET_PREFIX = "file:///android_asset/";
+    // Started when the class is first used, which is when the app asks for a detector.
+    private static final StartupTimings sStartupTimings = new StartupTimings();
+    private static final FrameMetrics sFrameMetrics = new FrameMetrics();
+    // Compile-time switch for logging that is too chatty even for debug builds.
+    private static final boolean VERBOSE = false;
+    // Smaller images are not worth handing to another core.
+    private static final int MIN_PIXELS_PER_STRIPE = 16 * 1024;
+    private static final ParallelKernels sKernels = createKernels();
     private static ObjectDetector sObjectDetector = null;
-    public static ObjectDetector get(final Context context){
+    private static SessionPool<ObjectDetector> sDetectorPool = null;
+    private static Future<SessionPool<ObjectDetector>> sDetectorPoolFuture = null;
+    public static synchronized ObjectDetector get(final Context context){
         if (sObjectDetector == null) {
-            sObjectDetector = new ObjectDetector(
-                    context, MODEL_FILE, LABELS_FILE, INPUT_SIZE);
+            sObjectDetector = new ObjectDetector(readModel(context.getAssets(), MODEL_FILE),
+                    readLabels(context.getAssets(), LABELS_FILE), INPUT_SIZE);
         }
         return sObjectDetector;
     }
 
+    /**
+     * Returns the shared pool of detectors, each with its own TensorFlow session, so that
+     * preview and photo detection do not wait for each other. The pool holds
+     * {@code R.integer.detector_pool_size} detectors, the first one being {@link #get(Context)}.
+     */
+    public static synchronized SessionPool<ObjectDetector> getPool(final Context context){
+        if (sDetectorPool == null) {
+            int size = Math.max(1, context.getResources().getInteger(R.integer.detector_pool_size));
+            List<ObjectDetector> detectors = new ArrayList<>(size);
+            // Read the model and labels once for all sessions.
+            byte[] graphDef = readModel(context.getAssets(), MODEL_FILE);
+            LabelTable labels = sObjectDetector != null
+                    ? sObjectDetector.getLabels()
+                    : readLabels(context.getAssets(), LABELS_FILE);
+            if (sObjectDetector == null) {
+                sObjectDetector = new ObjectDetector(graphDef, labels, INPUT_SIZE);
+            }
+            detectors.add(sObjectDetector);
+            for (int i = 1; i < size; ++i) {
+                detectors.add(new ObjectDetector(graphDef, labels, INPUT_SIZE));
+            }
+            sDetectorPool = new SessionPool<>(detectors);
+        }
+        return sDetectorPool;
+    }
+
+    /**
+     * Same as {@link #getPool(Context)}, but loads the detectors on a background thread so the
+     * caller, usually the UI thread, is not blocked for the whole model load. When
+     * {@code R.bool.warm_up_detector} is set, every session also runs once on a blank image
+     * before the future completes, so the first real frame does not pay for it.
+     *
+     * @return a future that completes once the pool is ready to use.
+     */
+    public static synchronized Future<SessionPool<ObjectDetector>> getPoolAsync(
+            final Context context){
+        if (sDetectorPoolFuture == null) {
+            final Context appContext = context.getApplicationContext();
+            final boolean warmUp = appContext.getResources().getBoolean(R.bool.warm_up_detector);
+            FutureTask<SessionPool<ObjectDetector>> task = new FutureTask<>(() -> {
+                SessionPool<ObjectDetector> pool = getPool(appContext);
+                if (warmUp) {
+                    for (ObjectDetector detector : pool.getSessions()) {
+                        detector.warmUp();
+                    }
+                }
+                Log.i(TAG, "detectors ready: " + sStartupTimings);
+                return pool;
+            });
+            new Thread(task, "ObjectDetectorLoader").start();
+            sDetectorPoolFuture = task;
+        }
+        return sDetectorPoolFuture;
+    }
+
+    /**
+     * @return how long loading the detectors took, and how long until the first detection.
+     */
+    public static StartupTimings getStartupTimings() {
+        return sStartupTimings;
+    }
+
+    /**
+     * @return latencies of every detection stage, shared by all detectors and the preview.
+     */
+    public static FrameMetrics getFrameMetrics() {
+        return sFrameMetrics;
+    }
+
+    /**
+     * @return the image kernels shared by all detectors, striped over every core.
+     */
+    public static ParallelKernels getKernels() {
+        return sKernels;
+    }
+
+    /**
+     * The calling thread runs a stripe too, so the pool has one thread less than the cores.
+     */
+    private static ParallelKernels createKernels() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        if (cores < 2) {
+            return ParallelKernels.serial();
+        }
+        return new ParallelKernels(Executors.newFixedThreadPool(cores - 1, runnable -> {
+            final Thread thread = new Thread(runnable, "ImageKernels");
+            thread.setDaemon(true);
+            return thread;
+        }), cores, MIN_PIXELS_PER_STRIPE);
+    }
+
+    /**
+     * Reads a model from the assets into a single array, without an intermediate buffer.
+     */
+    private static byte[] readModel(final AssetManager assetManager, final String modelFilename) {
+        final long start = System.nanoTime();
+        final String actualFilename = modelFilename.split(ASSET_PREFIX)[1];
+        final byte[] graphDef;
+        try {
+            graphDef = readAsset(assetManager, actualFilename);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load model from '" + modelFilename + "'", e);
+        }
+        sStartupTimings.record(StartupTimings.Phase.ASSET_OPEN, System.nanoTime() - start);
+        return graphDef;
+    }
+
+    private static LabelTable readLabels(final AssetManager assetManager,
+                                         final String labelFilename) {
+        final String actualFilename = labelFilename.split(ASSET_PREFIX)[1];
+        try {
+            return LabelTable.read(assetManager.open(actualFilename));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load labels from '" + labelFilename + "'", e);
+        }
+    }
+
+    /**
+     * Asset streams report the remaining length of the asset, so the model is read straight into
+     * an array of its size. Should the stream have more, the rest is streamed and appended.
+     */
+    private static byte[] readAsset(final AssetManager assetManager, final String filename)
+            throws IOException {
+        try (InputStream input = assetManager.open(filename)) {
+            final byte[] bytes = new byte[input.available()];
+            int offset = 0;
+            int read;
+            while (offset < bytes.length
+                    && (read = input.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+            if (offset < bytes.length) {
+                return Arrays.copyOf(bytes, offset);
+            }
+            final int next = input.read();
+            if (next == -1) {
+                return bytes;
+            }
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(2 * bytes.length + 1);
+            output.write(bytes);
+            output.write(next);
+            final byte[] buffer = new byte[16 * 1024];
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        }
+    }
+
 
     // Config values.
-    private String inputName;
     private int inputSize;
+    private final LabelTable labels;
     // Pre-allocated buffers.
-    private Vector<String> labels = new Vector<>();
-    private String[] outputNames;
+    private final int[] intValues;
+    // Off-heap input tensor for bitmaps, fed without another copy.
+    private final ByteBuffer inputBuffer;
+    private final Detections detections = new Detections(MAX_RESULTS);
+    private boolean hasRun = false;
 
-    private TensorFlowInferenceInterface inferenceInterface;
+    private final DetectionEngine engine;
 
     /**
      * Initializes a native TensorFlow session for classifying images.
      *
-     * @param context  The context, used for its asset manager and toast showing.
-     * @param modelFilename The filepath of the model GraphDef protocol buffer.
-     * @param labelFilename The filepath of label file for classes.
-     */
-    private ObjectDetector(final Context context, final String modelFilename,
-                           final String labelFilename, final int inputSize) {
-        AssetManager assetManager = context.getAssets();
-        InputStream labelsInput;
-        String actualFilename = labelFilename.split("file:///android_asset/")[1];
-        try {
-            labelsInput = assetManager.open(actualFilename);
-            BufferedReader br;
-            br = new BufferedReader(new InputStreamReader(labelsInput));
-            String line;
-            while ((line = br.readLine()) != null) {
-                Log.w(TAG, line);
-                this.labels.add(line);
-            }
-            br.close();
-        }catch (IOException e){
-            Toast toast = Toast.makeText(
-                    context, "cannot read assets, reinstall the app", Toast.LENGTH_SHORT);
-            toast.show();
+     * @param graphDef The serialized model GraphDef protocol buffer.
+     * @param labels The labels of the model classes, shared by all sessions.
+     */
+    private ObjectDetector(final byte[] graphDef, final LabelTable labels,
+                           final int inputSize) {
+        this.labels = labels;
+        if (VERBOSE) {
+            Log.v(TAG, labels.size() + " labels");
         }
 
-        this.inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
+        final Graph g = new Graph();
+        long start = System.nanoTime();
+        g.importGraphDef(graphDef);
+        sStartupTimings.record(StartupTimings.Phase.GRAPH_IMPORT, System.nanoTime() - start);
+        start = System.nanoTime();
+        this.engine = new DetectionEngine(new TensorFlowBackend(g), inputSize, sFrameMetrics);
+        sStartupTimings.record(StartupTimings.Phase.SESSION_CREATE, System.nanoTime() - start);
 
-        final Graph g = this.inferenceInterface.graph();
-
-        this.inputName = "image_tensor";
-        // The inputName node has a shape of [N, H, W, C], where
+        // The input node has a shape of [N, H, W, C], where
         // N is the batch size
         // H = W are the height and width
         // C is the number of channels (3 for our purposes - RGB)
-        final Operation inputOp = g.operation(this.inputName);
+        final Operation inputOp = g.operation(DetectionEngine.INPUT_NAME);
         if (inputOp == null) {
-            throw new RuntimeException("Failed to find input Node '" + this.inputName + "'");
+            throw new RuntimeException(
+                    "Failed to find input Node '" + DetectionEngine.INPUT_NAME + "'");
         }
         this.inputSize = inputSize;
         // The outputScoresName node has a shape of [N, NumLocations], where N
@@ -110,71 +271,231 @@ public class ObjectDetector {
         }
 
         // Pre-allocate buffers.
-        this.outputNames = new String[]{"detection_boxes", "detection_scores",
-                "detection_classes", "num_detections"};
+        this.intValues = new int[inputSize * inputSize];
+        this.inputBuffer = engine.allocateInputBuffer();
+
+    }
 
+    /**
+     * Runs the detector once on a blank image, so that the one-off cost of the first run is
+     * not paid by a real frame.
+     */
+    public synchronized void warmUp() {
+        for (int i = 0; i < inputBuffer.capacity(); ++i) {
+            inputBuffer.put(i, (byte) 0);
+        }
+        recognizeImage(inputBuffer, detections);
     }
 
+    /**
+     * Runs the detector on a bitmap of at most {@code INPUT_SIZE * INPUT_SIZE}, placed in the
+     * top-left corner of a white input.
+     */
     public synchronized List<Recognition> recognizeImage(final Bitmap bitmap) {
+        unpackPixels(bitmap);
+        recognizeImage(inputBuffer, detections);
+        return toRecognitions(detections);
+    }
 
-        int []intValues = new int[this.inputSize * this.inputSize];
-        byte []byteValues = new byte[this.inputSize * this.inputSize * 3];
+    /**
+     * Same as {@link #recognizeImage(byte[], Detections)} for a bitmap of at most
+     * {@code INPUT_SIZE * INPUT_SIZE}, placed in the top-left corner of a white input.
+     */
+    public synchronized void recognizeImage(final Bitmap bitmap, final Detections results) {
+        unpackPixels(bitmap);
+        recognizeImage(inputBuffer, results);
+    }
+
+    private void unpackPixels(final Bitmap bitmap) {
         // Preprocess the image data from 0-255 int to normalized float based
         // on the provided parameters.
+        final long start = System.nanoTime();
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
 
-        for (int i = 0; i < intValues.length; ++i) {
-            byteValues[i * 3 + 2] = (byte) (intValues[i] & 0xFF);
-            byteValues[i * 3 + 1] = (byte) ((intValues[i] >> 8) & 0xFF);
-            byteValues[i * 3 + 0] = (byte) ((intValues[i] >> 16) & 0xFF);
-        }
-
-        // Copy the input data into TensorFlow.
-
-        inferenceInterface.feed(inputName, byteValues, 1, inputSize, inputSize, 3);
-
-        // Run the inference call.
-        inferenceInterface.run(outputNames, false);
-
-        // Copy the output Tensor back into the output array.
-        float []outputLocations = new float[MAX_RESULTS * 4];
-        float []outputScores = new float[MAX_RESULTS];
-        float []outputClasses = new float[MAX_RESULTS];
-        float []outputNumDetections = new float[1];
-        inferenceInterface.fetch(outputNames[0], outputLocations);
-        inferenceInterface.fetch(outputNames[1], outputScores);
-        inferenceInterface.fetch(outputNames[2], outputClasses);
-        inferenceInterface.fetch(outputNames[3], outputNumDetections);
-
-        // Find the best detections.
-        final PriorityQueue<Recognition> pq =
-                new PriorityQueue<>(
-                        1,
-                        (lhs, rhs) -> {
-                            // Intentionally reversed to put high confidence at the head of the queue.
-                            return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                        });
-
-        // Scale them back to the input size.
-        for (int i = 0; i < outputScores.length; ++i) {
-            final RectF detection =
-                    new RectF(
-                            outputLocations[4 * i + 1] * inputSize,
-                            outputLocations[4 * i] * inputSize,
-                            outputLocations[4 * i + 3] * inputSize,
-                            outputLocations[4 * i + 2] * inputSize);
-            pq.add(
-                    new Recognition("" + i, labels.get((int) outputClasses[i]), outputScores[i], detection));
-        }
-
-        final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
-        for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
-            recognitions.add(pq.poll());
+        sKernels.letterbox(intValues, bitmap.getWidth(), bitmap.getHeight(), inputSize,
+                inputBuffer);
+        sFrameMetrics.recordSince(FrameMetrics.Stage.TENSOR_PACK, start);
+    }
+
+    /**
+     * Same as {@link #recognizeImage(Bitmap, Detections)} for ARGB pixels already read from
+     * a bitmap, e.g. scaled with {@link #getKernels()}.
+     *
+     * @param argb {@code width * height} pixels, at most {@code INPUT_SIZE} on each side.
+     */
+    public synchronized void recognizeImage(final int[] argb, final int width, final int height,
+                                            final Detections results) {
+        final long start = System.nanoTime();
+        sKernels.letterbox(argb, width, height, inputSize, inputBuffer);
+        sFrameMetrics.recordSince(FrameMetrics.Stage.TENSOR_PACK, start);
+        recognizeImage(inputBuffer, results);
+    }
+
+    /**
+     * Runs the detector on an image that is already packed as RGB bytes.
+     *
+     * @param byteValues {@code INPUT_SIZE * INPUT_SIZE * 3} bytes in RGB order.
+     */
+    public synchronized List<Recognition> recognizeImage(final byte[] byteValues) {
+        recognizeImage(byteValues, detections);
+        return toRecognitions(detections);
+    }
+
+    private List<Recognition> toRecognitions(final Detections detections) {
+        final ArrayList<Recognition> recognitions = new ArrayList<>(detections.size());
+        for (int i = 0; i < detections.size(); ++i) {
+            recognitions.add(toRecognition(detections, i));
         }
         return recognitions;
     }
 
+    /**
+     * Runs the detector without allocating: results are written into {@code results}, sorted
+     * by descending confidence, with locations in input pixels.
+     *
+     * @param byteValues {@code INPUT_SIZE * INPUT_SIZE * 3} bytes in RGB order.
+     * @param results receives the detections, should hold at least {@link #MAX_RESULTS}.
+     */
+    public synchronized void recognizeImage(final byte[] byteValues, final Detections results) {
+        final long start = System.nanoTime();
+        engine.detect(byteValues, results);
+        recordFirstRun(start);
+    }
+
+    /**
+     * Same as {@link #recognizeImage(byte[], Detections)} for an image in a buffer, ideally
+     * a direct one from {@link #allocateInputBuffer()}, which is fed without another copy.
+     *
+     * @param rgbValues {@code INPUT_SIZE * INPUT_SIZE * 3} bytes in RGB order, between the
+     *                  position and the limit.
+     */
+    public synchronized void recognizeImage(final ByteBuffer rgbValues,
+                                            final Detections results) {
+        final long start = System.nanoTime();
+        engine.detect(rgbValues, results);
+        recordFirstRun(start);
+    }
+
+    /**
+     * @return a direct buffer for one input image, to be reused for every frame.
+     */
+    public ByteBuffer allocateInputBuffer() {
+        return engine.allocateInputBuffer();
+    }
+
+    /**
+     * Runs the detector once on several {@code INPUT_SIZE * INPUT_SIZE} bitmaps.
+     * <p>
+     * The bitmaps are split into batches that fit a fixed memory budget, and every batch is
+     * packed into one input tensor and run at once. Other callers can use the detector
+     * between two batches.
+     *
+     * @return the detections of every bitmap, in the same order.
+     */
+    public List<Detections> recognizeImages(final List<Bitmap> bitmaps) {
+        final int[] pixels = new int[inputSize * inputSize];
+        return recognizeImages(bitmaps.size(), (index, batchValues, offset) -> {
+            final Bitmap bitmap = bitmaps.get(index);
+            bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0,
+                    bitmap.getWidth(), bitmap.getHeight());
+            sKernels.letterbox(pixels, bitmap.getWidth(), bitmap.getHeight(), inputSize,
+                    batchValues, offset);
+        });
+    }
+
+    /**
+     * Same as {@link #recognizeImages(List)} for images that are packed on demand, so only
+     * one batch of them is held in memory at a time.
+     *
+     * @param count number of images.
+     * @param images packs each image into the batch.
+     * @return the detections of every image, in the same order.
+     */
+    public List<Detections> recognizeImages(final int count, final InputSource images) {
+        final int imageBytes = inputSize * inputSize * 3;
+        final int batchSize = BatchPlanner.batchSize(
+                count, inputSize, MAX_RESULTS, BATCH_MEMORY_BUDGET);
+        final List<Detections> results = new ArrayList<>(count);
+        byte[] batchValues = null;
+        for (int start = 0; start < count; start += batchSize) {
+            final int batchCount = Math.min(batchSize, count - start);
+            // The tensor is created from the whole array, so it has to match the batch exactly.
+            if (batchValues == null || batchValues.length != batchCount * imageBytes) {
+                batchValues = new byte[batchCount * imageBytes];
+            }
+            final Detections[] batchResults = new Detections[batchCount];
+            for (int i = 0; i < batchCount; ++i) {
+                images.pack(start + i, batchValues, i * imageBytes);
+                batchResults[i] = new Detections(MAX_RESULTS);
+            }
+            recognizeImages(batchValues, batchCount, batchResults);
+            Collections.addAll(results, batchResults);
+        }
+        return results;
+    }
+
+    /**
+     * Runs the detector once on a batch of images packed back to back as RGB bytes.
+     *
+     * @param batchValues exactly {@code batchSize * INPUT_SIZE * INPUT_SIZE * 3} bytes.
+     * @param batchSize number of images in {@code batchValues}.
+     * @param results receives the detections of each image.
+     */
+    public synchronized void recognizeImages(
+            final byte[] batchValues, final int batchSize, final Detections[] results) {
+        final long start = System.nanoTime();
+        engine.detect(batchValues, batchSize, results);
+        recordFirstRun(start);
+    }
+
+    private void recordFirstRun(final long startNanos) {
+        if (!hasRun) {
+            hasRun = true;
+            sStartupTimings.record(
+                    StartupTimings.Phase.FIRST_INFERENCE, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Creates a {@link Recognition} for one entry of {@code detections}.
+     */
+    public Recognition toRecognition(final Detections detections, final int index) {
+        return toRecognition(detections, index, index);
+    }
+
+    /**
+     * Same as {@link #toRecognition(Detections, int)} with an explicit id, e.g. a track id.
+     */
+    public Recognition toRecognition(
+            final Detections detections, final int index, final int id) {
+        final RectF location = new RectF(
+                detections.getLeft(index),
+                detections.getTop(index),
+                detections.getRight(index),
+                detections.getBottom(index));
+        final int classId = detections.getClassId(index);
+        return new Recognition(id, classId, labels.getLabel(classId),
+                detections.getScore(index), location);
+    }
+
+    /**
+     * @return the labels of the model classes.
+     */
+    public LabelTable getLabels() {
+        return labels;
+    }
+
     public void close() {
-        inferenceInterface.close();
+        engine.close();
+    }
+
+    /**
+     * Packs the images of a batched run, see {@link #recognizeImages(int, InputSource)}.
+     */
+    public interface InputSource {
+        /**
+         * Writes image {@code index} as {@code INPUT_SIZE * INPUT_SIZE * 3} RGB bytes.
+         */
+        void pack(int index, byte[] batchValues, int offset);
     }
 }
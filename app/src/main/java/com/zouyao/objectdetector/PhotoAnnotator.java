@@ -0,0 +1,332 @@
+package com.zouyao.objectdetector;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.zouyao.objectdetector.store.DetectionLogWriter;
+
+/**
+ * Detects objects on a taken photo and saves a copy with the recognitions drawn on it.
+ * <p>
+ * The encoded photo is decoded once, downsampled to at most {@code maxSize} pixels on its long
+ * side, into a mutable bitmap that is reused from one photo to the next. Detection runs on that
+ * bitmap and the recognitions are then drawn on it in place, so no full-resolution or rotated
+ * copy is made. With a {@link TilePlanner}, tiles are instead decoded one at a time at full
+ * resolution from the encoded photo, so small objects keep the pixels the downsampling would
+ * take away; the bitmap is then only drawn on and encoded. JPEG output keeps the sensor
+ * orientation and records the rotation in its EXIF data; other formats have no orientation tag
+ * and get one rotated copy at the downsampled size.
+ * <p>
+ * Photos are annotated one at a time. Use {@link #getBuilder()} to create a new instance.
+ */
+public class PhotoAnnotator {
+    private static final String TAG = "PhotoAnnotator";
+
+    private final int maxSize;
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+    private final float minimumConfidence;
+    private final TilePlanner tilePlanner;
+    private final DetectionLogWriter detectionLog;
+    private final Paint rectPaint = new Paint();
+    private final Paint textPaint = new Paint();
+    private final float textSize;
+    // Decoded pixels of the last photo, their memory is reused for the next one.
+    private Bitmap reusableBitmap = null;
+
+    private PhotoAnnotator(Builder builder) {
+        maxSize = builder.maxSize;
+        format = builder.format;
+        quality = builder.quality;
+        minimumConfidence = builder.minimumConfidence;
+        tilePlanner = builder.tilePlanner;
+        detectionLog = builder.detectionLog;
+        textSize = Utils.setAttributes(builder.context, rectPaint, textPaint);
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the file extension matching the output format, without the dot.
+     */
+    public String getFileExtension() {
+        switch (format) {
+            case PNG:
+                return "png";
+            case WEBP:
+                return "webp";
+            default:
+                return "jpg";
+        }
+    }
+
+    /**
+     * Detects on a photo and writes the annotated copy to {@code output}.
+     *
+     * @param encodedImage the photo as delivered by the camera, usually JPEG.
+     * @param frameRotation rotation of the photo, as reported by the camera.
+     * @return the recognitions, with locations relative to the upright photo.
+     * @throws IOException if the photo cannot be decoded or the output cannot be written.
+     */
+    public synchronized List<Recognition> annotate(ObjectDetector objectDetector,
+                                                   byte[] encodedImage, int frameRotation,
+                                                   File output) throws IOException {
+        final Bitmap bitmap = decode(encodedImage);
+        final List<Recognition> recognitions = tilePlanner != null
+                ? detectTiled(objectDetector, encodedImage, bitmap, frameRotation)
+                : Utils.getRecognitionResult(objectDetector, bitmap, frameRotation,
+                        minimumConfidence, detectionLog);
+
+        final int rotation = Utils.getRotation(frameRotation);
+        final boolean transpose = rotation == 90 || rotation == 270;
+        final int width = transpose ? bitmap.getHeight() : bitmap.getWidth();
+        final int height = transpose ? bitmap.getWidth() : bitmap.getHeight();
+        final boolean rotateInExif = format == Bitmap.CompressFormat.JPEG;
+
+        Bitmap surface = bitmap;
+        if (rotation != 0 && !rotateInExif) {
+            final Matrix matrix = new Matrix();
+            matrix.setRotate(rotation);
+            surface = Bitmap.createBitmap(
+                    bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, false);
+        }
+        final Canvas canvas = new Canvas(surface);
+        if (surface == bitmap) {
+            canvas.concat(getUprightToSourceMatrix(
+                    rotation, bitmap.getWidth(), bitmap.getHeight()));
+        }
+        Utils.drawRecognitions(canvas, width, height, recognitions,
+                rectPaint, textPaint, textSize);
+
+        try {
+            write(surface, output);
+        } finally {
+            if (surface != bitmap) {
+                surface.recycle();
+            }
+        }
+        if (rotateInExif && rotation != 0) {
+            final ExifInterface exif = new ExifInterface(output.getAbsolutePath());
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION,
+                    String.valueOf(getExifOrientation(rotation)));
+            exif.saveAttributes();
+        }
+        return recognitions;
+    }
+
+    /**
+     * Detects on tiles decoded at full resolution. Formats that cannot be decoded by region
+     * are tiled from the downsampled bitmap.
+     */
+    private List<Recognition> detectTiled(ObjectDetector objectDetector, byte[] encodedImage,
+                                          Bitmap bitmap, int frameRotation) {
+        final BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(
+                    encodedImage, 0, encodedImage.length, false);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot decode photo by region, tiling the downsampled photo", e);
+            return Utils.getTiledRecognitionResult(objectDetector, bitmap, frameRotation,
+                    tilePlanner, minimumConfidence, detectionLog);
+        }
+        try {
+            return Utils.getTiledRecognitionResult(objectDetector, decoder, frameRotation,
+                    tilePlanner, minimumConfidence, detectionLog);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Decodes into the bitmap of the previous photo when it is large enough.
+     */
+    private Bitmap decode(byte[] encodedImage) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(encodedImage, 0, encodedImage.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("photo cannot be decoded");
+        }
+        final int sampleSize = getSampleSize(options.outWidth, options.outHeight, maxSize);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        final long byteCount = 4L * ((options.outWidth + sampleSize - 1) / sampleSize)
+                * ((options.outHeight + sampleSize - 1) / sampleSize);
+        if (reusableBitmap != null && reusableBitmap.getAllocationByteCount() >= byteCount) {
+            options.inBitmap = reusableBitmap;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(encodedImage, 0, encodedImage.length, options);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "cannot reuse bitmap, decoding into a new one", e);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(encodedImage, 0, encodedImage.length, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("photo cannot be decoded");
+        }
+        if (reusableBitmap != null && reusableBitmap != bitmap) {
+            reusableBitmap.recycle();
+        }
+        reusableBitmap = bitmap;
+        return bitmap;
+    }
+
+    private void write(Bitmap bitmap, File output) throws IOException {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(output);
+            if (!bitmap.compress(format, quality, out)) {
+                throw new IOException("cannot encode " + output.getAbsolutePath());
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return the largest power of two that brings the long side down to {@code maxSize}.
+     */
+    private static int getSampleSize(int width, int height, int maxSize) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / sampleSize > maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Maps coordinates in the upright photo to the unrotated bitmap.
+     *
+     * @param rotation clockwise rotation that makes the bitmap upright.
+     */
+    private static Matrix getUprightToSourceMatrix(int rotation, int sourceWidth,
+                                                   int sourceHeight) {
+        final Matrix matrix = new Matrix();
+        matrix.setRotate(-rotation);
+        switch (rotation) {
+            case 90:
+                matrix.postTranslate(0, sourceHeight);
+                break;
+            case 180:
+                matrix.postTranslate(sourceWidth, sourceHeight);
+                break;
+            case 270:
+                matrix.postTranslate(sourceWidth, 0);
+                break;
+        }
+        return matrix;
+    }
+
+    private static int getExifOrientation(int rotation) {
+        switch (rotation) {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Builder for {@link PhotoAnnotator}.
+     */
+    public static class Builder {
+
+        private Context context;
+        private int maxSize = 2048;
+        private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+        private int quality = 90;
+        private float minimumConfidence = 0.3f;
+        private TilePlanner tilePlanner = null;
+        private DetectionLogWriter detectionLog = null;
+
+        private Builder() {
+        }
+
+        /**
+         * @param context to read the box and text style from.
+         */
+        public Builder context(Context context) {
+            this.context = context;
+            return this;
+        }
+
+        /**
+         * @param maxSize longest side of the annotated photo, in pixels. The photo is
+         *                downsampled by powers of two, so it may end up smaller.
+         */
+        public Builder maxSize(int maxSize) {
+            if (maxSize < ObjectDetector.INPUT_SIZE) {
+                throw new IllegalArgumentException("maxSize must be at least the input size");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * @param quality between 0 and 100, ignored by lossless formats.
+         */
+        public Builder format(Bitmap.CompressFormat format, int quality) {
+            if (quality < 0 || quality > 100) {
+                throw new IllegalArgumentException("quality must be between 0 and 100");
+            }
+            this.format = format;
+            this.quality = quality;
+            return this;
+        }
+
+        public Builder minimumConfidence(float minimumConfidence) {
+            this.minimumConfidence = minimumConfidence;
+            return this;
+        }
+
+        /**
+         * @param tilePlanner to detect on tiles, or {@code null} to detect on the whole photo.
+         */
+        public Builder tilePlanner(TilePlanner tilePlanner) {
+            this.tilePlanner = tilePlanner;
+            return this;
+        }
+
+        /**
+         * @param detectionLog where the detections of every photo are logged, or {@code null}
+         *                     to not log them.
+         */
+        public Builder detectionLog(DetectionLogWriter detectionLog) {
+            this.detectionLog = detectionLog;
+            return this;
+        }
+
+        public PhotoAnnotator build() {
+            if (context == null) {
+                throw new IllegalStateException("context is required");
+            }
+            return new PhotoAnnotator(this);
+        }
+    }
+}
@@ -1,60 +1,177 @@
 package com.zouyao.objectdetector;
 
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.zouyao.objectdetector.pipeline.FrameBufferPool;
+import com.zouyao.objectdetector.pipeline.FrameSink;
+import com.zouyao.objectdetector.pipeline.LumaChangeDetector;
+import com.zouyao.objectdetector.pipeline.PreviewDetector;
+import com.zouyao.objectdetector.pipeline.SessionPool;
+import com.zouyao.objectdetector.quality.AdaptiveQualityController;
+import com.zouyao.objectdetector.store.DetectionLogWriter;
+import com.zouyao.objectdetector.tracking.ObjectTracker;
 
 import io.fotoapparat.preview.Frame;
 import io.fotoapparat.preview.FrameProcessor;
 
 /**
- * {@link FrameProcessor} which detects faces on camera frames.
+ * {@link FrameProcessor} which detects faces on camera frames. As a {@link FrameSink}, it also
+ * takes frames from any {@link com.zouyao.objectdetector.pipeline.FrameSource}, such as a
+ * replayed recording.
+ * <p>
+ * Detection runs through a {@link PreviewDetector}, which this class feeds with the detectors
+ * of a {@link SessionPool} and whose results it delivers as {@link Recognition}s on the main
+ * thread. Frames that arrive while the detectors are still loading are dropped.
  * <p>
  * Use {@link #getBuilder()} to create a new instance.
  */
-public class PreviewDetectionProcessor implements FrameProcessor {
+public class PreviewDetectionProcessor implements FrameProcessor, FrameSink {
 
     private static String TAG = "PreviewDetectionProcessor";
 
     private static Handler MAIN_THREAD_HANDLER = new Handler(Looper.getMainLooper());
 
     private static final float MINIMUM_CONFIDENCE = 0.3f;
+    private static final float IOU_THRESHOLD = 0.5f;
 
-    private final ObjectDetector objectDetector;
+    private final Future<SessionPool<ObjectDetector>> detectorPoolFuture;
+    // Set once the pool is loaded.
+    private volatile SessionPool<ObjectDetector> detectorPool;
+    // Any detector of the pool can turn detections into recognitions.
+    private volatile ObjectDetector labelDetector;
     private final OnObjectsDetectedListener listener;
+    private final AdaptiveQualityController qualityController;
+    private final PreviewDetector<List<Recognition>> previewDetector;
+    // Stages whose failure was logged, later failures are only counted in the stage metrics.
+    private final Set<String> failedSources =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Only touched from the main thread.
+    private boolean firstDetectionLogged = false;
+    private AdaptiveQualityController.Settings loggedSettings = null;
 
     private PreviewDetectionProcessor(Builder builder){
-        objectDetector = builder.objectDetector;
+        detectorPoolFuture = builder.detectorPool;
         listener = builder.listener;
+        qualityController = builder.qualityController;
+        previewDetector = builder.previewDetector
+                .name(TAG)
+                .detector(this::detect, ObjectDetector.INPUT_SIZE)
+                .minimumConfidence(MINIMUM_CONFIDENCE)
+                .iouThreshold(IOU_THRESHOLD)
+                .metrics(ObjectDetector.getFrameMetrics())
+                .converter((detections, ids, minimumConfidence) -> Utils.toRecognitions(
+                        labelDetector, detections, ids, minimumConfidence))
+                .resultExecutor(MAIN_THREAD_HANDLER::post)
+                .listener(this::deliver)
+                .errorListener(this::logError)
+                .build();
     }
 
     public static Builder getBuilder() {
         return new Builder();
     }
 
+    /**
+     * @return the detector behind this processor, for its scheduler, pipeline, change gate
+     *         and frame pool counters.
+     */
+    public PreviewDetector<List<Recognition>> getPreviewDetector() {
+        return previewDetector;
+    }
+
+    /**
+     * Stops the detection threads and lets go of their buffers. Frames arriving afterwards are
+     * ignored. Call it when the frame source has stopped, e.g. when the activity is destroyed.
+     */
+    public void shutdown() {
+        previewDetector.shutdown();
+    }
+
     @Override
     public void processFrame(Frame frame) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        int width = frame.size.width;
-        int height = frame.size.height;
-        YuvImage yuvImage = new YuvImage(frame.image, ImageFormat.NV21, width, height, null);
-        yuvImage.compressToJpeg(new Rect(0, 0, width, height), 50, out);
+        onFrame(frame.image, frame.size.width, frame.size.height, frame.rotation,
+                System.nanoTime());
+    }
+
+    @Override
+    public void onFrame(byte[] nv21, int width, int height, int rotation, long timestampNanos) {
+        if (!isDetectorReady()) {
+            return;
+        }
+        previewDetector.onFrame(nv21, width, height, rotation, timestampNanos);
+    }
+
+    private void detect(ByteBuffer rgbValues, Detections results) throws InterruptedException {
+        ObjectDetector objectDetector = detectorPool.acquire(SessionPool.Priority.INTERACTIVE);
+        try {
+            objectDetector.recognizeImage(rgbValues, results);
+        } finally {
+            detectorPool.release(objectDetector);
+        }
+    }
 
+    /**
+     * Hands results to the listener, on the main thread.
+     */
+    private void deliver(List<Recognition> results) {
+        if (!firstDetectionLogged) {
+            // Tracked and repeated results only follow a detection.
+            firstDetectionLogged = true;
+            StartupTimings startupTimings = ObjectDetector.getStartupTimings();
+            if (startupTimings.recordFirstDetection(System.nanoTime())) {
+                Log.i(TAG, "first detection: " + startupTimings);
+            }
+        }
+        if (qualityController != null && qualityController.getSettings() != loggedSettings) {
+            loggedSettings = qualityController.getSettings();
+            Log.i(TAG, "quality: " + loggedSettings);
+        }
+        listener.onObjectsDetected(results);
+    }
 
-        byte[] imageBytes = out.toByteArray();
-        Bitmap image = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-        List<Recognition> results = Utils.getRecognitionResult(
-                objectDetector, image, frame.rotation, MINIMUM_CONFIDENCE);
+    /**
+     * Picks up the detector pool once it has loaded, only called from the camera frame thread.
+     */
+    private boolean isDetectorReady() {
+        if (detectorPool != null) {
+            return true;
+        }
+        if (!detectorPoolFuture.isDone()) {
+            return false;
+        }
+        SessionPool<ObjectDetector> pool;
+        try {
+            pool = detectorPoolFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load the detectors", e.getCause());
+        }
+        labelDetector = pool.getSessions().get(0);
+        detectorPool = pool;
+        return true;
+    }
 
-        MAIN_THREAD_HANDLER.post(() -> listener.onObjectsDetected(results));
+    /**
+     * Logs the first failure of each stage, a stage failing on every frame would flood the log.
+     */
+    private void logError(String source, RuntimeException error) {
+        if (failedSources.add(source)) {
+            Log.e(TAG, source + " failed, later failures are only counted", error);
+        }
     }
 
     /**
@@ -83,8 +200,11 @@ public class PreviewDetectionProcessor implements FrameProcessor {
      */
     public static class Builder {
 
+        private final PreviewDetector.Builder<List<Recognition>> previewDetector =
+                PreviewDetector.getBuilder();
         private OnObjectsDetectedListener listener = OnObjectsDetectedListener.NULL;
-        private ObjectDetector objectDetector = null;
+        private Future<SessionPool<ObjectDetector>> detectorPool = null;
+        private AdaptiveQualityController qualityController = null;
 
         private Builder() {
         }
@@ -93,7 +213,80 @@ public class PreviewDetectionProcessor implements FrameProcessor {
          * @param objectDetector the object detector to detect objects.
          */
         public Builder detector(ObjectDetector objectDetector) {
-            this.objectDetector = objectDetector;
+            return detectorPool(new SessionPool<>(Collections.singletonList(objectDetector)));
+        }
+
+        /**
+         * @param detectorPool the detectors to detect objects, shared with other users.
+         */
+        public Builder detectorPool(SessionPool<ObjectDetector> detectorPool) {
+            FutureTask<SessionPool<ObjectDetector>> ready = new FutureTask<>(() -> detectorPool);
+            ready.run();
+            this.detectorPool = ready;
+            return this;
+        }
+
+        /**
+         * @param detectorPool the detectors to detect objects, still loading in the background.
+         */
+        public Builder detectorPool(Future<SessionPool<ObjectDetector>> detectorPool) {
+            this.detectorPool = detectorPool;
+            return this;
+        }
+
+        /**
+         * @param executor runs the detection, by default a dedicated thread is created.
+         */
+        public Builder executor(Executor executor) {
+            previewDetector.executor(executor);
+            return this;
+        }
+
+        /**
+         * @param tracker decides which frames need detection and tracks objects in between,
+         *                by default every frame is detected.
+         */
+        public Builder tracker(ObjectTracker tracker) {
+            previewDetector.tracker(tracker);
+            return this;
+        }
+
+        /**
+         * @param qualityController detects fewer frames and raises the confidence threshold
+         *                          when detection is too slow, by default every frame is
+         *                          detected at full quality.
+         */
+        public Builder qualityController(AdaptiveQualityController qualityController) {
+            this.qualityController = qualityController;
+            previewDetector.qualityController(qualityController);
+            return this;
+        }
+
+        /**
+         * @param detectionLog where the detections of every detected frame are logged, by
+         *                     default they are not kept.
+         */
+        public Builder detectionLog(DetectionLogWriter detectionLog) {
+            previewDetector.detectionLog(detectionLog);
+            return this;
+        }
+
+        /**
+         * @param changeDetector skips detection while the scene does not change, by default
+         *                       every frame is detected.
+         */
+        public Builder changeDetector(LumaChangeDetector changeDetector) {
+            previewDetector.changeDetector(changeDetector);
+            return this;
+        }
+
+        /**
+         * @param framePool where frames are copied, by default a pool of
+         *                  {@link PreviewDetector#FRAMES_IN_FLIGHT} frames without leak
+         *                  detection.
+         */
+        public Builder framePool(FrameBufferPool framePool) {
+            previewDetector.framePool(framePool);
             return this;
         }
 
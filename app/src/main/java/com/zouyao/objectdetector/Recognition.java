@@ -2,12 +2,23 @@ package com.zouyao.objectdetector;
 
 import android.graphics.RectF;
 
+import java.util.Locale;
+
+/**
+ * One recognized object, as handed to the UI. Detection itself works on {@link Detections},
+ * recognitions are only created for the results that are shown.
+ */
 public class Recognition {
     /**
-     * A unique identifier for what has been recognized. Specific to the class, not the instance of
-     * the object.
+     * Identifies the recognition among the others of the same frame, or the object across
+     * frames when it comes from a tracker.
      */
-    private final String id;
+    private final int id;
+
+    /**
+     * Class id emitted by the model.
+     */
+    private final int classId;
 
     /**
      * Display name for the recognition.
@@ -17,30 +28,35 @@ public class Recognition {
     /**
      * A sortable score for how good the recognition is relative to others. Higher should be better.
      */
-    private final Float confidence;
+    private final float confidence;
 
     /**
      * Location within the source image for the location of the recognized object.
      */
     private RectF location;
 
-    public Recognition(
-            final String id, final String title, final Float confidence, final RectF location) {
+    public Recognition(final int id, final int classId, final String title,
+                       final float confidence, final RectF location) {
         this.id = id;
+        this.classId = classId;
         this.title = title;
         this.confidence = confidence;
         this.location = location;
     }
 
-    public String getId() {
+    public int getId() {
         return id;
     }
 
+    public int getClassId() {
+        return classId;
+    }
+
     public String getTitle() {
         return title;
     }
 
-    public Float getConfidence() {
+    public float getConfidence() {
         return confidence;
     }
 
@@ -48,24 +64,38 @@ public class Recognition {
         return new RectF(location);
     }
 
+    /**
+     * Coordinates of {@link #getLocation()} without copying it, for code running per frame.
+     */
+    public float getLeft() {
+        return location.left;
+    }
+
+    public float getTop() {
+        return location.top;
+    }
+
+    public float getRight() {
+        return location.right;
+    }
+
+    public float getBottom() {
+        return location.bottom;
+    }
+
     public void setLocation(RectF location) {
         this.location = location;
     }
 
     @Override
     public String toString() {
-        String resultString = "";
-        if (id != null) {
-            resultString += "[" + id + "] ";
-        }
+        String resultString = "[" + id + "] ";
 
         if (title != null) {
             resultString += title + " ";
         }
 
-        if (confidence != null) {
-            resultString += String.format("(%.1f%%) ", confidence * 100.0f);
-        }
+        resultString += String.format(Locale.US, "(%.1f%%) ", confidence * 100.0f);
 
         if (location != null) {
             resultString += location + " ";
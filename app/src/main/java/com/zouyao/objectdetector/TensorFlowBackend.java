@@ -0,0 +1,55 @@
+package com.zouyao.objectdetector;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import com.zouyao.objectdetector.inference.InferenceBackend;
+
+import org.tensorflow.Graph;
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+/**
+ * {@link InferenceBackend} running a TensorFlow graph through
+ * {@link TensorFlowInferenceInterface}.
+ */
+public class TensorFlowBackend implements InferenceBackend {
+
+    private final TensorFlowInferenceInterface inferenceInterface;
+
+    /**
+     * Creates a session on an imported graph, which the backend takes ownership of.
+     */
+    public TensorFlowBackend(Graph graph) {
+        this.inferenceInterface = new TensorFlowInferenceInterface(graph);
+    }
+
+    @Override
+    public void feed(String inputName, byte[] values, long... dims) {
+        inferenceInterface.feed(inputName, values, dims);
+    }
+
+    @Override
+    public void feed(String inputName, ByteBuffer values, long... dims) {
+        inferenceInterface.feed(inputName, values, dims);
+    }
+
+    @Override
+    public void run(String[] outputNames) {
+        inferenceInterface.run(outputNames, false);
+    }
+
+    @Override
+    public void fetch(String outputName, float[] values) {
+        inferenceInterface.fetch(outputName, values);
+    }
+
+    @Override
+    public void fetch(String outputName, FloatBuffer values) {
+        inferenceInterface.fetch(outputName, values);
+    }
+
+    @Override
+    public void close() {
+        inferenceInterface.close();
+    }
+}
@@ -3,21 +3,27 @@ package com.zouyao.objectdetector;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
-import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.Rect;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import com.zouyao.objectdetector.metrics.FrameMetrics;
+import com.zouyao.objectdetector.store.DetectionLogWriter;
+
 /**
  * Created by zouyao on 1/13/18.
  */
 
 public class Utils {
     private static final String TAG = "Utils";
+    // Compile-time switch for logging that is too chatty even for debug builds.
+    private static final boolean VERBOSE = false;
     public static int getRotation(int frameRotation){
         int rotation = 0;
         switch (frameRotation)
@@ -34,65 +40,36 @@ public class Utils {
         }
         return rotation;
     }
-    private static Matrix getTransformationMatrix(
-            final int srcWidth,
-            final int srcHeight,
-            final int dstWidth,
-            final int dstHeight,
-            final int applyRotation) {
-        final Matrix matrix = new Matrix();
-
-        if (applyRotation != 0) {
-            if (applyRotation % 90 != 0) {
-                Log.w(TAG, "Rotation of " + applyRotation +" % 90 != 0");
-            }
-
-            // Translate so center of image is at origin.
-            matrix.postTranslate(-srcWidth / 2.0f, -srcHeight / 2.0f);
-
-            // Rotate around origin.
-            matrix.postRotate(applyRotation);
-        }
-
-        // Account for the already applied rotation, if any, and then determine how
-        // much scaling is needed for each axis.
-        final boolean transpose = (Math.abs(applyRotation) + 90) % 180 == 0;
-
-        final int inWidth = transpose ? srcHeight : srcWidth;
-        final int inHeight = transpose ? srcWidth : srcHeight;
-
-        // Apply scaling if necessary.
-        if (inWidth != dstWidth || inHeight != dstHeight) {
-            final float scaleFactorX = dstWidth / (float) inWidth;
-            final float scaleFactorY = dstHeight / (float) inHeight;
-            final float scaleFactor = Math.min(scaleFactorX, scaleFactorY);
-            matrix.postScale(scaleFactor, scaleFactor);
-        }
-
-        if (applyRotation != 0) {
-            // Translate back from origin centered reference to destination frame.
-            matrix.postTranslate(dstWidth / 2.0f, dstHeight / 2.0f);
-        }
-
-        return matrix;
-    }
 
     public static void drawRecognitions(
             Canvas canvas, List<Recognition> recognitions, Paint rectPaint,
             Paint textPaint, float textSize){
+        drawRecognitions(canvas, canvas.getWidth(), canvas.getHeight(),
+                recognitions, rectPaint, textPaint, textSize);
+    }
+
+    /**
+     * Same as {@link #drawRecognitions(Canvas, List, Paint, Paint, float)} on a canvas whose
+     * matrix maps an area of {@code width} by {@code height} onto the bitmap, e.g. to draw
+     * upright boxes on an unrotated photo.
+     */
+    public static void drawRecognitions(
+            Canvas canvas, int width, int height, List<Recognition> recognitions,
+            Paint rectPaint, Paint textPaint, float textSize){
         for (Recognition recognition : recognitions) {
-            RectF location = recognition.getLocation();
-            float left = location.left * canvas.getWidth();
-            float right = location.right * canvas.getWidth();
-            float top = location.top * canvas.getHeight();
-            float bottom = location.bottom * canvas.getHeight();
-            Log.i(TAG, canvas.getWidth() + "*" + canvas.getHeight() + ", "
-                    + "location = (" + left + "," + top + ")(" + right + "," + bottom + ")");
+            float left = recognition.getLeft() * width;
+            float right = recognition.getRight() * width;
+            float top = recognition.getTop() * height;
+            float bottom = recognition.getBottom() * height;
+            if (VERBOSE) {
+                Log.v(TAG, width + "*" + height + ", "
+                        + "location = (" + left + "," + top + ")(" + right + "," + bottom + ")");
+            }
             canvas.drawRect(left, top, right, bottom, rectPaint);
 
             float middle = (left + right) / 2;
             String title = recognition.getTitle();
-            Float confidence = recognition.getConfidence();
+            float confidence = recognition.getConfidence();
             String text = String.format("%s: (%.1f%%) ", title, confidence * 100.0f);
             canvas.drawText(text, middle, top + textSize, textPaint);
         }
@@ -102,41 +79,302 @@ public class Utils {
     public static List<Recognition>
     getRecognitionResult (ObjectDetector objectDetector, Bitmap image,
                           int frameRotation, float minimumConfidence){
-        int inputSize = ObjectDetector.INPUT_SIZE;
+        return getRecognitionResult(objectDetector, image, frameRotation, minimumConfidence,
+                null);
+    }
+
+    /**
+     * Same as {@link #getRecognitionResult(ObjectDetector, Bitmap, int, float)}, also queueing
+     * the detections to {@code detectionLog} when it is not {@code null}.
+     */
+    public static List<Recognition>
+    getRecognitionResult (ObjectDetector objectDetector, Bitmap image,
+                          int frameRotation, float minimumConfidence,
+                          DetectionLogWriter detectionLog){
+        int[] size = new int[2];
+        int[] resized = resize(getPixels(image), image.getWidth(),
+                0, 0, image.getWidth(), image.getHeight(), getRotation(frameRotation), size);
+        int inWidth = size[0];
+        int inHeight = size[1];
+
+        final Detections detections = new Detections(ObjectDetector.MAX_RESULTS);
+        objectDetector.recognizeImage(resized, inWidth, inHeight, detections);
+        DetectionPostProcessor.getBuilder()
+                .minimumConfidence(minimumConfidence)
+                .build()
+                .process(detections);
+        List<Recognition> recognitions = toRecognitions(
+                objectDetector, detections, inWidth, inHeight, minimumConfidence);
+        if (detectionLog != null) {
+            detectionLog.offer(System.currentTimeMillis(), detections, minimumConfidence);
+        }
+        return recognitions;
+    }
+
+    /**
+     * Same as {@link #getRecognitionResult(ObjectDetector, Bitmap, int, float)} for several
+     * images, which are run through the detector in batches. Meant for offline processing of
+     * stored photos.
+     *
+     * @param frameRotations rotation of each image, as reported by the camera.
+     * @return the recognitions of every image, in the same order.
+     */
+    public static List<List<Recognition>>
+    getRecognitionResults (ObjectDetector objectDetector, List<Bitmap> images,
+                           int[] frameRotations, float minimumConfidence){
+        final int count = images.size();
+        final int[] inWidths = new int[count];
+        final int[] inHeights = new int[count];
+        final int[] size = new int[2];
+        // Images are read and scaled one at a time, while their batch is packed.
+        final List<Detections> detections = objectDetector.recognizeImages(count,
+                (index, batchValues, offset) -> {
+                    Bitmap image = images.get(index);
+                    int[] resized = resize(getPixels(image), image.getWidth(),
+                            0, 0, image.getWidth(), image.getHeight(),
+                            getRotation(frameRotations[index]), size);
+                    inWidths[index] = size[0];
+                    inHeights[index] = size[1];
+                    ObjectDetector.getKernels().letterbox(resized, size[0], size[1],
+                            ObjectDetector.INPUT_SIZE, batchValues, offset);
+                });
+        final DetectionPostProcessor postProcessor = DetectionPostProcessor.getBuilder()
+                .minimumConfidence(minimumConfidence)
+                .build();
+        final List<List<Recognition>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            postProcessor.process(detections.get(i));
+            results.add(toRecognitions(objectDetector, detections.get(i),
+                    inWidths[i], inHeights[i], minimumConfidence));
+        }
+        return results;
+    }
+
+    /**
+     * Detects on overlapping tiles of a large image, so that small objects keep enough pixels
+     * to be found. The tiles are scaled straight from the pixels of {@code image} and run in
+     * batches, the rotated full-resolution image is never created. Duplicates seen by several
+     * tiles are removed with non-maximum suppression across tiles.
+     *
+     * @param frameRotation rotation of the image, as reported by the camera.
+     * @param tilePlanner decides the tile size, overlap and count.
+     * @return the recognitions, with locations relative to the upright image.
+     */
+    public static List<Recognition>
+    getTiledRecognitionResult (ObjectDetector objectDetector, Bitmap image, int frameRotation,
+                               TilePlanner tilePlanner, float minimumConfidence){
+        return getTiledRecognitionResult(objectDetector, image, frameRotation, tilePlanner,
+                minimumConfidence, null);
+    }
+
+    /**
+     * Same as
+     * {@link #getTiledRecognitionResult(ObjectDetector, Bitmap, int, TilePlanner, float)},
+     * also queueing the merged detections to {@code detectionLog} when it is not {@code null}.
+     */
+    public static List<Recognition>
+    getTiledRecognitionResult (ObjectDetector objectDetector, Bitmap image, int frameRotation,
+                               TilePlanner tilePlanner, float minimumConfidence,
+                               DetectionLogWriter detectionLog){
+        int rotation = getRotation(frameRotation);
+        boolean transpose = rotation == 90 || rotation == 270;
+        int width = transpose ? image.getHeight() : image.getWidth();
+        int height = transpose ? image.getWidth() : image.getHeight();
+        Tiling tiling = tilePlanner.plan(width, height);
+
+        int[] pixels = getPixels(image);
+        int[] source = new int[4];
+        int[] size = new int[2];
+        List<Detections> tileDetections = objectDetector.recognizeImages(tiling.getTileCount(),
+                (tile, batchValues, offset) -> {
+                    toSourceRect(tiling.getLeft(tile), tiling.getTop(tile),
+                            tiling.getWidth(tile), tiling.getHeight(tile),
+                            image.getWidth(), image.getHeight(), rotation, source);
+                    int[] resized = resize(pixels, image.getWidth(),
+                            source[0], source[1], source[2], source[3], rotation, size);
+                    ObjectDetector.getKernels().letterbox(resized, size[0], size[1],
+                            ObjectDetector.INPUT_SIZE, batchValues, offset);
+                });
+        int capacity = tiling.getTileCount() * ObjectDetector.MAX_RESULTS;
+        Detections merged = new Detections(capacity);
+        tiling.merge(tileDetections.toArray(new Detections[tileDetections.size()]),
+                DetectionPostProcessor.getBuilder()
+                        .capacity(capacity)
+                        .minimumConfidence(minimumConfidence)
+                        .build(),
+                merged);
+        if (detectionLog != null) {
+            detectionLog.offer(System.currentTimeMillis(), merged, minimumConfidence);
+        }
+        return toRecognitions(objectDetector, merged, null, minimumConfidence);
+    }
+
+    /**
+     * Same as
+     * {@link #getTiledRecognitionResult(ObjectDetector, Bitmap, int, TilePlanner, float)} for an
+     * encoded image, whose tiles are decoded one at a time at full resolution. Small objects
+     * keep their pixels however much the image has to be downsampled to fit in memory.
+     *
+     * @param decoder decodes regions of the encoded image.
+     * @param detectionLog where the merged detections are queued, or {@code null}.
+     */
+    public static List<Recognition>
+    getTiledRecognitionResult (ObjectDetector objectDetector, BitmapRegionDecoder decoder,
+                               int frameRotation, TilePlanner tilePlanner,
+                               float minimumConfidence, DetectionLogWriter detectionLog){
         int rotation = getRotation(frameRotation);
-        Matrix matrix = getTransformationMatrix(
-                image.getWidth(), image.getHeight(),
-                inputSize, inputSize, rotation);
-        Bitmap resizedImage = Bitmap.createBitmap(image, 0, 0,
-                image.getWidth(), image.getHeight(), matrix, false);
+        boolean transpose = rotation == 90 || rotation == 270;
+        int sourceWidth = decoder.getWidth();
+        int sourceHeight = decoder.getHeight();
+        Tiling tiling = tilePlanner.plan(transpose ? sourceHeight : sourceWidth,
+                transpose ? sourceWidth : sourceHeight);
+
+        int[] source = new int[4];
+        int[] size = new int[2];
+        Rect region = new Rect();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        List<Detections> tileDetections = objectDetector.recognizeImages(tiling.getTileCount(),
+                (tile, batchValues, offset) -> {
+                    toSourceRect(tiling.getLeft(tile), tiling.getTop(tile),
+                            tiling.getWidth(tile), tiling.getHeight(tile),
+                            sourceWidth, sourceHeight, rotation, source);
+                    region.set(source[0], source[1],
+                            source[0] + source[2], source[1] + source[3]);
+                    options.inSampleSize = getTileSampleSize(source[2], source[3]);
+                    Bitmap tileImage = decoder.decodeRegion(region, options);
+                    if (tileImage == null) {
+                        throw new IllegalStateException("cannot decode tile " + tile);
+                    }
+                    try {
+                        int[] resized = resize(getPixels(tileImage), tileImage.getWidth(),
+                                0, 0, tileImage.getWidth(), tileImage.getHeight(), rotation,
+                                size);
+                        ObjectDetector.getKernels().letterbox(resized, size[0], size[1],
+                                ObjectDetector.INPUT_SIZE, batchValues, offset);
+                    } finally {
+                        tileImage.recycle();
+                    }
+                });
+        int capacity = tiling.getTileCount() * ObjectDetector.MAX_RESULTS;
+        Detections merged = new Detections(capacity);
+        tiling.merge(tileDetections.toArray(new Detections[tileDetections.size()]),
+                DetectionPostProcessor.getBuilder()
+                        .capacity(capacity)
+                        .minimumConfidence(minimumConfidence)
+                        .build(),
+                merged);
+        if (detectionLog != null) {
+            detectionLog.offer(System.currentTimeMillis(), merged, minimumConfidence);
+        }
+        return toRecognitions(objectDetector, merged, null, minimumConfidence);
+    }
+
+    /**
+     * @return the largest power of two that keeps the long side of a region at least the
+     *         detector input size. Tiles larger than the input, such as the one covering the
+     *         whole image, are decoded no larger than needed.
+     */
+    private static int getTileSampleSize(int width, int height) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / (sampleSize * 2) >= ObjectDetector.INPUT_SIZE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Maps a rectangle of the upright image back to the unrotated source image.
+     *
+     * @param rotation clockwise rotation that makes the source upright.
+     * @param out receives left, top, width and height in source pixels.
+     */
+    private static void toSourceRect(int left, int top, int width, int height,
+                                     int sourceWidth, int sourceHeight, int rotation,
+                                     int[] out) {
+        switch (rotation) {
+            case 90:
+                out[0] = top;
+                out[1] = sourceHeight - left - width;
+                out[2] = height;
+                out[3] = width;
+                break;
+            case 180:
+                out[0] = sourceWidth - left - width;
+                out[1] = sourceHeight - top - height;
+                out[2] = width;
+                out[3] = height;
+                break;
+            case 270:
+                out[0] = sourceWidth - top - height;
+                out[1] = left;
+                out[2] = height;
+                out[3] = width;
+                break;
+            default:
+                out[0] = left;
+                out[1] = top;
+                out[2] = width;
+                out[3] = height;
+        }
+    }
 
-        int inWidth = resizedImage.getWidth();
-        int inHeight = resizedImage.getHeight();
+    private static int[] getPixels(Bitmap image) {
+        int[] pixels = new int[image.getWidth() * image.getHeight()];
+        image.getPixels(pixels, 0, image.getWidth(), 0, 0, image.getWidth(), image.getHeight());
+        return pixels;
+    }
 
+    /**
+     * Scales a region of an image to fit the detector input and rotates it upright, see
+     * {@link com.zouyao.objectdetector.image.ParallelKernels#fitInput}.
+     *
+     * @param pixels the whole image, {@code stride} pixels per row.
+     * @param size receives the width and height of the upright result.
+     * @return the upright pixels.
+     */
+    private static int[] resize(int[] pixels, int stride, int left, int top,
+                                int width, int height, int rotation, int[] size) {
+        long start = System.nanoTime();
+        int[] upright = ObjectDetector.getKernels().fitInput(pixels, stride, left, top,
+                width, height, rotation, ObjectDetector.INPUT_SIZE, size);
+        ObjectDetector.getFrameMetrics().recordSince(FrameMetrics.Stage.RESIZE, start);
+        return upright;
+    }
 
-        Bitmap recognitionImage = Bitmap.createBitmap(
-                inputSize, inputSize, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(recognitionImage);
-        canvas.drawARGB(255, 255, 255, 255);
-        canvas.drawBitmap(resizedImage, 0, 0, null);
-        final List<Recognition> recognitions = objectDetector.recognizeImage(recognitionImage);
+    /**
+     * Creates the recognitions for the detections that pass {@code minimumConfidence}, with
+     * locations relative to the image area inside the detector input. Nothing is allocated
+     * for the detections below the threshold. The locations in {@code detections} are
+     * normalized in place.
+     *
+     * @param detections detector output, sorted by descending confidence.
+     * @param inWidth width of the image area inside the input.
+     * @param inHeight height of the image area inside the input.
+     */
+    public static List<Recognition>
+    toRecognitions (ObjectDetector objectDetector, Detections detections,
+                    int inWidth, int inHeight, float minimumConfidence){
+        detections.scaleLocations(1.0f / inWidth, 1.0f / inHeight);
+        return toRecognitions(objectDetector, detections, null, minimumConfidence);
+    }
 
+    /**
+     * Creates the recognitions for detections whose locations are already normalized.
+     *
+     * @param detections detector or tracker output, sorted by descending confidence.
+     * @param ids id of each detection, e.g. track ids, or {@code null} to use the index.
+     */
+    public static List<Recognition>
+    toRecognitions (ObjectDetector objectDetector, Detections detections, int[] ids,
+                    float minimumConfidence){
         final List<Recognition> results = new ArrayList<>();
-        for (Recognition recognition : recognitions)
-        {
-            if (recognition.getConfidence() >= minimumConfidence) {
-                RectF location = recognition.getLocation();
-                float left = location.left / inWidth;
-                float right = location.right / inWidth;
-                float top = location.top / inHeight;
-                float bottom = location.bottom / inHeight;
-                results.add(new Recognition(
-                        recognition.getId(),
-                        recognition.getTitle(),
-                        recognition.getConfidence(),
-                        new RectF(left, top, right, bottom)
-                ));
-            }
+        // Detections are sorted, so stop at the first one below the threshold.
+        for (int i = 0; i < detections.size()
+                && detections.getScore(i) >= minimumConfidence; ++i) {
+            results.add(ids == null
+                    ? objectDetector.toRecognition(detections, i)
+                    : objectDetector.toRecognition(detections, i, ids[i]));
         }
         return results;
     }
@@ -4,45 +4,85 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.Typeface;
 import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.View;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import com.zouyao.objectdetector.R;
 import com.zouyao.objectdetector.Recognition;
 import com.zouyao.objectdetector.Utils;
+import com.zouyao.objectdetector.metrics.FrameMetrics;
+import com.zouyao.objectdetector.overlay.OverlayModel;
 
 
 /**
- * View which draws rectangles.
+ * View which draws rectangles, and optionally a performance overlay with the frame rate and
+ * the p50/p95/p99 latency of every detection stage.
+ * <p>
+ * The rectangles are kept in an {@link OverlayModel}: labels are formatted once per label and
+ * confidence, results equal to the ones shown are not redrawn, and other results only
+ * invalidate the area of the old and new rectangles.
  */
 public class RecognitionView extends View {
     private final static String TAG = "RecognitionView";
     private float textSize;
 
-    private final List<Recognition> recognitions = new ArrayList<>();
     private Paint rectPaint = new Paint();
     private Paint textPaint = new Paint();
+    private final Paint hudPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private OverlayModel overlay;
+    private FrameMetrics frameMetrics = null;
+    // Bottom of the performance overlay when it was last drawn.
+    private float hudBottom = 0;
 
     public RecognitionView(Context context) {
         super(context);
+        overlay = createOverlay();
     }
 
     public RecognitionView(Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
         textSize = Utils.setAttributes(context, rectPaint, textPaint);
+        setHudAttributes(context);
+        overlay = createOverlay();
     }
 
     public RecognitionView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
         textSize = Utils.setAttributes(context, rectPaint, textPaint);
+        setHudAttributes(context);
+        overlay = createOverlay();
+    }
+
+    private OverlayModel createOverlay() {
+        // Strokes are centered on the rectangle, plus a pixel for antialiasing.
+        return new OverlayModel(textPaint::measureText, textSize, textPaint.descent(),
+                rectPaint.getStrokeWidth() / 2 + 1);
+    }
+
+    private void setHudAttributes(Context context) {
+        hudPaint.setColor(context.getResources().getColor(R.color.colorHud));
+        hudPaint.setTextSize(context.getResources().getDimensionPixelSize(R.dimen.hud_text_size));
+        hudPaint.setTypeface(Typeface.MONOSPACE);
+        hudPaint.setTextAlign(Paint.Align.LEFT);
+    }
+
+    /**
+     * Shows a performance overlay, and records draw times into the given metrics.
+     *
+     * @param frameMetrics the metrics to show, or {@code null} to hide the overlay.
+     */
+    public void setFrameMetrics(@Nullable FrameMetrics frameMetrics) {
+        ensureMainThread();
+
+        this.frameMetrics = frameMetrics;
+
+        invalidate();
     }
 
     /**
@@ -53,18 +93,56 @@ public class RecognitionView extends View {
     public void setRecognitions(@NonNull List<Recognition> recognitions) {
         ensureMainThread();
 
-        this.recognitions.clear();
-
-        this.recognitions.addAll(recognitions);
+        overlay.begin();
+        for (int i = 0; i < recognitions.size(); ++i) {
+            Recognition recognition = recognitions.get(i);
+            overlay.add(recognition.getLeft(), recognition.getTop(),
+                    recognition.getRight(), recognition.getBottom(),
+                    recognition.getTitle(), recognition.getConfidence());
+        }
+        if (overlay.commit()) {
+            invalidate(overlay.getDirtyLeft(), overlay.getDirtyTop(),
+                    overlay.getDirtyRight(), overlay.getDirtyBottom());
+        }
+        if (frameMetrics != null) {
+            // The overlay shows the latest latencies, refresh it with every result.
+            invalidate(0, 0, getWidth(), (int) Math.ceil(hudBottom));
+        }
+    }
 
-        invalidate();
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // The next results are laid out at the new size, the view is redrawn anyway.
+        overlay.setSize(w, h);
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        Utils.drawRecognitions(canvas, recognitions, rectPaint, textPaint, textSize);
+        long start = System.nanoTime();
+        for (int i = 0; i < overlay.size(); ++i) {
+            float left = overlay.getLeft(i);
+            float right = overlay.getRight(i);
+            canvas.drawRect(left, overlay.getTop(i), right, overlay.getBottom(i), rectPaint);
+            canvas.drawText(overlay.getText(i), (left + right) / 2,
+                    overlay.getTextBaseline(i), textPaint);
+        }
+        if (frameMetrics != null) {
+            frameMetrics.recordSince(FrameMetrics.Stage.DRAW, start);
+            drawHud(canvas);
+        }
+    }
+
+    private void drawHud(Canvas canvas) {
+        float lineHeight = hudPaint.getTextSize() * 1.2f;
+        float y = lineHeight;
+        for (String line : frameMetrics.getSummaryLines()) {
+            canvas.drawText(line, lineHeight / 2, y, hudPaint);
+            y += lineHeight;
+        }
+        hudBottom = y;
     }
 
     private void ensureMainThread() {
@@ -0,0 +1,124 @@
+package com.zouyao.objectdetector.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.zouyao.objectdetector.DetectionPostProcessor;
+import com.zouyao.objectdetector.Detections;
+
+/**
+ * Turning raw model output into results: the original per-detection object construction and
+ * priority queue sort, the {@link Detections} decode that replaced it, the coordinate
+ * normalization and the non-maximum suppression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecodeBenchmark {
+
+    private static final int MAX_RESULTS = Detections.MAX_DETECTIONS;
+
+    @Param({"300", "320", "416", "640"})
+    public int inputSize;
+
+    private final float[] outputLocations = new float[MAX_RESULTS * 4];
+    private final float[] outputScores = new float[MAX_RESULTS];
+    private final float[] outputClasses = new float[MAX_RESULTS];
+    private final String[] labels = new String[91];
+    private final Detections decoded = new Detections(MAX_RESULTS);
+    private final Detections detections = new Detections(MAX_RESULTS);
+    private DetectionPostProcessor postProcessor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < MAX_RESULTS; ++i) {
+            float top = random.nextFloat() * 0.8f;
+            float left = random.nextFloat() * 0.8f;
+            outputLocations[4 * i] = top;
+            outputLocations[4 * i + 1] = left;
+            outputLocations[4 * i + 2] = top + 0.2f;
+            outputLocations[4 * i + 3] = left + 0.2f;
+            // The model emits its detections sorted by score.
+            outputScores[i] = 1f - i / (float) MAX_RESULTS;
+            outputClasses[i] = random.nextInt(labels.length);
+        }
+        for (int i = 0; i < labels.length; ++i) {
+            labels[i] = "label" + i;
+        }
+        decoded.setFromOutputs(outputLocations, outputScores, outputClasses,
+                MAX_RESULTS, inputSize);
+        postProcessor = DetectionPostProcessor.getBuilder().minimumConfidence(0.3f).build();
+    }
+
+    /**
+     * The decode loop {@code ObjectDetector.recognizeImage} had before {@link Detections}.
+     * {@code Recognition} needs {@code android.graphics.RectF}, so an equivalent holder is used.
+     */
+    @Benchmark
+    public List<LegacyRecognition> priorityQueue() {
+        final PriorityQueue<LegacyRecognition> pq = new PriorityQueue<>(
+                1, (lhs, rhs) -> Float.compare(rhs.confidence, lhs.confidence));
+        for (int i = 0; i < outputScores.length; ++i) {
+            final float[] detection = {
+                    outputLocations[4 * i + 1] * inputSize,
+                    outputLocations[4 * i] * inputSize,
+                    outputLocations[4 * i + 3] * inputSize,
+                    outputLocations[4 * i + 2] * inputSize};
+            pq.add(new LegacyRecognition(
+                    "" + i, labels[(int) outputClasses[i]], outputScores[i], detection));
+        }
+        final ArrayList<LegacyRecognition> recognitions = new ArrayList<>();
+        for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
+            recognitions.add(pq.poll());
+        }
+        return recognitions;
+    }
+
+    @Benchmark
+    public Detections setFromOutputs() {
+        detections.setFromOutputs(outputLocations, outputScores, outputClasses,
+                MAX_RESULTS, inputSize);
+        return detections;
+    }
+
+    @Benchmark
+    public Detections normalize() {
+        detections.copyFrom(decoded);
+        detections.scaleLocations(1f / inputSize, 1f / inputSize);
+        return detections;
+    }
+
+    @Benchmark
+    public Detections postProcess() {
+        detections.copyFrom(decoded);
+        postProcessor.process(detections);
+        return detections;
+    }
+
+    static class LegacyRecognition {
+        final String id;
+        final String title;
+        final Float confidence;
+        final float[] location;
+
+        LegacyRecognition(String id, String title, Float confidence, float[] location) {
+            this.id = id;
+            this.title = title;
+            this.confidence = confidence;
+            this.location = location;
+        }
+    }
+}
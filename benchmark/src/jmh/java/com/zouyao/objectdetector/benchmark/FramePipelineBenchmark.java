@@ -0,0 +1,97 @@
+package com.zouyao.objectdetector.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.zouyao.objectdetector.DetectionPostProcessor;
+import com.zouyao.objectdetector.Detections;
+import com.zouyao.objectdetector.image.Nv21Converter;
+import com.zouyao.objectdetector.inference.DetectionEngine;
+import com.zouyao.objectdetector.inference.ReplayBackend;
+import com.zouyao.objectdetector.inference.TensorRecording;
+
+/**
+ * Everything a preview frame goes through apart from the model itself: NV21 conversion,
+ * output decoding and postprocessing, with the model replaced by a {@link ReplayBackend}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FramePipelineBenchmark {
+
+    private static final int INPUT_SIZE = 300;
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int MAX_RESULTS = Detections.MAX_DETECTIONS;
+
+    private final byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+    private final byte[] rgb = new byte[INPUT_SIZE * INPUT_SIZE * 3];
+    private final Nv21Converter converter = new Nv21Converter(INPUT_SIZE);
+    private final Detections detections = new Detections(MAX_RESULTS);
+    private final DetectionPostProcessor postProcessor =
+            DetectionPostProcessor.getBuilder().minimumConfidence(0.3f).build();
+    private DetectionEngine engine;
+    private ByteBuffer rgbBuffer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        random.nextBytes(nv21);
+        Map<String, float[]> run = new LinkedHashMap<>();
+        float[] boxes = new float[MAX_RESULTS * 4];
+        float[] scores = new float[MAX_RESULTS];
+        float[] classes = new float[MAX_RESULTS];
+        for (int i = 0; i < MAX_RESULTS; ++i) {
+            float top = random.nextFloat() * 0.8f;
+            float left = random.nextFloat() * 0.8f;
+            boxes[4 * i] = top;
+            boxes[4 * i + 1] = left;
+            boxes[4 * i + 2] = top + 0.2f;
+            boxes[4 * i + 3] = left + 0.2f;
+            scores[i] = 1f - i / (float) MAX_RESULTS;
+            classes[i] = random.nextInt(91);
+        }
+        run.put(DetectionEngine.OUTPUT_BOXES, boxes);
+        run.put(DetectionEngine.OUTPUT_SCORES, scores);
+        run.put(DetectionEngine.OUTPUT_CLASSES, classes);
+        run.put(DetectionEngine.OUTPUT_NUM_DETECTIONS, new float[]{MAX_RESULTS});
+        TensorRecording recording = new TensorRecording();
+        recording.addRun(run);
+        engine = new DetectionEngine(new ReplayBackend(recording), INPUT_SIZE);
+        rgbBuffer = engine.allocateInputBuffer();
+    }
+
+    @Benchmark
+    public Detections frame() {
+        converter.convert(nv21, WIDTH, HEIGHT, 90, rgb);
+        engine.detect(rgb, detections);
+        postProcessor.process(detections);
+        detections.scaleLocations(
+                1f / converter.getContentWidth(), 1f / converter.getContentHeight());
+        return detections;
+    }
+
+    /**
+     * Same as {@link #frame()} with the frame converted into a direct input buffer.
+     */
+    @Benchmark
+    public Detections directBufferFrame() {
+        converter.convert(nv21, WIDTH, HEIGHT, 90, rgbBuffer);
+        engine.detect(rgbBuffer, detections);
+        postProcessor.process(detections);
+        detections.scaleLocations(
+                1f / converter.getContentWidth(), 1f / converter.getContentHeight());
+        return detections;
+    }
+}
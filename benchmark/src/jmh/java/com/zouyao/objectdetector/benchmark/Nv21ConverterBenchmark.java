@@ -0,0 +1,52 @@
+package com.zouyao.objectdetector.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.zouyao.objectdetector.image.Nv21Converter;
+
+/**
+ * Conversion of a 720p NV21 preview frame into the detector input, as done for every preview
+ * frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Nv21ConverterBenchmark {
+
+    private static final int FRAME_WIDTH = 1280;
+    private static final int FRAME_HEIGHT = 720;
+
+    @Param({"300", "320", "416", "640"})
+    public int inputSize;
+
+    @Param({"0", "90"})
+    public int rotation;
+
+    private byte[] nv21;
+    private byte[] rgb;
+    private Nv21Converter converter;
+
+    @Setup
+    public void setUp() {
+        nv21 = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+        new Random(1).nextBytes(nv21);
+        rgb = new byte[inputSize * inputSize * 3];
+        converter = new Nv21Converter(inputSize);
+    }
+
+    @Benchmark
+    public byte[] convert() {
+        converter.convert(nv21, FRAME_WIDTH, FRAME_HEIGHT, rotation, rgb);
+        return rgb;
+    }
+}
@@ -0,0 +1,88 @@
+package com.zouyao.objectdetector.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.zouyao.objectdetector.image.ParallelKernels;
+
+/**
+ * The resize, rotate and letterbox steps {@code Utils.getRecognitionResult} runs on a photo,
+ * on the calling thread only and striped over every core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PhotoResizeBenchmark {
+
+    private static final int INPUT_SIZE = 300;
+
+    @Param({"1024", "2048"})
+    public int photoWidth;
+
+    @Param({"serial", "parallel"})
+    public String kernels;
+
+    private int photoHeight;
+    private int[] photo;
+    private int[] scaled;
+    private int[] upright;
+    private final byte[] rgb = new byte[INPUT_SIZE * INPUT_SIZE * 3];
+    private ExecutorService executor;
+    private ParallelKernels parallelKernels;
+
+    @Setup
+    public void setUp() {
+        photoHeight = photoWidth * 3 / 4;
+        photo = new int[photoWidth * photoHeight];
+        Random random = new Random(1);
+        for (int i = 0; i < photo.length; ++i) {
+            photo[i] = random.nextInt() | 0xFF000000;
+        }
+        scaled = new int[INPUT_SIZE * INPUT_SIZE * 3 / 4];
+        upright = new int[scaled.length];
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        if ("parallel".equals(kernels) && cores > 1) {
+            executor = Executors.newFixedThreadPool(cores - 1);
+            parallelKernels = new ParallelKernels(executor, cores, 16 * 1024);
+        } else {
+            parallelKernels = ParallelKernels.serial();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public byte[] bilinearRotateLetterbox() {
+        final int scaledHeight = INPUT_SIZE * 3 / 4;
+        parallelKernels.resizeBilinear(photo, photoWidth, 0, 0, photoWidth, photoHeight,
+                scaled, INPUT_SIZE, scaledHeight);
+        parallelKernels.rotate(scaled, INPUT_SIZE, scaledHeight, 90, upright);
+        parallelKernels.letterbox(upright, scaledHeight, INPUT_SIZE, INPUT_SIZE, rgb, 0);
+        return rgb;
+    }
+
+    @Benchmark
+    public int[] nearest() {
+        parallelKernels.resizeNearest(photo, photoWidth, 0, 0, photoWidth, photoHeight,
+                scaled, INPUT_SIZE, INPUT_SIZE * 3 / 4);
+        return scaled;
+    }
+}
@@ -0,0 +1,46 @@
+package com.zouyao.objectdetector.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.zouyao.objectdetector.image.ImageKernels;
+
+/**
+ * The ARGB int[] to RGB byte[] loop run by {@code ObjectDetector.recognizeImage(Bitmap)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UnpackBenchmark {
+
+    @Param({"300", "320", "416", "640"})
+    public int inputSize;
+
+    private int[] argb;
+    private byte[] rgb;
+
+    @Setup
+    public void setUp() {
+        argb = new int[inputSize * inputSize];
+        Random random = new Random(1);
+        for (int i = 0; i < argb.length; ++i) {
+            argb[i] = random.nextInt() | 0xFF000000;
+        }
+        rgb = new byte[argb.length * 3];
+    }
+
+    @Benchmark
+    public byte[] unpackArgb() {
+        ImageKernels.unpackArgb(argb, argb.length, rgb);
+        return rgb;
+    }
+}
@@ -0,0 +1,95 @@
+package com.zouyao.objectdetector.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.zouyao.objectdetector.LabelTable;
+import com.zouyao.objectdetector.inference.DetectionEngine;
+
+/**
+ * Command line entry point of {@link BatchDetector}, to re-score archives of photos off the
+ * device with the model the app ships.
+ */
+public final class BatchDetect {
+
+    private static final String USAGE = "usage: batch-detect --model <graph.pb>"
+            + " --labels <labels.txt> --input <directory> --output <results.jsonl>\n"
+            + "       [--input-size 300] [--min-confidence 0.3] [--batch-size 8]\n"
+            + "       [--io-threads <cores>] [--prefetch 64] [--checkpoint-every 256]\n"
+            + "Runs again with the same arguments resume after the last checkpoint.";
+
+    private BatchDetect() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final byte[] graphDef = Files.readAllBytes(new File(options.get("model")).toPath());
+        final LabelTable labels;
+        try (FileInputStream input = new FileInputStream(options.get("labels"))) {
+            labels = LabelTable.read(input);
+        }
+        final int inputSize = getInt(options, "input-size", 300);
+        final DetectionEngine engine = new DetectionEngine(new SessionBackend(graphDef), inputSize);
+        int status = 0;
+        try {
+            final BatchDetector.Builder builder = BatchDetector.getBuilder()
+                    .engine(engine)
+                    .labels(labels)
+                    .minimumConfidence(getFloat(options, "min-confidence", 0.3f))
+                    .batchSize(getInt(options, "batch-size", 8))
+                    .prefetch(getInt(options, "prefetch", 64))
+                    .checkpointInterval(getInt(options, "checkpoint-every", 256));
+            if (options.containsKey("io-threads")) {
+                builder.ioThreads(getInt(options, "io-threads", 1));
+            }
+            builder.build().run(new File(options.get("input")), new File(options.get("output")));
+        } catch (IOException e) {
+            System.err.println("batch-detect: " + e.getMessage());
+            status = 1;
+        } finally {
+            engine.close();
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("unexpected argument " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        for (String required : new String[] {"model", "labels", "input", "output"}) {
+            if (!options.containsKey(required)) {
+                throw new IllegalArgumentException("missing --" + required);
+            }
+        }
+        return options;
+    }
+
+    private static int getInt(Map<String, String> options, String name, int defaultValue) {
+        final String value = options.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static float getFloat(Map<String, String> options, String name, float defaultValue) {
+        final String value = options.get(name);
+        return value != null ? Float.parseFloat(value) : defaultValue;
+    }
+}
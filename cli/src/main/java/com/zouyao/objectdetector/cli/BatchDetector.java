@@ -0,0 +1,361 @@
+package com.zouyao.objectdetector.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.zouyao.objectdetector.BatchPlanner;
+import com.zouyao.objectdetector.DetectionPostProcessor;
+import com.zouyao.objectdetector.Detections;
+import com.zouyao.objectdetector.LabelTable;
+import com.zouyao.objectdetector.inference.DetectionEngine;
+
+/**
+ * Detects objects on every image of a directory tree and appends the results to a JSON lines
+ * file, see {@link ResultWriter}.
+ * <p>
+ * Images are read and decoded on a pool of I/O threads, ahead of the detector. Their futures
+ * go through a bounded queue in path order, so memory stays bounded however far decoding runs
+ * ahead, and the detector runs them in batches on the calling thread.
+ * <p>
+ * Results are written in path order. Every {@code checkpointInterval} images they are synced
+ * to the disk and a {@link Checkpoint} is saved next to them, so an interrupted run started
+ * again with the same arguments resumes after the last checkpoint.
+ * <p>
+ * Use {@link #getBuilder()} to create a new instance.
+ */
+public class BatchDetector {
+
+    private static final String[] IMAGE_EXTENSIONS = {
+            ".jpg", ".jpeg", ".png", ".bmp", ".gif"};
+
+    private final DetectionEngine engine;
+    private final LabelTable labels;
+    private final float minimumConfidence;
+    private final int batchSize;
+    private final int ioThreads;
+    private final int prefetch;
+    private final int checkpointInterval;
+    private final long reportIntervalNanos;
+    private final PrintStream log;
+
+    private BatchDetector(Builder builder) {
+        engine = builder.engine;
+        labels = builder.labels;
+        minimumConfidence = builder.minimumConfidence;
+        batchSize = builder.batchSize;
+        ioThreads = builder.ioThreads;
+        prefetch = Math.max(builder.prefetch, builder.batchSize);
+        checkpointInterval = builder.checkpointInterval;
+        reportIntervalNanos = TimeUnit.SECONDS.toNanos(builder.reportIntervalSeconds);
+        log = builder.log;
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the checkpoint kept next to {@code output}.
+     */
+    public static File getCheckpointFile(File output) {
+        return new File(output.getPath() + ".checkpoint");
+    }
+
+    /**
+     * Runs the detector on every image under {@code inputDirectory} that the results do not
+     * cover yet.
+     *
+     * @param output the results file, created or resumed.
+     * @return the number of images processed by this run.
+     * @throws IOException if the results or the checkpoint cannot be written.
+     */
+    public long run(File inputDirectory, File output) throws IOException, InterruptedException {
+        final List<String> paths = listImages(inputDirectory);
+        final File checkpointFile = getCheckpointFile(output);
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+        int first = 0;
+        if (checkpoint != null) {
+            // Paths are sorted, skip every one up to the last checkpointed.
+            final int index = Collections.binarySearch(paths, checkpoint.getLastPath());
+            first = index >= 0 ? index + 1 : -index - 1;
+            log.printf(Locale.US, "resuming after %d images, at %s%n",
+                    checkpoint.getImageCount(), checkpoint.getLastPath());
+        } else {
+            checkpoint = new Checkpoint(0, 0, "");
+        }
+        final int count = paths.size() - first;
+        log.printf(Locale.US, "%d images to process in %s%n", count, inputDirectory);
+
+        final ImageDecoder decoder = new ImageDecoder(engine.getInputSize());
+        final ExecutorService ioPool = Executors.newFixedThreadPool(ioThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "BatchDetectorIO");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final BlockingQueue<Future<DecodedImage>> queue = new ArrayBlockingQueue<>(prefetch);
+        final int start = first;
+        final Thread producer = new Thread(() -> {
+            try {
+                for (int i = start; i < paths.size(); ++i) {
+                    final String path = paths.get(i);
+                    final File file = new File(inputDirectory, path);
+                    queue.put(ioPool.submit(() -> decoder.decode(path, file)));
+                }
+            } catch (InterruptedException e) {
+                // The run failed or was interrupted, nothing left to prefetch for.
+            }
+        }, "BatchDetectorPrefetch");
+        producer.setDaemon(true);
+        producer.start();
+
+        final long startNanos = System.nanoTime();
+        long lastReportNanos = startNanos;
+        long processed = 0;
+        long sinceCheckpoint = 0;
+        try (ResultWriter writer = new ResultWriter(output, checkpoint.getResultsLength(),
+                labels)) {
+            final List<DecodedImage> batch = new ArrayList<>(batchSize);
+            final Detections[] results = new Detections[batchSize];
+            for (int i = 0; i < batchSize; ++i) {
+                results[i] = new Detections(Detections.MAX_DETECTIONS);
+            }
+            final Detections none = new Detections(0);
+            final DetectionPostProcessor postProcessor = DetectionPostProcessor.getBuilder()
+                    .minimumConfidence(minimumConfidence)
+                    .build();
+            byte[] batchValues = null;
+
+            while (processed < count) {
+                final int size = (int) Math.min(batchSize, count - processed);
+                batch.clear();
+                int decoded = 0;
+                for (int i = 0; i < size; ++i) {
+                    final DecodedImage image = take(queue, paths.get(start + (int) processed + i));
+                    batch.add(image);
+                    if (image.getError() == null) {
+                        decoded++;
+                    }
+                }
+
+                if (decoded > 0) {
+                    final int imageBytes = engine.getInputSize() * engine.getInputSize() * 3;
+                    // The tensor is created from the whole array, so it has to match the batch.
+                    if (batchValues == null || batchValues.length != decoded * imageBytes) {
+                        batchValues = new byte[decoded * imageBytes];
+                    }
+                    int j = 0;
+                    for (DecodedImage image : batch) {
+                        if (image.getError() == null) {
+                            System.arraycopy(image.getRgb(), 0, batchValues, j++ * imageBytes,
+                                    imageBytes);
+                        }
+                    }
+                    engine.detect(batchValues, decoded, results);
+                }
+
+                int j = 0;
+                for (DecodedImage image : batch) {
+                    Detections detections = none;
+                    if (image.getError() == null) {
+                        detections = results[j++];
+                        postProcessor.process(detections);
+                        detections.scaleLocations(1f / image.getContentWidth(),
+                                1f / image.getContentHeight());
+                    } else {
+                        log.printf(Locale.US, "skipping %s: %s%n",
+                                image.getPath(), image.getError());
+                    }
+                    writer.write(image, detections, minimumConfidence);
+                }
+                processed += size;
+                sinceCheckpoint += size;
+
+                if (sinceCheckpoint >= checkpointInterval || processed == count) {
+                    checkpoint = new Checkpoint(writer.sync(),
+                            checkpoint.getImageCount() + sinceCheckpoint,
+                            batch.get(batch.size() - 1).getPath());
+                    checkpoint.write(checkpointFile);
+                    sinceCheckpoint = 0;
+                }
+                final long now = System.nanoTime();
+                if (now - lastReportNanos >= reportIntervalNanos || processed == count) {
+                    report(processed, count, now - startNanos);
+                    lastReportNanos = now;
+                }
+            }
+        } finally {
+            producer.interrupt();
+            ioPool.shutdownNow();
+        }
+        return processed;
+    }
+
+    /**
+     * Waits for the next decoded image, turning decoding failures into failed images.
+     */
+    private static DecodedImage take(BlockingQueue<Future<DecodedImage>> queue, String path)
+            throws InterruptedException {
+        try {
+            return queue.take().get();
+        } catch (ExecutionException e) {
+            return DecodedImage.failed(path, e.getCause());
+        }
+    }
+
+    private void report(long processed, long count, long elapsedNanos) {
+        final double seconds = elapsedNanos / 1e9;
+        log.printf(Locale.US, "%d/%d images, %.1f images/sec%n",
+                processed, count, seconds > 0 ? processed / seconds : 0);
+    }
+
+    /**
+     * @return the paths of the images under {@code directory}, relative to it with {@code /}
+     *         separators, sorted.
+     */
+    static List<String> listImages(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException(directory + " is not a directory");
+        }
+        final List<String> paths = new ArrayList<>();
+        addImages(directory, "", paths);
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static void addImages(File directory, String prefix, List<String> paths) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addImages(file, prefix + file.getName() + "/", paths);
+            } else if (isImage(file.getName())) {
+                paths.add(prefix + file.getName());
+            }
+        }
+    }
+
+    private static boolean isImage(String name) {
+        final String lowerCase = name.toLowerCase(Locale.US);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (lowerCase.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builder for {@link BatchDetector}.
+     */
+    public static class Builder {
+
+        private DetectionEngine engine;
+        private LabelTable labels;
+        private float minimumConfidence = 0.3f;
+        private int batchSize = 8;
+        private int ioThreads = Runtime.getRuntime().availableProcessors();
+        private int prefetch = 64;
+        private int checkpointInterval = 256;
+        private int reportIntervalSeconds = 10;
+        private PrintStream log = System.err;
+
+        private Builder() {
+        }
+
+        public Builder engine(DetectionEngine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder labels(LabelTable labels) {
+            this.labels = labels;
+            return this;
+        }
+
+        public Builder minimumConfidence(float minimumConfidence) {
+            this.minimumConfidence = minimumConfidence;
+            return this;
+        }
+
+        /**
+         * @param batchSize images per detector run, at most
+         *                  {@link BatchPlanner#MAX_BATCH_SIZE}.
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1 || batchSize > BatchPlanner.MAX_BATCH_SIZE) {
+                throw new IllegalArgumentException(
+                        "batchSize must be between 1 and " + BatchPlanner.MAX_BATCH_SIZE);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder ioThreads(int ioThreads) {
+            if (ioThreads < 1) {
+                throw new IllegalArgumentException("ioThreads must be positive");
+            }
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * @param prefetch images decoded ahead of the detector, at least one batch.
+         */
+        public Builder prefetch(int prefetch) {
+            if (prefetch < 1) {
+                throw new IllegalArgumentException("prefetch must be positive");
+            }
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        /**
+         * @param checkpointInterval images between two checkpoints. Each checkpoint syncs the
+         *                           results to the disk.
+         */
+        public Builder checkpointInterval(int checkpointInterval) {
+            if (checkpointInterval < 1) {
+                throw new IllegalArgumentException("checkpointInterval must be positive");
+            }
+            this.checkpointInterval = checkpointInterval;
+            return this;
+        }
+
+        public Builder reportIntervalSeconds(int reportIntervalSeconds) {
+            this.reportIntervalSeconds = reportIntervalSeconds;
+            return this;
+        }
+
+        /**
+         * @param log receives progress and throughput, standard error by default.
+         */
+        public Builder log(PrintStream log) {
+            this.log = log;
+            return this;
+        }
+
+        public BatchDetector build() {
+            if (engine == null) {
+                throw new IllegalStateException("engine is required");
+            }
+            if (labels == null) {
+                throw new IllegalStateException("labels are required");
+            }
+            return new BatchDetector(this);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.zouyao.objectdetector.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Progress of a batch run: how many bytes of the results file are complete, and the last image
+ * they cover. Images are processed in path order, so a resumed run skips every path up to the
+ * last one and truncates whatever was written after the checkpoint. Immutable.
+ */
+final class Checkpoint {
+
+    private static final String RESULTS_LENGTH = "results.length";
+    private static final String IMAGE_COUNT = "images";
+    private static final String LAST_PATH = "last.path";
+
+    private final long resultsLength;
+    private final long imageCount;
+    private final String lastPath;
+
+    Checkpoint(long resultsLength, long imageCount, String lastPath) {
+        this.resultsLength = resultsLength;
+        this.imageCount = imageCount;
+        this.lastPath = lastPath;
+    }
+
+    long getResultsLength() {
+        return resultsLength;
+    }
+
+    /**
+     * @return the number of images in the results, over all runs.
+     */
+    long getImageCount() {
+        return imageCount;
+    }
+
+    String getLastPath() {
+        return lastPath;
+    }
+
+    /**
+     * @return the checkpoint, or {@code null} if there is none.
+     * @throws IOException if the file exists but is not a checkpoint.
+     */
+    static Checkpoint read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(file)) {
+            properties.load(input);
+        }
+        final String resultsLength = properties.getProperty(RESULTS_LENGTH);
+        final String imageCount = properties.getProperty(IMAGE_COUNT);
+        final String lastPath = properties.getProperty(LAST_PATH);
+        if (resultsLength == null || imageCount == null || lastPath == null) {
+            throw new IOException(file + " is not a checkpoint");
+        }
+        try {
+            return new Checkpoint(Long.parseLong(resultsLength), Long.parseLong(imageCount),
+                    lastPath);
+        } catch (NumberFormatException e) {
+            throw new IOException(file + " is not a checkpoint", e);
+        }
+    }
+
+    /**
+     * Replaces the checkpoint atomically, so an interrupted write leaves the previous one.
+     */
+    void write(File file) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(RESULTS_LENGTH, Long.toString(resultsLength));
+        properties.setProperty(IMAGE_COUNT, Long.toString(imageCount));
+        properties.setProperty(LAST_PATH, lastPath);
+        final File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temporary)) {
+            properties.store(output, "batch detection progress");
+            output.getFD().sync();
+        }
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
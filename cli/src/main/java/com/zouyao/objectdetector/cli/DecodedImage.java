@@ -0,0 +1,79 @@
+package com.zouyao.objectdetector.cli;
+
+/**
+ * An image ready for the detector, or the reason it could not be decoded. Immutable.
+ */
+final class DecodedImage {
+
+    private final String path;
+    private final byte[] rgb;
+    private final int contentWidth;
+    private final int contentHeight;
+    private final int width;
+    private final int height;
+    private final String error;
+
+    /**
+     * @param rgb the letterboxed detector input.
+     * @param contentWidth width of the image area inside the input.
+     * @param contentHeight height of the image area inside the input.
+     * @param width width of the upright image at full resolution, before subsampling.
+     * @param height height of the upright image at full resolution, before subsampling.
+     */
+    DecodedImage(String path, byte[] rgb, int contentWidth, int contentHeight,
+                 int width, int height) {
+        this.path = path;
+        this.rgb = rgb;
+        this.contentWidth = contentWidth;
+        this.contentHeight = contentHeight;
+        this.width = width;
+        this.height = height;
+        this.error = null;
+    }
+
+    private DecodedImage(String path, String error) {
+        this.path = path;
+        this.rgb = null;
+        this.contentWidth = 0;
+        this.contentHeight = 0;
+        this.width = 0;
+        this.height = 0;
+        this.error = error;
+    }
+
+    static DecodedImage failed(String path, Throwable cause) {
+        return new DecodedImage(path, cause.getMessage() != null
+                ? cause.getMessage() : cause.getClass().getSimpleName());
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    byte[] getRgb() {
+        return rgb;
+    }
+
+    int getContentWidth() {
+        return contentWidth;
+    }
+
+    int getContentHeight() {
+        return contentHeight;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return why the image could not be decoded, or {@code null} if it was.
+     */
+    String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,102 @@
+package com.zouyao.objectdetector.cli;
+
+/**
+ * Reads the orientation tag of a JPEG, which photos saved by the app use instead of rotating
+ * their pixels. Only the markers before the image data are scanned.
+ */
+final class ExifOrientation {
+
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    private ExifOrientation() {
+    }
+
+    /**
+     * @return the clockwise rotation, 0, 90, 180 or 270, that makes the image upright. Images
+     *         that are not JPEG, have no orientation or a mirrored one are left as they are.
+     */
+    static int getRotation(byte[] data) {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+            return 0;
+        }
+        int offset = 2;
+        while (offset + 4 <= data.length && (data[offset] & 0xFF) == 0xFF) {
+            final int marker = data[offset + 1] & 0xFF;
+            if (marker == 0xDA || marker == 0xD9) {
+                // Start of scan or end of image, metadata comes before.
+                return 0;
+            }
+            final int length = readShort(data, offset + 2, false);
+            if (marker == 0xE1 && length >= 16 && offset + 10 <= data.length
+                    && isExifHeader(data, offset + 4)) {
+                return toRotation(readOrientation(data, offset + 10,
+                        Math.min(data.length, offset + 2 + length)));
+            }
+            offset += 2 + length;
+        }
+        return 0;
+    }
+
+    private static boolean isExifHeader(byte[] data, int offset) {
+        return data[offset] == 'E' && data[offset + 1] == 'x' && data[offset + 2] == 'i'
+                && data[offset + 3] == 'f' && data[offset + 4] == 0 && data[offset + 5] == 0;
+    }
+
+    /**
+     * @param start start of the TIFF header.
+     * @param end end of the EXIF segment.
+     * @return the orientation tag of the first IFD, or 0 if there is none.
+     */
+    private static int readOrientation(byte[] data, int start, int end) {
+        if (end - start < 8) {
+            return 0;
+        }
+        final boolean littleEndian;
+        if (data[start] == 'I' && data[start + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[start] == 'M' && data[start + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return 0;
+        }
+        final long ifd = readInt(data, start + 4, littleEndian) & 0xFFFFFFFFL;
+        if (ifd < 8 || start + ifd + 2 > end) {
+            return 0;
+        }
+        final int entries = start + (int) ifd + 2;
+        final int count = readShort(data, start + (int) ifd, littleEndian);
+        for (int i = 0; i < count && entries + 12 * (i + 1) <= end; ++i) {
+            final int entry = entries + 12 * i;
+            if (readShort(data, entry, littleEndian) == TAG_ORIENTATION) {
+                // A single SHORT value, stored at the start of the value field.
+                return readShort(data, entry + 8, littleEndian);
+            }
+        }
+        return 0;
+    }
+
+    private static int toRotation(int orientation) {
+        switch (orientation) {
+            case 3:
+                return 180;
+            case 6:
+                return 90;
+            case 8:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        final int b0 = data[offset] & 0xFF;
+        final int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? b1 << 8 | b0 : b0 << 8 | b1;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        final int high = readShort(data, littleEndian ? offset + 2 : offset, littleEndian);
+        final int low = readShort(data, littleEndian ? offset : offset + 2, littleEndian);
+        return high << 16 | low;
+    }
+}
@@ -0,0 +1,156 @@
+package com.zouyao.objectdetector.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.zouyao.objectdetector.inference.DetectionEngine;
+import com.zouyao.objectdetector.inference.InferenceBackend;
+import com.zouyao.objectdetector.inference.ReplayBackend;
+import com.zouyao.objectdetector.inference.TensorRecording;
+import com.zouyao.objectdetector.metrics.FrameMetrics;
+import com.zouyao.objectdetector.metrics.LatencyHistogram;
+import com.zouyao.objectdetector.pipeline.FrameRecording;
+import com.zouyao.objectdetector.pipeline.FrameReplayer;
+import com.zouyao.objectdetector.pipeline.InferenceScheduler;
+import com.zouyao.objectdetector.pipeline.PreviewDetector;
+import com.zouyao.objectdetector.pipeline.PreviewFrame;
+
+/**
+ * Replays preview frames recorded on a device through the detector, to compare frame rate,
+ * latency and dropped frames between builds on the same session.
+ * <p>
+ * Frames run through the same {@link PreviewDetector} as in the app: they are copied into a
+ * frame pool, handed to a scheduler which only keeps the latest frame when the detector falls
+ * behind, then converted from NV21, detected and postprocessed in a staged pipeline. The model
+ * is either run for real or replaced by recorded outputs, to measure everything else.
+ */
+public final class FrameReplay {
+
+    private static final String USAGE = "usage: frame-replay --frames <preview.frames>"
+            + " (--model <graph.pb> | --tensors <outputs.trec> [--latency-ms 0])\n"
+            + "       [--input-size 300] [--pace recorded|max] [--loops 1]";
+
+    private static final float MINIMUM_CONFIDENCE = 0.3f;
+
+    private FrameReplay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final int inputSize = getInt(options, "input-size", 300);
+        final InferenceBackend backend;
+        if (options.containsKey("model")) {
+            backend = new SessionBackend(
+                    Files.readAllBytes(new File(options.get("model")).toPath()));
+        } else {
+            final TensorRecording outputs;
+            try (FileInputStream input = new FileInputStream(options.get("tensors"))) {
+                outputs = TensorRecording.readFrom(input);
+            }
+            backend = new ReplayBackend(outputs,
+                    TimeUnit.MILLISECONDS.toNanos(getInt(options, "latency-ms", 0)));
+        }
+        final DetectionEngine engine = new DetectionEngine(backend, inputSize);
+        int status = 0;
+        try (FrameRecording recording = FrameRecording.open(new File(options.get("frames")))) {
+            final FrameReplayer replayer = new FrameReplayer(recording,
+                    "recorded".equals(options.get("pace")), getInt(options, "loops", 1));
+            replay(replayer, engine, System.out);
+        } catch (IOException e) {
+            System.err.println("frame-replay: " + e.getMessage());
+            status = 1;
+        } finally {
+            engine.close();
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the replayed frames through the detector and prints the frame rate, the dropped
+     * frames and the end-to-end latency.
+     */
+    static void replay(FrameReplayer replayer, DetectionEngine engine, PrintStream out)
+            throws InterruptedException {
+        final FrameMetrics metrics = new FrameMetrics();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final PreviewDetector<Void> detector = PreviewDetector.<Void>getBuilder()
+                .name("FrameReplay")
+                .detector(engine::detect, engine.getInputSize())
+                .minimumConfidence(MINIMUM_CONFIDENCE)
+                .metrics(metrics)
+                .errorListener((source, error) -> failure.compareAndSet(null, error))
+                .build();
+        final InferenceScheduler<PreviewFrame> scheduler = detector.getScheduler();
+
+        final long start = System.nanoTime();
+        try {
+            replayer.run(detector);
+            // Let the detector finish the last frame.
+            while (failure.get() == null
+                    && detector.getDetectedCount() + scheduler.getDroppedCount()
+                    < scheduler.getReceivedCount()) {
+                Thread.sleep(1);
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        } finally {
+            detector.shutdown();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        final LatencyHistogram latency = metrics.getHistogram(FrameMetrics.Stage.END_TO_END);
+        out.printf(Locale.US, "%d frames, %d detected, %d dropped in %.1f s%n",
+                scheduler.getReceivedCount(), detector.getDetectedCount(),
+                scheduler.getDroppedCount(), seconds);
+        out.printf(Locale.US, "%.1f detected frames/sec%n",
+                detector.getDetectedCount() / seconds);
+        out.printf(Locale.US, "frame buffers: %d reused, %d allocated%n",
+                detector.getFramePool().getHitCount(), detector.getFramePool().getMissCount());
+        out.printf(Locale.US, "latency ms: mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                latency.getMeanMillis(), latency.getPercentileMillis(50),
+                latency.getPercentileMillis(90), latency.getPercentileMillis(99),
+                latency.getMaxMillis());
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("unexpected argument " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (!options.containsKey("frames")) {
+            throw new IllegalArgumentException("missing --frames");
+        }
+        if (options.containsKey("model") == options.containsKey("tensors")) {
+            throw new IllegalArgumentException("expected either --model or --tensors");
+        }
+        return options;
+    }
+
+    private static int getInt(Map<String, String> options, String name, int defaultValue) {
+        final String value = options.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,88 @@
+package com.zouyao.objectdetector.cli;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.zouyao.objectdetector.image.ParallelKernels;
+
+/**
+ * Decodes image files into letterboxed detector inputs. Safe to use from several threads,
+ * each image is decoded on the calling thread.
+ * <p>
+ * Large images are subsampled while they are decoded, to at least twice the input size, so a
+ * full-resolution copy is never held. The EXIF orientation of JPEG files is applied, like the
+ * app does for the photos it saves.
+ */
+class ImageDecoder {
+
+    private final int inputSize;
+    // Decoding already runs on one thread per image, so the kernels do not stripe.
+    private final ParallelKernels kernels = ParallelKernels.serial();
+
+    ImageDecoder(int inputSize) {
+        this.inputSize = inputSize;
+    }
+
+    /**
+     * @param path the path reported with the results.
+     * @throws IOException if the file cannot be read or is not a supported image.
+     */
+    DecodedImage decode(String path, File file) throws IOException {
+        final byte[] encoded = Files.readAllBytes(file.toPath());
+        final int[] fullSize = new int[2];
+        final BufferedImage image = read(encoded, fullSize);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        final int rotation = ExifOrientation.getRotation(encoded);
+        final int[] size = new int[2];
+        final int[] upright = kernels.fitInput(
+                pixels, width, 0, 0, width, height, rotation, inputSize, size);
+        final byte[] rgb = new byte[inputSize * inputSize * 3];
+        kernels.letterbox(upright, size[0], size[1], inputSize, rgb, 0);
+
+        // Full-resolution size, so normalized boxes scale back to the pixels of the photo.
+        final boolean transpose = rotation == 90 || rotation == 270;
+        return new DecodedImage(path, rgb, size[0], size[1],
+                transpose ? fullSize[1] : fullSize[0], transpose ? fullSize[0] : fullSize[1]);
+    }
+
+    /**
+     * @param fullSize receives the width and height of the image before subsampling.
+     */
+    private BufferedImage read(byte[] encoded, int[] fullSize) throws IOException {
+        try (ImageInputStream input =
+                     ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("unsupported image format");
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                fullSize[0] = reader.getWidth(0);
+                fullSize[1] = reader.getHeight(0);
+                final int longSide = Math.max(fullSize[0], fullSize[1]);
+                int subsampling = 1;
+                while (longSide / (subsampling * 2) >= 2 * inputSize) {
+                    subsampling *= 2;
+                }
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
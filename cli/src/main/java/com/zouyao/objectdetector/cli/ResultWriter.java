@@ -0,0 +1,139 @@
+package com.zouyao.objectdetector.cli;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import com.zouyao.objectdetector.Detections;
+import com.zouyao.objectdetector.LabelTable;
+
+/**
+ * Appends one JSON object per image to a results file, e.g.
+ * <pre>
+ * {"path":"2018/a.jpg","width":1600,"height":1200,"detections":[
+ *     {"classId":18,"label":"dog","score":0.9120,"box":[0.1030,0.2110,0.5540,0.8700]}]}
+ * {"path":"2018/b.jpg","error":"unsupported image format"}
+ * </pre>
+ * without the line breaks inside an object. Width and height are those of the upright image at
+ * full resolution. Boxes are left, top, right and bottom, normalized to the upright image.
+ */
+class ResultWriter implements Closeable {
+
+    private final FileOutputStream output;
+    private final Writer writer;
+    private final LabelTable labels;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * Opens the results file, keeping its first {@code length} bytes and dropping the rest.
+     */
+    ResultWriter(File file, long length, LabelTable labels) throws IOException {
+        this.output = new FileOutputStream(file, true);
+        this.labels = labels;
+        try {
+            if (output.getChannel().size() < length) {
+                throw new IOException(file + " is shorter than its checkpoint");
+            }
+            output.getChannel().truncate(length);
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+        this.writer = new BufferedWriter(
+                new OutputStreamWriter(output, Charset.forName("UTF-8")), 64 * 1024);
+    }
+
+    /**
+     * @param detections with locations normalized to the upright image, sorted by score.
+     * @param minimumConfidence only detections at least this confident are written.
+     */
+    void write(DecodedImage image, Detections detections, float minimumConfidence)
+            throws IOException {
+        line.setLength(0);
+        line.append("{\"path\":");
+        appendString(image.getPath());
+        if (image.getError() != null) {
+            line.append(",\"error\":");
+            appendString(image.getError());
+        } else {
+            line.append(",\"width\":").append(image.getWidth())
+                    .append(",\"height\":").append(image.getHeight())
+                    .append(",\"detections\":[");
+            for (int i = 0; i < detections.size()
+                    && detections.getScore(i) >= minimumConfidence; ++i) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                final int classId = detections.getClassId(i);
+                line.append("{\"classId\":").append(classId).append(",\"label\":");
+                appendString(labels.getLabel(classId));
+                line.append(",\"score\":").append(format(detections.getScore(i)))
+                        .append(",\"box\":[")
+                        .append(format(detections.getLeft(i))).append(',')
+                        .append(format(detections.getTop(i))).append(',')
+                        .append(format(detections.getRight(i))).append(',')
+                        .append(format(detections.getBottom(i))).append("]}");
+            }
+            line.append(']');
+        }
+        line.append("}\n");
+        writer.append(line);
+    }
+
+    /**
+     * Writes everything buffered to the disk.
+     *
+     * @return the length of the results file, all of it complete lines.
+     */
+    long sync() throws IOException {
+        writer.flush();
+        output.getFD().sync();
+        return output.getChannel().size();
+    }
+
+    private static String format(float value) {
+        return String.format(Locale.US, "%.4f", value);
+    }
+
+    private void appendString(String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,100 @@
+package com.zouyao.objectdetector.cli;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.zouyao.objectdetector.inference.InferenceBackend;
+
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.types.UInt8;
+
+/**
+ * {@link InferenceBackend} running a TensorFlow graph in a desktop JVM session, the
+ * counterpart of the app's {@code TensorFlowBackend} for tools that run off the device.
+ */
+public class SessionBackend implements InferenceBackend {
+
+    private final Graph graph;
+    private final Session session;
+    private final List<String> feedNames = new ArrayList<>();
+    private final List<Tensor<?>> feedTensors = new ArrayList<>();
+    private final Map<String, Tensor<?>> outputs = new HashMap<>();
+
+    /**
+     * @param graphDef the serialized model GraphDef protocol buffer.
+     */
+    public SessionBackend(byte[] graphDef) {
+        graph = new Graph();
+        graph.importGraphDef(graphDef);
+        session = new Session(graph);
+    }
+
+    @Override
+    public void feed(String inputName, byte[] values, long... dims) {
+        feed(inputName, ByteBuffer.wrap(values), dims);
+    }
+
+    @Override
+    public void feed(String inputName, ByteBuffer values, long... dims) {
+        feedNames.add(inputName);
+        feedTensors.add(Tensor.create(UInt8.class, dims, values));
+    }
+
+    @Override
+    public void run(String[] outputNames) {
+        closeOutputs();
+        try {
+            final Session.Runner runner = session.runner();
+            for (int i = 0; i < feedNames.size(); ++i) {
+                runner.feed(feedNames.get(i), feedTensors.get(i));
+            }
+            for (String outputName : outputNames) {
+                runner.fetch(outputName);
+            }
+            final List<Tensor<?>> results = runner.run();
+            for (int i = 0; i < outputNames.length; ++i) {
+                outputs.put(outputNames[i], results.get(i));
+            }
+        } finally {
+            for (Tensor<?> tensor : feedTensors) {
+                tensor.close();
+            }
+            feedNames.clear();
+            feedTensors.clear();
+        }
+    }
+
+    @Override
+    public void fetch(String outputName, float[] values) {
+        fetch(outputName, FloatBuffer.wrap(values));
+    }
+
+    @Override
+    public void fetch(String outputName, FloatBuffer values) {
+        final Tensor<?> output = outputs.get(outputName);
+        if (output == null) {
+            throw new IllegalArgumentException("Output '" + outputName + "' was not run");
+        }
+        output.writeTo(values);
+    }
+
+    private void closeOutputs() {
+        for (Tensor<?> tensor : outputs.values()) {
+            tensor.close();
+        }
+        outputs.clear();
+    }
+
+    @Override
+    public void close() {
+        closeOutputs();
+        session.close();
+        graph.close();
+    }
+}
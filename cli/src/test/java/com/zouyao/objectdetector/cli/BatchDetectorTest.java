@@ -0,0 +1,193 @@
+package com.zouyao.objectdetector.cli;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import com.zouyao.objectdetector.LabelTable;
+import com.zouyao.objectdetector.inference.DetectionEngine;
+import com.zouyao.objectdetector.inference.InferenceBackend;
+
+import static org.junit.Assert.*;
+
+public class BatchDetectorTest {
+
+    private static final int INPUT_SIZE = 32;
+
+    private File root;
+    private File output;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("images").toFile();
+        output = new File(root, "results.jsonl");
+        writeImage("a.png", 40, 30);
+        writeImage("sub/b.png", 30, 40);
+        writeImage("sub/d.png", 40, 30);
+        try (FileOutputStream out = new FileOutputStream(new File(root, "sub/c.jpg"))) {
+            out.write(new byte[] {1, 2, 3});
+        }
+        assertTrue(new File(root, "notes.txt").createNewFile());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(root);
+    }
+
+    @Test
+    public void listsImagesInPathOrder() throws Exception {
+        assertEquals(Arrays.asList("a.png", "sub/b.png", "sub/c.jpg", "sub/d.png"),
+                BatchDetector.listImages(root));
+    }
+
+    @Test
+    public void writesOneLinePerImage() throws Exception {
+        assertEquals(4, build(new FakeBackend(-1)).run(root, output));
+
+        List<String> lines = Files.readAllLines(output.toPath(), Charset.forName("UTF-8"));
+        assertEquals(4, lines.size());
+        assertEquals("{\"path\":\"a.png\",\"width\":40,\"height\":30,\"detections\":["
+                + "{\"classId\":1,\"label\":\"person\",\"score\":0.9000,"
+                + "\"box\":[0.1250,0.3333,0.2500,0.6667]}]}", lines.get(0));
+        assertTrue(lines.get(2).startsWith("{\"path\":\"sub/c.jpg\",\"error\":"));
+        assertTrue(lines.get(3).startsWith("{\"path\":\"sub/d.png\",\"width\":40"));
+        assertEquals(4, Checkpoint.read(BatchDetector.getCheckpointFile(output))
+                .getImageCount());
+    }
+
+    @Test
+    public void resumesAfterTheLastCheckpoint() throws Exception {
+        try {
+            build(new FakeBackend(1)).run(root, output);
+            fail();
+        } catch (IllegalStateException expected) {
+            // The second batch failed, the first one was checkpointed.
+        }
+        Checkpoint checkpoint = Checkpoint.read(BatchDetector.getCheckpointFile(output));
+        assertEquals(2, checkpoint.getImageCount());
+        assertEquals("sub/b.png", checkpoint.getLastPath());
+
+        assertEquals(2, build(new FakeBackend(-1)).run(root, output));
+        List<String> lines = Files.readAllLines(output.toPath(), Charset.forName("UTF-8"));
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(1).startsWith("{\"path\":\"sub/b.png\""));
+        assertTrue(lines.get(2).startsWith("{\"path\":\"sub/c.jpg\""));
+
+        // Nothing is left to do.
+        assertEquals(0, build(new FakeBackend(-1)).run(root, output));
+    }
+
+    private BatchDetector build(InferenceBackend backend) {
+        return BatchDetector.getBuilder()
+                .engine(new DetectionEngine(backend, INPUT_SIZE))
+                .labels(new LabelTable(Arrays.asList("???", "person")))
+                .batchSize(2)
+                .ioThreads(2)
+                .prefetch(2)
+                .checkpointInterval(1)
+                .log(new PrintStream(new ByteArrayOutputStream()))
+                .build();
+    }
+
+    private void writeImage(String path, int width, int height) throws Exception {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        assertTrue(ImageIO.write(image, "png", file));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Finds one person per image, at the same place in input coordinates.
+     */
+    private static class FakeBackend implements InferenceBackend {
+        private final int failAfterRuns;
+        private int runs = 0;
+        private int batchSize = 0;
+
+        /**
+         * @param failAfterRuns runs that succeed before the backend fails, or -1 for all.
+         */
+        FakeBackend(int failAfterRuns) {
+            this.failAfterRuns = failAfterRuns;
+        }
+
+        @Override
+        public void feed(String inputName, byte[] values, long... dims) {
+            batchSize = (int) dims[0];
+        }
+
+        @Override
+        public void feed(String inputName, ByteBuffer values, long... dims) {
+            batchSize = (int) dims[0];
+        }
+
+        @Override
+        public void run(String[] outputNames) {
+            if (failAfterRuns >= 0 && runs >= failAfterRuns) {
+                throw new IllegalStateException("backend failed");
+            }
+            runs++;
+        }
+
+        @Override
+        public void fetch(String outputName, float[] values) {
+            fetch(outputName, FloatBuffer.wrap(values));
+        }
+
+        @Override
+        public void fetch(String outputName, FloatBuffer values) {
+            int stride = values.remaining() / batchSize;
+            for (int i = 0; i < batchSize; ++i) {
+                int start = values.position() + i * stride;
+                switch (outputName) {
+                    case DetectionEngine.OUTPUT_BOXES:
+                        // ymin, xmin, ymax, xmax
+                        values.put(start, 0.25f);
+                        values.put(start + 1, 0.125f);
+                        values.put(start + 2, 0.5f);
+                        values.put(start + 3, 0.25f);
+                        break;
+                    case DetectionEngine.OUTPUT_SCORES:
+                        values.put(start, 0.9f);
+                        break;
+                    case DetectionEngine.OUTPUT_CLASSES:
+                        values.put(start, 1f);
+                        break;
+                    default:
+                        values.put(start, 1f);
+                        break;
+                }
+            }
+            values.position(values.limit());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.zouyao.objectdetector.cli;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExifOrientationTest {
+
+    @Test
+    public void readsBigEndianOrientation() throws Exception {
+        assertEquals(90, ExifOrientation.getRotation(jpeg(false, 6)));
+        assertEquals(180, ExifOrientation.getRotation(jpeg(false, 3)));
+    }
+
+    @Test
+    public void readsLittleEndianOrientation() throws Exception {
+        assertEquals(270, ExifOrientation.getRotation(jpeg(true, 8)));
+        assertEquals(0, ExifOrientation.getRotation(jpeg(true, 1)));
+    }
+
+    @Test
+    public void ignoresOtherImages() throws Exception {
+        assertEquals(0, ExifOrientation.getRotation(new byte[] {(byte) 0x89, 'P', 'N', 'G'}));
+        assertEquals(0, ExifOrientation.getRotation(new byte[] {
+                (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2}));
+        byte[] truncated = jpeg(false, 6);
+        assertEquals(0, ExifOrientation.getRotation(
+                java.util.Arrays.copyOf(truncated, truncated.length - 12)));
+    }
+
+    /**
+     * @return the start of a JPEG with an EXIF segment holding only the orientation.
+     */
+    private static byte[] jpeg(boolean littleEndian, int orientation) {
+        byte[] tiff = {
+                0, 0, 0, 42, 0, 0, 0, 8,
+                // One IFD entry: tag, type SHORT, count 1, value.
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0};
+        if (littleEndian) {
+            tiff[0] = 'I';
+            tiff[1] = 'I';
+            swap(tiff, 2, 2);
+            swap(tiff, 4, 4);
+            swap(tiff, 8, 2);
+            swap(tiff, 10, 2);
+            swap(tiff, 12, 2);
+            swap(tiff, 14, 4);
+            swap(tiff, 18, 2);
+        } else {
+            tiff[0] = 'M';
+            tiff[1] = 'M';
+        }
+        int length = 2 + 6 + tiff.length;
+        byte[] jpeg = new byte[4 + length];
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        jpeg[2] = (byte) 0xFF;
+        jpeg[3] = (byte) 0xE1;
+        jpeg[4] = (byte) (length >> 8);
+        jpeg[5] = (byte) length;
+        System.arraycopy("Exif\0\0".getBytes(), 0, jpeg, 6, 6);
+        System.arraycopy(tiff, 0, jpeg, 12, tiff.length);
+        return jpeg;
+    }
+
+    private static void swap(byte[] data, int offset, int length) {
+        for (int i = 0; i < length / 2; ++i) {
+            byte b = data[offset + i];
+            data[offset + i] = data[offset + length - 1 - i];
+            data[offset + length - 1 - i] = b;
+        }
+    }
+}
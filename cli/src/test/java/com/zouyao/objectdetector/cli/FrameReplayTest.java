@@ -0,0 +1,70 @@
+package com.zouyao.objectdetector.cli;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.zouyao.objectdetector.inference.DetectionEngine;
+import com.zouyao.objectdetector.inference.ReplayBackend;
+import com.zouyao.objectdetector.inference.TensorRecording;
+import com.zouyao.objectdetector.pipeline.FrameRecorder;
+import com.zouyao.objectdetector.pipeline.FrameRecording;
+import com.zouyao.objectdetector.pipeline.FrameReplayer;
+
+import static org.junit.Assert.*;
+
+public class FrameReplayTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("preview", ".frames");
+        try (FrameRecorder recorder = new FrameRecorder(file, null)) {
+            for (int i = 0; i < 10; ++i) {
+                recorder.onFrame(new byte[WIDTH * HEIGHT * 3 / 2], WIDTH, HEIGHT, 90,
+                        i * 1_000_000L);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void everyFrameIsDetectedOrDropped() throws Exception {
+        Map<String, float[]> run = new LinkedHashMap<>();
+        run.put(DetectionEngine.OUTPUT_BOXES, new float[] {0.1f, 0.1f, 0.5f, 0.5f});
+        run.put(DetectionEngine.OUTPUT_SCORES, new float[] {0.9f});
+        run.put(DetectionEngine.OUTPUT_CLASSES, new float[] {1f});
+        run.put(DetectionEngine.OUTPUT_NUM_DETECTIONS, new float[] {1f});
+        TensorRecording outputs = new TensorRecording();
+        outputs.addRun(run);
+        DetectionEngine engine = new DetectionEngine(new ReplayBackend(outputs, 2_000_000L), 32);
+
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        try (FrameRecording recording = FrameRecording.open(file)) {
+            FrameReplay.replay(new FrameReplayer(recording, true, 2), engine,
+                    new PrintStream(report, true));
+        }
+        String text = report.toString();
+        assertTrue(text, text.startsWith("20 frames, "));
+        // A frame takes twice the frame interval, so frames were dropped but not all of them.
+        assertFalse(text, text.contains(" 0 dropped"));
+        assertFalse(text, text.contains(" 0 detected"));
+        assertTrue(text, text.contains("latency ms: mean "));
+        // Only the frames in flight at once were ever allocated.
+        assertTrue(text, text.matches("(?s).* reused, [123] allocated.*"));
+    }
+}
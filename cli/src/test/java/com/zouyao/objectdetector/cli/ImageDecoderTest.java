@@ -0,0 +1,38 @@
+package com.zouyao.objectdetector.cli;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class ImageDecoderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("large", ".png");
+        ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), "png", file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void subsampledImage_reportsItsFullSize() throws Exception {
+        // Decoded at a quarter of its size for a 32 pixel input.
+        DecodedImage image = new ImageDecoder(32).decode("large.png", file);
+        assertEquals(400, image.getWidth());
+        assertEquals(300, image.getHeight());
+        assertEquals(32, image.getContentWidth());
+        assertEquals(24, image.getContentHeight());
+    }
+}
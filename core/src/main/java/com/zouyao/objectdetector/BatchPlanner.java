@@ -0,0 +1,39 @@
+package com.zouyao.objectdetector;
+
+/**
+ * Picks how many images to pack into one batched detector run.
+ */
+public final class BatchPlanner {
+
+    /**
+     * Upper bound on the batch size, larger batches stop paying off on mobile CPUs.
+     */
+    public static final int MAX_BATCH_SIZE = 16;
+
+    private BatchPlanner() {
+    }
+
+    /**
+     * @return bytes one image takes in a batched run: its RGB input, which is copied once more
+     *         into the native tensor, plus its boxes, scores, classes and detection count.
+     */
+    public static long bytesPerImage(int inputSize, int maxDetections) {
+        final long input = (long) inputSize * inputSize * 3;
+        final long output = (long) maxDetections * (Detections.BOX_STRIDE + 2) * 4 + 4;
+        return 2 * input + output;
+    }
+
+    /**
+     * @param imageCount number of images waiting to be processed.
+     * @param inputSize width and height of the detector input.
+     * @param maxDetections number of detections the model emits per image.
+     * @param memoryBudgetBytes memory the tensors of one run may use.
+     * @return the batch size, at least 1 even if a single image exceeds the budget.
+     */
+    public static int batchSize(int imageCount, int inputSize, int maxDetections,
+                                long memoryBudgetBytes) {
+        final long fitting = memoryBudgetBytes / bytesPerImage(inputSize, maxDetections);
+        final long limit = Math.min(MAX_BATCH_SIZE, Math.max(1, imageCount));
+        return (int) Math.max(1, Math.min(limit, fitting));
+    }
+}
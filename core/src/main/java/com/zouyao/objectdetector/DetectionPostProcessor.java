@@ -0,0 +1,197 @@
+package com.zouyao.objectdetector;
+
+/**
+ * Filters raw {@link Detections} in place: drops low scores, removes overlapping boxes with
+ * greedy non-maximum suppression and keeps the best {@code maxResults}.
+ * <p>
+ * Candidates are picked by partial selection, one best remaining candidate at a time, and
+ * selection stops as soon as enough detections survived, so only the visited prefix is ever
+ * ordered. All scratch memory is allocated up front; instances are not thread-safe.
+ * <p>
+ * Use {@link #getBuilder()} to create a new instance.
+ */
+public class DetectionPostProcessor {
+
+    private final float minimumConfidence;
+    private final float iouThreshold;
+    private final int maxResults;
+    private final boolean classAgnostic;
+
+    private final int[] candidates;
+    private final int[] kept;
+    private final Detections scratch;
+
+    private DetectionPostProcessor(Builder builder) {
+        minimumConfidence = builder.minimumConfidence;
+        iouThreshold = builder.iouThreshold;
+        maxResults = builder.maxResults;
+        classAgnostic = builder.classAgnostic;
+        candidates = new int[builder.capacity];
+        kept = new int[builder.capacity];
+        scratch = new Detections(builder.capacity);
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Replaces the content of {@code detections} with the surviving detections, sorted by
+     * descending confidence.
+     */
+    public void process(Detections detections) {
+        if (detections.size() > candidates.length) {
+            throw new IllegalArgumentException("More detections than capacity: "
+                    + detections.size() + " > " + candidates.length);
+        }
+        // Drop low scores before anything else touches them.
+        int candidateCount = 0;
+        for (int i = 0; i < detections.size(); ++i) {
+            if (detections.getScore(i) >= minimumConfidence) {
+                candidates[candidateCount++] = i;
+            }
+        }
+
+        int keptCount = 0;
+        for (int next = 0; next < candidateCount && keptCount < maxResults; ++next) {
+            selectBest(detections, next, candidateCount);
+            final int candidate = candidates[next];
+            if (!isSuppressed(detections, candidate, keptCount)) {
+                kept[keptCount++] = candidate;
+            }
+        }
+
+        scratch.clear();
+        for (int i = 0; i < keptCount; ++i) {
+            final int index = kept[i];
+            scratch.add(detections.getClassId(index), detections.getScore(index),
+                    detections.getLeft(index), detections.getTop(index),
+                    detections.getRight(index), detections.getBottom(index));
+        }
+        detections.copyFrom(scratch);
+    }
+
+    /**
+     * Moves the best candidate of {@code candidates[from, to)} to {@code from}.
+     */
+    private void selectBest(Detections detections, int from, int to) {
+        int best = from;
+        float bestScore = detections.getScore(candidates[from]);
+        for (int i = from + 1; i < to; ++i) {
+            final float score = detections.getScore(candidates[i]);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        final int swap = candidates[from];
+        candidates[from] = candidates[best];
+        candidates[best] = swap;
+    }
+
+    private boolean isSuppressed(Detections detections, int candidate, int keptCount) {
+        final int classId = detections.getClassId(candidate);
+        for (int i = 0; i < keptCount; ++i) {
+            final int other = kept[i];
+            if ((classAgnostic || detections.getClassId(other) == classId)
+                    && intersectionOverUnion(detections, candidate, other) > iouThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return intersection over union of the boxes of two detections, 0 if either is empty.
+     */
+    public static float intersectionOverUnion(Detections detections, int a, int b) {
+        return intersectionOverUnion(
+                detections.getLeft(a), detections.getTop(a),
+                detections.getRight(a), detections.getBottom(a),
+                detections.getLeft(b), detections.getTop(b),
+                detections.getRight(b), detections.getBottom(b));
+    }
+
+    /**
+     * @return intersection over union of two boxes, 0 if either is empty.
+     */
+    public static float intersectionOverUnion(
+            float leftA, float topA, float rightA, float bottomA,
+            float leftB, float topB, float rightB, float bottomB) {
+        final float left = Math.max(leftA, leftB);
+        final float top = Math.max(topA, topB);
+        final float right = Math.min(rightA, rightB);
+        final float bottom = Math.min(bottomA, bottomB);
+        if (right <= left || bottom <= top) {
+            return 0f;
+        }
+        final float intersection = (right - left) * (bottom - top);
+        final float union = area(leftA, topA, rightA, bottomA)
+                + area(leftB, topB, rightB, bottomB) - intersection;
+        return union <= 0f ? 0f : intersection / union;
+    }
+
+    private static float area(float left, float top, float right, float bottom) {
+        return Math.max(0f, right - left) * Math.max(0f, bottom - top);
+    }
+
+    /**
+     * Builder for {@link DetectionPostProcessor}.
+     */
+    public static class Builder {
+
+        private int capacity = Detections.MAX_DETECTIONS;
+        private float minimumConfidence = 0f;
+        private float iouThreshold = 0.5f;
+        private int maxResults = Detections.MAX_DETECTIONS;
+        private boolean classAgnostic = false;
+
+        private Builder() {
+        }
+
+        /**
+         * @param capacity the largest number of detections that will be processed.
+         */
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param minimumConfidence detections scoring lower are dropped.
+         */
+        public Builder minimumConfidence(float minimumConfidence) {
+            this.minimumConfidence = minimumConfidence;
+            return this;
+        }
+
+        /**
+         * @param iouThreshold a detection overlapping a better one by more than this
+         *                     intersection over union is suppressed.
+         */
+        public Builder iouThreshold(float iouThreshold) {
+            this.iouThreshold = iouThreshold;
+            return this;
+        }
+
+        /**
+         * @param maxResults the number of detections to keep at most.
+         */
+        public Builder maxResults(int maxResults) {
+            this.maxResults = maxResults;
+            return this;
+        }
+
+        /**
+         * @param classAgnostic whether boxes of different classes suppress each other.
+         */
+        public Builder classAgnostic(boolean classAgnostic) {
+            this.classAgnostic = classAgnostic;
+            return this;
+        }
+
+        public DetectionPostProcessor build() {
+            return new DetectionPostProcessor(this);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.zouyao.objectdetector;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Flat container for detector output, reused between frames instead of allocating
+ * {@link Recognition} objects for every raw detection.
+ * <p>
+ * Locations are stored as {@code left, top, right, bottom} quadruples in detector input pixels,
+ * until {@link #scaleLocations(float, float)} maps them elsewhere.
+ * Instances are not thread-safe.
+ */
+public class Detections {
+    /**
+     * Number of detections the SSD models emit per image.
+     */
+    public static final int MAX_DETECTIONS = 100;
+    public static final int BOX_STRIDE = 4;
+
+    private final float[] locations;
+    private final float[] scores;
+    private final int[] classes;
+    private int count;
+
+    public Detections(int capacity) {
+        this.locations = new float[capacity * BOX_STRIDE];
+        this.scores = new float[capacity];
+        this.classes = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return scores.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    public int getClassId(int index) {
+        return classes[index];
+    }
+
+    public float getLeft(int index) {
+        return locations[index * BOX_STRIDE];
+    }
+
+    public float getTop(int index) {
+        return locations[index * BOX_STRIDE + 1];
+    }
+
+    public float getRight(int index) {
+        return locations[index * BOX_STRIDE + 2];
+    }
+
+    public float getBottom(int index) {
+        return locations[index * BOX_STRIDE + 3];
+    }
+
+    /**
+     * Appends a detection.
+     *
+     * @throws IllegalStateException if the container is full.
+     */
+    public void add(int classId, float score, float left, float top, float right, float bottom) {
+        if (count == scores.length) {
+            throw new IllegalStateException("Detections is full: " + count);
+        }
+        set(count++, classId, score, left, top, right, bottom);
+    }
+
+    /**
+     * Loads the raw {@code detection_boxes}, {@code detection_scores} and
+     * {@code detection_classes} outputs of the model and sorts them by descending score.
+     *
+     * @param outputLocations normalized {@code ymin, xmin, ymax, xmax} quadruples.
+     * @param outputScores detection scores.
+     * @param outputClasses class ids, as floats.
+     * @param numDetections how many leading entries of the outputs are valid.
+     * @param inputSize the detector input size the boxes are scaled to.
+     */
+    public void setFromOutputs(float[] outputLocations, float[] outputScores,
+                               float[] outputClasses, int numDetections, int inputSize) {
+        setFromOutputs(outputLocations, outputScores, outputClasses, 0, numDetections, inputSize);
+    }
+
+    /**
+     * Same as {@link #setFromOutputs(float[], float[], float[], int, int)} for one image of a
+     * batched run, whose detections start at index {@code offset} of the outputs.
+     */
+    public void setFromOutputs(float[] outputLocations, float[] outputScores,
+                               float[] outputClasses, int offset, int numDetections,
+                               int inputSize) {
+        count = Math.min(numDetections, scores.length);
+        for (int i = 0; i < count; ++i) {
+            final int j = offset + i;
+            set(i, (int) outputClasses[j], outputScores[j],
+                    outputLocations[4 * j + 1] * inputSize,
+                    outputLocations[4 * j] * inputSize,
+                    outputLocations[4 * j + 3] * inputSize,
+                    outputLocations[4 * j + 2] * inputSize);
+        }
+        sortByScore();
+    }
+
+    /**
+     * Same as {@link #setFromOutputs(float[], float[], float[], int, int, int)} for outputs
+     * fetched into buffers, e.g. direct buffers filled by the inference backend. Values are
+     * read by absolute index, the buffer positions are ignored.
+     */
+    public void setFromOutputs(FloatBuffer outputLocations, FloatBuffer outputScores,
+                               FloatBuffer outputClasses, int offset, int numDetections,
+                               int inputSize) {
+        count = Math.min(numDetections, scores.length);
+        for (int i = 0; i < count; ++i) {
+            final int j = offset + i;
+            set(i, (int) outputClasses.get(j), outputScores.get(j),
+                    outputLocations.get(4 * j + 1) * inputSize,
+                    outputLocations.get(4 * j) * inputSize,
+                    outputLocations.get(4 * j + 3) * inputSize,
+                    outputLocations.get(4 * j + 2) * inputSize);
+        }
+        sortByScore();
+    }
+
+    /**
+     * Sorts detections by descending score in place.
+     * <p>
+     * The model already emits its detections nearly sorted, so an insertion sort runs in close
+     * to linear time and needs no scratch memory.
+     */
+    public void sortByScore() {
+        for (int i = 1; i < count; ++i) {
+            for (int j = i; j > 0 && scores[j - 1] < scores[j]; --j) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    /**
+     * Multiplies all locations, e.g. by {@code 1 / width} and {@code 1 / height} to make them
+     * relative to the image area inside the detector input.
+     */
+    public void scaleLocations(float scaleX, float scaleY) {
+        final int end = count * BOX_STRIDE;
+        for (int offset = 0; offset < end; offset += BOX_STRIDE) {
+            locations[offset] *= scaleX;
+            locations[offset + 1] *= scaleY;
+            locations[offset + 2] *= scaleX;
+            locations[offset + 3] *= scaleY;
+        }
+    }
+
+    /**
+     * Adds an offset to all locations, e.g. to map them from a cropped region back to the
+     * whole image.
+     */
+    public void translateLocations(float offsetX, float offsetY) {
+        final int end = count * BOX_STRIDE;
+        for (int offset = 0; offset < end; offset += BOX_STRIDE) {
+            locations[offset] += offsetX;
+            locations[offset + 1] += offsetY;
+            locations[offset + 2] += offsetX;
+            locations[offset + 3] += offsetY;
+        }
+    }
+
+    public void copyFrom(Detections other) {
+        if (other.count > scores.length) {
+            throw new IllegalArgumentException("Not enough capacity to copy " + other.count);
+        }
+        count = other.count;
+        System.arraycopy(other.scores, 0, scores, 0, count);
+        System.arraycopy(other.classes, 0, classes, 0, count);
+        System.arraycopy(other.locations, 0, locations, 0, count * BOX_STRIDE);
+    }
+
+    private void set(int index, int classId, float score,
+                     float left, float top, float right, float bottom) {
+        classes[index] = classId;
+        scores[index] = score;
+        final int offset = index * BOX_STRIDE;
+        locations[offset] = left;
+        locations[offset + 1] = top;
+        locations[offset + 2] = right;
+        locations[offset + 3] = bottom;
+    }
+
+    private void swap(int i, int j) {
+        final float score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+        final int classId = classes[i];
+        classes[i] = classes[j];
+        classes[j] = classId;
+        final int a = i * BOX_STRIDE;
+        final int b = j * BOX_STRIDE;
+        for (int k = 0; k < BOX_STRIDE; ++k) {
+            final float value = locations[a + k];
+            locations[a + k] = locations[b + k];
+            locations[b + k] = value;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.zouyao.objectdetector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable mapping between the class ids a model emits and their labels, one label per line
+ * of the label file, the first line being class id 0.
+ * <p>
+ * Labels are interned, so they can be compared by reference and every detector sharing a
+ * table shares the strings. Safe to use from any thread without locking.
+ */
+public final class LabelTable {
+
+    /**
+     * Label of class ids the table does not know.
+     */
+    public static final String UNKNOWN_LABEL = "???";
+
+    private final String[] labels;
+    private final Map<String, Integer> classIds;
+
+    public LabelTable(List<String> labels) {
+        this.labels = new String[labels.size()];
+        this.classIds = new HashMap<>(labels.size() * 2);
+        for (int i = 0; i < this.labels.length; ++i) {
+            final String label = labels.get(i).intern();
+            this.labels[i] = label;
+            if (!classIds.containsKey(label)) {
+                classIds.put(label, i);
+            }
+        }
+    }
+
+    /**
+     * Reads a label file in UTF-8 and closes the stream.
+     */
+    public static LabelTable read(InputStream input) throws IOException {
+        final List<String> labels = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(input, Charset.forName("UTF-8")))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                labels.add(line.trim());
+            }
+        }
+        return new LabelTable(labels);
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * @return the label of {@code classId}, or {@link #UNKNOWN_LABEL} if out of range.
+     */
+    public String getLabel(int classId) {
+        return classId >= 0 && classId < labels.length ? labels[classId] : UNKNOWN_LABEL;
+    }
+
+    /**
+     * @return the first class id with this label, or -1 if there is none.
+     */
+    public int getClassId(String label) {
+        final Integer classId = classIds.get(label);
+        return classId != null ? classId : -1;
+    }
+}
@@ -0,0 +1,91 @@
+package com.zouyao.objectdetector;
+
+import java.util.Locale;
+
+/**
+ * Where the time goes between asking for a detector and showing the first detection.
+ * <p>
+ * Phases that run once per detector session, like graph import, add up over all sessions.
+ * Safe to use from any thread.
+ */
+public class StartupTimings {
+
+    public enum Phase {
+        /** Opening and mapping the model file. */
+        ASSET_OPEN,
+        /** Parsing the GraphDef into a graph. */
+        GRAPH_IMPORT,
+        /** Creating the inference session on the graph. */
+        SESSION_CREATE,
+        /** The first inference run of a session, warm-up or not. */
+        FIRST_INFERENCE
+    }
+
+    private static final long NOT_RECORDED = -1;
+
+    private final long startNanos;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private long firstDetectionNanos = NOT_RECORDED;
+
+    /**
+     * Starts the clock for {@link #recordFirstDetection(long)}.
+     */
+    public StartupTimings() {
+        this(System.nanoTime());
+    }
+
+    public StartupTimings(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    public synchronized void record(Phase phase, long durationNanos) {
+        phaseNanos[phase.ordinal()] += durationNanos;
+    }
+
+    /**
+     * Records the time to first detection, only the first call counts.
+     *
+     * @param timestampNanos when the detection was shown, from {@link System#nanoTime()}.
+     * @return {@code true} if this was the first detection.
+     */
+    public synchronized boolean recordFirstDetection(long timestampNanos) {
+        if (firstDetectionNanos != NOT_RECORDED) {
+            return false;
+        }
+        firstDetectionNanos = timestampNanos - startNanos;
+        return true;
+    }
+
+    public synchronized long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return the time from construction to the first detection, or -1 if there was none yet.
+     */
+    public synchronized long getTimeToFirstDetectionNanos() {
+        return firstDetectionNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder("StartupTimings{");
+        for (Phase phase : Phase.values()) {
+            builder.append(phase.name().toLowerCase(Locale.US))
+                    .append('=')
+                    .append(millis(phaseNanos[phase.ordinal()]))
+                    .append("ms, ");
+        }
+        builder.append("first_detection=");
+        if (firstDetectionNanos == NOT_RECORDED) {
+            builder.append("pending");
+        } else {
+            builder.append(millis(firstDetectionNanos)).append("ms");
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.1f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,145 @@
+package com.zouyao.objectdetector;
+
+/**
+ * Splits a large image into overlapping square tiles, each scaled to the detector input, so
+ * that small objects keep enough pixels to be found.
+ * <p>
+ * Tiles start at the detector input size and only grow when the image would otherwise need
+ * more than {@code maxTiles} of them. An extra tile covering the whole image is added by
+ * default, so objects larger than a tile are still found.
+ * <p>
+ * Use {@link #getBuilder()} to create a new instance.
+ */
+public class TilePlanner {
+
+    // Tiles grow by this factor until they fit the tile budget.
+    private static final float GROWTH = 1.25f;
+
+    private final int inputSize;
+    private final float overlap;
+    private final int maxTiles;
+    private final boolean includeFullImage;
+
+    private TilePlanner(Builder builder) {
+        inputSize = builder.inputSize;
+        overlap = builder.overlap;
+        maxTiles = builder.maxTiles;
+        includeFullImage = builder.includeFullImage;
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * @return the tiles of an upright image of the given size.
+     */
+    public Tiling plan(int width, int height) {
+        final int budget = includeFullImage ? maxTiles - 1 : maxTiles;
+        final int longSide = Math.max(width, height);
+        float tileSize = Math.min(inputSize, longSide);
+        int columns = tileCount(width, tileSize);
+        int rows = tileCount(height, tileSize);
+        while (columns * rows > budget && tileSize < longSide) {
+            tileSize = Math.min(tileSize * GROWTH, longSide);
+            columns = tileCount(width, tileSize);
+            rows = tileCount(height, tileSize);
+        }
+
+        final int size = Math.round(tileSize);
+        final boolean single = columns * rows == 1;
+        final Tiling tiling = new Tiling(
+                width, height, inputSize, columns * rows + (includeFullImage && !single ? 1 : 0));
+        if (includeFullImage && !single) {
+            tiling.add(0, 0, width, height);
+        }
+        for (int row = 0; row < rows; ++row) {
+            final int top = position(row, rows, height, size);
+            for (int column = 0; column < columns; ++column) {
+                final int left = position(column, columns, width, size);
+                tiling.add(left, top, Math.min(size, width), Math.min(size, height));
+            }
+        }
+        return tiling;
+    }
+
+    private int tileCount(int length, float tileSize) {
+        if (length <= tileSize) {
+            return 1;
+        }
+        final float stride = tileSize * (1f - overlap);
+        return 1 + (int) Math.ceil((length - tileSize) / stride);
+    }
+
+    /**
+     * Spreads tiles evenly, the first at the start and the last at the end.
+     */
+    private static int position(int index, int count, int length, int size) {
+        if (count == 1) {
+            return 0;
+        }
+        return Math.round(index * (float) (length - size) / (count - 1));
+    }
+
+    /**
+     * Builder for {@link TilePlanner}.
+     */
+    public static class Builder {
+
+        private int inputSize = 300;
+        private float overlap = 0.2f;
+        private int maxTiles = 16;
+        private boolean includeFullImage = true;
+
+        private Builder() {
+        }
+
+        /**
+         * @param inputSize width and height of the detector input, the smallest tile size.
+         */
+        public Builder inputSize(int inputSize) {
+            this.inputSize = inputSize;
+            return this;
+        }
+
+        /**
+         * @param overlap fraction of a tile shared with its neighbours, so objects on a tile
+         *                border are seen whole by at least one tile.
+         */
+        public Builder overlap(float overlap) {
+            if (overlap < 0f || overlap >= 1f) {
+                throw new IllegalArgumentException("overlap must be in [0, 1)");
+            }
+            this.overlap = overlap;
+            return this;
+        }
+
+        /**
+         * @param maxTiles the most tiles to run, including the full image tile.
+         */
+        public Builder maxTiles(int maxTiles) {
+            if (maxTiles < 2) {
+                throw new IllegalArgumentException("maxTiles must be at least 2");
+            }
+            this.maxTiles = maxTiles;
+            return this;
+        }
+
+        /**
+         * @param includeFullImage whether to also detect on the whole image, for objects that
+         *                         do not fit a tile.
+         */
+        public Builder includeFullImage(boolean includeFullImage) {
+            this.includeFullImage = includeFullImage;
+            return this;
+        }
+
+        public TilePlanner build() {
+            return new TilePlanner(this);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.zouyao.objectdetector;
+
+/**
+ * The tiles {@link TilePlanner} picked for one image, and the merge of their detections back
+ * into image coordinates.
+ * <p>
+ * Each tile is a region of the upright image, scaled to fit the detector input with its
+ * aspect kept and placed in the top-left corner, like {@code Utils.getRecognitionResult} does
+ * for whole images.
+ */
+public class Tiling {
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int inputSize;
+    private final int[] rects;
+    private int count;
+
+    Tiling(int imageWidth, int imageHeight, int inputSize, int capacity) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.inputSize = inputSize;
+        this.rects = new int[capacity * 4];
+    }
+
+    void add(int left, int top, int width, int height) {
+        final int offset = 4 * count++;
+        rects[offset] = left;
+        rects[offset + 1] = top;
+        rects[offset + 2] = width;
+        rects[offset + 3] = height;
+    }
+
+    public int getTileCount() {
+        return count;
+    }
+
+    public int getLeft(int tile) {
+        return rects[4 * tile];
+    }
+
+    public int getTop(int tile) {
+        return rects[4 * tile + 1];
+    }
+
+    public int getWidth(int tile) {
+        return rects[4 * tile + 2];
+    }
+
+    public int getHeight(int tile) {
+        return rects[4 * tile + 3];
+    }
+
+    /**
+     * @return the factor a tile is scaled by to fit the detector input.
+     */
+    public float getScale(int tile) {
+        return inputSize / (float) Math.max(getWidth(tile), getHeight(tile));
+    }
+
+    /**
+     * Maps the detections of every tile back to the image, removes the duplicates of objects
+     * seen by several tiles and normalizes the locations to the image size.
+     *
+     * @param tileDetections detections of each tile, in detector input pixels.
+     * @param postProcessor suppresses duplicates across tiles, its capacity must cover the
+     *                      detections of all tiles.
+     * @param out receives the merged detections, sorted by descending confidence.
+     */
+    public void merge(Detections[] tileDetections, DetectionPostProcessor postProcessor,
+                      Detections out) {
+        if (tileDetections.length != count) {
+            throw new IllegalArgumentException("Expected detections for " + count
+                    + " tiles, got " + tileDetections.length);
+        }
+        out.clear();
+        for (int tile = 0; tile < count; ++tile) {
+            final Detections detections = tileDetections[tile];
+            final float scale = 1f / getScale(tile);
+            final float left = getLeft(tile);
+            final float top = getTop(tile);
+            for (int i = 0; i < detections.size(); ++i) {
+                out.add(detections.getClassId(i), detections.getScore(i),
+                        (left + detections.getLeft(i) * scale) / imageWidth,
+                        (top + detections.getTop(i) * scale) / imageHeight,
+                        (left + detections.getRight(i) * scale) / imageWidth,
+                        (top + detections.getBottom(i) * scale) / imageHeight);
+            }
+        }
+        postProcessor.process(out);
+    }
+}
@@ -0,0 +1,255 @@
+package com.zouyao.objectdetector.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pixel loops over primitive arrays and buffers shared by the detector and the benchmarks.
+ * <p>
+ * Kernels taking {@code rowStart} and {@code rowEnd} only write those output rows, so
+ * {@link ParallelKernels} can run disjoint row stripes on several threads. They use integer
+ * arithmetic only, so the result does not depend on how the rows are split.
+ */
+public final class ImageKernels {
+
+    private static final int WHITE = 0xFF;
+
+    private ImageKernels() {
+    }
+
+    /**
+     * Drops the alpha channel of packed ARGB pixels, writing RGB bytes.
+     *
+     * @param argb pixels as returned by {@code Bitmap.getPixels}.
+     * @param pixelCount number of pixels to convert.
+     * @param rgb receives {@code pixelCount * 3} bytes.
+     */
+    public static void unpackArgb(int[] argb, int pixelCount, byte[] rgb) {
+        unpackArgb(argb, pixelCount, rgb, 0);
+    }
+
+    /**
+     * Same as {@link #unpackArgb(int[], int, byte[])}, writing from {@code rgbOffset} on, e.g.
+     * to pack several images into one batch.
+     */
+    public static void unpackArgb(int[] argb, int pixelCount, byte[] rgb, int rgbOffset) {
+        for (int i = 0; i < pixelCount; ++i) {
+            final int pixel = argb[i];
+            final int out = rgbOffset + i * 3;
+            rgb[out + 2] = (byte) (pixel & 0xFF);
+            rgb[out + 1] = (byte) ((pixel >> 8) & 0xFF);
+            rgb[out] = (byte) ((pixel >> 16) & 0xFF);
+        }
+    }
+
+    /**
+     * Same as {@link #unpackArgb(int[], int, byte[])}, writing by absolute index from the
+     * position of {@code rgb}, usually the direct buffer fed to the detector. The position
+     * is left unchanged.
+     */
+    public static void unpackArgb(int[] argb, int pixelCount, ByteBuffer rgb) {
+        final int start = rgb.position();
+        for (int i = 0; i < pixelCount; ++i) {
+            final int pixel = argb[i];
+            final int out = start + i * 3;
+            rgb.put(out, (byte) ((pixel >> 16) & 0xFF));
+            rgb.put(out + 1, (byte) ((pixel >> 8) & 0xFF));
+            rgb.put(out + 2, (byte) (pixel & 0xFF));
+        }
+    }
+
+    /**
+     * Scales a region of an ARGB image with nearest-neighbour sampling. Output pixel
+     * {@code (x, y)} takes the source pixel under its center,
+     * {@code floor((x + 0.5) * srcWidth / dstWidth)}.
+     *
+     * @param srcStride pixels per source row.
+     * @param rowStart first output row to write.
+     * @param rowEnd output row to stop at, exclusive.
+     */
+    public static void resizeNearest(int[] src, int srcStride, int srcLeft, int srcTop,
+                                     int srcWidth, int srcHeight,
+                                     int[] dst, int dstWidth, int dstHeight,
+                                     int rowStart, int rowEnd) {
+        // Exact integer steps of (2x + 1) * srcWidth / (2 * dstWidth).
+        final int denominator = 2 * dstWidth;
+        final int quotientStep = 2 * srcWidth / denominator;
+        final int remainderStep = 2 * srcWidth % denominator;
+        for (int y = rowStart; y < rowEnd; ++y) {
+            final int sy = (int) ((2L * y + 1) * srcHeight / (2L * dstHeight));
+            final int srcRow = (srcTop + sy) * srcStride + srcLeft;
+            int out = y * dstWidth;
+            int sx = srcWidth / denominator;
+            int remainder = srcWidth % denominator;
+            for (int x = 0; x < dstWidth; ++x) {
+                dst[out++] = src[srcRow + sx];
+                sx += quotientStep;
+                remainder += remainderStep;
+                if (remainder >= denominator) {
+                    sx++;
+                    remainder -= denominator;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scales a region of an ARGB image with bilinear filtering, all four channels included.
+     * Sample positions are pixel centers, {@code (x + 0.5) * srcWidth / dstWidth - 0.5},
+     * clamped to the region, with 8-bit fractional weights.
+     *
+     * @see #resizeNearest(int[], int, int, int, int, int, int[], int, int, int, int)
+     */
+    public static void resizeBilinear(int[] src, int srcStride, int srcLeft, int srcTop,
+                                      int srcWidth, int srcHeight,
+                                      int[] dst, int dstWidth, int dstHeight,
+                                      int rowStart, int rowEnd) {
+        // Positions in 1/256 source pixels: (2x + 1) * srcWidth * 256 / (2 * dstWidth) - 128.
+        final int denominator = 2 * dstWidth;
+        final long span = 256L * srcWidth;
+        final int quotientStep = (int) (2 * span / denominator);
+        final int remainderStep = (int) (2 * span % denominator);
+        for (int y = rowStart; y < rowEnd; ++y) {
+            final int fixedY = Math.max(0,
+                    (int) ((2L * y + 1) * 256 * srcHeight / (2L * dstHeight)) - 128);
+            final int y0 = fixedY >> 8;
+            final int fy = fixedY & 0xFF;
+            final int y1 = Math.min(y0 + 1, srcHeight - 1);
+            final int row0 = (srcTop + y0) * srcStride + srcLeft;
+            final int row1 = (srcTop + y1) * srcStride + srcLeft;
+            int out = y * dstWidth;
+            int position = (int) (span / denominator);
+            int remainder = (int) (span % denominator);
+            for (int x = 0; x < dstWidth; ++x) {
+                final int fixedX = Math.max(0, position - 128);
+                final int x0 = fixedX >> 8;
+                final int fx = fixedX & 0xFF;
+                final int x1 = Math.min(x0 + 1, srcWidth - 1);
+                dst[out++] = blend(src[row0 + x0], src[row0 + x1],
+                        src[row1 + x0], src[row1 + x1], fx, fy);
+                position += quotientStep;
+                remainder += remainderStep;
+                if (remainder >= denominator) {
+                    position++;
+                    remainder -= denominator;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param fx weight of the right pixels, out of 256.
+     * @param fy weight of the bottom pixels, out of 256.
+     */
+    private static int blend(int topLeft, int topRight, int bottomLeft, int bottomRight,
+                             int fx, int fy) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            final int top = ((topLeft >>> shift) & 0xFF) * (256 - fx)
+                    + ((topRight >>> shift) & 0xFF) * fx;
+            final int bottom = ((bottomLeft >>> shift) & 0xFF) * (256 - fx)
+                    + ((bottomRight >>> shift) & 0xFF) * fx;
+            final int value = (top * (256 - fy) + bottom * fy + 32768) >> 16;
+            result |= value << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Rotates an ARGB image clockwise. The output is {@code srcHeight} wide for rotations of
+     * 90 and 270, {@code srcWidth} wide otherwise.
+     *
+     * @param rotation 0, 90, 180 or 270.
+     * @param rowStart first output row to write.
+     * @param rowEnd output row to stop at, exclusive.
+     */
+    public static void rotate(int[] src, int srcWidth, int srcHeight, int rotation,
+                              int[] dst, int rowStart, int rowEnd) {
+        final int dstWidth = rotation == 90 || rotation == 270 ? srcHeight : srcWidth;
+        for (int y = rowStart; y < rowEnd; ++y) {
+            int out = y * dstWidth;
+            switch (rotation) {
+                case 90:
+                    // Column y of the source, bottom to top.
+                    for (int in = (srcHeight - 1) * srcWidth + y; in >= 0; in -= srcWidth) {
+                        dst[out++] = src[in];
+                    }
+                    break;
+                case 180:
+                    for (int in = (srcHeight - y) * srcWidth - 1, end = in - srcWidth;
+                         in > end; --in) {
+                        dst[out++] = src[in];
+                    }
+                    break;
+                case 270:
+                    // Column srcWidth - 1 - y of the source, top to bottom.
+                    for (int in = srcWidth - 1 - y; in < srcWidth * srcHeight; in += srcWidth) {
+                        dst[out++] = src[in];
+                    }
+                    break;
+                default:
+                    System.arraycopy(src, y * srcWidth, dst, out, srcWidth);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Places an ARGB image in the top-left corner of a square RGB image and fills the rest
+     * with white, the layout the detector input uses.
+     *
+     * @param outputSize width and height of the output, at least the image size.
+     * @param rgb receives {@code outputSize * outputSize * 3} bytes from {@code rgbOffset} on.
+     * @param rowStart first output row to write.
+     * @param rowEnd output row to stop at, exclusive.
+     */
+    public static void letterbox(int[] argb, int width, int height, int outputSize,
+                                 byte[] rgb, int rgbOffset, int rowStart, int rowEnd) {
+        for (int y = rowStart; y < rowEnd; ++y) {
+            int out = rgbOffset + y * outputSize * 3;
+            int filled = 0;
+            if (y < height) {
+                unpackRow(argb, y * width, width, rgb, out);
+                out += width * 3;
+                filled = width;
+            }
+            for (int end = out + (outputSize - filled) * 3; out < end; ++out) {
+                rgb[out] = (byte) WHITE;
+            }
+        }
+    }
+
+    private static void unpackRow(int[] argb, int start, int count, byte[] rgb, int rgbOffset) {
+        for (int i = 0; i < count; ++i) {
+            final int pixel = argb[start + i];
+            final int out = rgbOffset + i * 3;
+            rgb[out + 2] = (byte) (pixel & 0xFF);
+            rgb[out + 1] = (byte) ((pixel >> 8) & 0xFF);
+            rgb[out] = (byte) ((pixel >> 16) & 0xFF);
+        }
+    }
+
+    /**
+     * Same as {@link #letterbox(int[], int, int, int, byte[], int, int, int)}, writing by
+     * absolute index from {@code rgbOffset} of a buffer, usually the direct buffer fed to the
+     * detector. The buffer position is not used, so stripes can be written concurrently.
+     */
+    public static void letterbox(int[] argb, int width, int height, int outputSize,
+                                 ByteBuffer rgb, int rgbOffset, int rowStart, int rowEnd) {
+        for (int y = rowStart; y < rowEnd; ++y) {
+            int out = rgbOffset + y * outputSize * 3;
+            int filled = 0;
+            if (y < height) {
+                for (int in = y * width, end = in + width; in < end; ++in) {
+                    final int pixel = argb[in];
+                    rgb.put(out++, (byte) ((pixel >> 16) & 0xFF));
+                    rgb.put(out++, (byte) ((pixel >> 8) & 0xFF));
+                    rgb.put(out++, (byte) (pixel & 0xFF));
+                }
+                filled = width;
+            }
+            for (int end = out + (outputSize - filled) * 3; out < end; ++out) {
+                rgb.put(out, (byte) WHITE);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.zouyao.objectdetector.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts NV21 camera frames straight into the RGB byte tensor fed to the detector.
+ * <p>
+ * Crop, rotation and the aspect-preserving scale are folded into one pass over the output
+ * pixels, so no intermediate bitmap or JPEG round-trip is needed. The scaled image is placed
+ * in the top-left corner of the square output and the remaining area is filled with white,
+ * which is the same layout {@code Utils.getRecognitionResult} produces for bitmaps.
+ * <p>
+ * Instances keep per-call state and are not thread-safe.
+ */
+public class Nv21Converter {
+
+    private static final int WHITE = 0xFF;
+
+    private final int outputSize;
+    // Source offset inside the rotated crop for every output column and row.
+    private final int[] columnOffsets;
+    private final int[] rowOffsets;
+    // One output row, staged before it is copied into a buffer in bulk.
+    private final byte[] rowBuffer;
+
+    private int contentWidth;
+    private int contentHeight;
+
+    /**
+     * @param outputSize width and height of the square output image.
+     */
+    public Nv21Converter(int outputSize) {
+        if (outputSize <= 0) {
+            throw new IllegalArgumentException("outputSize must be positive: " + outputSize);
+        }
+        this.outputSize = outputSize;
+        this.columnOffsets = new int[outputSize];
+        this.rowOffsets = new int[outputSize];
+        this.rowBuffer = new byte[outputSize * 3];
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * @return width of the image area written by the last conversion, the rest is letterbox.
+     */
+    public int getContentWidth() {
+        return contentWidth;
+    }
+
+    /**
+     * @return height of the image area written by the last conversion, the rest is letterbox.
+     */
+    public int getContentHeight() {
+        return contentHeight;
+    }
+
+    /**
+     * Converts a whole frame.
+     *
+     * @see #convert(byte[], int, int, int, int, int, int, int, byte[])
+     */
+    public void convert(byte[] nv21, int width, int height, int rotation, byte[] rgb) {
+        convert(nv21, width, height, rotation, 0, 0, width, height, rgb);
+    }
+
+    /**
+     * Converts a region of an NV21 frame into packed RGB bytes.
+     *
+     * @param nv21 the frame, a full-resolution Y plane followed by interleaved V/U samples.
+     * @param width width of the frame.
+     * @param height height of the frame.
+     * @param rotation clockwise rotation applied to the cropped region, a multiple of 90.
+     * @param cropLeft left edge of the region, in frame coordinates.
+     * @param cropTop top edge of the region, in frame coordinates.
+     * @param cropWidth width of the region, in frame coordinates.
+     * @param cropHeight height of the region, in frame coordinates.
+     * @param rgb receives {@code outputSize * outputSize * 3} bytes in RGB order.
+     */
+    public void convert(byte[] nv21, int width, int height, int rotation,
+                        int cropLeft, int cropTop, int cropWidth, int cropHeight,
+                        byte[] rgb) {
+        if (rgb.length < outputSize * outputSize * 3) {
+            throw new IllegalArgumentException("RGB buffer too small: " + rgb.length);
+        }
+        convert(nv21, width, height, rotation, cropLeft, cropTop, cropWidth, cropHeight,
+                rgb, null);
+    }
+
+    /**
+     * Same as {@link #convert(byte[], int, int, int, byte[])}, writing into a buffer.
+     */
+    public void convert(byte[] nv21, int width, int height, int rotation, ByteBuffer rgb) {
+        convert(nv21, width, height, rotation, 0, 0, width, height, rgb);
+    }
+
+    /**
+     * Same as {@link #convert(byte[], int, int, int, int, int, int, int, byte[])}, writing
+     * into a buffer, usually the direct buffer fed to the detector. Each row is converted
+     * into a small staging array and copied into the buffer in bulk.
+     *
+     * @param rgb receives {@code outputSize * outputSize * 3} bytes from its position on. The
+     *            position is left unchanged.
+     */
+    public void convert(byte[] nv21, int width, int height, int rotation,
+                        int cropLeft, int cropTop, int cropWidth, int cropHeight,
+                        ByteBuffer rgb) {
+        if (rgb.remaining() < outputSize * outputSize * 3) {
+            throw new IllegalArgumentException("RGB buffer too small: " + rgb.remaining());
+        }
+        final int position = rgb.position();
+        try {
+            convert(nv21, width, height, rotation, cropLeft, cropTop, cropWidth, cropHeight,
+                    null, rgb);
+        } finally {
+            rgb.position(position);
+        }
+    }
+
+    /**
+     * Writes into exactly one of {@code rgb} and {@code rgbBuffer}.
+     */
+    private void convert(byte[] nv21, int width, int height, int rotation,
+                         int cropLeft, int cropTop, int cropWidth, int cropHeight,
+                         byte[] rgb, ByteBuffer rgbBuffer) {
+        if (nv21.length < width * height * 3 / 2) {
+            throw new IllegalArgumentException(
+                    "NV21 buffer too small for " + width + "x" + height + ": " + nv21.length);
+        }
+        if (cropLeft < 0 || cropTop < 0 || cropWidth <= 0 || cropHeight <= 0
+                || cropLeft + cropWidth > width || cropTop + cropHeight > height) {
+            throw new IllegalArgumentException("Crop region outside of the frame");
+        }
+        rotation = ((rotation % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Rotation of " + rotation + " % 90 != 0");
+        }
+
+        final boolean transpose = rotation == 90 || rotation == 270;
+        final int rotatedWidth = transpose ? cropHeight : cropWidth;
+        final int rotatedHeight = transpose ? cropWidth : cropHeight;
+        final float scale = Math.min(
+                outputSize / (float) rotatedWidth, outputSize / (float) rotatedHeight);
+        contentWidth = Math.min(outputSize, Math.max(1, Math.round(rotatedWidth * scale)));
+        contentHeight = Math.min(outputSize, Math.max(1, Math.round(rotatedHeight * scale)));
+        fillOffsets(columnOffsets, contentWidth, scale, rotatedWidth);
+        fillOffsets(rowOffsets, contentHeight, scale, rotatedHeight);
+
+        final int chromaStart = width * height;
+        final int rowBytes = outputSize * 3;
+        final int bufferStart = rgbBuffer != null ? rgbBuffer.position() : 0;
+        final byte[] target = rgbBuffer != null ? rowBuffer : rgb;
+        for (int y = 0; y < outputSize; ++y) {
+            final int rowStart = rgbBuffer != null ? 0 : y * rowBytes;
+            int out = rowStart;
+            if (y >= contentHeight) {
+                fillWhite(target, out, outputSize);
+                flushRow(rgbBuffer, bufferStart + y * rowBytes);
+                continue;
+            }
+            final int v = rowOffsets[y];
+            for (int x = 0; x < contentWidth; ++x) {
+                final int u = columnOffsets[x];
+                // Map (u, v) in the rotated crop back onto the frame.
+                final int sx;
+                final int sy;
+                switch (rotation) {
+                    case 90:
+                        sx = cropLeft + v;
+                        sy = cropTop + cropHeight - 1 - u;
+                        break;
+                    case 180:
+                        sx = cropLeft + cropWidth - 1 - u;
+                        sy = cropTop + cropHeight - 1 - v;
+                        break;
+                    case 270:
+                        sx = cropLeft + cropWidth - 1 - v;
+                        sy = cropTop + u;
+                        break;
+                    default:
+                        sx = cropLeft + u;
+                        sy = cropTop + v;
+                        break;
+                }
+                final int luma = nv21[sy * width + sx] & 0xFF;
+                final int chroma = chromaStart + (sy >> 1) * width + (sx & ~1);
+                final int cr = (nv21[chroma] & 0xFF) - 128;
+                final int cb = (nv21[chroma + 1] & 0xFF) - 128;
+                target[out++] = (byte) clamp(luma + ((91881 * cr) >> 16));
+                target[out++] = (byte) clamp(luma - ((22554 * cb + 46802 * cr) >> 16));
+                target[out++] = (byte) clamp(luma + ((116130 * cb) >> 16));
+            }
+            fillWhite(target, out, outputSize - contentWidth);
+            flushRow(rgbBuffer, bufferStart + y * rowBytes);
+        }
+    }
+
+    /**
+     * Copies the staged row into {@code rgbBuffer} at {@code offset}, if writing to a buffer.
+     */
+    private void flushRow(ByteBuffer rgbBuffer, int offset) {
+        if (rgbBuffer != null) {
+            rgbBuffer.position(offset);
+            rgbBuffer.put(rowBuffer);
+        }
+    }
+
+    private static void fillOffsets(int[] offsets, int count, float scale, int limit) {
+        for (int i = 0; i < count; ++i) {
+            offsets[i] = Math.min(limit - 1, (int) ((i + 0.5f) / scale));
+        }
+    }
+
+    private static void fillWhite(byte[] rgb, int offset, int pixels) {
+        final int end = offset + pixels * 3;
+        for (int i = offset; i < end; ++i) {
+            rgb[i] = (byte) WHITE;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
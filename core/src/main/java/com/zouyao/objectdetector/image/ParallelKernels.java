@@ -0,0 +1,259 @@
+package com.zouyao.objectdetector.image;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the whole-image {@link ImageKernels} on row stripes in parallel.
+ * <p>
+ * An image of {@code n} output pixels is cut into at most {@code parallelism} stripes of at
+ * least {@code minPixelsPerStripe} pixels. The calling thread runs the first stripe and waits
+ * for the executor to run the others, so small images never leave the calling thread. Every
+ * kernel writes disjoint rows with integer arithmetic, so the output is the same whatever the
+ * stripes.
+ * <p>
+ * Thread-safe as long as concurrent calls do not write the same output.
+ */
+public class ParallelKernels {
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int minPixelsPerStripe;
+
+    /**
+     * @param executor runs every stripe but the first.
+     * @param parallelism maximum number of stripes, usually the number of cores.
+     * @param minPixelsPerStripe images smaller than twice this run on the calling thread only.
+     */
+    public ParallelKernels(Executor executor, int parallelism, int minPixelsPerStripe) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        if (minPixelsPerStripe < 1) {
+            throw new IllegalArgumentException("minPixelsPerStripe must be positive");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.minPixelsPerStripe = minPixelsPerStripe;
+    }
+
+    /**
+     * @return kernels that always run on the calling thread.
+     */
+    public static ParallelKernels serial() {
+        return new ParallelKernels(Runnable::run, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Scales the region {@code (srcLeft, srcTop, srcWidth, srcHeight)} of {@code src} into
+     * {@code dst} with nearest-neighbour sampling.
+     *
+     * @see ImageKernels#resizeNearest(int[], int, int, int, int, int, int[], int, int, int, int)
+     */
+    public void resizeNearest(final int[] src, final int srcStride, final int srcLeft,
+                              final int srcTop, final int srcWidth, final int srcHeight,
+                              final int[] dst, final int dstWidth, final int dstHeight) {
+        checkResize(src, srcStride, srcLeft, srcTop, srcWidth, srcHeight,
+                dst, dstWidth, dstHeight);
+        forEachStripe(dstWidth, dstHeight, (rowStart, rowEnd) -> ImageKernels.resizeNearest(
+                src, srcStride, srcLeft, srcTop, srcWidth, srcHeight,
+                dst, dstWidth, dstHeight, rowStart, rowEnd));
+    }
+
+    /**
+     * Scales the region {@code (srcLeft, srcTop, srcWidth, srcHeight)} of {@code src} into
+     * {@code dst} with bilinear filtering.
+     *
+     * @see ImageKernels#resizeBilinear(int[], int, int, int, int, int, int[], int, int, int, int)
+     */
+    public void resizeBilinear(final int[] src, final int srcStride, final int srcLeft,
+                               final int srcTop, final int srcWidth, final int srcHeight,
+                               final int[] dst, final int dstWidth, final int dstHeight) {
+        checkResize(src, srcStride, srcLeft, srcTop, srcWidth, srcHeight,
+                dst, dstWidth, dstHeight);
+        forEachStripe(dstWidth, dstHeight, (rowStart, rowEnd) -> ImageKernels.resizeBilinear(
+                src, srcStride, srcLeft, srcTop, srcWidth, srcHeight,
+                dst, dstWidth, dstHeight, rowStart, rowEnd));
+    }
+
+    /**
+     * Rotates {@code src} clockwise into {@code dst}.
+     *
+     * @param rotation a multiple of 90, negative values rotate counter-clockwise.
+     * @see ImageKernels#rotate(int[], int, int, int, int[], int, int)
+     */
+    public void rotate(final int[] src, final int srcWidth, final int srcHeight, int rotation,
+                       final int[] dst) {
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("rotation must be a multiple of 90");
+        }
+        checkImage(src, srcWidth, srcHeight, "src");
+        checkImage(dst, srcWidth, srcHeight, "dst");
+        final int normalized = (rotation % 360 + 360) % 360;
+        final boolean transpose = normalized == 90 || normalized == 270;
+        final int dstWidth = transpose ? srcHeight : srcWidth;
+        final int dstHeight = transpose ? srcWidth : srcHeight;
+        forEachStripe(dstWidth, dstHeight, (rowStart, rowEnd) ->
+                ImageKernels.rotate(src, srcWidth, srcHeight, normalized, dst, rowStart, rowEnd));
+    }
+
+    /**
+     * Places {@code argb} top-left in a square, white-padded RGB image of
+     * {@code outputSize * outputSize * 3} bytes from {@code rgbOffset} on.
+     *
+     * @see ImageKernels#letterbox(int[], int, int, int, byte[], int, int, int)
+     */
+    public void letterbox(final int[] argb, final int width, final int height,
+                          final int outputSize, final byte[] rgb, final int rgbOffset) {
+        checkLetterbox(argb, width, height, outputSize);
+        if (rgbOffset < 0 || rgb.length - rgbOffset < outputSize * outputSize * 3) {
+            throw new IllegalArgumentException("rgb is too small");
+        }
+        forEachStripe(outputSize, outputSize, (rowStart, rowEnd) -> ImageKernels.letterbox(
+                argb, width, height, outputSize, rgb, rgbOffset, rowStart, rowEnd));
+    }
+
+    /**
+     * Same as {@link #letterbox(int[], int, int, int, byte[], int)}, writing from the position
+     * of {@code rgb}. The position is left unchanged.
+     */
+    public void letterbox(final int[] argb, final int width, final int height,
+                          final int outputSize, final ByteBuffer rgb) {
+        checkLetterbox(argb, width, height, outputSize);
+        final int rgbOffset = rgb.position();
+        if (rgb.remaining() < outputSize * outputSize * 3) {
+            throw new IllegalArgumentException("rgb is too small");
+        }
+        forEachStripe(outputSize, outputSize, (rowStart, rowEnd) -> ImageKernels.letterbox(
+                argb, width, height, outputSize, rgb, rgbOffset, rowStart, rowEnd));
+    }
+
+    /**
+     * Scales a region of an image to fit a square detector input, keeping its aspect, and
+     * rotates it upright. Scaling first keeps the rotation cheap.
+     *
+     * @param rotation clockwise rotation that makes the region upright, a multiple of 90.
+     * @param size receives the width and height of the upright result.
+     * @return the upright pixels, {@code size[0] * size[1]} of them.
+     */
+    public int[] fitInput(int[] src, int srcStride, int srcLeft, int srcTop, int srcWidth,
+                          int srcHeight, int rotation, int inputSize, int[] size) {
+        // The input is square, so the scale does not depend on the rotation.
+        final float scale = Math.min(inputSize / (float) srcWidth, inputSize / (float) srcHeight);
+        final int scaledWidth = Math.max(1, Math.min(inputSize, Math.round(srcWidth * scale)));
+        final int scaledHeight = Math.max(1, Math.min(inputSize, Math.round(srcHeight * scale)));
+        final int[] scaled = new int[scaledWidth * scaledHeight];
+        resizeBilinear(src, srcStride, srcLeft, srcTop, srcWidth, srcHeight,
+                scaled, scaledWidth, scaledHeight);
+
+        final int normalized = (rotation % 360 + 360) % 360;
+        final boolean transpose = normalized == 90 || normalized == 270;
+        size[0] = transpose ? scaledHeight : scaledWidth;
+        size[1] = transpose ? scaledWidth : scaledHeight;
+        if (normalized == 0) {
+            return scaled;
+        }
+        final int[] upright = new int[scaled.length];
+        rotate(scaled, scaledWidth, scaledHeight, normalized, upright);
+        return upright;
+    }
+
+    /**
+     * Splits {@code height} rows of {@code width} pixels into stripes and runs them, returning
+     * once all of them are done.
+     */
+    private void forEachStripe(int width, int height, final RowRange kernel) {
+        final long pixels = (long) width * height;
+        final int stripes = (int) Math.max(1, Math.min(Math.min(parallelism, height),
+                pixels / minPixelsPerStripe));
+        if (stripes <= 1) {
+            kernel.run(0, height);
+            return;
+        }
+
+        final CountDownLatch done = new CountDownLatch(stripes - 1);
+        final Throwable[] failure = new Throwable[1];
+        for (int i = 1; i < stripes; ++i) {
+            final int rowStart = (int) ((long) height * i / stripes);
+            final int rowEnd = (int) ((long) height * (i + 1) / stripes);
+            final Runnable stripe = () -> {
+                try {
+                    kernel.run(rowStart, rowEnd);
+                } catch (Throwable t) {
+                    synchronized (failure) {
+                        if (failure[0] == null) {
+                            failure[0] = t;
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            };
+            try {
+                executor.execute(stripe);
+            } catch (RejectedExecutionException e) {
+                stripe.run();
+            }
+        }
+        kernel.run(0, (int) ((long) height / stripes));
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                // The other stripes still write the output, it cannot be handed back early.
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (failure) {
+            if (failure[0] instanceof RuntimeException) {
+                throw (RuntimeException) failure[0];
+            } else if (failure[0] instanceof Error) {
+                throw (Error) failure[0];
+            } else if (failure[0] != null) {
+                throw new RuntimeException(failure[0]);
+            }
+        }
+    }
+
+    private static void checkResize(int[] src, int srcStride, int srcLeft, int srcTop,
+                                    int srcWidth, int srcHeight,
+                                    int[] dst, int dstWidth, int dstHeight) {
+        if (srcWidth < 1 || srcHeight < 1 || srcLeft < 0 || srcTop < 0
+                || srcLeft + srcWidth > srcStride
+                || (long) (srcTop + srcHeight) * srcStride > src.length) {
+            throw new IllegalArgumentException("source region is out of bounds");
+        }
+        checkImage(dst, dstWidth, dstHeight, "dst");
+    }
+
+    private static void checkLetterbox(int[] argb, int width, int height, int outputSize) {
+        checkImage(argb, width, height, "argb");
+        if (width > outputSize || height > outputSize) {
+            throw new IllegalArgumentException("image is larger than the output");
+        }
+    }
+
+    private static void checkImage(int[] pixels, int width, int height, String name) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException(name + " must not be empty");
+        }
+        if ((long) width * height > pixels.length) {
+            throw new IllegalArgumentException(name + " is too small");
+        }
+    }
+
+    /**
+     * A kernel writing output rows {@code [rowStart, rowEnd)}.
+     */
+    interface RowRange {
+        void run(int rowStart, int rowEnd);
+    }
+}
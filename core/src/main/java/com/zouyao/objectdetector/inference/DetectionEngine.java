@@ -0,0 +1,193 @@
+package com.zouyao.objectdetector.inference;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.zouyao.objectdetector.Detections;
+import com.zouyao.objectdetector.metrics.FrameMetrics;
+
+/**
+ * Runs an SSD model exported by the Tensorflow Object Detection API on an
+ * {@link InferenceBackend} and decodes its outputs into {@link Detections}.
+ * <p>
+ * Outputs are fetched into direct buffers allocated up front, only batches larger than any
+ * seen before allocate. Inputs can be fed from a direct buffer too, see
+ * {@link #allocateInputBuffer()}, which keeps the frame-sized tensors off the Java heap.
+ * Instances are thread-safe, but run one inference at a time.
+ */
+public class DetectionEngine {
+
+    public static final String INPUT_NAME = "image_tensor";
+    public static final String OUTPUT_BOXES = "detection_boxes";
+    public static final String OUTPUT_SCORES = "detection_scores";
+    public static final String OUTPUT_CLASSES = "detection_classes";
+    public static final String OUTPUT_NUM_DETECTIONS = "num_detections";
+
+    private static final String[] OUTPUT_NAMES = {
+            OUTPUT_BOXES, OUTPUT_SCORES, OUTPUT_CLASSES, OUTPUT_NUM_DETECTIONS};
+    private static final int MAX_RESULTS = Detections.MAX_DETECTIONS;
+
+    private final InferenceBackend backend;
+    private final int inputSize;
+    private final FrameMetrics metrics;
+    private final FloatBuffer outputLocations = allocateFloats(MAX_RESULTS * 4);
+    private final FloatBuffer outputScores = allocateFloats(MAX_RESULTS);
+    private final FloatBuffer outputClasses = allocateFloats(MAX_RESULTS);
+    private final FloatBuffer outputNumDetections = allocateFloats(1);
+    // Grown to the largest batch seen.
+    private FloatBuffer batchLocations = allocateFloats(0);
+    private FloatBuffer batchScores = allocateFloats(0);
+    private FloatBuffer batchClasses = allocateFloats(0);
+    private FloatBuffer batchNumDetections = allocateFloats(0);
+
+    /**
+     * @param inputSize width and height of the square model input.
+     */
+    public DetectionEngine(InferenceBackend backend, int inputSize) {
+        this(backend, inputSize, null);
+    }
+
+    /**
+     * @param metrics receives the feed, run and fetch latencies, may be {@code null}.
+     */
+    public DetectionEngine(InferenceBackend backend, int inputSize, FrameMetrics metrics) {
+        this.backend = backend;
+        this.inputSize = inputSize;
+        this.metrics = metrics;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * @return a direct buffer holding one input image, for {@link #detect(ByteBuffer,
+     *         Detections)}. Meant to be allocated once and reused for every frame.
+     */
+    public ByteBuffer allocateInputBuffer() {
+        return ByteBuffer.allocateDirect(inputSize * inputSize * 3);
+    }
+
+    private static FloatBuffer allocateFloats(int count) {
+        return ByteBuffer.allocateDirect(count * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    /**
+     * Runs the model without allocating: results are written into {@code results}, sorted
+     * by descending confidence, with locations in input pixels.
+     *
+     * @param rgbValues {@code inputSize * inputSize * 3} bytes in RGB order.
+     * @param results receives the detections, should hold at least
+     *                {@link Detections#MAX_DETECTIONS}.
+     */
+    public synchronized void detect(byte[] rgbValues, Detections results) {
+        long start = System.nanoTime();
+        backend.feed(INPUT_NAME, rgbValues, 1, inputSize, inputSize, 3);
+        start = record(FrameMetrics.Stage.FEED, start);
+        runAndFetch(start, results);
+    }
+
+    /**
+     * Same as {@link #detect(byte[], Detections)} for an image in a buffer, fed without
+     * copying it to the Java heap first.
+     *
+     * @param rgbValues {@code inputSize * inputSize * 3} bytes in RGB order, between the
+     *                  position and the limit. The position is left unchanged.
+     */
+    public synchronized void detect(ByteBuffer rgbValues, Detections results) {
+        if (rgbValues.remaining() != inputSize * inputSize * 3) {
+            throw new IllegalArgumentException("Expected " + inputSize * inputSize * 3
+                    + " bytes, got " + rgbValues.remaining());
+        }
+        long start = System.nanoTime();
+        final int position = rgbValues.position();
+        backend.feed(INPUT_NAME, rgbValues, 1, inputSize, inputSize, 3);
+        rgbValues.position(position);
+        start = record(FrameMetrics.Stage.FEED, start);
+        runAndFetch(start, results);
+    }
+
+    private void runAndFetch(long start, Detections results) {
+        backend.run(OUTPUT_NAMES);
+        start = record(FrameMetrics.Stage.RUN, start);
+        fetch(OUTPUT_BOXES, outputLocations);
+        fetch(OUTPUT_SCORES, outputScores);
+        fetch(OUTPUT_CLASSES, outputClasses);
+        fetch(OUTPUT_NUM_DETECTIONS, outputNumDetections);
+        record(FrameMetrics.Stage.FETCH, start);
+
+        final int numDetections = Math.min((int) outputNumDetections.get(0), MAX_RESULTS);
+        results.setFromOutputs(
+                outputLocations, outputScores, outputClasses, 0, numDetections, inputSize);
+    }
+
+    private void fetch(String outputName, FloatBuffer values) {
+        values.clear();
+        backend.fetch(outputName, values);
+    }
+
+    /**
+     * Runs the model once on a batch of images packed back to back as RGB bytes.
+     *
+     * @param batchValues exactly {@code batchSize * inputSize * inputSize * 3} bytes.
+     * @param batchSize number of images in {@code batchValues}.
+     * @param results receives the detections of each image.
+     */
+    public synchronized void detect(byte[] batchValues, int batchSize, Detections[] results) {
+        if (batchValues.length != batchSize * inputSize * inputSize * 3) {
+            throw new IllegalArgumentException("Expected " + batchSize + " images, got "
+                    + batchValues.length + " bytes");
+        }
+        if (batchScores.capacity() < batchSize * MAX_RESULTS) {
+            batchLocations = allocateFloats(batchSize * MAX_RESULTS * 4);
+            batchScores = allocateFloats(batchSize * MAX_RESULTS);
+            batchClasses = allocateFloats(batchSize * MAX_RESULTS);
+            batchNumDetections = allocateFloats(batchSize);
+        }
+
+        long start = System.nanoTime();
+        backend.feed(INPUT_NAME, batchValues, batchSize, inputSize, inputSize, 3);
+        start = record(FrameMetrics.Stage.FEED, start);
+        backend.run(OUTPUT_NAMES);
+        start = record(FrameMetrics.Stage.RUN, start);
+        fetchBatch(OUTPUT_BOXES, batchLocations, batchSize * MAX_RESULTS * 4);
+        fetchBatch(OUTPUT_SCORES, batchScores, batchSize * MAX_RESULTS);
+        fetchBatch(OUTPUT_CLASSES, batchClasses, batchSize * MAX_RESULTS);
+        fetchBatch(OUTPUT_NUM_DETECTIONS, batchNumDetections, batchSize);
+        record(FrameMetrics.Stage.FETCH, start);
+
+        // Outputs are [N, MAX_RESULTS, ...], split them back per image.
+        for (int i = 0; i < batchSize; ++i) {
+            final int numDetections = Math.min((int) batchNumDetections.get(i), MAX_RESULTS);
+            results[i].setFromOutputs(batchLocations, batchScores, batchClasses,
+                    i * MAX_RESULTS, numDetections, inputSize);
+        }
+    }
+
+    /**
+     * Fetches into the first {@code count} values of a buffer sized for a larger batch.
+     */
+    private void fetchBatch(String outputName, FloatBuffer values, int count) {
+        values.clear();
+        values.limit(count);
+        backend.fetch(outputName, values);
+    }
+
+    /**
+     * @return the current time, to start timing the next step.
+     */
+    private long record(FrameMetrics.Stage stage, long startNanos) {
+        final long now = System.nanoTime();
+        if (metrics != null) {
+            metrics.record(stage, now - startNanos);
+        }
+        return now;
+    }
+
+    public synchronized void close() {
+        backend.close();
+    }
+}
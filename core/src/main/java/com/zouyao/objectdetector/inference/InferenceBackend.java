@@ -0,0 +1,49 @@
+package com.zouyao.objectdetector.inference;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Runs a model: feed the inputs, run it, fetch the outputs. All buffers are primitive arrays
+ * or NIO buffers owned by the caller, so backends can be swapped without touching pre- or
+ * postprocessing. Direct NIO buffers let a backend copy straight between native memory and
+ * its tensors.
+ * <p>
+ * Implementations are not thread-safe, callers run one inference at a time.
+ */
+public interface InferenceBackend {
+
+    /**
+     * Copies an input tensor into the backend.
+     *
+     * @param dims shape of the tensor, {@code values} holds exactly that many elements.
+     */
+    void feed(String inputName, byte[] values, long... dims);
+
+    /**
+     * Same as {@link #feed(String, byte[], long...)} for the bytes between the position and
+     * the limit of {@code values}. The position may be advanced past them.
+     */
+    void feed(String inputName, ByteBuffer values, long... dims);
+
+    /**
+     * Runs the model on the inputs fed since the last run.
+     */
+    void run(String[] outputNames);
+
+    /**
+     * Copies an output tensor of the last run into {@code values}.
+     */
+    void fetch(String outputName, float[] values);
+
+    /**
+     * Same as {@link #fetch(String, float[])}, writing from the position of {@code values} up
+     * to its limit. The position is advanced past the values written.
+     */
+    void fetch(String outputName, FloatBuffer values);
+
+    /**
+     * Releases the model, the backend cannot be used afterwards.
+     */
+    void close();
+}
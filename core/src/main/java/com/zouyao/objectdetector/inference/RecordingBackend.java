@@ -0,0 +1,67 @@
+package com.zouyao.objectdetector.inference;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Passes everything through to another backend and captures every fetched output into a
+ * {@link TensorRecording}, to be replayed later by {@link ReplayBackend}.
+ */
+public class RecordingBackend implements InferenceBackend {
+
+    private final InferenceBackend backend;
+    private final TensorRecording recording;
+    private Map<String, float[]> currentRun;
+
+    public RecordingBackend(InferenceBackend backend, TensorRecording recording) {
+        this.backend = backend;
+        this.recording = recording;
+    }
+
+    @Override
+    public void feed(String inputName, byte[] values, long... dims) {
+        backend.feed(inputName, values, dims);
+    }
+
+    @Override
+    public void feed(String inputName, ByteBuffer values, long... dims) {
+        backend.feed(inputName, values, dims);
+    }
+
+    @Override
+    public void run(String[] outputNames) {
+        backend.run(outputNames);
+        currentRun = new LinkedHashMap<>();
+        recording.addRun(currentRun);
+    }
+
+    @Override
+    public void fetch(String outputName, float[] values) {
+        backend.fetch(outputName, values);
+        if (currentRun == null) {
+            throw new IllegalStateException("fetch() before run()");
+        }
+        currentRun.put(outputName, values.clone());
+    }
+
+    @Override
+    public void fetch(String outputName, FloatBuffer values) {
+        final int start = values.position();
+        backend.fetch(outputName, values);
+        if (currentRun == null) {
+            throw new IllegalStateException("fetch() before run()");
+        }
+        final float[] recorded = new float[values.position() - start];
+        for (int i = 0; i < recorded.length; ++i) {
+            recorded[i] = values.get(start + i);
+        }
+        currentRun.put(outputName, recorded);
+    }
+
+    @Override
+    public void close() {
+        backend.close();
+    }
+}
@@ -0,0 +1,125 @@
+package com.zouyao.objectdetector.inference;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deterministic backend that plays back the outputs of a {@link TensorRecording} instead of
+ * running a model, one recorded run per {@link #run(String[])}, starting over after the last.
+ * <p>
+ * Lets the whole pre- and postprocessing be tested, load-tested and profiled on a plain JVM.
+ * An optional latency stands in for the time the real model takes.
+ */
+public class ReplayBackend implements InferenceBackend {
+
+    private final TensorRecording recording;
+    private final long latencyNanos;
+    private int nextRun = 0;
+    private Map<String, float[]> currentRun;
+    private long runCount = 0;
+    private boolean closed = false;
+
+    public ReplayBackend(TensorRecording recording) {
+        this(recording, 0);
+    }
+
+    /**
+     * @param latencyNanos how long every {@link #run(String[])} blocks.
+     */
+    public ReplayBackend(TensorRecording recording, long latencyNanos) {
+        if (recording.getRunCount() == 0) {
+            throw new IllegalArgumentException("The recording is empty");
+        }
+        this.recording = recording;
+        this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public void feed(String inputName, byte[] values, long... dims) {
+        checkOpen();
+        checkShape(inputName, values.length, dims);
+    }
+
+    @Override
+    public void feed(String inputName, ByteBuffer values, long... dims) {
+        checkOpen();
+        checkShape(inputName, values.remaining(), dims);
+    }
+
+    private static void checkShape(String inputName, int length, long... dims) {
+        long elements = 1;
+        for (long dim : dims) {
+            elements *= dim;
+        }
+        if (elements != length) {
+            throw new IllegalArgumentException("Input '" + inputName + "' has "
+                    + length + " values, its shape " + Arrays.toString(dims)
+                    + " needs " + elements);
+        }
+    }
+
+    @Override
+    public void run(String[] outputNames) {
+        checkOpen();
+        currentRun = recording.getRun(nextRun);
+        nextRun = (nextRun + 1) % recording.getRunCount();
+        runCount++;
+        if (latencyNanos > 0) {
+            final long deadline = System.nanoTime() + latencyNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    @Override
+    public void fetch(String outputName, float[] values) {
+        final float[] recorded = getRecorded(outputName);
+        final int length = Math.min(recorded.length, values.length);
+        System.arraycopy(recorded, 0, values, 0, length);
+        Arrays.fill(values, length, values.length, 0f);
+    }
+
+    @Override
+    public void fetch(String outputName, FloatBuffer values) {
+        final float[] recorded = getRecorded(outputName);
+        values.put(recorded, 0, Math.min(recorded.length, values.remaining()));
+        while (values.hasRemaining()) {
+            values.put(0f);
+        }
+    }
+
+    private float[] getRecorded(String outputName) {
+        checkOpen();
+        if (currentRun == null) {
+            throw new IllegalStateException("fetch() before run()");
+        }
+        final float[] recorded = currentRun.get(outputName);
+        if (recorded == null) {
+            throw new IllegalStateException("Output '" + outputName + "' was not recorded");
+        }
+        return recorded;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * @return number of runs played back so far.
+     */
+    public long getRunCount() {
+        return runCount;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The backend was closed");
+        }
+    }
+}
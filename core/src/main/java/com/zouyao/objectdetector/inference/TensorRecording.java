@@ -0,0 +1,98 @@
+package com.zouyao.objectdetector.inference;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Output tensors of a sequence of model runs, as captured by {@link RecordingBackend} and played
+ * back by {@link ReplayBackend}.
+ * <p>
+ * Recordings can be written to a stream, so outputs captured on a device can be replayed on
+ * any JVM. Instances are not thread-safe.
+ */
+public class TensorRecording {
+
+    private static final int MAGIC = 0x54524543; // "TREC"
+    private static final int VERSION = 1;
+
+    private final List<Map<String, float[]>> runs = new ArrayList<>();
+
+    /**
+     * Appends a run.
+     *
+     * @param outputs output tensors by name, kept by reference.
+     */
+    public void addRun(Map<String, float[]> outputs) {
+        runs.add(outputs);
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return the output tensors of a run by name.
+     */
+    public Map<String, float[]> getRun(int index) {
+        return Collections.unmodifiableMap(runs.get(index));
+    }
+
+    public void writeTo(OutputStream output) throws IOException {
+        final DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(runs.size());
+        for (Map<String, float[]> run : runs) {
+            data.writeInt(run.size());
+            for (Map.Entry<String, float[]> tensor : run.entrySet()) {
+                data.writeUTF(tensor.getKey());
+                final float[] values = tensor.getValue();
+                data.writeInt(values.length);
+                for (float value : values) {
+                    data.writeFloat(value);
+                }
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a recording written by {@link #writeTo(OutputStream)}.
+     *
+     * @throws IOException if the stream does not hold a recording.
+     */
+    public static TensorRecording readFrom(InputStream input) throws IOException {
+        final DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a tensor recording");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported tensor recording version " + version);
+        }
+        final TensorRecording recording = new TensorRecording();
+        final int runCount = data.readInt();
+        for (int r = 0; r < runCount; ++r) {
+            final int tensorCount = data.readInt();
+            final Map<String, float[]> run = new LinkedHashMap<>();
+            for (int t = 0; t < tensorCount; ++t) {
+                final String name = data.readUTF();
+                final float[] values = new float[data.readInt()];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = data.readFloat();
+                }
+                run.put(name, values);
+            }
+            recording.addRun(run);
+        }
+        return recording;
+    }
+}
@@ -0,0 +1,140 @@
+package com.zouyao.objectdetector.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per-stage latency histograms and frame rate of the detection path, cheap enough to stay
+ * enabled in release builds.
+ * <p>
+ * Every method is lock-free and may be called from any thread.
+ */
+public class FrameMetrics {
+
+    public enum Stage {
+        /** Copying a camera frame out of the camera callback. */
+        CAMERA_FRAME,
+        /** NV21 to RGB conversion of a preview frame, including its rotation and scaling. */
+        YUV_DECODE,
+        /** Scaling a bitmap to the detector input. */
+        RESIZE,
+        /** Unpacking ARGB pixels into the RGB input tensor. */
+        TENSOR_PACK,
+        /** Copying the input tensor into the backend. */
+        FEED,
+        /** Running the model. */
+        RUN,
+        /** Copying the output tensors out of the backend. */
+        FETCH,
+        /** Non-maximum suppression, tracking and building the results. */
+        POSTPROCESS,
+        /** Drawing the results. */
+        DRAW,
+        /** From the camera frame to its results being posted. */
+        END_TO_END
+    }
+
+    // Weight of the newest frame interval in the frame rate estimate.
+    private static final double FPS_SMOOTHING = 0.1;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final Object frameLock = new Object();
+    // Guarded by frameLock, the interval is also read without it.
+    private long lastFrameNanos = 0;
+    private volatile double frameIntervalNanos = 0;
+
+    public FrameMetrics() {
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long durationNanos) {
+        histograms[stage.ordinal()].recordNanos(durationNanos);
+    }
+
+    /**
+     * Records the time since {@code startNanos}, for the common
+     * {@code start = System.nanoTime(); ...; record(stage, start)} pattern.
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        record(stage, System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Marks that results for a frame were delivered, for the frame rate. Thread-safe: results
+     * can be delivered from several threads, whose timestamps may arrive out of order. Frames
+     * older than the last delivered one are not counted.
+     */
+    public void onFrameDelivered(long timestampNanos) {
+        synchronized (frameLock) {
+            final long last = lastFrameNanos;
+            if (timestampNanos <= last) {
+                // Overtaken by a newer frame, it does not move the display forward.
+                return;
+            }
+            lastFrameNanos = timestampNanos;
+            if (last == 0) {
+                return;
+            }
+            final double interval = timestampNanos - last;
+            final double average = frameIntervalNanos;
+            frameIntervalNanos = average == 0
+                    ? interval
+                    : average + FPS_SMOOTHING * (interval - average);
+        }
+    }
+
+    /**
+     * @return the smoothed rate at which results are delivered, in frames per second.
+     */
+    public double getFramesPerSecond() {
+        final double interval = frameIntervalNanos;
+        return interval == 0 ? 0 : 1e9 / interval;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        synchronized (frameLock) {
+            lastFrameNanos = 0;
+            frameIntervalNanos = 0;
+        }
+    }
+
+    /**
+     * @return the frame rate, then one line per stage that recorded anything with its p50, p95
+     *         and p99 in milliseconds.
+     */
+    public List<String> getSummaryLines() {
+        final List<String> lines = new ArrayList<>(histograms.length + 1);
+        lines.add(String.format(Locale.US, "%.1f fps", getFramesPerSecond()));
+        for (Stage stage : Stage.values()) {
+            final LatencyHistogram histogram = histograms[stage.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            lines.add(String.format(Locale.US, "%-12s %6.1f %6.1f %6.1f",
+                    stage.name().toLowerCase(Locale.US),
+                    histogram.getPercentileMillis(50),
+                    histogram.getPercentileMillis(95),
+                    histogram.getPercentileMillis(99)));
+        }
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("FrameMetrics{");
+        for (String line : getSummaryLines()) {
+            builder.append("\n  ").append(line);
+        }
+        return builder.append("\n}").toString();
+    }
+}
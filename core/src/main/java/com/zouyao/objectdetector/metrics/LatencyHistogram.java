@@ -0,0 +1,113 @@
+package com.zouyao.objectdetector.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram.
+ * <p>
+ * Values are kept in microseconds. Every power of two is split into 16 linear sub-buckets, so
+ * percentiles are accurate to about 6% from 1us up to more than a day, in a fixed 5KB of
+ * counters. Recording is a few atomic increments and never allocates, so it is safe on the
+ * per-frame path of any thread.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below this get one bucket each.
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT =
+            LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long micros) {
+        final long value = Math.max(0, micros);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(value);
+        long max;
+        while (value > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, value)) {
+            // Lost a race with another writer, try again.
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public double getMeanMillis() {
+        final long count = totalCount.get();
+        return count == 0 ? 0 : totalMicros.get() / 1e3 / count;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1e3;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the latency below which {@code percentile} percent of the values fall, or 0 if
+     *         nothing was recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        final long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketMidpoint(i), maxMicros.get()) / 1e3;
+            }
+        }
+        // Writers raced ahead of the total count.
+        return getMaxMillis();
+    }
+
+    /**
+     * Forgets all values. Values recorded while resetting may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        final int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketMidpoint(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        final int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final long lower = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lower + (1L << shift) / 2;
+    }
+}
@@ -0,0 +1,244 @@
+package com.zouyao.objectdetector.overlay;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Retained geometry and text of the boxes drawn over the preview, so that drawing needs no
+ * formatting, boxing or allocation and an update only repaints what changed.
+ * <p>
+ * Every update is staged with {@link #begin()} and {@link #add}, then {@link #commit()}
+ * compares it with the boxes on screen. When something changed, the dirty bounds are the union
+ * of the old and the new boxes, labels included. Labels are formatted and measured once per
+ * label and confidence, rounded to a tenth of a percent, and then reused.
+ * <p>
+ * Not thread-safe, meant to be used from the UI thread only.
+ */
+public class OverlayModel {
+
+    /**
+     * Measures label text in the paint it is drawn with.
+     */
+    public interface TextMeasurer {
+        float measureText(String text);
+    }
+
+    // Confidence steps of a tenth of a percent.
+    private static final int CONFIDENCE_STEPS = 1000;
+
+    private final TextMeasurer measurer;
+    private final float textSize;
+    private final float textDescent;
+    private final float padding;
+    private final Map<String, String[]> texts = new HashMap<>();
+    private final Map<String, float[]> textWidths = new HashMap<>();
+    private int width = 0;
+    private int height = 0;
+    private Boxes shown = new Boxes();
+    private Boxes staged = new Boxes();
+    private final float[] dirty = new float[4];
+
+    /**
+     * @param textSize the label baseline is this far below the top of its box.
+     * @param textDescent how far glyphs reach below the baseline.
+     * @param padding how far drawing reaches outside the boxes, e.g. half the stroke width.
+     */
+    public OverlayModel(TextMeasurer measurer, float textSize, float textDescent,
+                        float padding) {
+        this.measurer = measurer;
+        this.textSize = textSize;
+        this.textDescent = textDescent;
+        this.padding = padding;
+    }
+
+    /**
+     * Sets the size of the view, which normalized locations are scaled to. The boxes on screen
+     * are left as they are, the view repaints itself when resized anyway.
+     */
+    public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Starts staging the next set of boxes.
+     */
+    public void begin() {
+        staged.size = 0;
+    }
+
+    /**
+     * Stages one box.
+     *
+     * @param left normalized to the view width, as are {@code right}.
+     * @param top normalized to the view height, as are {@code bottom}.
+     */
+    public void add(float left, float top, float right, float bottom, String label,
+                    float confidence) {
+        final int step = Math.max(0, Math.min(CONFIDENCE_STEPS,
+                Math.round(confidence * CONFIDENCE_STEPS)));
+        String[] labelTexts = texts.get(label);
+        float[] labelWidths = textWidths.get(label);
+        if (labelTexts == null) {
+            labelTexts = new String[CONFIDENCE_STEPS + 1];
+            labelWidths = new float[CONFIDENCE_STEPS + 1];
+            texts.put(label, labelTexts);
+            textWidths.put(label, labelWidths);
+        }
+        if (labelTexts[step] == null) {
+            labelTexts[step] = label + ": (" + step / 10 + "." + step % 10 + "%) ";
+            labelWidths[step] = measurer.measureText(labelTexts[step]);
+        }
+        staged.add(left * width, top * height, right * width, bottom * height,
+                labelTexts[step], labelWidths[step]);
+    }
+
+    /**
+     * Shows the staged boxes.
+     *
+     * @return {@code false} if they are the same as the boxes already shown, in which case
+     *         nothing needs to be repainted.
+     */
+    public boolean commit() {
+        if (staged.sameAs(shown)) {
+            return false;
+        }
+        dirty[0] = Float.POSITIVE_INFINITY;
+        dirty[1] = Float.POSITIVE_INFINITY;
+        dirty[2] = Float.NEGATIVE_INFINITY;
+        dirty[3] = Float.NEGATIVE_INFINITY;
+        addBounds(shown);
+        addBounds(staged);
+        final Boxes swap = shown;
+        shown = staged;
+        staged = swap;
+        return true;
+    }
+
+    private void addBounds(Boxes boxes) {
+        for (int i = 0; i < boxes.size; ++i) {
+            final float left = boxes.get(i, 0);
+            final float top = boxes.get(i, 1);
+            final float right = boxes.get(i, 2);
+            final float bottom = boxes.get(i, 3);
+            final float middle = (left + right) / 2;
+            final float halfText = boxes.textWidths[i] / 2;
+            dirty[0] = Math.min(dirty[0], Math.min(left, middle - halfText) - padding);
+            dirty[1] = Math.min(dirty[1], top - padding);
+            dirty[2] = Math.max(dirty[2], Math.max(right, middle + halfText) + padding);
+            dirty[3] = Math.max(dirty[3],
+                    Math.max(bottom, top + textSize + textDescent) + padding);
+        }
+    }
+
+    /**
+     * @return the left edge of the area the last change affects, in view pixels.
+     */
+    public int getDirtyLeft() {
+        return (int) Math.floor(dirty[0]);
+    }
+
+    public int getDirtyTop() {
+        return (int) Math.floor(dirty[1]);
+    }
+
+    /**
+     * @return the right edge of the area the last change affects, exclusive.
+     */
+    public int getDirtyRight() {
+        return (int) Math.ceil(dirty[2]);
+    }
+
+    public int getDirtyBottom() {
+        return (int) Math.ceil(dirty[3]);
+    }
+
+    /**
+     * @return the number of boxes shown.
+     */
+    public int size() {
+        return shown.size;
+    }
+
+    /**
+     * @return the left edge of box {@code index}, in view pixels.
+     */
+    public float getLeft(int index) {
+        return shown.get(index, 0);
+    }
+
+    public float getTop(int index) {
+        return shown.get(index, 1);
+    }
+
+    public float getRight(int index) {
+        return shown.get(index, 2);
+    }
+
+    public float getBottom(int index) {
+        return shown.get(index, 3);
+    }
+
+    /**
+     * @return the label of box {@code index}, with its confidence.
+     */
+    public String getText(int index) {
+        return shown.texts[index];
+    }
+
+    /**
+     * @return the baseline of the label of box {@code index}, centered on the box.
+     */
+    public float getTextBaseline(int index) {
+        return getTop(index) + textSize;
+    }
+
+    /**
+     * A set of boxes in view pixels, packed in growable arrays.
+     */
+    private static final class Boxes {
+        private float[] locations = new float[4 * 8];
+        private String[] texts = new String[8];
+        private float[] textWidths = new float[8];
+        private int size = 0;
+
+        void add(float left, float top, float right, float bottom, String text,
+                 float textWidth) {
+            if (size == texts.length) {
+                locations = Arrays.copyOf(locations, locations.length * 2);
+                texts = Arrays.copyOf(texts, texts.length * 2);
+                textWidths = Arrays.copyOf(textWidths, textWidths.length * 2);
+            }
+            locations[4 * size] = left;
+            locations[4 * size + 1] = top;
+            locations[4 * size + 2] = right;
+            locations[4 * size + 3] = bottom;
+            texts[size] = text;
+            textWidths[size] = textWidth;
+            size++;
+        }
+
+        float get(int index, int coordinate) {
+            return locations[4 * index + coordinate];
+        }
+
+        boolean sameAs(Boxes other) {
+            if (size != other.size) {
+                return false;
+            }
+            for (int i = 0; i < 4 * size; ++i) {
+                if (locations[i] != other.locations[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < size; ++i) {
+                // Texts come from the cache, so equal texts are the same instance.
+                if (texts[i] != other.texts[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.zouyao.objectdetector.pipeline;
+
+/**
+ * Notified of exceptions thrown while processing an item on a background thread, which would
+ * otherwise go unnoticed. The thread carries on with the next item.
+ */
+public interface ErrorListener {
+
+    /**
+     * Null-object for {@link ErrorListener}.
+     */
+    ErrorListener NULL = (source, error) -> {
+        // Do nothing
+    };
+
+    /**
+     * Called on the thread the item failed on.
+     *
+     * @param source what failed, e.g. the name of a pipeline stage.
+     * @param error the exception thrown.
+     */
+    void onError(String source, RuntimeException error);
+}
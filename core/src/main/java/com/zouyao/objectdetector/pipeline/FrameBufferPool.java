@@ -0,0 +1,204 @@
+package com.zouyao.objectdetector.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Bounded pool of {@link PreviewFrame}s, so copying camera frames for asynchronous processing
+ * does not allocate a multi-megabyte buffer per frame.
+ * <p>
+ * Whoever {@link #acquire(int)}s a frame owns it until handing it back with
+ * {@link #release(PreviewFrame)}. The pool never blocks: when no free frame is large enough a
+ * new one is allocated, which counts as a miss. At most {@code capacity} free frames are kept,
+ * so the capacity should match the number of frames in flight at once. In steady state every
+ * acquisition is then a hit.
+ * <p>
+ * With a {@link LeakListener}, which costs a stack trace per acquisition and is meant for debug
+ * builds, the pool remembers where each frame was acquired. Frames held longer than the leak
+ * timeout are reported once, and releasing a frame the pool does not own throws.
+ * <p>
+ * All methods are thread-safe. Use {@link #getBuilder()} to create a new instance.
+ */
+public class FrameBufferPool {
+
+    /**
+     * Notified of frames that look leaked.
+     */
+    public interface LeakListener {
+
+        /**
+         * @param acquiredAt stack trace of the {@link #acquire(int)} call.
+         * @param heldNanos how long the frame has been held.
+         */
+        void onLeak(Throwable acquiredAt, long heldNanos);
+    }
+
+    private final int capacity;
+    private final long leakTimeoutNanos;
+    private final LeakListener leakListener;
+
+    private final Object lock = new Object();
+    // Guarded by lock.
+    private final ArrayDeque<PreviewFrame> free;
+    private final Map<PreviewFrame, Acquisition> outstanding = new IdentityHashMap<>();
+    private int outstandingCount = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    private FrameBufferPool(Builder builder) {
+        capacity = builder.capacity;
+        leakTimeoutNanos = builder.leakTimeoutNanos;
+        leakListener = builder.leakListener;
+        free = new ArrayDeque<>(capacity);
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Takes a frame whose buffer holds at least {@code length} bytes. Must be followed by
+     * {@link #release(PreviewFrame)}.
+     */
+    public PreviewFrame acquire(int length) {
+        PreviewFrame frame;
+        synchronized (lock) {
+            frame = free.poll();
+            if (frame != null && frame.getCapacity() >= length) {
+                hitCount++;
+            } else {
+                missCount++;
+            }
+            outstandingCount++;
+            if (leakListener != null) {
+                checkLeaks();
+            }
+        }
+        // Allocate outside the lock.
+        if (frame == null) {
+            frame = new PreviewFrame();
+        }
+        frame.reserve(length);
+        if (leakListener != null) {
+            synchronized (lock) {
+                outstanding.put(frame, new Acquisition());
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Hands back a frame taken with {@link #acquire(int)}. The frame must not be used
+     * afterwards.
+     *
+     * @throws IllegalStateException with a leak listener, if the pool does not own the frame.
+     */
+    public void release(PreviewFrame frame) {
+        synchronized (lock) {
+            if (leakListener != null && outstanding.remove(frame) == null) {
+                throw new IllegalStateException("Frame released twice or not from this pool");
+            }
+            outstandingCount--;
+            if (free.size() < capacity) {
+                free.push(frame);
+            }
+        }
+    }
+
+    /**
+     * @return acquisitions served with a free frame.
+     */
+    public long getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * @return acquisitions that had to allocate a buffer.
+     */
+    public long getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    /**
+     * @return frames acquired and not released yet.
+     */
+    public int getOutstandingCount() {
+        synchronized (lock) {
+            return outstandingCount;
+        }
+    }
+
+    // Called with lock held.
+    private void checkLeaks() {
+        final long now = System.nanoTime();
+        for (Acquisition acquisition : outstanding.values()) {
+            final long heldNanos = now - acquisition.timestampNanos;
+            if (!acquisition.reported && heldNanos >= leakTimeoutNanos) {
+                acquisition.reported = true;
+                leakListener.onLeak(acquisition.site, heldNanos);
+            }
+        }
+    }
+
+    /**
+     * Where and when a frame was acquired.
+     */
+    private static class Acquisition {
+        final Throwable site = new Throwable("Frame acquired here");
+        final long timestampNanos = System.nanoTime();
+        boolean reported = false;
+    }
+
+    /**
+     * Builder for {@link FrameBufferPool}.
+     */
+    public static class Builder {
+
+        private int capacity = 3;
+        private long leakTimeoutNanos = 5_000_000_000L;
+        private LeakListener leakListener = null;
+
+        private Builder() {
+        }
+
+        /**
+         * @param capacity free frames kept for reuse, the number of frames in flight at once.
+         */
+        public Builder capacity(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param leakListener notified of frames held longer than the leak timeout, by default
+         *                     acquisitions are not tracked.
+         */
+        public Builder leakListener(LeakListener leakListener) {
+            this.leakListener = leakListener;
+            return this;
+        }
+
+        /**
+         * @param leakTimeoutNanos how long a frame can be held before it is reported.
+         */
+        public Builder leakTimeoutNanos(long leakTimeoutNanos) {
+            if (leakTimeoutNanos <= 0) {
+                throw new IllegalArgumentException("leakTimeoutNanos must be positive");
+            }
+            this.leakTimeoutNanos = leakTimeoutNanos;
+            return this;
+        }
+
+        public FrameBufferPool build() {
+            return new FrameBufferPool(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.zouyao.objectdetector.pipeline;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link FrameSink} writing every frame to a {@link FrameRecording} file before passing it on
+ * to another sink.
+ * <p>
+ * Frames are written on the thread delivering them, so recording slows the camera down a
+ * little: it is meant for capturing test sessions, not for production. The first write error
+ * stops the recording, frames keep flowing to the next sink and the error is thrown by
+ * {@link #close()}.
+ */
+public class FrameRecorder implements FrameSink, Closeable {
+
+    private final FileOutputStream output;
+    private final FileChannel channel;
+    private final FrameSink next;
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FrameRecording.FRAME_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private long firstTimestampNanos = -1;
+    private int frameCount = 0;
+    private IOException failure = null;
+    private boolean closed = false;
+
+    /**
+     * Creates the recording, replacing any file already there.
+     *
+     * @param next receives every frame once recorded, may be {@code null}.
+     */
+    public FrameRecorder(File file, FrameSink next) throws IOException {
+        this.output = new FileOutputStream(file);
+        this.channel = output.getChannel();
+        this.next = next;
+        final ByteBuffer header = ByteBuffer.allocate(FrameRecording.HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FrameRecording.MAGIC)
+                .putShort(FrameRecording.VERSION)
+                .putShort((short) FrameRecording.FRAME_HEADER_SIZE)
+                .putLong(0L);
+        header.flip();
+        try {
+            writeFully(header);
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void onFrame(byte[] nv21, int width, int height, int rotation, long timestampNanos) {
+        record(nv21, width, height, rotation, timestampNanos);
+        if (next != null) {
+            next.onFrame(nv21, width, height, rotation, timestampNanos);
+        }
+    }
+
+    private synchronized void record(byte[] nv21, int width, int height, int rotation,
+                                     long timestampNanos) {
+        if (closed || failure != null) {
+            return;
+        }
+        if (firstTimestampNanos < 0) {
+            firstTimestampNanos = timestampNanos;
+        }
+        final int length = width * height * 3 / 2;
+        frameHeader.clear();
+        frameHeader.putLong(timestampNanos - firstTimestampNanos)
+                .putInt(width)
+                .putInt(height)
+                .putInt(rotation)
+                .putInt(length);
+        frameHeader.flip();
+        try {
+            writeFully(frameHeader);
+            writeFully(ByteBuffer.wrap(nv21, 0, length));
+            frameCount++;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * @return frames recorded so far.
+     */
+    public synchronized int getFrameCount() {
+        return frameCount;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Stops recording and closes the file.
+     *
+     * @throws IOException the first error the recording ran into.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        output.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.zouyao.objectdetector.pipeline;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Camera preview frames recorded by a {@link FrameRecorder}, memory-mapped for playback by a
+ * {@link FrameReplayer}.
+ * <p>
+ * The file is a 16-byte header followed by the frames, each one a header and raw NV21 data:
+ * <pre>
+ * header: magic "FREC", version (short), frame header size (short), reserved (long)
+ * frame:  timestamp nanos since the first frame (long), width, height, rotation and
+ *         data length (4 ints), NV21 data
+ * </pre>
+ * A frame cut short by a crash while recording is ignored. Mapped files are limited to 2 GB,
+ * about two and a half minutes of 640x480 frames at 30 frames per second.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class FrameRecording implements Closeable {
+
+    static final int MAGIC = 0x46524543; // "FREC"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int FRAME_HEADER_SIZE = 24;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    // Offset of each frame's header.
+    private int[] offsets = new int[64];
+    private int count = 0;
+
+    private FrameRecording(RandomAccessFile file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @throws IOException if the file is not a frame recording or cannot be mapped.
+     */
+    public static FrameRecording open(File path) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            final long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to be mapped");
+            }
+            final MappedByteBuffer buffer = file.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            final FrameRecording recording = new FrameRecording(file, buffer);
+            recording.index(path);
+            return recording;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void index(File path) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a frame recording");
+        }
+        final short version = buffer.getShort(4);
+        if (version != VERSION || buffer.getShort(6) != FRAME_HEADER_SIZE) {
+            throw new IOException("Unsupported frame recording version " + version);
+        }
+        int offset = HEADER_SIZE;
+        while (offset + FRAME_HEADER_SIZE <= buffer.limit()) {
+            final int length = buffer.getInt(offset + 20);
+            if (length < 0 || length > buffer.limit() - offset - FRAME_HEADER_SIZE) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+            offset += FRAME_HEADER_SIZE + length;
+        }
+    }
+
+    public int getFrameCount() {
+        return count;
+    }
+
+    /**
+     * @return time of the frame, relative to the first frame.
+     */
+    public long getTimestampNanos(int index) {
+        return buffer.getLong(getOffset(index));
+    }
+
+    public int getWidth(int index) {
+        return buffer.getInt(getOffset(index) + 8);
+    }
+
+    public int getHeight(int index) {
+        return buffer.getInt(getOffset(index) + 12);
+    }
+
+    public int getRotation(int index) {
+        return buffer.getInt(getOffset(index) + 16);
+    }
+
+    /**
+     * @return length of the frame's NV21 data.
+     */
+    public int getLength(int index) {
+        return buffer.getInt(getOffset(index) + 20);
+    }
+
+    /**
+     * @return the largest frame length, to size the buffers frames are read into.
+     */
+    public int getMaxLength() {
+        int max = 0;
+        for (int i = 0; i < count; ++i) {
+            max = Math.max(max, getLength(i));
+        }
+        return max;
+    }
+
+    /**
+     * Copies the NV21 data of a frame.
+     *
+     * @param nv21 at least {@link #getLength(int)} bytes.
+     */
+    public void readFrame(int index, byte[] nv21) {
+        final int offset = getOffset(index);
+        final int length = buffer.getInt(offset + 20);
+        synchronized (buffer) {
+            buffer.position(offset + FRAME_HEADER_SIZE);
+            buffer.get(nv21, 0, length);
+        }
+    }
+
+    private int getOffset(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + count);
+        }
+        return offsets[index];
+    }
+
+    /**
+     * Closes the file. The mapping itself is released once garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,114 @@
+package com.zouyao.objectdetector.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FrameSource} playing back a {@link FrameRecording}, so the same session can be run
+ * through the detector on every build and the results compared.
+ * <p>
+ * Frames are delivered either at their recorded pace, to reproduce what the camera did, or as
+ * fast as the sink takes them, to measure throughput. Each frame is read into the same buffer,
+ * like the camera does, and stamped with the time it is delivered.
+ */
+public class FrameReplayer implements FrameSource {
+
+    private final FrameRecording recording;
+    private final boolean realTime;
+    private final int loops;
+    private Thread thread;
+
+    /**
+     * @param realTime whether to keep the recorded pace, rather than deliver frames as fast as
+     *                 the sink takes them.
+     * @param loops times the recording is played.
+     */
+    public FrameReplayer(FrameRecording recording, boolean realTime, int loops) {
+        if (loops < 1) {
+            throw new IllegalArgumentException("loops must be positive");
+        }
+        this.recording = recording;
+        this.realTime = realTime;
+        this.loops = loops;
+    }
+
+    /**
+     * Plays the recording on the calling thread.
+     *
+     * @return the number of frames delivered.
+     * @throws InterruptedException if the thread was interrupted, between two frames.
+     */
+    public long run(FrameSink sink) throws InterruptedException {
+        final int count = recording.getFrameCount();
+        if (count == 0) {
+            return 0;
+        }
+        final byte[] nv21 = new byte[recording.getMaxLength()];
+        // One loop lasts the recording plus one average frame interval.
+        final long lastTimestamp = recording.getTimestampNanos(count - 1);
+        final long loopNanos = count > 1 ? lastTimestamp + lastTimestamp / (count - 1) : 0;
+        final long startNanos = System.nanoTime();
+        long delivered = 0;
+        for (int loop = 0; loop < loops; ++loop) {
+            for (int i = 0; i < count; ++i) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                recording.readFrame(i, nv21);
+                if (realTime) {
+                    final long due = startNanos + loop * loopNanos
+                            + recording.getTimestampNanos(i);
+                    TimeUnit.NANOSECONDS.sleep(due - System.nanoTime());
+                }
+                sink.onFrame(nv21, recording.getWidth(i), recording.getHeight(i),
+                        recording.getRotation(i), System.nanoTime());
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Plays the recording on a thread of its own.
+     */
+    @Override
+    public synchronized void start(FrameSink sink) {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        thread = new Thread(() -> {
+            try {
+                run(sink);
+            } catch (InterruptedException e) {
+                // Stopped.
+            }
+        }, "FrameReplayer");
+        thread.start();
+    }
+
+    /**
+     * Stops the playback and waits for the frame being delivered.
+     */
+    @Override
+    public void stop() {
+        final Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            thread = null;
+        }
+        if (stopped == null) {
+            return;
+        }
+        stopped.interrupt();
+        boolean interrupted = false;
+        while (stopped.isAlive()) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.zouyao.objectdetector.pipeline;
+
+/**
+ * Receives camera preview frames, live from the camera or played back from a
+ * {@link FrameRecording}.
+ */
+public interface FrameSink {
+
+    /**
+     * Called for every frame. The source reuses the buffer once this returns, so anything kept
+     * longer has to be copied.
+     *
+     * @param nv21 the frame, at least {@code width * height * 3 / 2} bytes.
+     * @param rotation rotation reported by the camera for the frame.
+     * @param timestampNanos time the frame was received, from {@link System#nanoTime()}.
+     */
+    void onFrame(byte[] nv21, int width, int height, int rotation, long timestampNanos);
+}
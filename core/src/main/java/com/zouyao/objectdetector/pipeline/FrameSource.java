@@ -0,0 +1,18 @@
+package com.zouyao.objectdetector.pipeline;
+
+/**
+ * Where preview frames come from: the camera on a device, or a {@link FrameReplayer} so the
+ * same frames can be fed to the detector again, on a device or on any JVM.
+ */
+public interface FrameSource {
+
+    /**
+     * Starts delivering frames to {@code sink}, on a thread of the source.
+     */
+    void start(FrameSink sink);
+
+    /**
+     * Stops delivering frames. A frame being delivered may still finish.
+     */
+    void stop();
+}
@@ -0,0 +1,52 @@
+package com.zouyao.objectdetector.pipeline;
+
+/**
+ * Hands items produced on one thread (e.g. camera frames) to a worker running inference on
+ * another, deciding which items get processed when the worker cannot keep up.
+ *
+ * @param <T> type of the scheduled items.
+ */
+public interface InferenceScheduler<T> {
+
+    /**
+     * Does the actual work for an item. Always called on the scheduler's worker thread.
+     */
+    interface Worker<T> {
+        void process(T item);
+    }
+
+    /**
+     * Takes back items the scheduler is done with, either processed or dropped, so their
+     * memory can be reused.
+     */
+    interface Recycler<T> {
+        void recycle(T item);
+    }
+
+    /**
+     * Queues an item for processing. Never blocks.
+     *
+     * @throws IllegalStateException if the scheduler was shut down.
+     */
+    void submit(T item);
+
+    /**
+     * @return number of items passed to {@link #submit(Object)}.
+     */
+    long getReceivedCount();
+
+    /**
+     * @return number of items discarded without being processed.
+     */
+    long getDroppedCount();
+
+    /**
+     * @return number of items the worker finished processing.
+     */
+    long getProcessedCount();
+
+    /**
+     * Stops accepting items. Items that were not processed yet are dropped.
+     */
+    void shutdown();
+}
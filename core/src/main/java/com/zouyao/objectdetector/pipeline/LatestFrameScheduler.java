@@ -0,0 +1,208 @@
+package com.zouyao.objectdetector.pipeline;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link InferenceScheduler} with a single-slot mailbox: a newly submitted item replaces the one
+ * still waiting, so the worker always picks up the latest item and results are never staler
+ * than one run of the worker.
+ * <p>
+ * Exceptions thrown by the worker go to the {@link ErrorListener} if there is one, and the
+ * next item is processed as usual. Without one they propagate to the executor.
+ *
+ * @param <T> type of the scheduled items.
+ */
+public class LatestFrameScheduler<T> implements InferenceScheduler<T> {
+
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final Worker<T> worker;
+    private final Recycler<T> recycler;
+    private final ErrorListener errorListener;
+
+    private final Object lock = new Object();
+    // Guarded by lock.
+    private T pending;
+    private boolean draining;
+    private boolean shutdown;
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+
+    private final Runnable drainTask = this::drain;
+
+    /**
+     * Creates a scheduler running the worker on its own thread.
+     *
+     * @param threadName name of the worker thread.
+     * @param worker processes the items.
+     * @param recycler receives items once processed or dropped, may be {@code null}.
+     */
+    public LatestFrameScheduler(String threadName, Worker<T> worker, Recycler<T> recycler) {
+        this(threadName, worker, recycler, null);
+    }
+
+    /**
+     * Creates a scheduler running the worker on its own thread.
+     *
+     * @param threadName name of the worker thread.
+     * @param worker processes the items.
+     * @param recycler receives items once processed or dropped, may be {@code null}.
+     * @param errorListener notified of exceptions thrown by the worker, may be {@code null}.
+     */
+    public LatestFrameScheduler(String threadName, Worker<T> worker, Recycler<T> recycler,
+                                ErrorListener errorListener) {
+        this(Executors.newSingleThreadExecutor(namedThreadFactory(threadName)),
+                true, worker, recycler, errorListener);
+    }
+
+    /**
+     * Creates a scheduler running the worker on the given executor. At most one task is
+     * submitted to the executor at a time, so items are processed one after another.
+     *
+     * @param executor runs the worker, it is not shut down with the scheduler.
+     * @param worker processes the items.
+     * @param recycler receives items once processed or dropped, may be {@code null}.
+     */
+    public LatestFrameScheduler(Executor executor, Worker<T> worker, Recycler<T> recycler) {
+        this(executor, worker, recycler, null);
+    }
+
+    /**
+     * Creates a scheduler running the worker on the given executor. At most one task is
+     * submitted to the executor at a time, so items are processed one after another.
+     *
+     * @param executor runs the worker, it is not shut down with the scheduler.
+     * @param worker processes the items.
+     * @param recycler receives items once processed or dropped, may be {@code null}.
+     * @param errorListener notified of exceptions thrown by the worker, may be {@code null}.
+     */
+    public LatestFrameScheduler(Executor executor, Worker<T> worker, Recycler<T> recycler,
+                                ErrorListener errorListener) {
+        this(executor, false, worker, recycler, errorListener);
+    }
+
+    private LatestFrameScheduler(Executor executor, boolean ownsExecutor, Worker<T> worker,
+                                 Recycler<T> recycler, ErrorListener errorListener) {
+        this.executor = executor;
+        this.ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+        this.worker = worker;
+        this.recycler = recycler;
+        this.errorListener = errorListener;
+    }
+
+    @Override
+    public void submit(T item) {
+        T dropped;
+        boolean startDraining = false;
+        synchronized (lock) {
+            if (shutdown) {
+                throw new IllegalStateException("Scheduler is shut down");
+            }
+            receivedCount.incrementAndGet();
+            dropped = pending;
+            pending = item;
+            if (!draining) {
+                draining = true;
+                startDraining = true;
+            }
+        }
+        if (dropped != null) {
+            droppedCount.incrementAndGet();
+            recycle(dropped);
+        }
+        if (startDraining) {
+            executor.execute(drainTask);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            T item;
+            boolean stopped;
+            synchronized (lock) {
+                item = pending;
+                pending = null;
+                stopped = shutdown;
+                if (item == null || stopped) {
+                    draining = false;
+                }
+            }
+            if (item == null) {
+                return;
+            }
+            if (stopped) {
+                droppedCount.incrementAndGet();
+                recycle(item);
+                return;
+            }
+            try {
+                worker.process(item);
+                processedCount.incrementAndGet();
+            } catch (RuntimeException e) {
+                if (errorListener != null) {
+                    errorListener.onError(Thread.currentThread().getName(), e);
+                    continue;
+                }
+                // Let the next submit restart draining instead of wedging the mailbox.
+                synchronized (lock) {
+                    draining = false;
+                }
+                throw e;
+            } finally {
+                recycle(item);
+            }
+        }
+    }
+
+    private void recycle(T item) {
+        if (recycler != null) {
+            recycler.recycle(item);
+        }
+    }
+
+    @Override
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @Override
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    @Override
+    public void shutdown() {
+        T dropped;
+        synchronized (lock) {
+            shutdown = true;
+            dropped = pending;
+            pending = null;
+        }
+        if (dropped != null) {
+            droppedCount.incrementAndGet();
+            recycle(dropped);
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    static ThreadFactory namedThreadFactory(final String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
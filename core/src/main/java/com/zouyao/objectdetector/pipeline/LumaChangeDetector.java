@@ -0,0 +1,255 @@
+package com.zouyao.objectdetector.pipeline;
+
+/**
+ * Tells whether a camera frame differs enough from the last detected one to be worth detecting
+ * again, so a camera pointed at a static scene skips inference.
+ * <p>
+ * Only the luma plane is read, which NV21 stores first. It is reduced to a grid of cell
+ * averages, each sampled at a few points, so a frame costs a few thousand reads whatever the
+ * preview size. A cell changed when its average moved by more than {@code cellThreshold} luma
+ * levels, which absorbs sensor noise, and the frame changed when more than
+ * {@code changedCellFraction} of the cells did.
+ * <p>
+ * Deciding and committing are separate, since a frame let through may still be skipped further
+ * down, e.g. by a tracker. Only a frame handed to the detector is committed with
+ * {@link #commit()} and becomes the reference. Frames are compared to the reference, not to the
+ * previous frame, so a slow drift still adds up to a change. A frame is let through anyway once
+ * the last {@link #onDetected(long) published detection} is {@code maxStalenessNanos} old, so
+ * results never go stale for longer than that.
+ * <p>
+ * {@link #shouldDetect(byte[], int, int, long)} and {@link #commit()} are meant to be called
+ * from the camera thread only, {@link #onDetected(long)} and the counters from any thread.
+ * Use {@link #getBuilder()} to create a new instance.
+ */
+public class LumaChangeDetector {
+
+    private final int gridWidth;
+    private final int gridHeight;
+    private final int samplesPerCell;
+    private final int cellThreshold;
+    private final int maxChangedCells;
+    private final long maxStalenessNanos;
+
+    // Cell sums of the last committed frame and of the current frame.
+    private int[] reference;
+    private int[] current;
+    private boolean hasReference = false;
+    private int referenceWidth;
+    private int referenceHeight;
+    // Set when the current frame was let through and can be committed.
+    private boolean pending = false;
+    private int currentWidth;
+    private int currentHeight;
+    private volatile long lastDetectionNanos;
+
+    private volatile long detectedCount = 0;
+    private volatile long gatedCount = 0;
+
+    private LumaChangeDetector(Builder builder) {
+        gridWidth = builder.gridWidth;
+        gridHeight = builder.gridHeight;
+        samplesPerCell = builder.samplesPerCell;
+        // Sums over samplesPerCell^2 samples are compared, not averages.
+        cellThreshold = builder.cellThreshold * samplesPerCell * samplesPerCell;
+        maxChangedCells = (int) (builder.changedCellFraction * gridWidth * gridHeight);
+        maxStalenessNanos = builder.maxStalenessNanos;
+        reference = new int[gridWidth * gridHeight];
+        current = new int[gridWidth * gridHeight];
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Decides whether a frame goes to the detector. The frame only becomes the reference the
+     * next frames are compared to once it is {@link #commit() committed}.
+     *
+     * @param nv21 the frame, its first {@code width * height} bytes being the luma plane.
+     * @param timestampNanos time of the frame, from {@link System#nanoTime()}.
+     * @return {@code true} if the frame should be detected, {@code false} if the previous
+     *         results still hold.
+     */
+    public boolean shouldDetect(byte[] nv21, int width, int height, long timestampNanos) {
+        if (width < gridWidth || height < gridHeight) {
+            throw new IllegalArgumentException(
+                    "Frame " + width + "x" + height + " is smaller than the grid");
+        }
+        computeSignature(nv21, width, height, current);
+        currentWidth = width;
+        currentHeight = height;
+        pending = !hasReference
+                || width != referenceWidth
+                || height != referenceHeight
+                || timestampNanos - lastDetectionNanos >= maxStalenessNanos
+                || countChangedCells() > maxChangedCells;
+        if (!pending) {
+            gatedCount++;
+        }
+        return pending;
+    }
+
+    /**
+     * Makes the frame last let through by {@link #shouldDetect(byte[], int, int, long)} the
+     * reference. Call it once the frame is handed to the detector.
+     *
+     * @throws IllegalStateException if the last frame was not let through or was committed.
+     */
+    public void commit() {
+        if (!pending) {
+            throw new IllegalStateException("No frame let through to commit");
+        }
+        final int[] swap = reference;
+        reference = current;
+        current = swap;
+        hasReference = true;
+        referenceWidth = currentWidth;
+        referenceHeight = currentHeight;
+        pending = false;
+        detectedCount++;
+    }
+
+    /**
+     * Records that the results of a detected frame were published, which restarts the
+     * staleness limit. Until then, frames of a stale scene keep being let through.
+     *
+     * @param timestampNanos time of the detected frame.
+     */
+    public void onDetected(long timestampNanos) {
+        lastDetectionNanos = timestampNanos;
+    }
+
+    /**
+     * Forgets the reference frame, so the next frame is detected whatever it shows.
+     */
+    public void reset() {
+        hasReference = false;
+        pending = false;
+    }
+
+    /**
+     * @return frames committed, that is handed to the detector.
+     */
+    public long getDetectedCount() {
+        return detectedCount;
+    }
+
+    /**
+     * @return frames skipped because the scene did not change.
+     */
+    public long getGatedCount() {
+        return gatedCount;
+    }
+
+    private void computeSignature(byte[] luma, int width, int height, int[] signature) {
+        int cell = 0;
+        for (int gy = 0; gy < gridHeight; ++gy) {
+            final int top = gy * height / gridHeight;
+            final int cellHeight = (gy + 1) * height / gridHeight - top;
+            for (int gx = 0; gx < gridWidth; ++gx) {
+                final int left = gx * width / gridWidth;
+                final int cellWidth = (gx + 1) * width / gridWidth - left;
+                int sum = 0;
+                // Samples at the centers of a samplesPerCell x samplesPerCell grid.
+                for (int sy = 0; sy < samplesPerCell; ++sy) {
+                    final int row = (top + (2 * sy + 1) * cellHeight / (2 * samplesPerCell))
+                            * width;
+                    for (int sx = 0; sx < samplesPerCell; ++sx) {
+                        sum += luma[row + left + (2 * sx + 1) * cellWidth / (2 * samplesPerCell)]
+                                & 0xFF;
+                    }
+                }
+                signature[cell++] = sum;
+            }
+        }
+    }
+
+    private int countChangedCells() {
+        int changed = 0;
+        for (int i = 0; i < current.length; ++i) {
+            if (Math.abs(current[i] - reference[i]) > cellThreshold) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Builder for {@link LumaChangeDetector}.
+     */
+    public static class Builder {
+
+        private int gridWidth = 32;
+        private int gridHeight = 24;
+        private int samplesPerCell = 4;
+        private int cellThreshold = 12;
+        private float changedCellFraction = 0.01f;
+        private long maxStalenessNanos = 2_000_000_000L;
+
+        private Builder() {
+        }
+
+        /**
+         * @param gridWidth cells across the frame.
+         * @param gridHeight cells down the frame.
+         */
+        public Builder grid(int gridWidth, int gridHeight) {
+            if (gridWidth < 1 || gridHeight < 1) {
+                throw new IllegalArgumentException("grid must have at least one cell");
+            }
+            this.gridWidth = gridWidth;
+            this.gridHeight = gridHeight;
+            return this;
+        }
+
+        /**
+         * @param samplesPerCell luma samples read along each side of a cell.
+         */
+        public Builder samplesPerCell(int samplesPerCell) {
+            if (samplesPerCell < 1 || samplesPerCell > 64) {
+                throw new IllegalArgumentException("samplesPerCell must be between 1 and 64");
+            }
+            this.samplesPerCell = samplesPerCell;
+            return this;
+        }
+
+        /**
+         * @param cellThreshold change of a cell's average luma, out of 255, above which the cell
+         *                      changed.
+         */
+        public Builder cellThreshold(int cellThreshold) {
+            if (cellThreshold < 0) {
+                throw new IllegalArgumentException("cellThreshold must not be negative");
+            }
+            this.cellThreshold = cellThreshold;
+            return this;
+        }
+
+        /**
+         * @param changedCellFraction fraction of the cells that have to change for the frame to
+         *                            be detected.
+         */
+        public Builder changedCellFraction(float changedCellFraction) {
+            if (changedCellFraction < 0f || changedCellFraction >= 1f) {
+                throw new IllegalArgumentException("changedCellFraction must be in [0, 1)");
+            }
+            this.changedCellFraction = changedCellFraction;
+            return this;
+        }
+
+        /**
+         * @param maxStalenessNanos longest time without detection, however static the scene.
+         */
+        public Builder maxStalenessNanos(long maxStalenessNanos) {
+            if (maxStalenessNanos <= 0) {
+                throw new IllegalArgumentException("maxStalenessNanos must be positive");
+            }
+            this.maxStalenessNanos = maxStalenessNanos;
+            return this;
+        }
+
+        public LumaChangeDetector build() {
+            return new LumaChangeDetector(this);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package com.zouyao.objectdetector.pipeline;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zouyao.objectdetector.DetectionPostProcessor;
+import com.zouyao.objectdetector.Detections;
+import com.zouyao.objectdetector.image.Nv21Converter;
+import com.zouyao.objectdetector.metrics.FrameMetrics;
+import com.zouyao.objectdetector.quality.AdaptiveQualityController;
+import com.zouyao.objectdetector.store.DetectionLogWriter;
+import com.zouyao.objectdetector.tracking.ObjectTracker;
+
+/**
+ * Detects objects on preview frames, whichever {@link FrameSource} they come from and wherever
+ * the results go, so the app and the replay tool share the same path.
+ * <p>
+ * Frames are copied into buffers of a {@link FrameBufferPool} and handed to an
+ * {@link InferenceScheduler}, so the thread delivering frames never waits for inference. When
+ * the detector is slower than the frames only the latest frame is kept. Detection itself is
+ * split into preprocessing, inference and postprocessing stages of a {@link StagedPipeline}, so
+ * consecutive frames are worked on in parallel. With an {@link ObjectTracker}, frames the
+ * tracker can answer skip detection altogether. With an {@link AdaptiveQualityController},
+ * the share of frames detected and the confidence threshold follow its settings to hold a
+ * latency target, frames left out are still answered by the tracker. With a
+ * {@link DetectionLogWriter}, the detections of every detected frame are logged. With a
+ * {@link LumaChangeDetector}, frames of a static scene skip detection.
+ * Without a tracker the previous results are delivered again.
+ * <p>
+ * Results are converted by the {@link ResultConverter} on the thread that produced them, and
+ * handed to the {@link ResultListener} on the result executor, e.g. the main thread of an app.
+ * <p>
+ * {@link #onFrame(byte[], int, int, int, long)} is meant to be called from one thread at a
+ * time. Use {@link #getBuilder()} to create a new instance.
+ *
+ * @param <R> type of the results handed to the listener.
+ */
+public class PreviewDetector<R> implements FrameSink {
+
+    /**
+     * Runs the model on one input image.
+     */
+    public interface Detector {
+
+        /**
+         * @param rgbValues the input image, {@code inputSize * inputSize * 3} bytes in RGB
+         *                  order in a direct buffer.
+         * @param results where the detections are written, with locations in input pixels.
+         * @throws InterruptedException if interrupted while waiting for the model.
+         */
+        void detect(ByteBuffer rgbValues, Detections results) throws InterruptedException;
+    }
+
+    /**
+     * Turns detections into the results handed to the listener. Called on the thread that
+     * produced the detections, which are only valid during the call.
+     */
+    public interface ResultConverter<R> {
+
+        /**
+         * @param detections the detections, with locations relative to the rotated frame.
+         * @param ids track ids of the detections, or {@code null} without a tracker.
+         * @param minimumConfidence confidence below which detections are not shown.
+         */
+        R convert(Detections detections, int[] ids, float minimumConfidence);
+    }
+
+    /**
+     * Notified of the results of every frame.
+     */
+    public interface ResultListener<R> {
+
+        /**
+         * Called on the result executor.
+         */
+        void onResults(R results);
+    }
+
+    /**
+     * Frames in flight at once: one being copied, one waiting in the scheduler and one being
+     * preprocessed.
+     */
+    public static final int FRAMES_IN_FLIGHT = 3;
+
+    // One job per pipeline stage.
+    private static final int PIPELINE_DEPTH = 3;
+
+    private final Detector detector;
+    private final int inputSize;
+    private final float minimumConfidence;
+    private final ResultConverter<R> converter;
+    private final Executor resultExecutor;
+    private final ResultListener<R> listener;
+    private final InferenceScheduler<PreviewFrame> scheduler;
+    private final FrameBufferPool framePool;
+    private final StagedPipeline<DetectionJob> pipeline;
+    private final BlockingQueue<DetectionJob> freeJobs = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+    private final ObjectTracker tracker;
+    private final FrameMetrics metrics;
+    private final AdaptiveQualityController qualityController;
+    private final DetectionLogWriter detectionLog;
+    private final LumaChangeDetector changeDetector;
+    // Last results delivered, delivered again while the scene does not change.
+    private volatile R lastResults = null;
+    private volatile boolean shutdown = false;
+    private final AtomicLong detectedCount = new AtomicLong();
+    // Only touched from the frame thread.
+    private final Detections predictedDetections = new Detections(Detections.MAX_DETECTIONS);
+    private final int[] predictedIds = new int[Detections.MAX_DETECTIONS];
+    private long frameCount = 0;
+    // Only touched from the preprocessing stage.
+    private final Nv21Converter nv21Converter;
+    // Only touched from the postprocessing stage.
+    private final DetectionPostProcessor postProcessor;
+    private final Detections trackedDetections = new Detections(Detections.MAX_DETECTIONS);
+    private final int[] trackedIds = new int[Detections.MAX_DETECTIONS];
+
+    private PreviewDetector(Builder<R> builder) {
+        if (builder.detector == null) {
+            throw new IllegalStateException("A detector must be set");
+        }
+        detector = builder.detector;
+        inputSize = builder.inputSize;
+        minimumConfidence = builder.minimumConfidence;
+        converter = builder.converter;
+        resultExecutor = builder.resultExecutor;
+        listener = builder.listener;
+        tracker = builder.tracker;
+        qualityController = builder.qualityController;
+        detectionLog = builder.detectionLog;
+        changeDetector = builder.changeDetector;
+        metrics = builder.metrics != null ? builder.metrics : new FrameMetrics();
+        framePool = builder.framePool != null
+                ? builder.framePool
+                : FrameBufferPool.getBuilder().capacity(FRAMES_IN_FLIGHT).build();
+        nv21Converter = new Nv21Converter(inputSize);
+        postProcessor = DetectionPostProcessor.getBuilder()
+                .minimumConfidence(minimumConfidence)
+                .iouThreshold(builder.iouThreshold)
+                .build();
+        for (int i = 0; i < PIPELINE_DEPTH; ++i) {
+            freeJobs.add(new DetectionJob(inputSize));
+        }
+        pipeline = StagedPipeline.<DetectionJob>getBuilder()
+                .name(builder.name)
+                .stage("preprocess", this::preprocess)
+                .stage("inference", this::infer)
+                .stage("postprocess", this::postprocess)
+                .recycler(freeJobs::offer)
+                .errorListener(builder.errorListener)
+                .build();
+        if (builder.executor != null) {
+            scheduler = new LatestFrameScheduler<>(builder.executor, this::detect,
+                    framePool::release, builder.errorListener);
+        } else {
+            scheduler = new LatestFrameScheduler<>(builder.name, this::detect,
+                    framePool::release, builder.errorListener);
+        }
+    }
+
+    public static <R> Builder<R> getBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * @return the scheduler feeding the detector, for its frame counters.
+     */
+    public InferenceScheduler<PreviewFrame> getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the detection pipeline, for its per-stage latency and occupancy.
+     */
+    public StagedPipeline<?> getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return the gate skipping static frames, for its counters, or {@code null} if every
+     *         frame is detected.
+     */
+    public LumaChangeDetector getChangeDetector() {
+        return changeDetector;
+    }
+
+    /**
+     * @return the pool frames are copied into, for its hit and miss counters.
+     */
+    public FrameBufferPool getFramePool() {
+        return framePool;
+    }
+
+    /**
+     * @return frames detected and their results published.
+     */
+    public long getDetectedCount() {
+        return detectedCount.get();
+    }
+
+    /**
+     * Stops the detection threads and lets go of their buffers. Frames arriving afterwards are
+     * ignored. Call it when the frame source has stopped.
+     */
+    public void shutdown() {
+        shutdown = true;
+        scheduler.shutdown();
+        pipeline.shutdown();
+    }
+
+    @Override
+    public void onFrame(byte[] nv21, int width, int height, int rotation, long timestampNanos) {
+        if (shutdown) {
+            return;
+        }
+        AdaptiveQualityController.Settings settings = getQualitySettings();
+        if (settings != null && frameCount++ % settings.getFrameInterval() != 0) {
+            // Only detection is throttled, the tracker keeps the overlay moving.
+            if (tracker != null) {
+                predict(timestampNanos, settings);
+            }
+            return;
+        }
+        if (changeDetector != null
+                && !changeDetector.shouldDetect(nv21, width, height, timestampNanos)) {
+            R results = lastResults;
+            // A tracker's boxes are left alone, the previous results would make them jump.
+            if (tracker == null && results != null) {
+                // Not a processed frame, so not counted in the frame metrics.
+                resultExecutor.execute(() -> listener.onResults(results));
+            }
+            return;
+        }
+        if (tracker != null
+                && !tracker.shouldDetect(timestampNanos, getMinimumConfidence(settings))) {
+            predict(timestampNanos, settings);
+            return;
+        }
+        PreviewFrame previewFrame = framePool.acquire(width * height * 3 / 2);
+        previewFrame.set(nv21, width, height, rotation, timestampNanos);
+        metrics.recordSince(FrameMetrics.Stage.CAMERA_FRAME, timestampNanos);
+        try {
+            scheduler.submit(previewFrame);
+        } catch (IllegalStateException e) {
+            // Shut down while this frame was being copied.
+            framePool.release(previewFrame);
+            return;
+        }
+        if (changeDetector != null) {
+            changeDetector.commit();
+        }
+    }
+
+    private void predict(long timestampNanos, AdaptiveQualityController.Settings settings) {
+        tracker.predict(timestampNanos, predictedDetections, predictedIds);
+        publish(converter.convert(
+                predictedDetections, predictedIds, getMinimumConfidence(settings)));
+    }
+
+    private void detect(PreviewFrame frame) {
+        try {
+            DetectionJob job = freeJobs.take();
+            if (shutdown) {
+                // The pipeline no longer takes jobs.
+                freeJobs.offer(job);
+                return;
+            }
+            job.frame = frame;
+            pipeline.submit(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean preprocess(DetectionJob job) {
+        PreviewFrame frame = job.frame;
+        // The frame goes back to the scheduler once this stage returns.
+        job.frame = null;
+        long start = System.nanoTime();
+        // The camera reports the screen rotation, the image is rotated the other way.
+        int rotation = (360 - frame.getRotation()) % 360;
+        nv21Converter.convert(frame.getData(), frame.getWidth(), frame.getHeight(), rotation,
+                job.rgbValues);
+        job.minimumConfidence = getMinimumConfidence(getQualitySettings());
+        job.contentWidth = nv21Converter.getContentWidth();
+        job.contentHeight = nv21Converter.getContentHeight();
+        job.timestampNanos = frame.getTimestampNanos();
+        metrics.recordSince(FrameMetrics.Stage.YUV_DECODE, start);
+        return true;
+    }
+
+    private boolean infer(DetectionJob job) {
+        try {
+            detector.detect(job.rgbValues, job.detections);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean postprocess(DetectionJob job) {
+        long start = System.nanoTime();
+        postProcessor.process(job.detections);
+        job.detections.scaleLocations(1.0f / job.contentWidth, 1.0f / job.contentHeight);
+        if (detectionLog != null) {
+            detectionLog.offer(System.currentTimeMillis(), job.detections, job.minimumConfidence);
+        }
+        R results;
+        if (tracker != null) {
+            tracker.update(job.detections, job.timestampNanos);
+            tracker.predict(job.timestampNanos, trackedDetections, trackedIds);
+            results = converter.convert(trackedDetections, trackedIds, job.minimumConfidence);
+        } else {
+            results = converter.convert(job.detections, null, job.minimumConfidence);
+        }
+
+        publish(results);
+        if (changeDetector != null) {
+            changeDetector.onDetected(job.timestampNanos);
+        }
+        detectedCount.incrementAndGet();
+        long now = System.nanoTime();
+        metrics.record(FrameMetrics.Stage.POSTPROCESS, now - start);
+        metrics.record(FrameMetrics.Stage.END_TO_END, now - job.timestampNanos);
+        if (qualityController != null) {
+            qualityController.recordLatency(now - job.timestampNanos);
+        }
+        return true;
+    }
+
+    private AdaptiveQualityController.Settings getQualitySettings() {
+        return qualityController != null ? qualityController.getSettings() : null;
+    }
+
+    private float getMinimumConfidence(AdaptiveQualityController.Settings settings) {
+        return settings != null
+                ? Math.max(minimumConfidence, settings.getMinimumConfidence())
+                : minimumConfidence;
+    }
+
+    /**
+     * Delivers fresh results and keeps them for the frames that skip detection.
+     */
+    private void publish(R results) {
+        lastResults = results;
+        resultExecutor.execute(() -> {
+            metrics.onFrameDelivered(System.nanoTime());
+            listener.onResults(results);
+        });
+    }
+
+    /**
+     * Buffers a frame needs on its way through the pipeline.
+     */
+    private static class DetectionJob {
+        // Off-heap, written by the converter and fed to the detector without another copy.
+        final ByteBuffer rgbValues;
+        final Detections detections = new Detections(Detections.MAX_DETECTIONS);
+        PreviewFrame frame;
+        int contentWidth;
+        int contentHeight;
+        long timestampNanos;
+        float minimumConfidence;
+
+        DetectionJob(int inputSize) {
+            rgbValues = ByteBuffer.allocateDirect(inputSize * inputSize * 3);
+        }
+    }
+
+    /**
+     * Builder for {@link PreviewDetector}.
+     */
+    public static class Builder<R> {
+
+        private String name = "PreviewDetector";
+        private Detector detector = null;
+        private int inputSize = 0;
+        private float minimumConfidence = 0.3f;
+        private float iouThreshold = 0.5f;
+        private ResultConverter<R> converter = (detections, ids, minimumConfidence) -> null;
+        private Executor resultExecutor = Runnable::run;
+        private ResultListener<R> listener = results -> {
+            // Do nothing
+        };
+        private Executor executor = null;
+        private ObjectTracker tracker = null;
+        private AdaptiveQualityController qualityController = null;
+        private DetectionLogWriter detectionLog = null;
+        private LumaChangeDetector changeDetector = null;
+        private FrameBufferPool framePool = null;
+        private FrameMetrics metrics = null;
+        private ErrorListener errorListener = ErrorListener.NULL;
+
+        private Builder() {
+        }
+
+        /**
+         * @param name name of the scheduler thread and prefix for the stage threads.
+         */
+        public Builder<R> name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * @param detector runs the model, called from the inference stage only.
+         * @param inputSize width and height of the square input the detector takes.
+         */
+        public Builder<R> detector(Detector detector, int inputSize) {
+            if (inputSize < 1) {
+                throw new IllegalArgumentException("inputSize must be positive");
+            }
+            this.detector = detector;
+            this.inputSize = inputSize;
+            return this;
+        }
+
+        /**
+         * @param minimumConfidence confidence below which detections are dropped, raised by the
+         *                          quality controller if there is one.
+         */
+        public Builder<R> minimumConfidence(float minimumConfidence) {
+            this.minimumConfidence = minimumConfidence;
+            return this;
+        }
+
+        /**
+         * @param iouThreshold overlap above which the weaker of two detections is suppressed.
+         */
+        public Builder<R> iouThreshold(float iouThreshold) {
+            this.iouThreshold = iouThreshold;
+            return this;
+        }
+
+        /**
+         * @param converter turns detections into results, by default results are {@code null}.
+         */
+        public Builder<R> converter(ResultConverter<R> converter) {
+            this.converter = converter;
+            return this;
+        }
+
+        /**
+         * @param resultExecutor where the listener is called, by default on the thread that
+         *                       produced the results.
+         */
+        public Builder<R> resultExecutor(Executor resultExecutor) {
+            this.resultExecutor = resultExecutor;
+            return this;
+        }
+
+        /**
+         * @param listener notified of the results of every frame.
+         */
+        public Builder<R> listener(ResultListener<R> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param executor runs the detection, by default a dedicated thread is created.
+         */
+        public Builder<R> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param tracker decides which frames need detection and tracks objects in between,
+         *                by default every frame is detected.
+         */
+        public Builder<R> tracker(ObjectTracker tracker) {
+            this.tracker = tracker;
+            return this;
+        }
+
+        /**
+         * @param qualityController detects fewer frames and raises the confidence threshold
+         *                          when detection is too slow, by default every frame is
+         *                          detected at full quality.
+         */
+        public Builder<R> qualityController(AdaptiveQualityController qualityController) {
+            this.qualityController = qualityController;
+            return this;
+        }
+
+        /**
+         * @param detectionLog where the detections of every detected frame are logged, by
+         *                     default they are not kept.
+         */
+        public Builder<R> detectionLog(DetectionLogWriter detectionLog) {
+            this.detectionLog = detectionLog;
+            return this;
+        }
+
+        /**
+         * @param changeDetector skips detection while the scene does not change, by default
+         *                       every frame is detected.
+         */
+        public Builder<R> changeDetector(LumaChangeDetector changeDetector) {
+            this.changeDetector = changeDetector;
+            return this;
+        }
+
+        /**
+         * @param framePool where frames are copied, by default a pool of
+         *                  {@link #FRAMES_IN_FLIGHT} frames without leak detection.
+         */
+        public Builder<R> framePool(FrameBufferPool framePool) {
+            this.framePool = framePool;
+            return this;
+        }
+
+        /**
+         * @param metrics receives the per-stage and end-to-end latencies and the delivered
+         *                frames, by default they are kept privately.
+         */
+        public Builder<R> metrics(FrameMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param errorListener notified of exceptions thrown while detecting, by default they
+         *                      are only counted in the stage metrics.
+         */
+        public Builder<R> errorListener(ErrorListener errorListener) {
+            this.errorListener = errorListener != null ? errorListener : ErrorListener.NULL;
+            return this;
+        }
+
+        /**
+         * Creates the detector and starts its threads.
+         *
+         * @throws IllegalStateException if no detector was set.
+         */
+        public PreviewDetector<R> build() {
+            return new PreviewDetector<>(this);
+        }
+    }
+}
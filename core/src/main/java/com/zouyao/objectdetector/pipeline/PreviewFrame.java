@@ -0,0 +1,70 @@
+package com.zouyao.objectdetector.pipeline;
+
+/**
+ * Copy of a camera preview frame that can be processed after the camera reused its buffer.
+ * <p>
+ * The pixel buffer is kept when the frame is refilled, so a recycled instance only allocates
+ * when the preview size grows. Instances are recycled through a {@link FrameBufferPool}.
+ */
+public class PreviewFrame {
+    private byte[] data = new byte[0];
+    private int width;
+    private int height;
+    private int rotation;
+    private long timestampNanos;
+
+    /**
+     * Copies an NV21 image into this frame.
+     *
+     * @param image NV21 data, at least {@code width * height * 3 / 2} bytes.
+     * @param width width of the image.
+     * @param height height of the image.
+     * @param rotation rotation reported by the camera for the image.
+     * @param timestampNanos time the frame was received, from {@link System#nanoTime()}.
+     */
+    public void set(byte[] image, int width, int height, int rotation, long timestampNanos) {
+        final int length = width * height * 3 / 2;
+        reserve(length);
+        System.arraycopy(image, 0, data, 0, length);
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.timestampNanos = timestampNanos;
+    }
+
+    /**
+     * @return bytes the frame holds without allocating.
+     */
+    int getCapacity() {
+        return data.length;
+    }
+
+    /**
+     * Grows the buffer to hold at least {@code length} bytes, dropping its content.
+     */
+    void reserve(int length) {
+        if (data.length < length) {
+            data = new byte[length];
+        }
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+}
@@ -0,0 +1,137 @@
+package com.zouyao.objectdetector.pipeline;
+
+/**
+ * Picks the camera preview size, as small as possible so every frame costs little to copy and
+ * convert, but large enough for the detector and for the screen.
+ * <p>
+ * The preview fills the view with a centered crop, so only part of each frame is visible. A
+ * size qualifies when the visible part covers a detector input without upscaling, and when it
+ * is upscaled on screen by at most {@code 1 / minDisplayScale}. The smallest qualifying size
+ * is picked. When none qualifies, the largest size is, as it comes closest.
+ * <p>
+ * Cameras report sizes in landscape, so sizes and the view are compared by their long and
+ * short sides, whatever the orientation of the screen.
+ * <p>
+ * Use {@link #getBuilder()} to create a new instance.
+ */
+public class PreviewSizePolicy {
+
+    private final int inputSize;
+    private final int viewLongSide;
+    private final int viewShortSide;
+    private final float minDisplayScale;
+
+    private PreviewSizePolicy(Builder builder) {
+        inputSize = builder.inputSize;
+        viewLongSide = Math.max(builder.viewWidth, builder.viewHeight);
+        viewShortSide = Math.min(builder.viewWidth, builder.viewHeight);
+        minDisplayScale = builder.minDisplayScale;
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @param widths widths of the supported preview sizes.
+     * @param heights heights of the supported preview sizes, in the same order.
+     * @return the index of the size to use, or -1 if there is none.
+     */
+    public int select(int[] widths, int[] heights) {
+        if (widths.length != heights.length) {
+            throw new IllegalArgumentException("Expected as many widths as heights");
+        }
+        int best = -1;
+        long bestArea = Long.MAX_VALUE;
+        int largest = -1;
+        long largestArea = 0;
+        for (int i = 0; i < widths.length; ++i) {
+            final long area = (long) widths[i] * heights[i];
+            if (area <= 0) {
+                continue;
+            }
+            if (area > largestArea) {
+                largest = i;
+                largestArea = area;
+            }
+            if (area < bestArea && qualifies(widths[i], heights[i])) {
+                best = i;
+                bestArea = area;
+            }
+        }
+        return best >= 0 ? best : largest;
+    }
+
+    /**
+     * @return whether the visible part of a frame of this size is sharp enough for the
+     *         detector and for the screen.
+     */
+    public boolean qualifies(int width, int height) {
+        final int longSide = Math.max(width, height);
+        final int shortSide = Math.min(width, height);
+        // Scale from frame to view pixels, filling the view.
+        final float scale = Math.max(
+                viewLongSide / (float) longSide, viewShortSide / (float) shortSide);
+        final float visibleLongSide = viewLongSide / scale;
+        final float visibleShortSide = viewShortSide / scale;
+        return Math.min(visibleLongSide, visibleShortSide) >= inputSize
+                && scale * minDisplayScale <= 1f;
+    }
+
+    /**
+     * Builder for {@link PreviewSizePolicy}.
+     */
+    public static class Builder {
+
+        private int inputSize = 300;
+        private int viewWidth = 0;
+        private int viewHeight = 0;
+        private float minDisplayScale = 0.5f;
+
+        private Builder() {
+        }
+
+        /**
+         * @param inputSize width and height of the detector input.
+         */
+        public Builder inputSize(int inputSize) {
+            if (inputSize < 1) {
+                throw new IllegalArgumentException("inputSize must be positive");
+            }
+            this.inputSize = inputSize;
+            return this;
+        }
+
+        /**
+         * @param viewWidth width of the view showing the preview, in pixels.
+         * @param viewHeight height of the view showing the preview, in pixels.
+         */
+        public Builder viewSize(int viewWidth, int viewHeight) {
+            if (viewWidth < 1 || viewHeight < 1) {
+                throw new IllegalArgumentException("view size must be positive");
+            }
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            return this;
+        }
+
+        /**
+         * @param minDisplayScale smallest ratio of frame pixels to view pixels across the
+         *                        visible part, 1 for a pixel-exact preview.
+         */
+        public Builder minDisplayScale(float minDisplayScale) {
+            if (minDisplayScale <= 0f || minDisplayScale > 1f) {
+                throw new IllegalArgumentException("minDisplayScale must be in (0, 1]");
+            }
+            this.minDisplayScale = minDisplayScale;
+            return this;
+        }
+
+        public PreviewSizePolicy build() {
+            if (viewWidth == 0) {
+                throw new IllegalStateException("viewSize is required");
+            }
+            return new PreviewSizePolicy(this);
+        }
+    }
+}
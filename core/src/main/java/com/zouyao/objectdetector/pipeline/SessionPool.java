@@ -0,0 +1,145 @@
+package com.zouyao.objectdetector.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixed set of interchangeable sessions, e.g. detectors each owning a TensorFlow session, shared
+ * between callers of different priority.
+ * <p>
+ * A {@link Priority#BACKGROUND} caller only gets a session when no
+ * {@link Priority#INTERACTIVE} caller is waiting, so background work never delays the live
+ * preview by more than the run already in progress.
+ *
+ * @param <T> type of the sessions.
+ */
+public class SessionPool<T> {
+
+    /**
+     * Priority of a caller, in order of precedence.
+     */
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    private final List<T> sessions;
+    private final Object lock = new Object();
+    // Guarded by lock.
+    private final ArrayDeque<T> idle;
+    private final int[] waiting = new int[Priority.values().length];
+
+    private final WaitMetrics[] waitMetrics = new WaitMetrics[Priority.values().length];
+
+    /**
+     * @param sessions the pooled sessions, all idle.
+     */
+    public SessionPool(Collection<T> sessions) {
+        if (sessions.isEmpty()) {
+            throw new IllegalArgumentException("Pool needs at least one session");
+        }
+        this.sessions = Collections.unmodifiableList(new ArrayList<>(sessions));
+        this.idle = new ArrayDeque<>(sessions);
+        for (Priority priority : Priority.values()) {
+            waitMetrics[priority.ordinal()] = new WaitMetrics();
+        }
+    }
+
+    /**
+     * Takes an idle session, waiting for one if needed. Must be followed by
+     * {@link #release(Object)}.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public T acquire(Priority priority) throws InterruptedException {
+        final long start = System.nanoTime();
+        T session;
+        synchronized (lock) {
+            waiting[priority.ordinal()]++;
+            try {
+                while (idle.isEmpty() || hasPrecedingWaiters(priority)) {
+                    lock.wait();
+                }
+            } finally {
+                waiting[priority.ordinal()]--;
+            }
+            session = idle.pop();
+        }
+        waitMetrics[priority.ordinal()].record(System.nanoTime() - start);
+        return session;
+    }
+
+    /**
+     * Returns a session taken with {@link #acquire(Priority)}.
+     */
+    public void release(T session) {
+        synchronized (lock) {
+            idle.push(session);
+            // Waiters of both priorities share the monitor, let them sort out precedence.
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return all sessions of the pool, idle or not.
+     */
+    public List<T> getSessions() {
+        return sessions;
+    }
+
+    public int getSize() {
+        return sessions.size();
+    }
+
+    /**
+     * @return how long callers of the given priority waited for a session.
+     */
+    public WaitMetrics getWaitMetrics(Priority priority) {
+        return waitMetrics[priority.ordinal()];
+    }
+
+    private boolean hasPrecedingWaiters(Priority priority) {
+        for (int i = 0; i < priority.ordinal(); ++i) {
+            if (waiting[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Time callers of one priority spent in {@link #acquire(Priority)}.
+     */
+    public static class WaitMetrics {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized double getAverageMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("n=%d avg=%.1fms max=%.1fms",
+                    count, getAverageMillis(), getMaxMillis());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.zouyao.objectdetector.pipeline;
+
+/**
+ * Latency and occupancy of one pipeline stage.
+ * <p>
+ * Written by the stage's thread only, read from any thread.
+ */
+public class StageMetrics {
+    private final String name;
+    private final long startNanos = System.nanoTime();
+
+    private volatile long processedCount;
+    private volatile long errorCount;
+    private volatile long busyNanos;
+    private volatile long lastNanos;
+    private volatile long maxNanos;
+
+    StageMetrics(String name) {
+        this.name = name;
+    }
+
+    void record(long durationNanos, boolean failed) {
+        processedCount++;
+        if (failed) {
+            errorCount++;
+        }
+        busyNanos += durationNanos;
+        lastNanos = durationNanos;
+        if (durationNanos > maxNanos) {
+            maxNanos = durationNanos;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public double getAverageMillis() {
+        final long count = processedCount;
+        return count == 0 ? 0 : busyNanos / 1e6 / count;
+    }
+
+    /**
+     * @return fraction of the time since the stage was created it spent processing items.
+     *         The stage with the highest occupancy is the bottleneck.
+     */
+    public double getOccupancy() {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : Math.min(1.0, busyNanos / (double) elapsed);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: n=%d avg=%.1fms max=%.1fms busy=%.0f%%", name,
+                processedCount, getAverageMillis(), maxNanos / 1e6, getOccupancy() * 100);
+    }
+}
@@ -0,0 +1,253 @@
+package com.zouyao.objectdetector.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs items through a fixed sequence of stages, each stage after the first on its own thread,
+ * connected by bounded queues. While one item is in a later stage the next can already be in
+ * an earlier one, so consecutive items use several cores.
+ * <p>
+ * The first stage runs on the thread calling {@link #submit(Object)}, which lets the pipeline
+ * be fed straight from an {@link InferenceScheduler} worker. Handing an item to a full queue
+ * blocks, which pushes back on the producer.
+ * <p>
+ * Exceptions thrown by the first stage propagate to the caller of {@link #submit(Object)}.
+ * Later stages report them to the {@link ErrorListener} and go on with the next item.
+ * <p>
+ * Use {@link #getBuilder()} to create a new instance.
+ *
+ * @param <T> type of the items, typically a reusable job holding the buffers of every stage.
+ */
+public class StagedPipeline<T> {
+
+    /**
+     * One step of the pipeline.
+     */
+    public interface Stage<T> {
+
+        /**
+         * @return {@code true} to pass the item on, {@code false} to recycle it right away.
+         */
+        boolean process(T item);
+    }
+
+    private final List<Stage<T>> stages;
+    private final StageMetrics[] metrics;
+    // queues.get(i) feeds stage i + 1.
+    private final List<BlockingQueue<T>> queues;
+    private final InferenceScheduler.Recycler<T> recycler;
+    private final ErrorListener errorListener;
+    private final Thread[] threads;
+    private volatile boolean shutdown;
+
+    private StagedPipeline(Builder<T> builder) {
+        if (builder.stages.isEmpty()) {
+            throw new IllegalArgumentException("Pipeline needs at least one stage");
+        }
+        stages = new ArrayList<>(builder.stages);
+        recycler = builder.recycler;
+        errorListener = builder.errorListener;
+        metrics = new StageMetrics[stages.size()];
+        for (int i = 0; i < metrics.length; ++i) {
+            metrics[i] = new StageMetrics(builder.names.get(i));
+        }
+        queues = new ArrayList<>();
+        threads = new Thread[stages.size() - 1];
+        for (int i = 1; i < stages.size(); ++i) {
+            final int index = i;
+            queues.add(new ArrayBlockingQueue<T>(builder.queueCapacity));
+            threads[i - 1] = new Thread(() -> runStage(index),
+                    builder.name + "-" + builder.names.get(i));
+            threads[i - 1].setDaemon(true);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    public static <T> Builder<T> getBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Runs the first stage on the calling thread and queues the item for the next one.
+     *
+     * @throws InterruptedException if interrupted while waiting for queue space.
+     */
+    public void submit(T item) throws InterruptedException {
+        if (shutdown) {
+            throw new IllegalStateException("Pipeline is shut down");
+        }
+        handOff(0, item);
+    }
+
+    /**
+     * @return metrics of the stage at {@code index}, in the order stages were added.
+     */
+    public StageMetrics getMetrics(int index) {
+        return metrics[index];
+    }
+
+    public int getStageCount() {
+        return metrics.length;
+    }
+
+    /**
+     * @return number of items waiting in front of the stage at {@code index}.
+     */
+    public int getQueueSize(int index) {
+        return index == 0 ? 0 : queues.get(index - 1).size();
+    }
+
+    /**
+     * Stops the stage threads. Items still queued are recycled.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (BlockingQueue<T> queue : queues) {
+            T item;
+            while ((item = queue.poll()) != null) {
+                recycle(item);
+            }
+        }
+    }
+
+    private void runStage(int index) {
+        final BlockingQueue<T> queue = queues.get(index - 1);
+        try {
+            while (!shutdown) {
+                try {
+                    handOff(index, queue.take());
+                } catch (RuntimeException e) {
+                    // Counted in the stage metrics, keep the stage alive for the next item.
+                    errorListener.onError(metrics[index].getName(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shutting down.
+        }
+    }
+
+    private void handOff(int index, T item) throws InterruptedException {
+        boolean passOn = false;
+        boolean failed = true;
+        final long start = System.nanoTime();
+        try {
+            passOn = stages.get(index).process(item);
+            failed = false;
+        } finally {
+            metrics[index].record(System.nanoTime() - start, failed);
+            if (!passOn) {
+                recycle(item);
+            }
+        }
+        if (!passOn) {
+            return;
+        }
+        if (index + 1 < stages.size()) {
+            try {
+                queues.get(index).put(item);
+            } catch (InterruptedException e) {
+                recycle(item);
+                throw e;
+            }
+        } else {
+            recycle(item);
+        }
+    }
+
+    private void recycle(T item) {
+        if (recycler != null) {
+            recycler.recycle(item);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < metrics.length; ++i) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(metrics[i]).append(" queued=").append(getQueueSize(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Builder for {@link StagedPipeline}.
+     */
+    public static class Builder<T> {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<Stage<T>> stages = new ArrayList<>();
+        private String name = "Pipeline";
+        private int queueCapacity = 1;
+        private InferenceScheduler.Recycler<T> recycler = null;
+        private ErrorListener errorListener = ErrorListener.NULL;
+
+        private Builder() {
+        }
+
+        /**
+         * @param name prefix for the names of the stage threads.
+         */
+        public Builder<T> name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Appends a stage.
+         *
+         * @param name name of the stage, used for its metrics and thread.
+         * @param stage the work done by the stage.
+         */
+        public Builder<T> stage(String name, Stage<T> stage) {
+            this.names.add(name);
+            this.stages.add(stage);
+            return this;
+        }
+
+        /**
+         * @param queueCapacity number of items that can wait in front of each stage.
+         */
+        public Builder<T> queueCapacity(int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("queueCapacity must be positive");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param recycler receives items after the last stage or when a stage rejects them.
+         */
+        public Builder<T> recycler(InferenceScheduler.Recycler<T> recycler) {
+            this.recycler = recycler;
+            return this;
+        }
+
+        /**
+         * @param errorListener notified of exceptions thrown by the stages after the first, by
+         *                      default they are only counted in the stage metrics.
+         */
+        public Builder<T> errorListener(ErrorListener errorListener) {
+            this.errorListener = errorListener != null ? errorListener : ErrorListener.NULL;
+            return this;
+        }
+
+        /**
+         * Creates the pipeline and starts its stage threads.
+         */
+        public StagedPipeline<T> build() {
+            return new StagedPipeline<>(this);
+        }
+    }
+}
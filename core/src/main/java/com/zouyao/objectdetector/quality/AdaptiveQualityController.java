@@ -0,0 +1,319 @@
+package com.zouyao.objectdetector.quality;
+
+import java.util.Arrays;
+
+/**
+ * Trades detection quality for latency, to hold end-to-end latency under a target on any
+ * device.
+ * <p>
+ * The controller walks a ladder of {@link Settings}, from full quality at level 0 down to the
+ * cheapest at the last level. Each step down first detects fewer frames, leaving the others to
+ * the tracker, and then switches to a faster model variant. Every step makes inference itself
+ * cheaper or rarer, a step that does not would only cost quality. The minimum confidence rises
+ * along the ladder, so fewer boxes are postprocessed and drawn.
+ * <p>
+ * Latencies are collected in windows. A window whose 90th percentile misses the target steps
+ * down. Consecutive windows well under the target step back up, so the controller does not
+ * oscillate around the target. Thermal and battery state put a floor under the level, so a hot
+ * or nearly empty device stays degraded however fast it runs.
+ * <p>
+ * All methods are thread-safe. Use {@link #getBuilder()} to create a new instance.
+ */
+public class AdaptiveQualityController {
+
+    /**
+     * Device temperature, from coolest to hottest.
+     */
+    public enum ThermalState {
+        NOMINAL, FAIR, SERIOUS, CRITICAL;
+
+        /**
+         * Maps a battery temperature, the only temperature available on all API levels.
+         */
+        public static ThermalState fromBatteryTemperature(float celsius) {
+            if (celsius < 40f) {
+                return NOMINAL;
+            } else if (celsius < 43f) {
+                return FAIR;
+            } else if (celsius < 46f) {
+                return SERIOUS;
+            }
+            return CRITICAL;
+        }
+    }
+
+    /**
+     * One step of the quality ladder. Instances are immutable.
+     */
+    public static final class Settings {
+        private final int frameInterval;
+        private final float minimumConfidence;
+        private final int modelVariant;
+
+        Settings(int frameInterval, float minimumConfidence, int modelVariant) {
+            this.frameInterval = frameInterval;
+            this.minimumConfidence = minimumConfidence;
+            this.modelVariant = modelVariant;
+        }
+
+        /**
+         * @return detect one camera frame out of this many.
+         */
+        public int getFrameInterval() {
+            return frameInterval;
+        }
+
+        public float getMinimumConfidence() {
+            return minimumConfidence;
+        }
+
+        /**
+         * @return index of the model variant to use, 0 being the most accurate.
+         */
+        public int getModelVariant() {
+            return modelVariant;
+        }
+
+        @Override
+        public String toString() {
+            return "Settings{frameInterval=" + frameInterval
+                    + ", minimumConfidence=" + minimumConfidence
+                    + ", modelVariant=" + modelVariant + '}';
+        }
+    }
+
+    private static final float LOW_BATTERY_LEVEL = 0.15f;
+    private static final double WINDOW_PERCENTILE = 0.9;
+
+    private final long targetLatencyNanos;
+    private final float upgradeHeadroom;
+    private final int upgradeWindows;
+    private final Settings[] ladder;
+    private final long[] window;
+    private final long[] sortedWindow;
+    private int windowCount = 0;
+    private int windowsUnderTarget = 0;
+    private int level = 0;
+    private ThermalState thermalState = ThermalState.NOMINAL;
+    private boolean lowBattery = false;
+    private volatile Settings settings;
+
+    private AdaptiveQualityController(Builder builder) {
+        targetLatencyNanos = builder.targetLatencyNanos;
+        upgradeHeadroom = builder.upgradeHeadroom;
+        upgradeWindows = builder.upgradeWindows;
+        window = new long[builder.windowSize];
+        sortedWindow = new long[builder.windowSize];
+        ladder = buildLadder(builder);
+        settings = ladder[0];
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    private static Settings[] buildLadder(Builder builder) {
+        final int count = builder.maxFrameInterval + builder.modelVariants - 1;
+        final Settings[] ladder = new Settings[count];
+        int frameInterval = 1;
+        int variant = 0;
+        for (int level = 0; level < count; ++level) {
+            if (level > 0) {
+                if (frameInterval < builder.maxFrameInterval) {
+                    frameInterval++;
+                } else {
+                    variant++;
+                }
+            }
+            final float progress = count == 1 ? 0f : level / (float) (count - 1);
+            final float confidence = builder.minimumConfidence
+                    + progress * (builder.maximumConfidence - builder.minimumConfidence);
+            ladder[level] = new Settings(frameInterval, confidence, variant);
+        }
+        return ladder;
+    }
+
+    /**
+     * @return the settings to apply to the next frames. Lock-free, meant to be read per frame.
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    public int getLevelCount() {
+        return ladder.length;
+    }
+
+    /**
+     * Feeds the end-to-end latency of one processed frame.
+     *
+     * @return {@code true} if the settings changed.
+     */
+    public synchronized boolean recordLatency(long latencyNanos) {
+        window[windowCount++] = latencyNanos;
+        if (windowCount < window.length) {
+            return false;
+        }
+        windowCount = 0;
+        System.arraycopy(window, 0, sortedWindow, 0, window.length);
+        Arrays.sort(sortedWindow);
+        final int index = (int) Math.min(window.length - 1,
+                Math.ceil(window.length * WINDOW_PERCENTILE) - 1);
+        final long latency = sortedWindow[index];
+
+        if (latency > targetLatencyNanos) {
+            windowsUnderTarget = 0;
+            return setLevel(level + 1);
+        }
+        if (latency < targetLatencyNanos * upgradeHeadroom) {
+            if (++windowsUnderTarget >= upgradeWindows) {
+                windowsUnderTarget = 0;
+                return setLevel(level - 1);
+            }
+        } else {
+            windowsUnderTarget = 0;
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the settings changed.
+     */
+    public synchronized boolean setThermalState(ThermalState thermalState) {
+        this.thermalState = thermalState;
+        return setLevel(level);
+    }
+
+    /**
+     * @param level remaining charge, between 0 and 1.
+     * @param charging whether the device is plugged in.
+     * @return {@code true} if the settings changed.
+     */
+    public synchronized boolean setBatteryState(float level, boolean charging) {
+        lowBattery = !charging && level < LOW_BATTERY_LEVEL;
+        return setLevel(this.level);
+    }
+
+    /**
+     * @return the lowest level the thermal and battery state allow.
+     */
+    private int getMinimumLevel() {
+        final int last = ladder.length - 1;
+        final int thermalFloor;
+        switch (thermalState) {
+            case FAIR:
+                thermalFloor = (last + 3) / 4;
+                break;
+            case SERIOUS:
+                thermalFloor = (last + 1) / 2;
+                break;
+            case CRITICAL:
+                thermalFloor = last;
+                break;
+            default:
+                thermalFloor = 0;
+        }
+        final int batteryFloor = lowBattery ? (last + 1) / 2 : 0;
+        return Math.max(thermalFloor, batteryFloor);
+    }
+
+    private boolean setLevel(int requested) {
+        final int clamped = Math.max(getMinimumLevel(), Math.min(ladder.length - 1, requested));
+        if (clamped == level) {
+            return false;
+        }
+        level = clamped;
+        settings = ladder[clamped];
+        // Latencies measured under the old settings say nothing about the new ones.
+        windowCount = 0;
+        return true;
+    }
+
+    /**
+     * Builder for {@link AdaptiveQualityController}.
+     */
+    public static class Builder {
+
+        private long targetLatencyNanos = 100L * 1000 * 1000;
+        private int windowSize = 10;
+        private float upgradeHeadroom = 0.7f;
+        private int upgradeWindows = 3;
+        private int maxFrameInterval = 4;
+        private float minimumConfidence = 0.3f;
+        private float maximumConfidence = 0.5f;
+        private int modelVariants = 1;
+
+        private Builder() {
+        }
+
+        /**
+         * @param targetLatencyMillis end-to-end latency to hold, from camera frame to overlay.
+         */
+        public Builder targetLatencyMillis(long targetLatencyMillis) {
+            this.targetLatencyNanos = targetLatencyMillis * 1000 * 1000;
+            return this;
+        }
+
+        /**
+         * @param windowSize number of frames measured before each decision.
+         */
+        public Builder windowSize(int windowSize) {
+            if (windowSize < 1) {
+                throw new IllegalArgumentException("windowSize must be positive");
+            }
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * @param upgradeHeadroom step back up only when latency is below this fraction of the
+         *                        target.
+         * @param upgradeWindows for this many windows in a row.
+         */
+        public Builder upgrade(float upgradeHeadroom, int upgradeWindows) {
+            this.upgradeHeadroom = upgradeHeadroom;
+            this.upgradeWindows = Math.max(1, upgradeWindows);
+            return this;
+        }
+
+        /**
+         * @param maxFrameInterval detect at least one frame out of this many.
+         */
+        public Builder maxFrameInterval(int maxFrameInterval) {
+            if (maxFrameInterval < 1) {
+                throw new IllegalArgumentException("maxFrameInterval must be positive");
+            }
+            this.maxFrameInterval = maxFrameInterval;
+            return this;
+        }
+
+        /**
+         * @param minimumConfidence confidence threshold at full quality.
+         * @param maximumConfidence confidence threshold at the cheapest level.
+         */
+        public Builder confidence(float minimumConfidence, float maximumConfidence) {
+            this.minimumConfidence = minimumConfidence;
+            this.maximumConfidence = maximumConfidence;
+            return this;
+        }
+
+        /**
+         * @param modelVariants number of packaged models, ordered from most accurate to fastest.
+         */
+        public Builder modelVariants(int modelVariants) {
+            if (modelVariants < 1) {
+                throw new IllegalArgumentException("modelVariants must be positive");
+            }
+            this.modelVariants = modelVariants;
+            return this;
+        }
+
+        public AdaptiveQualityController build() {
+            return new AdaptiveQualityController(this);
+        }
+    }
+}
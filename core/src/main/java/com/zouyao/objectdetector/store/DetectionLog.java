@@ -0,0 +1,369 @@
+package com.zouyao.objectdetector.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of detections in a memory-mapped file, queryable by class, confidence and
+ * time without touching any image.
+ * <p>
+ * The file is a 16-byte header followed by fixed-size records:
+ * <pre>
+ * header: magic "DLOG", version (short), record size (short), committed record count (long)
+ * record: timestamp millis (long), frame id (long), class id (int), confidence (float),
+ *         left, top, right, bottom (4 floats)
+ * </pre>
+ * Records past the committed count are ignored when the log is reopened, so a crash loses at
+ * most the records appended since the last {@link #commit()}.
+ * <p>
+ * Two small indexes are kept in memory and rebuilt on open: the records of each class, and
+ * the time span of each block of {@value #BLOCK_SIZE} records. Queries only read the records
+ * of the requested class in blocks overlapping the requested time range.
+ * <p>
+ * All methods are thread-safe, but appending does file I/O: do it through a
+ * {@link DetectionLogWriter} from latency-sensitive threads.
+ */
+public class DetectionLog implements Closeable {
+
+    /**
+     * Matches every class in queries.
+     */
+    public static final int ANY_CLASS = -1;
+
+    static final int MAGIC = 0x444c4f47; // "DLOG"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 40;
+    static final int BLOCK_SIZE = 1024;
+    private static final int COUNT_OFFSET = 8;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private long lastFrameId = -1;
+    // Record indexes of each class, in append order.
+    private int[][] classRecords = new int[0][];
+    private int[] classCounts = new int[0];
+    // Time span of each block of records.
+    private long[] blockMinMillis = new long[16];
+    private long[] blockMaxMillis = new long[16];
+    private boolean closed = false;
+
+    private DetectionLog(RandomAccessFile file) {
+        this.file = file;
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * Opens a log, creating it if the file does not exist.
+     *
+     * @throws IOException if the file is not a detection log or cannot be mapped.
+     */
+    public static DetectionLog open(File path) throws IOException {
+        final DetectionLog log = new DetectionLog(new RandomAccessFile(path, "rw"));
+        try {
+            log.load();
+        } catch (IOException | RuntimeException e) {
+            log.file.close();
+            throw e;
+        }
+        return log;
+    }
+
+    private void load() throws IOException {
+        final long length = channel.size();
+        if (length == 0) {
+            map(INITIAL_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, VERSION);
+            buffer.putShort(6, (short) RECORD_SIZE);
+            buffer.putLong(COUNT_OFFSET, 0);
+            return;
+        }
+        if (length < HEADER_SIZE) {
+            throw new IOException("not a detection log, " + length + " bytes");
+        }
+        final long records = (length - HEADER_SIZE) / RECORD_SIZE;
+        map((int) Math.max(INITIAL_CAPACITY, Math.min(Integer.MAX_VALUE, records)));
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a detection log");
+        }
+        if (buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE) {
+            throw new IOException("unsupported detection log version " + buffer.getShort(4));
+        }
+        final long committed = buffer.getLong(COUNT_OFFSET);
+        if (committed < 0 || committed > records) {
+            throw new IOException("corrupt detection log, " + committed + " records of "
+                    + records);
+        }
+        for (int i = 0; i < committed; ++i) {
+            index(i, getTimestampMillis(i), getClassId(i));
+            lastFrameId = Math.max(lastFrameId, getFrameId(i));
+        }
+        count = (int) committed;
+    }
+
+    /**
+     * Maps room for {@code records} records, growing the file if needed.
+     */
+    private void map(int records) throws IOException {
+        final long size = HEADER_SIZE + (long) records * RECORD_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("detection log is full");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        capacity = records;
+    }
+
+    /**
+     * Appends one detection. It is visible to queries right away, and survives a reopen after
+     * the next {@link #commit()}.
+     *
+     * @param timestampMillis when the frame was detected, in milliseconds since the epoch.
+     * @param frameId identifies the frame or photo, shared by all its detections.
+     * @param left location, normalized to the frame like the other coordinates.
+     */
+    public synchronized void append(long timestampMillis, long frameId, int classId,
+                                    float confidence, float left, float top, float right,
+                                    float bottom) throws IOException {
+        checkOpen();
+        if (classId < 0) {
+            throw new IllegalArgumentException("classId must not be negative: " + classId);
+        }
+        if (count == capacity) {
+            map((int) Math.min(Integer.MAX_VALUE, 2L * capacity));
+        }
+        int position = HEADER_SIZE + count * RECORD_SIZE;
+        buffer.putLong(position, timestampMillis);
+        buffer.putLong(position + 8, frameId);
+        buffer.putInt(position + 16, classId);
+        buffer.putFloat(position + 20, confidence);
+        buffer.putFloat(position + 24, left);
+        buffer.putFloat(position + 28, top);
+        buffer.putFloat(position + 32, right);
+        buffer.putFloat(position + 36, bottom);
+        index(count, timestampMillis, classId);
+        lastFrameId = Math.max(lastFrameId, frameId);
+        count++;
+    }
+
+    /**
+     * Makes the appended records part of the log, they are written to disk by the system.
+     */
+    public synchronized void commit() throws IOException {
+        checkOpen();
+        buffer.putLong(COUNT_OFFSET, count);
+    }
+
+    private void index(int record, long timestampMillis, int classId) {
+        if (classId >= classRecords.length) {
+            final int classes = Math.max(classId + 1, 2 * classRecords.length);
+            classRecords = Arrays.copyOf(classRecords, classes);
+            classCounts = Arrays.copyOf(classCounts, classes);
+        }
+        int[] records = classRecords[classId];
+        if (records == null) {
+            records = classRecords[classId] = new int[16];
+        } else if (classCounts[classId] == records.length) {
+            records = classRecords[classId] = Arrays.copyOf(records, 2 * records.length);
+        }
+        records[classCounts[classId]++] = record;
+
+        final int block = record / BLOCK_SIZE;
+        if (block == blockMinMillis.length) {
+            blockMinMillis = Arrays.copyOf(blockMinMillis, 2 * block);
+            blockMaxMillis = Arrays.copyOf(blockMaxMillis, 2 * block);
+        }
+        if (record % BLOCK_SIZE == 0) {
+            blockMinMillis[block] = timestampMillis;
+            blockMaxMillis[block] = timestampMillis;
+        } else {
+            blockMinMillis[block] = Math.min(blockMinMillis[block], timestampMillis);
+            blockMaxMillis[block] = Math.max(blockMaxMillis[block], timestampMillis);
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the largest frame id in the log, or -1 if it is empty. New frames should use
+     *         larger ids, so ids stay unique across sessions.
+     */
+    public synchronized long getLastFrameId() {
+        return lastFrameId;
+    }
+
+    public synchronized DetectionRecord get(int record) {
+        checkOpen();
+        if (record < 0 || record >= count) {
+            throw new IndexOutOfBoundsException("record " + record + " of " + count);
+        }
+        final int position = HEADER_SIZE + record * RECORD_SIZE;
+        return new DetectionRecord(
+                buffer.getLong(position),
+                buffer.getLong(position + 8),
+                buffer.getInt(position + 16),
+                buffer.getFloat(position + 20),
+                buffer.getFloat(position + 24),
+                buffer.getFloat(position + 28),
+                buffer.getFloat(position + 32),
+                buffer.getFloat(position + 36));
+    }
+
+    /**
+     * Finds the detections of a class.
+     *
+     * @param classId class to look for, or {@link #ANY_CLASS}.
+     * @param minimumConfidence only detections at least this confident.
+     * @param fromMillis start of the time range, inclusive.
+     * @param toMillis end of the time range, inclusive.
+     * @return the matching detections, in append order.
+     */
+    public synchronized List<DetectionRecord> query(int classId, float minimumConfidence,
+                                                    long fromMillis, long toMillis) {
+        final List<DetectionRecord> results = new ArrayList<>();
+        final int[] matches = findRecords(classId, minimumConfidence, fromMillis, toMillis);
+        for (int record : matches) {
+            results.add(get(record));
+        }
+        return results;
+    }
+
+    /**
+     * Same as {@link #query(int, float, long, long)}, but only returns the frames, e.g. all
+     * frames with a person above 0.8 confidence in the last hour.
+     *
+     * @return the distinct frame ids, in ascending order.
+     */
+    public synchronized long[] findFrames(int classId, float minimumConfidence,
+                                          long fromMillis, long toMillis) {
+        final int[] matches = findRecords(classId, minimumConfidence, fromMillis, toMillis);
+        final long[] frames = new long[matches.length];
+        for (int i = 0; i < matches.length; ++i) {
+            frames[i] = getFrameId(matches[i]);
+        }
+        Arrays.sort(frames);
+        int distinct = 0;
+        for (int i = 0; i < frames.length; ++i) {
+            if (i == 0 || frames[i] != frames[i - 1]) {
+                frames[distinct++] = frames[i];
+            }
+        }
+        return Arrays.copyOf(frames, distinct);
+    }
+
+    private int[] findRecords(int classId, float minimumConfidence,
+                              long fromMillis, long toMillis) {
+        checkOpen();
+        int[] matches = new int[16];
+        int matchCount = 0;
+        final int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        for (int block = 0; block < blocks; ++block) {
+            if (blockMaxMillis[block] < fromMillis || blockMinMillis[block] > toMillis) {
+                continue;
+            }
+            final int blockStart = block * BLOCK_SIZE;
+            final int blockEnd = Math.min(count, blockStart + BLOCK_SIZE);
+            int from;
+            int to;
+            int[] records = null;
+            if (classId == ANY_CLASS) {
+                from = blockStart;
+                to = blockEnd;
+            } else {
+                if (classId < 0 || classId >= classRecords.length
+                        || classRecords[classId] == null) {
+                    break;
+                }
+                records = classRecords[classId];
+                from = lowerBound(records, classCounts[classId], blockStart);
+                to = lowerBound(records, classCounts[classId], blockEnd);
+            }
+            for (int i = from; i < to; ++i) {
+                final int record = records != null ? records[i] : i;
+                final long timestamp = getTimestampMillis(record);
+                if (timestamp < fromMillis || timestamp > toMillis
+                        || getConfidence(record) < minimumConfidence) {
+                    continue;
+                }
+                if (matchCount == matches.length) {
+                    matches = Arrays.copyOf(matches, 2 * matchCount);
+                }
+                matches[matchCount++] = record;
+            }
+        }
+        return Arrays.copyOf(matches, matchCount);
+    }
+
+    /**
+     * @return the index of the first of the sorted {@code values} not less than {@code key}.
+     */
+    private static int lowerBound(int[] values, int length, int key) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long getTimestampMillis(int record) {
+        return buffer.getLong(HEADER_SIZE + record * RECORD_SIZE);
+    }
+
+    private long getFrameId(int record) {
+        return buffer.getLong(HEADER_SIZE + record * RECORD_SIZE + 8);
+    }
+
+    private int getClassId(int record) {
+        return buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + 16);
+    }
+
+    private float getConfidence(int record) {
+        return buffer.getFloat(HEADER_SIZE + record * RECORD_SIZE + 20);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("DetectionLog is closed");
+        }
+    }
+
+    /**
+     * Commits the appended records and trims the file to them.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            commit();
+            buffer.force();
+            channel.truncate(HEADER_SIZE + (long) count * RECORD_SIZE);
+        } finally {
+            closed = true;
+            buffer = null;
+            file.close();
+        }
+    }
+}
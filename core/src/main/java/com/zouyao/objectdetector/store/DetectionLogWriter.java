@@ -0,0 +1,286 @@
+package com.zouyao.objectdetector.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.zouyao.objectdetector.Detections;
+
+/**
+ * Appends detections to a {@link DetectionLog} from a background thread, so the threads that
+ * produce them never wait for the disk.
+ * <p>
+ * Detections are copied into one of two preallocated batches: while the writer thread drains
+ * one to the log, {@link #offer(long, Detections, float)} fills the other. The lock is only
+ * held to copy a frame or to swap the batches. A frame that does not fit in the batch is
+ * dropped rather than waited for, and counted in {@link #getDroppedFrameCount()}.
+ * <p>
+ * Frame ids are given out by the writer thread, continuing after the largest id in the log.
+ * <p>
+ * The log is kept to at most {@code maxRecords} records, so it does not grow for as long as
+ * the app is installed. When the next batch would not fit, the log is renamed with a
+ * {@code .1} suffix, replacing the previous one, and a new log is started. Frame ids carry on
+ * across the rotation. All methods are thread-safe.
+ */
+public class DetectionLogWriter implements Closeable {
+
+    /**
+     * Largest {@code maxRecords}, which keeps the doubling mapping of a log under 2 GB.
+     */
+    public static final int MAX_RECORDS =
+            (Integer.MAX_VALUE - DetectionLog.HEADER_SIZE) / DetectionLog.RECORD_SIZE / 2;
+
+    private final Object lock = new Object();
+    private final File file;
+    private final int maxRecords;
+    private final FutureTask<DetectionLog> log;
+    private final Thread thread;
+    private Batch pending;
+    private Batch draining;
+    private boolean closing = false;
+    private long droppedFrames = 0;
+    private volatile IOException failure = null;
+    private volatile int rotationCount = 0;
+
+    /**
+     * Opens the log and starts the writer thread, keeping at most {@link #MAX_RECORDS}
+     * records.
+     *
+     * @param file the log file, opened on the writer thread.
+     * @param capacity records buffered until the writer thread catches up.
+     */
+    public DetectionLogWriter(File file, int capacity) {
+        this(file, capacity, MAX_RECORDS);
+    }
+
+    /**
+     * Opens the log and starts the writer thread.
+     *
+     * @param file the log file, opened on the writer thread.
+     * @param capacity records buffered until the writer thread catches up.
+     * @param maxRecords records kept in the log before it is rotated, at least
+     *                   {@code capacity} and at most {@link #MAX_RECORDS}.
+     */
+    public DetectionLogWriter(File file, int capacity, int maxRecords) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (maxRecords < capacity || maxRecords > MAX_RECORDS) {
+            throw new IllegalArgumentException(
+                    "maxRecords must be between capacity and " + MAX_RECORDS);
+        }
+        this.file = file;
+        this.maxRecords = maxRecords;
+        pending = new Batch(capacity);
+        draining = new Batch(capacity);
+        log = new FutureTask<>(() -> DetectionLog.open(file));
+        thread = new Thread(this::run, "DetectionLogWriter");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @return the log, for queries, once the writer thread has opened it. It is closed when
+     *         the writer rotates it.
+     */
+    public Future<DetectionLog> getLog() {
+        return log;
+    }
+
+    /**
+     * Queues the detections of one frame. Never blocks on I/O.
+     *
+     * @param timestampMillis when the frame was detected, in milliseconds since the epoch.
+     * @param detections detections with normalized locations.
+     * @param minimumConfidence only detections at least this confident are logged.
+     * @return {@code false} if the frame was dropped because the writer is behind or failed.
+     */
+    public boolean offer(long timestampMillis, Detections detections, float minimumConfidence) {
+        synchronized (lock) {
+            if (closing || failure != null) {
+                return false;
+            }
+            if (!pending.add(timestampMillis, detections, minimumConfidence)) {
+                droppedFrames++;
+                return false;
+            }
+            lock.notify();
+        }
+        return true;
+    }
+
+    public long getDroppedFrameCount() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+
+    /**
+     * @return how often the log was full and started anew.
+     */
+    public int getRotationCount() {
+        return rotationCount;
+    }
+
+    private void run() {
+        log.run();
+        DetectionLog detectionLog;
+        try {
+            detectionLog = log.get();
+        } catch (InterruptedException | ExecutionException e) {
+            failure = new IOException("cannot open detection log", e.getCause());
+            return;
+        }
+        long lastFrameId = detectionLog.getLastFrameId();
+        try {
+            while (true) {
+                Batch batch;
+                synchronized (lock) {
+                    while (pending.count == 0 && !closing) {
+                        lock.wait();
+                    }
+                    if (pending.count == 0) {
+                        break;
+                    }
+                    batch = pending;
+                    pending = draining;
+                    draining = batch;
+                }
+                if (detectionLog.size() + batch.count > maxRecords) {
+                    detectionLog = rotate(detectionLog);
+                }
+                lastFrameId = batch.writeTo(detectionLog, lastFrameId + 1);
+                batch.clear();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                detectionLog.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes a full log, keeps it as the previous one and opens an empty log in its place.
+     */
+    private DetectionLog rotate(DetectionLog full) throws IOException {
+        full.close();
+        final File previous = new File(file.getPath() + ".1");
+        if (previous.exists() && !previous.delete()) {
+            throw new IOException("cannot delete " + previous);
+        }
+        if (!file.renameTo(previous)) {
+            throw new IOException("cannot rotate " + file);
+        }
+        rotationCount++;
+        return DetectionLog.open(file);
+    }
+
+    /**
+     * Writes the queued frames, closes the log and waits for the writer thread to finish.
+     *
+     * @throws IOException the first error the writer thread ran into.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closing = true;
+            lock.notify();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Detections of several frames, laid out as parallel arrays.
+     */
+    private static class Batch {
+        final long[] timestamps;
+        // Index of the frame within the batch.
+        final int[] frames;
+        final int[] classIds;
+        final float[] scores;
+        final float[] locations;
+        int count = 0;
+        int frameCount = 0;
+
+        Batch(int capacity) {
+            timestamps = new long[capacity];
+            frames = new int[capacity];
+            classIds = new int[capacity];
+            scores = new float[capacity];
+            locations = new float[capacity * Detections.BOX_STRIDE];
+        }
+
+        /**
+         * @return {@code false} if the frame does not fit.
+         */
+        boolean add(long timestampMillis, Detections detections, float minimumConfidence) {
+            int needed = 0;
+            for (int i = 0; i < detections.size(); ++i) {
+                if (detections.getScore(i) >= minimumConfidence) {
+                    needed++;
+                }
+            }
+            if (needed == 0) {
+                return true;
+            }
+            if (count + needed > timestamps.length) {
+                return false;
+            }
+            for (int i = 0; i < detections.size(); ++i) {
+                if (detections.getScore(i) < minimumConfidence) {
+                    continue;
+                }
+                timestamps[count] = timestampMillis;
+                frames[count] = frameCount;
+                classIds[count] = detections.getClassId(i);
+                scores[count] = detections.getScore(i);
+                final int box = count * Detections.BOX_STRIDE;
+                locations[box] = detections.getLeft(i);
+                locations[box + 1] = detections.getTop(i);
+                locations[box + 2] = detections.getRight(i);
+                locations[box + 3] = detections.getBottom(i);
+                count++;
+            }
+            frameCount++;
+            return true;
+        }
+
+        /**
+         * @return the id of the last frame written.
+         */
+        long writeTo(DetectionLog log, long firstFrameId) throws IOException {
+            for (int i = 0; i < count; ++i) {
+                final int box = i * Detections.BOX_STRIDE;
+                log.append(timestamps[i], firstFrameId + frames[i], classIds[i], scores[i],
+                        locations[box], locations[box + 1],
+                        locations[box + 2], locations[box + 3]);
+            }
+            log.commit();
+            return firstFrameId + frameCount - 1;
+        }
+
+        void clear() {
+            count = 0;
+            frameCount = 0;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.zouyao.objectdetector.store;
+
+/**
+ * One detection read back from a {@link DetectionLog}. Instances are immutable.
+ */
+public final class DetectionRecord {
+    private final long timestampMillis;
+    private final long frameId;
+    private final int classId;
+    private final float confidence;
+    private final float left;
+    private final float top;
+    private final float right;
+    private final float bottom;
+
+    DetectionRecord(long timestampMillis, long frameId, int classId, float confidence,
+                    float left, float top, float right, float bottom) {
+        this.timestampMillis = timestampMillis;
+        this.frameId = frameId;
+        this.classId = classId;
+        this.confidence = confidence;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * @return when the frame was detected, in milliseconds since the epoch.
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public long getFrameId() {
+        return frameId;
+    }
+
+    public int getClassId() {
+        return classId;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public float getLeft() {
+        return left;
+    }
+
+    public float getTop() {
+        return top;
+    }
+
+    public float getRight() {
+        return right;
+    }
+
+    public float getBottom() {
+        return bottom;
+    }
+
+    @Override
+    public String toString() {
+        return "DetectionRecord{timestampMillis=" + timestampMillis
+                + ", frameId=" + frameId
+                + ", classId=" + classId
+                + ", confidence=" + confidence
+                + ", location=(" + left + ", " + top + ", " + right + ", " + bottom + ")}";
+    }
+}
@@ -0,0 +1,342 @@
+package com.zouyao.objectdetector.tracking;
+
+import com.zouyao.objectdetector.DetectionPostProcessor;
+import com.zouyao.objectdetector.Detections;
+
+/**
+ * Keeps track of detected objects between detector runs, so most preview frames can be
+ * answered without inference.
+ * <p>
+ * Full detection is requested every {@code detectionInterval} frames, and earlier when a tracked
+ * object moved too far, its confidence dropped or its predicted confidence lost too much of its
+ * detected one. Objects that are not shown anyway never trigger detection. In between, boxes
+ * are extrapolated from the velocity observed between the last two detections. Each track keeps
+ * its id for as long as new detections keep matching it.
+ * <p>
+ * Boxes are expected in normalized coordinates. All memory is allocated up front and all
+ * methods are synchronized, as decisions are made on the camera thread while results arrive on
+ * the detection thread.
+ * <p>
+ * Use {@link #getBuilder()} to create a new instance.
+ */
+public class ObjectTracker {
+
+    private static final float NANOS_PER_SECOND = 1e9f;
+    // Weight of the newest measurement in the velocity estimate.
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final int detectionInterval;
+    private final float iouThreshold;
+    private final float confidenceLoss;
+    private final float confidenceDrop;
+    private final float confidenceDecayPerSecond;
+    private final float motionThreshold;
+
+    private Tracks tracks;
+    private Tracks nextTracks;
+    private final boolean[] matched;
+    private int nextId = 0;
+    private int framesSinceDetection;
+    private boolean detectionRequested = false;
+
+    private ObjectTracker(Builder builder) {
+        detectionInterval = builder.detectionInterval;
+        iouThreshold = builder.iouThreshold;
+        confidenceLoss = builder.confidenceLoss;
+        confidenceDrop = builder.confidenceDrop;
+        confidenceDecayPerSecond = builder.confidenceDecayPerSecond;
+        motionThreshold = builder.motionThreshold;
+        tracks = new Tracks(builder.capacity);
+        nextTracks = new Tracks(builder.capacity);
+        matched = new boolean[builder.capacity];
+        // Detect on the very first frame.
+        framesSinceDetection = detectionInterval;
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Called once per camera frame to decide whether the frame goes to the detector.
+     *
+     * @param timestampNanos time of the frame, from {@link System#nanoTime()}.
+     * @param minimumConfidence confidence below which objects are not shown, tracks detected
+     *                          below it do not trigger detection.
+     * @return {@code true} if the frame should be detected, {@code false} if
+     *         {@link #predict(long, Detections, int[])} is good enough.
+     */
+    public synchronized boolean shouldDetect(long timestampNanos, float minimumConfidence) {
+        framesSinceDetection++;
+        final boolean detect = detectionRequested
+                || framesSinceDetection >= detectionInterval
+                || isDrifting(timestampNanos, minimumConfidence);
+        if (detect) {
+            framesSinceDetection = 0;
+            detectionRequested = false;
+        }
+        return detect;
+    }
+
+    /**
+     * Matches fresh detector output to the tracks. Matched tracks keep their id and update their
+     * velocity, unmatched detections start new tracks and unmatched tracks are dropped.
+     *
+     * @param detections normalized detections, sorted by descending confidence.
+     * @param timestampNanos time of the detected frame, from {@link System#nanoTime()}.
+     */
+    public synchronized void update(Detections detections, long timestampNanos) {
+        final Tracks previous = tracks;
+        final Tracks next = nextTracks;
+        next.count = 0;
+        for (int t = 0; t < previous.count; ++t) {
+            matched[t] = false;
+        }
+
+        final int count = Math.min(detections.size(), next.capacity());
+        for (int d = 0; d < count; ++d) {
+            final float left = detections.getLeft(d);
+            final float top = detections.getTop(d);
+            final float right = detections.getRight(d);
+            final float bottom = detections.getBottom(d);
+            final int classId = detections.getClassId(d);
+            final float score = detections.getScore(d);
+
+            // Greedy matching: detections come best first and take the closest free track.
+            int best = -1;
+            float bestIou = iouThreshold;
+            for (int t = 0; t < previous.count; ++t) {
+                if (matched[t] || previous.classes[t] != classId) {
+                    continue;
+                }
+                final float dt = seconds(timestampNanos - previous.timestamps[t]);
+                final float dx = previous.velocities[2 * t] * dt;
+                final float dy = previous.velocities[2 * t + 1] * dt;
+                final int o = 4 * t;
+                final float iou = DetectionPostProcessor.intersectionOverUnion(
+                        left, top, right, bottom,
+                        previous.boxes[o] + dx, previous.boxes[o + 1] + dy,
+                        previous.boxes[o + 2] + dx, previous.boxes[o + 3] + dy);
+                if (iou >= bestIou) {
+                    best = t;
+                    bestIou = iou;
+                }
+            }
+
+            final int n = next.count++;
+            next.classes[n] = classId;
+            next.scores[n] = score;
+            next.timestamps[n] = timestampNanos;
+            next.setBox(n, left, top, right, bottom);
+            if (best < 0) {
+                next.ids[n] = nextId++;
+                next.velocities[2 * n] = 0f;
+                next.velocities[2 * n + 1] = 0f;
+                continue;
+            }
+
+            matched[best] = true;
+            next.ids[n] = previous.ids[best];
+            final float dt = seconds(timestampNanos - previous.timestamps[best]);
+            final int o = 4 * best;
+            if (dt > 0f) {
+                final float vx = ((left + right) - (previous.boxes[o] + previous.boxes[o + 2]))
+                        / 2 / dt;
+                final float vy = ((top + bottom) - (previous.boxes[o + 1] + previous.boxes[o + 3]))
+                        / 2 / dt;
+                next.velocities[2 * n] = smooth(previous.velocities[2 * best], vx);
+                next.velocities[2 * n + 1] = smooth(previous.velocities[2 * best + 1], vy);
+            } else {
+                next.velocities[2 * n] = previous.velocities[2 * best];
+                next.velocities[2 * n + 1] = previous.velocities[2 * best + 1];
+            }
+            if (previous.scores[best] - score > confidenceDrop) {
+                detectionRequested = true;
+            }
+        }
+
+        nextTracks = previous;
+        tracks = next;
+    }
+
+    /**
+     * Writes the tracked objects as they are expected to be at the given time.
+     *
+     * @param timestampNanos time to extrapolate the boxes to, from {@link System#nanoTime()}.
+     * @param out receives the boxes and decayed confidences, best first.
+     * @param trackIds receives the id of each entry of {@code out}.
+     * @return number of tracked objects written.
+     */
+    public synchronized int predict(long timestampNanos, Detections out, int[] trackIds) {
+        out.clear();
+        final int count = Math.min(tracks.count, Math.min(out.getCapacity(), trackIds.length));
+        for (int t = 0; t < count; ++t) {
+            final float dt = seconds(timestampNanos - tracks.timestamps[t]);
+            final float dx = tracks.velocities[2 * t] * dt;
+            final float dy = tracks.velocities[2 * t + 1] * dt;
+            final int o = 4 * t;
+            out.add(tracks.classes[t], decayedScore(t, dt),
+                    tracks.boxes[o] + dx, tracks.boxes[o + 1] + dy,
+                    tracks.boxes[o + 2] + dx, tracks.boxes[o + 3] + dy);
+            trackIds[t] = tracks.ids[t];
+        }
+        return count;
+    }
+
+    public synchronized int getTrackCount() {
+        return tracks.count;
+    }
+
+    /**
+     * @return {@code true} if a shown object moved too far or became too uncertain since it
+     *         was last detected.
+     */
+    private boolean isDrifting(long timestampNanos, float minimumConfidence) {
+        for (int t = 0; t < tracks.count; ++t) {
+            if (tracks.scores[t] < minimumConfidence) {
+                continue;
+            }
+            final float dt = seconds(timestampNanos - tracks.timestamps[t]);
+            final float dx = tracks.velocities[2 * t] * dt;
+            final float dy = tracks.velocities[2 * t + 1] * dt;
+            if (dx * dx + dy * dy > motionThreshold * motionThreshold
+                    || decayedScore(t, dt) < tracks.scores[t] * (1f - confidenceLoss)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private float decayedScore(int track, float seconds) {
+        return Math.max(0f, tracks.scores[track] - confidenceDecayPerSecond * seconds);
+    }
+
+    private static float smooth(float previous, float measured) {
+        return previous + VELOCITY_SMOOTHING * (measured - previous);
+    }
+
+    private static float seconds(long nanos) {
+        return Math.max(0L, nanos) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Struct of arrays holding the state of every track.
+     */
+    private static class Tracks {
+        final int[] ids;
+        final int[] classes;
+        final float[] scores;
+        final float[] boxes;
+        // Velocity of the box center, in normalized units per second.
+        final float[] velocities;
+        final long[] timestamps;
+        int count;
+
+        Tracks(int capacity) {
+            ids = new int[capacity];
+            classes = new int[capacity];
+            scores = new float[capacity];
+            boxes = new float[capacity * 4];
+            velocities = new float[capacity * 2];
+            timestamps = new long[capacity];
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        void setBox(int index, float left, float top, float right, float bottom) {
+            boxes[4 * index] = left;
+            boxes[4 * index + 1] = top;
+            boxes[4 * index + 2] = right;
+            boxes[4 * index + 3] = bottom;
+        }
+    }
+
+    /**
+     * Builder for {@link ObjectTracker}.
+     */
+    public static class Builder {
+
+        private int capacity = Detections.MAX_DETECTIONS;
+        private int detectionInterval = 3;
+        private float iouThreshold = 0.3f;
+        private float confidenceLoss = 0.5f;
+        private float confidenceDrop = 0.2f;
+        private float confidenceDecayPerSecond = 0.5f;
+        private float motionThreshold = 0.1f;
+
+        private Builder() {
+        }
+
+        /**
+         * @param capacity the largest number of objects tracked at once.
+         */
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param detectionInterval run full detection at least every this many frames.
+         */
+        public Builder detectionInterval(int detectionInterval) {
+            if (detectionInterval < 1) {
+                throw new IllegalArgumentException("detectionInterval must be positive");
+            }
+            this.detectionInterval = detectionInterval;
+            return this;
+        }
+
+        /**
+         * @param iouThreshold minimum overlap between a detection and a track's predicted box
+         *                     for them to be the same object.
+         */
+        public Builder iouThreshold(float iouThreshold) {
+            this.iouThreshold = iouThreshold;
+            return this;
+        }
+
+        /**
+         * @param confidenceLoss detect again once an object's predicted confidence lost this
+         *                       fraction of its detected confidence.
+         */
+        public Builder confidenceLoss(float confidenceLoss) {
+            if (confidenceLoss <= 0f || confidenceLoss > 1f) {
+                throw new IllegalArgumentException("confidenceLoss must be in (0, 1]");
+            }
+            this.confidenceLoss = confidenceLoss;
+            return this;
+        }
+
+        /**
+         * @param confidenceDrop detect again on the next frame when a matched object lost more
+         *                       than this much confidence.
+         */
+        public Builder confidenceDrop(float confidenceDrop) {
+            this.confidenceDrop = confidenceDrop;
+            return this;
+        }
+
+        /**
+         * @param confidenceDecayPerSecond how fast the confidence of predicted boxes fades.
+         */
+        public Builder confidenceDecayPerSecond(float confidenceDecayPerSecond) {
+            this.confidenceDecayPerSecond = confidenceDecayPerSecond;
+            return this;
+        }
+
+        /**
+         * @param motionThreshold detect again once an object is predicted to have moved more
+         *                        than this fraction of the image since its last detection.
+         */
+        public Builder motionThreshold(float motionThreshold) {
+            this.motionThreshold = motionThreshold;
+            return this;
+        }
+
+        public ObjectTracker build() {
+            return new ObjectTracker(this);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.zouyao.objectdetector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BatchPlannerTest {
+
+    private static final long PER_IMAGE = BatchPlanner.bytesPerImage(300, 100);
+
+    @Test
+    public void batchSize_fitsBudget() throws Exception {
+        assertEquals(4, BatchPlanner.batchSize(100, 300, 100, PER_IMAGE * 4 + PER_IMAGE / 2));
+    }
+
+    @Test
+    public void batchSize_neverExceedsImageCountOrMaximum() throws Exception {
+        assertEquals(3, BatchPlanner.batchSize(3, 300, 100, Long.MAX_VALUE));
+        assertEquals(BatchPlanner.MAX_BATCH_SIZE,
+                BatchPlanner.batchSize(1000, 300, 100, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void batchSize_isAtLeastOne() throws Exception {
+        assertEquals(1, BatchPlanner.batchSize(10, 300, 100, 1));
+        assertEquals(1, BatchPlanner.batchSize(0, 300, 100, PER_IMAGE * 8));
+    }
+}
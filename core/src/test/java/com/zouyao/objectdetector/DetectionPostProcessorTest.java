@@ -0,0 +1,113 @@
+package com.zouyao.objectdetector;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DetectionPostProcessorTest {
+
+    @Test
+    public void overlappingBoxesOfSameClass_areSuppressed() throws Exception {
+        Detections detections = new Detections(10);
+        detections.add(1, 0.6f, 0, 0, 10, 10);
+        detections.add(1, 0.9f, 1, 1, 11, 11);
+        detections.add(1, 0.8f, 50, 50, 60, 60);
+
+        DetectionPostProcessor.getBuilder().capacity(10).build().process(detections);
+
+        assertEquals(2, detections.size());
+        assertEquals(0.9f, detections.getScore(0), 0f);
+        assertEquals(0.8f, detections.getScore(1), 0f);
+    }
+
+    @Test
+    public void overlappingBoxesOfOtherClasses_onlySuppressedWhenClassAgnostic() throws Exception {
+        Detections perClass = new Detections(10);
+        perClass.add(1, 0.9f, 0, 0, 10, 10);
+        perClass.add(2, 0.8f, 0, 0, 10, 10);
+        Detections agnostic = new Detections(10);
+        agnostic.copyFrom(perClass);
+
+        DetectionPostProcessor.getBuilder().capacity(10).build().process(perClass);
+        DetectionPostProcessor.getBuilder().capacity(10).classAgnostic(true).build()
+                .process(agnostic);
+
+        assertEquals(2, perClass.size());
+        assertEquals(1, agnostic.size());
+        assertEquals(1, agnostic.getClassId(0));
+    }
+
+    @Test
+    public void lowScoresDroppedAndTopKKept() throws Exception {
+        Detections detections = new Detections(10);
+        for (int i = 0; i < 10; ++i) {
+            detections.add(i, i / 10f, i * 20, 0, i * 20 + 10, 10);
+        }
+
+        DetectionPostProcessor.getBuilder()
+                .capacity(10)
+                .minimumConfidence(0.25f)
+                .maxResults(3)
+                .build()
+                .process(detections);
+
+        assertEquals(3, detections.size());
+        assertEquals(9, detections.getClassId(0));
+        assertEquals(8, detections.getClassId(1));
+        assertEquals(7, detections.getClassId(2));
+    }
+
+    @Test
+    public void iouThreshold_isConfigurable() throws Exception {
+        // The two boxes overlap with an intersection over union of 1/3.
+        Detections strict = new Detections(2);
+        strict.add(1, 0.9f, 0, 0, 10, 10);
+        strict.add(1, 0.8f, 5, 0, 15, 10);
+        Detections loose = new Detections(2);
+        loose.copyFrom(strict);
+        assertEquals(1f / 3, DetectionPostProcessor.intersectionOverUnion(strict, 0, 1), 1e-6f);
+
+        DetectionPostProcessor.getBuilder().capacity(2).iouThreshold(0.3f).build().process(strict);
+        DetectionPostProcessor.getBuilder().capacity(2).iouThreshold(0.4f).build().process(loose);
+
+        assertEquals(1, strict.size());
+        assertEquals(2, loose.size());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() throws Exception {
+        Random random = new Random(11);
+        Detections source = new Detections(Detections.MAX_DETECTIONS);
+        for (int i = 0; i < Detections.MAX_DETECTIONS; ++i) {
+            float x = random.nextFloat() * 250;
+            float y = random.nextFloat() * 250;
+            source.add(random.nextInt(5), random.nextFloat(), x, y, x + 50, y + 50);
+        }
+        Detections detections = new Detections(Detections.MAX_DETECTIONS);
+        DetectionPostProcessor postProcessor = DetectionPostProcessor.getBuilder()
+                .minimumConfidence(0.1f)
+                .build();
+        for (int i = 0; i < 20; ++i) {
+            detections.copyFrom(source);
+            postProcessor.process(detections);
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < 1000; ++i) {
+            detections.copyFrom(source);
+            postProcessor.process(detections);
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
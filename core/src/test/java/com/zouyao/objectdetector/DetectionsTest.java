@@ -0,0 +1,116 @@
+package com.zouyao.objectdetector;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import com.zouyao.objectdetector.image.Nv21Converter;
+
+import static org.junit.Assert.*;
+
+public class DetectionsTest {
+
+    private static final int INPUT_SIZE = 300;
+    private static final int MAX_RESULTS = Detections.MAX_DETECTIONS;
+
+    @Test
+    public void setFromOutputs_scalesAndSorts() throws Exception {
+        float[] locations = {
+                0.1f, 0.2f, 0.3f, 0.4f,
+                0.5f, 0.6f, 0.7f, 0.8f,
+                0.0f, 0.0f, 1.0f, 1.0f};
+        float[] scores = {0.2f, 0.9f, 0.5f};
+        float[] classes = {1, 2, 3};
+        Detections detections = new Detections(MAX_RESULTS);
+
+        detections.setFromOutputs(locations, scores, classes, 3, 100);
+
+        assertEquals(3, detections.size());
+        assertEquals(2, detections.getClassId(0));
+        assertEquals(3, detections.getClassId(1));
+        assertEquals(1, detections.getClassId(2));
+        assertEquals(0.9f, detections.getScore(0), 0f);
+        assertEquals(60f, detections.getLeft(0), 1e-4f);
+        assertEquals(50f, detections.getTop(0), 1e-4f);
+        assertEquals(80f, detections.getRight(0), 1e-4f);
+        assertEquals(70f, detections.getBottom(0), 1e-4f);
+    }
+
+    @Test
+    public void setFromOutputs_clampsToCapacity() throws Exception {
+        Detections detections = new Detections(2);
+        detections.setFromOutputs(new float[12], new float[3], new float[3], 3, INPUT_SIZE);
+        assertEquals(2, detections.size());
+    }
+
+    @Test
+    public void setFromOutputs_readsOneImageOfBatch() throws Exception {
+        float[] locations = {
+                0.1f, 0.1f, 0.2f, 0.2f,
+                0.5f, 0.6f, 0.7f, 0.8f};
+        float[] scores = {0.9f, 0.4f};
+        float[] classes = {1, 7};
+        Detections detections = new Detections(MAX_RESULTS);
+
+        detections.setFromOutputs(locations, scores, classes, 1, 1, 10);
+
+        assertEquals(1, detections.size());
+        assertEquals(7, detections.getClassId(0));
+        assertEquals(0.4f, detections.getScore(0), 0f);
+        assertEquals(6f, detections.getLeft(0), 1e-4f);
+        assertEquals(7f, detections.getBottom(0), 1e-4f);
+    }
+
+    @Test
+    public void scaleLocations_normalizesBoxes() throws Exception {
+        Detections detections = new Detections(1);
+        detections.add(3, 0.5f, 30, 60, 150, 120);
+
+        detections.scaleLocations(1f / 300, 1f / 240);
+
+        assertEquals(0.1f, detections.getLeft(0), 1e-6f);
+        assertEquals(0.25f, detections.getTop(0), 1e-6f);
+        assertEquals(0.5f, detections.getRight(0), 1e-6f);
+        assertEquals(0.5f, detections.getBottom(0), 1e-6f);
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() throws Exception {
+        Random random = new Random(7);
+        float[] locations = new float[MAX_RESULTS * 4];
+        float[] scores = new float[MAX_RESULTS];
+        float[] classes = new float[MAX_RESULTS];
+        for (int i = 0; i < MAX_RESULTS; ++i) {
+            scores[i] = random.nextFloat();
+            classes[i] = random.nextInt(90);
+        }
+        byte[] nv21 = new byte[640 * 480 * 3 / 2];
+        random.nextBytes(nv21);
+        byte[] rgb = new byte[INPUT_SIZE * INPUT_SIZE * 3];
+        Nv21Converter converter = new Nv21Converter(INPUT_SIZE);
+        Detections detections = new Detections(MAX_RESULTS);
+
+        // Warm up so that class loading and JIT do not count.
+        for (int i = 0; i < 20; ++i) {
+            converter.convert(nv21, 640, 480, 90, rgb);
+            detections.setFromOutputs(locations, scores, classes, MAX_RESULTS, INPUT_SIZE);
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < 100; ++i) {
+            converter.convert(nv21, 640, 480, 90, rgb);
+            detections.setFromOutputs(locations, scores, classes, MAX_RESULTS, INPUT_SIZE);
+        }
+        long allocated = allocatedBytes() - before;
+
+        // A single frame buffer is 270000 bytes, so anything per-frame would show up here.
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,39 @@
+package com.zouyao.objectdetector;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LabelTableTest {
+
+    @Test
+    public void readsOneLabelPerLine() throws Exception {
+        LabelTable table = LabelTable.read(new ByteArrayInputStream(
+                "???\nperson\nbicycle \n".getBytes(Charset.forName("UTF-8"))));
+
+        assertEquals(3, table.size());
+        assertEquals("person", table.getLabel(1));
+        assertEquals("bicycle", table.getLabel(2));
+        assertEquals(2, table.getClassId("bicycle"));
+        assertEquals(-1, table.getClassId("unicorn"));
+    }
+
+    @Test
+    public void unknownClassIdsHaveAPlaceholder() throws Exception {
+        LabelTable table = new LabelTable(Arrays.asList("person"));
+
+        assertEquals(LabelTable.UNKNOWN_LABEL, table.getLabel(-1));
+        assertEquals(LabelTable.UNKNOWN_LABEL, table.getLabel(1));
+    }
+
+    @Test
+    public void labelsAreInterned() throws Exception {
+        LabelTable table = new LabelTable(Arrays.asList(new String("person")));
+
+        assertSame("person", table.getLabel(0));
+    }
+}
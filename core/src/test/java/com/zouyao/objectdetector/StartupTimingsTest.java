@@ -0,0 +1,30 @@
+package com.zouyao.objectdetector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupTimingsTest {
+
+    @Test
+    public void phasesAddUpOverSessions() throws Exception {
+        StartupTimings timings = new StartupTimings(0);
+
+        timings.record(StartupTimings.Phase.GRAPH_IMPORT, 300);
+        timings.record(StartupTimings.Phase.GRAPH_IMPORT, 200);
+
+        assertEquals(500, timings.getNanos(StartupTimings.Phase.GRAPH_IMPORT));
+        assertEquals(0, timings.getNanos(StartupTimings.Phase.SESSION_CREATE));
+    }
+
+    @Test
+    public void onlyTheFirstDetectionCounts() throws Exception {
+        StartupTimings timings = new StartupTimings(1000);
+        assertEquals(-1, timings.getTimeToFirstDetectionNanos());
+
+        assertTrue(timings.recordFirstDetection(5000));
+        assertFalse(timings.recordFirstDetection(9000));
+
+        assertEquals(4000, timings.getTimeToFirstDetectionNanos());
+    }
+}
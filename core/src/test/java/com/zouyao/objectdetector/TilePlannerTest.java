@@ -0,0 +1,71 @@
+package com.zouyao.objectdetector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TilePlannerTest {
+
+    @Test
+    public void largeImageStaysWithinTileBudgetAndIsCovered() throws Exception {
+        TilePlanner planner = TilePlanner.getBuilder().maxTiles(16).overlap(0.2f).build();
+
+        Tiling tiling = planner.plan(4000, 3000);
+
+        assertTrue(tiling.getTileCount() <= 16);
+        // The first tile is the whole image.
+        assertEquals(4000, tiling.getWidth(0));
+        assertEquals(3000, tiling.getHeight(0));
+        boolean[] covered = new boolean[40 * 30];
+        for (int tile = 1; tile < tiling.getTileCount(); ++tile) {
+            assertEquals(tiling.getWidth(tile), tiling.getHeight(tile));
+            assertTrue(tiling.getLeft(tile) + tiling.getWidth(tile) <= 4000);
+            assertTrue(tiling.getTop(tile) + tiling.getHeight(tile) <= 3000);
+            for (int y = tiling.getTop(tile) / 100;
+                 y < (tiling.getTop(tile) + tiling.getHeight(tile)) / 100; ++y) {
+                for (int x = tiling.getLeft(tile) / 100;
+                     x < (tiling.getLeft(tile) + tiling.getWidth(tile)) / 100; ++x) {
+                    covered[y * 40 + x] = true;
+                }
+            }
+        }
+        for (boolean cell : covered) {
+            assertTrue(cell);
+        }
+    }
+
+    @Test
+    public void smallImageIsOneTile() throws Exception {
+        Tiling tiling = TilePlanner.getBuilder().build().plan(300, 200);
+
+        assertEquals(1, tiling.getTileCount());
+        assertEquals(1f, tiling.getScale(0), 0f);
+    }
+
+    @Test
+    public void mergeMapsTilesBackAndRemovesDuplicates() throws Exception {
+        TilePlanner planner = TilePlanner.getBuilder()
+                .inputSize(100)
+                .overlap(0.5f)
+                .includeFullImage(false)
+                .build();
+        // Two tiles: [0, 100) and [50, 150).
+        Tiling tiling = planner.plan(150, 100);
+        assertEquals(2, tiling.getTileCount());
+        assertEquals(50, tiling.getLeft(1));
+
+        // The same object at x 60..90 of the image, seen by both tiles.
+        Detections first = new Detections(10);
+        first.add(1, 0.9f, 60, 10, 90, 40);
+        Detections second = new Detections(10);
+        second.add(1, 0.8f, 10, 10, 40, 40);
+        Detections merged = new Detections(20);
+        tiling.merge(new Detections[]{first, second},
+                DetectionPostProcessor.getBuilder().capacity(20).build(), merged);
+
+        assertEquals(1, merged.size());
+        assertEquals(0.9f, merged.getScore(0), 0f);
+        assertEquals(60f / 150, merged.getLeft(0), 1e-6f);
+        assertEquals(40f / 100, merged.getBottom(0), 1e-6f);
+    }
+}
@@ -0,0 +1,160 @@
+package com.zouyao.objectdetector.image;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link Nv21Converter} with a straightforward multi-pass reference that decodes the
+ * whole frame, crops, rotates and then scales it.
+ */
+public class Nv21ConverterTest {
+
+    private static final int OUTPUT_SIZE = 48;
+
+    @Test
+    public void matchesReference_allRotations() throws Exception {
+        byte[] nv21 = randomFrame(64, 40, 1);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            assertMatchesReference(nv21, 64, 40, rotation, 0, 0, 64, 40);
+        }
+    }
+
+    @Test
+    public void matchesReference_crop() throws Exception {
+        byte[] nv21 = randomFrame(80, 60, 2);
+        assertMatchesReference(nv21, 80, 60, 0, 10, 6, 30, 50);
+        assertMatchesReference(nv21, 80, 60, 90, 11, 7, 33, 41);
+        assertMatchesReference(nv21, 80, 60, 270, 0, 20, 80, 40);
+    }
+
+    @Test
+    public void matchesReference_upscale() throws Exception {
+        byte[] nv21 = randomFrame(20, 16, 3);
+        assertMatchesReference(nv21, 20, 16, 90, 0, 0, 20, 16);
+    }
+
+    @Test
+    public void letterboxIsWhite() throws Exception {
+        Nv21Converter converter = new Nv21Converter(OUTPUT_SIZE);
+        byte[] rgb = new byte[OUTPUT_SIZE * OUTPUT_SIZE * 3];
+        converter.convert(randomFrame(64, 32, 4), 64, 32, 0, rgb);
+
+        assertEquals(OUTPUT_SIZE, converter.getContentWidth());
+        assertEquals(OUTPUT_SIZE / 2, converter.getContentHeight());
+        for (int i = OUTPUT_SIZE * OUTPUT_SIZE / 2 * 3; i < rgb.length; ++i) {
+            assertEquals(0xFF, rgb[i] & 0xFF);
+        }
+    }
+
+    @Test
+    public void bufferOutputMatchesArrayOutput() throws Exception {
+        Nv21Converter converter = new Nv21Converter(OUTPUT_SIZE);
+        byte[] nv21 = randomFrame(64, 40, 6);
+        byte[] expected = new byte[OUTPUT_SIZE * OUTPUT_SIZE * 3];
+        converter.convert(nv21, 64, 40, 90, 4, 2, 50, 36, expected);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 3);
+        buffer.position(3);
+
+        converter.convert(nv21, 64, 40, 90, 4, 2, 50, 36, buffer);
+
+        assertEquals(3, buffer.position());
+        byte[] actual = new byte[expected.length];
+        buffer.get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddRotation() throws Exception {
+        new Nv21Converter(OUTPUT_SIZE).convert(
+                randomFrame(8, 8, 5), 8, 8, 45, new byte[OUTPUT_SIZE * OUTPUT_SIZE * 3]);
+    }
+
+    private static void assertMatchesReference(byte[] nv21, int width, int height, int rotation,
+                                               int cropLeft, int cropTop,
+                                               int cropWidth, int cropHeight) {
+        Nv21Converter converter = new Nv21Converter(OUTPUT_SIZE);
+        byte[] actual = new byte[OUTPUT_SIZE * OUTPUT_SIZE * 3];
+        converter.convert(nv21, width, height, rotation,
+                cropLeft, cropTop, cropWidth, cropHeight, actual);
+        byte[] expected = reference(nv21, width, height, rotation,
+                cropLeft, cropTop, cropWidth, cropHeight);
+
+        for (int i = 0; i < expected.length; ++i) {
+            int diff = Math.abs((expected[i] & 0xFF) - (actual[i] & 0xFF));
+            assertTrue("rotation " + rotation + " differs at " + i, diff <= 1);
+        }
+    }
+
+    private static byte[] reference(byte[] nv21, int width, int height, int rotation,
+                                    int cropLeft, int cropTop, int cropWidth, int cropHeight) {
+        // Decode the whole frame.
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                float luma = nv21[y * width + x] & 0xFF;
+                int chroma = width * height + (y / 2) * width + (x / 2) * 2;
+                float cr = (nv21[chroma] & 0xFF) - 128;
+                float cb = (nv21[chroma + 1] & 0xFF) - 128;
+                int r = clamp(Math.round(luma + 1.402f * cr));
+                int g = clamp(Math.round(luma - 0.344136f * cb - 0.714136f * cr));
+                int b = clamp(Math.round(luma + 1.772f * cb));
+                argb[y * width + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        // Crop.
+        int[] cropped = new int[cropWidth * cropHeight];
+        for (int y = 0; y < cropHeight; ++y) {
+            System.arraycopy(argb, (cropTop + y) * width + cropLeft, cropped, y * cropWidth, cropWidth);
+        }
+        // Rotate clockwise, 90 degrees at a time.
+        int rotatedWidth = cropWidth;
+        int rotatedHeight = cropHeight;
+        int[] rotated = cropped;
+        for (int i = 0; i < rotation / 90; ++i) {
+            int[] next = new int[rotated.length];
+            for (int y = 0; y < rotatedHeight; ++y) {
+                for (int x = 0; x < rotatedWidth; ++x) {
+                    next[x * rotatedHeight + (rotatedHeight - 1 - y)] = rotated[y * rotatedWidth + x];
+                }
+            }
+            int tmp = rotatedWidth;
+            rotatedWidth = rotatedHeight;
+            rotatedHeight = tmp;
+            rotated = next;
+        }
+        // Scale into the top-left corner of a white square.
+        float scale = Math.min(OUTPUT_SIZE / (float) rotatedWidth, OUTPUT_SIZE / (float) rotatedHeight);
+        int contentWidth = Math.min(OUTPUT_SIZE, Math.round(rotatedWidth * scale));
+        int contentHeight = Math.min(OUTPUT_SIZE, Math.round(rotatedHeight * scale));
+        byte[] rgb = new byte[OUTPUT_SIZE * OUTPUT_SIZE * 3];
+        for (int y = 0; y < OUTPUT_SIZE; ++y) {
+            for (int x = 0; x < OUTPUT_SIZE; ++x) {
+                int pixel = 0xFFFFFF;
+                if (x < contentWidth && y < contentHeight) {
+                    int u = Math.min(rotatedWidth - 1, (int) ((x + 0.5f) / scale));
+                    int v = Math.min(rotatedHeight - 1, (int) ((y + 0.5f) / scale));
+                    pixel = rotated[v * rotatedWidth + u];
+                }
+                int out = (y * OUTPUT_SIZE + x) * 3;
+                rgb[out] = (byte) (pixel >> 16);
+                rgb[out + 1] = (byte) (pixel >> 8);
+                rgb[out + 2] = (byte) pixel;
+            }
+        }
+        return rgb;
+    }
+
+    private static byte[] randomFrame(int width, int height, long seed) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,255 @@
+package com.zouyao.objectdetector.image;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link ParallelKernels}, serial and striped over a thread pool, with straightforward
+ * per-pixel references of the same integer formulas.
+ */
+public class ParallelKernelsTest {
+
+    private ExecutorService executor;
+    private ParallelKernels parallel;
+    private final ParallelKernels serial = ParallelKernels.serial();
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(3);
+        parallel = new ParallelKernels(executor, 4, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void resizeNearestMatchesReference() throws Exception {
+        int[] src = randomImage(37, 23, 1);
+        assertResizeMatches(src, 37, 0, 0, 37, 23, 16, 11, false);
+        assertResizeMatches(src, 37, 0, 0, 37, 23, 75, 49, false);
+        assertResizeMatches(src, 37, 5, 3, 19, 17, 13, 29, false);
+    }
+
+    @Test
+    public void resizeBilinearMatchesReference() throws Exception {
+        int[] src = randomImage(41, 29, 2);
+        assertResizeMatches(src, 41, 0, 0, 41, 29, 17, 13, true);
+        assertResizeMatches(src, 41, 0, 0, 41, 29, 83, 61, true);
+        assertResizeMatches(src, 41, 7, 2, 21, 25, 30, 9, true);
+        assertResizeMatches(src, 41, 40, 28, 1, 1, 5, 5, true);
+    }
+
+    @Test
+    public void resizeBilinearKeepsConstantImages() throws Exception {
+        int[] src = new int[13 * 7];
+        Arrays.fill(src, 0x80FF4001);
+        int[] dst = new int[31 * 5];
+        parallel.resizeBilinear(src, 13, 0, 0, 13, 7, dst, 31, 5);
+        for (int pixel : dst) {
+            assertEquals(0x80FF4001, pixel);
+        }
+    }
+
+    @Test
+    public void rotateMatchesReference() throws Exception {
+        int[] src = randomImage(19, 11, 3);
+        for (int rotation = -90; rotation < 360; rotation += 90) {
+            int[] expected = referenceRotate(src, 19, 11, (rotation + 360) % 360);
+            int[] serialDst = new int[src.length];
+            int[] parallelDst = new int[src.length];
+            serial.rotate(src, 19, 11, rotation, serialDst);
+            parallel.rotate(src, 19, 11, rotation, parallelDst);
+            assertArrayEquals("rotation " + rotation, expected, serialDst);
+            assertArrayEquals("rotation " + rotation, expected, parallelDst);
+        }
+    }
+
+    @Test
+    public void fourQuarterTurnsRestoreTheImage() throws Exception {
+        int[] image = randomImage(9, 14, 4);
+        int width = 9;
+        int height = 14;
+        int[] rotated = new int[image.length];
+        for (int i = 0; i < 4; ++i) {
+            parallel.rotate(image, width, height, 90, rotated);
+            int[] swap = image;
+            image = rotated;
+            rotated = swap;
+            int swapSize = width;
+            width = height;
+            height = swapSize;
+        }
+        assertArrayEquals(randomImage(9, 14, 4), image);
+    }
+
+    @Test
+    public void letterboxMatchesReference() throws Exception {
+        int[] argb = randomImage(21, 14, 5);
+        byte[] expected = referenceLetterbox(argb, 21, 14, 24);
+
+        byte[] serialRgb = new byte[5 + 24 * 24 * 3];
+        serial.letterbox(argb, 21, 14, 24, serialRgb, 5);
+        byte[] parallelRgb = new byte[5 + 24 * 24 * 3];
+        parallel.letterbox(argb, 21, 14, 24, parallelRgb, 5);
+        assertArrayEquals(expected, Arrays.copyOfRange(serialRgb, 5, serialRgb.length));
+        assertArrayEquals(expected,
+                Arrays.copyOfRange(parallelRgb, 5, parallelRgb.length));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(24 * 24 * 3);
+        parallel.letterbox(argb, 21, 14, 24, buffer);
+        assertEquals(0, buffer.position());
+        byte[] bufferRgb = new byte[buffer.capacity()];
+        buffer.get(bufferRgb);
+        assertArrayEquals(expected, bufferRgb);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRegionsOutsideTheSource() throws Exception {
+        parallel.resizeNearest(new int[10 * 10], 10, 5, 0, 6, 10, new int[4], 2, 2);
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void rethrowsStripeFailures() throws Exception {
+        ByteBuffer readOnly = ByteBuffer.allocate(16 * 16 * 3).asReadOnlyBuffer();
+        parallel.letterbox(new int[8 * 8], 8, 8, 16, readOnly);
+    }
+
+    private void assertResizeMatches(int[] src, int stride, int left, int top,
+                                     int width, int height, int dstWidth, int dstHeight,
+                                     boolean bilinear) {
+        int[] expected = bilinear
+                ? referenceBilinear(src, stride, left, top, width, height, dstWidth, dstHeight)
+                : referenceNearest(src, stride, left, top, width, height, dstWidth, dstHeight);
+        int[] serialDst = new int[dstWidth * dstHeight];
+        int[] parallelDst = new int[dstWidth * dstHeight];
+        if (bilinear) {
+            serial.resizeBilinear(src, stride, left, top, width, height,
+                    serialDst, dstWidth, dstHeight);
+            parallel.resizeBilinear(src, stride, left, top, width, height,
+                    parallelDst, dstWidth, dstHeight);
+        } else {
+            serial.resizeNearest(src, stride, left, top, width, height,
+                    serialDst, dstWidth, dstHeight);
+            parallel.resizeNearest(src, stride, left, top, width, height,
+                    parallelDst, dstWidth, dstHeight);
+        }
+        assertArrayEquals(expected, serialDst);
+        assertArrayEquals(expected, parallelDst);
+    }
+
+    private static int[] referenceNearest(int[] src, int stride, int left, int top,
+                                          int width, int height, int dstWidth, int dstHeight) {
+        int[] dst = new int[dstWidth * dstHeight];
+        for (int y = 0; y < dstHeight; ++y) {
+            for (int x = 0; x < dstWidth; ++x) {
+                int sx = (2 * x + 1) * width / (2 * dstWidth);
+                int sy = (2 * y + 1) * height / (2 * dstHeight);
+                dst[y * dstWidth + x] = src[(top + sy) * stride + left + sx];
+            }
+        }
+        return dst;
+    }
+
+    private static int[] referenceBilinear(int[] src, int stride, int left, int top,
+                                           int width, int height, int dstWidth, int dstHeight) {
+        int[] dst = new int[dstWidth * dstHeight];
+        for (int y = 0; y < dstHeight; ++y) {
+            int fixedY = Math.max(0, (2 * y + 1) * 256 * height / (2 * dstHeight) - 128);
+            int y0 = fixedY / 256;
+            int y1 = Math.min(y0 + 1, height - 1);
+            int fy = fixedY % 256;
+            for (int x = 0; x < dstWidth; ++x) {
+                int fixedX = Math.max(0, (2 * x + 1) * 256 * width / (2 * dstWidth) - 128);
+                int x0 = fixedX / 256;
+                int x1 = Math.min(x0 + 1, width - 1);
+                int fx = fixedX % 256;
+                int pixel = 0;
+                for (int channel = 0; channel < 4; ++channel) {
+                    int p00 = channel(src[(top + y0) * stride + left + x0], channel);
+                    int p01 = channel(src[(top + y0) * stride + left + x1], channel);
+                    int p10 = channel(src[(top + y1) * stride + left + x0], channel);
+                    int p11 = channel(src[(top + y1) * stride + left + x1], channel);
+                    int upper = p00 * (256 - fx) + p01 * fx;
+                    int lower = p10 * (256 - fx) + p11 * fx;
+                    int value = (upper * (256 - fy) + lower * fy + 32768) / 65536;
+                    pixel |= value << (8 * channel);
+                }
+                dst[y * dstWidth + x] = pixel;
+            }
+        }
+        return dst;
+    }
+
+    private static int channel(int pixel, int channel) {
+        return (pixel >>> (8 * channel)) & 0xFF;
+    }
+
+    private static int[] referenceRotate(int[] src, int width, int height, int rotation) {
+        boolean transpose = rotation == 90 || rotation == 270;
+        int dstWidth = transpose ? height : width;
+        int dstHeight = transpose ? width : height;
+        int[] dst = new int[src.length];
+        for (int y = 0; y < dstHeight; ++y) {
+            for (int x = 0; x < dstWidth; ++x) {
+                int sx;
+                int sy;
+                switch (rotation) {
+                    case 90:
+                        sx = y;
+                        sy = height - 1 - x;
+                        break;
+                    case 180:
+                        sx = width - 1 - x;
+                        sy = height - 1 - y;
+                        break;
+                    case 270:
+                        sx = width - 1 - y;
+                        sy = x;
+                        break;
+                    default:
+                        sx = x;
+                        sy = y;
+                        break;
+                }
+                dst[y * dstWidth + x] = src[sy * width + sx];
+            }
+        }
+        return dst;
+    }
+
+    private static byte[] referenceLetterbox(int[] argb, int width, int height, int size) {
+        byte[] rgb = new byte[size * size * 3];
+        Arrays.fill(rgb, (byte) 0xFF);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int pixel = argb[y * width + x];
+                int out = (y * size + x) * 3;
+                rgb[out] = (byte) (pixel >> 16);
+                rgb[out + 1] = (byte) (pixel >> 8);
+                rgb[out + 2] = (byte) pixel;
+            }
+        }
+        return rgb;
+    }
+
+    private static int[] randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,101 @@
+package com.zouyao.objectdetector.inference;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.zouyao.objectdetector.Detections;
+
+import static org.junit.Assert.*;
+
+public class ReplayBackendTest {
+
+    private static final int INPUT_SIZE = 100;
+
+    @Test
+    public void engineDecodesReplayedOutputs() throws Exception {
+        TensorRecording recording = new TensorRecording();
+        // ymin, xmin, ymax, xmax; the second box is the better one.
+        recording.addRun(run(new float[]{0.1f, 0.2f, 0.3f, 0.4f, 0.5f, 0.5f, 0.9f, 0.7f},
+                new float[]{0.6f, 0.8f}, new float[]{1, 3}, 2));
+        DetectionEngine engine = new DetectionEngine(new ReplayBackend(recording), INPUT_SIZE);
+        Detections detections = new Detections(Detections.MAX_DETECTIONS);
+
+        engine.detect(new byte[INPUT_SIZE * INPUT_SIZE * 3], detections);
+
+        assertEquals(2, detections.size());
+        assertEquals(3, detections.getClassId(0));
+        assertEquals(0.8f, detections.getScore(0), 0f);
+        assertEquals(50f, detections.getLeft(0), 1e-4f);
+        assertEquals(90f, detections.getBottom(0), 1e-4f);
+        assertEquals(20f, detections.getLeft(1), 1e-4f);
+    }
+
+    @Test
+    public void directBufferInputDetectsLikeAnArray() throws Exception {
+        TensorRecording recording = new TensorRecording();
+        recording.addRun(run(new float[]{0.1f, 0.2f, 0.3f, 0.4f},
+                new float[]{0.6f}, new float[]{5}, 1));
+        DetectionEngine engine = new DetectionEngine(new ReplayBackend(recording), INPUT_SIZE);
+        Detections detections = new Detections(Detections.MAX_DETECTIONS);
+        ByteBuffer input = engine.allocateInputBuffer();
+
+        engine.detect(input, detections);
+        engine.detect(input, detections);
+
+        assertEquals(0, input.position());
+        assertEquals(1, detections.size());
+        assertEquals(5, detections.getClassId(0));
+        assertEquals(40f, detections.getRight(0), 1e-4f);
+    }
+
+    @Test
+    public void recordedRunsReplayInOrderAndLoop() throws Exception {
+        TensorRecording source = new TensorRecording();
+        source.addRun(run(new float[4], new float[]{0.9f}, new float[]{1}, 1));
+        source.addRun(run(new float[4], new float[]{0.5f}, new float[]{2}, 1));
+        TensorRecording recording = new TensorRecording();
+        DetectionEngine recorder = new DetectionEngine(
+                new RecordingBackend(new ReplayBackend(source), recording), INPUT_SIZE);
+        Detections detections = new Detections(Detections.MAX_DETECTIONS);
+        byte[] image = new byte[INPUT_SIZE * INPUT_SIZE * 3];
+        recorder.detect(image, detections);
+        recorder.detect(image, detections);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        recording.writeTo(bytes);
+        TensorRecording loaded =
+                TensorRecording.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+        ReplayBackend replay = new ReplayBackend(loaded);
+        DetectionEngine engine = new DetectionEngine(replay, INPUT_SIZE);
+
+        int[] classes = new int[3];
+        for (int i = 0; i < classes.length; ++i) {
+            engine.detect(image, detections);
+            classes[i] = detections.getClassId(0);
+        }
+        assertArrayEquals(new int[]{1, 2, 1}, classes);
+        assertEquals(3, replay.getRunCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void feed_rejectsWrongShape() throws Exception {
+        TensorRecording recording = new TensorRecording();
+        recording.addRun(run(new float[4], new float[1], new float[1], 0));
+        new ReplayBackend(recording).feed("image_tensor", new byte[10], 1, 2, 2, 3);
+    }
+
+    private static Map<String, float[]> run(float[] boxes, float[] scores, float[] classes,
+                                            int numDetections) {
+        Map<String, float[]> run = new LinkedHashMap<>();
+        run.put(DetectionEngine.OUTPUT_BOXES, boxes);
+        run.put(DetectionEngine.OUTPUT_SCORES, scores);
+        run.put(DetectionEngine.OUTPUT_CLASSES, classes);
+        run.put(DetectionEngine.OUTPUT_NUM_DETECTIONS, new float[]{numDetections});
+        return run;
+    }
+}
@@ -0,0 +1,42 @@
+package com.zouyao.objectdetector.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameMetricsTest {
+
+    private static final long FRAME_NANOS = 10_000_000L;
+
+    @Test
+    public void steadyDeliveries_giveTheirRate() {
+        final FrameMetrics metrics = new FrameMetrics();
+        for (int i = 1; i <= 50; ++i) {
+            metrics.onFrameDelivered(i * FRAME_NANOS);
+        }
+        assertEquals(100.0, metrics.getFramesPerSecond(), 0.01);
+    }
+
+    @Test
+    public void concurrentDeliveries_areAllCounted() throws Exception {
+        final FrameMetrics metrics = new FrameMetrics();
+        final int frames = 100_000;
+        // Two threads deliver alternate frames, as the tracker and the detector do.
+        final Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; ++t) {
+            final int first = t + 1;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i <= frames; i += 2) {
+                    metrics.onFrameDelivered(i * FRAME_NANOS);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // However the deliveries interleave, the rate stays positive and finite.
+        final double fps = metrics.getFramesPerSecond();
+        assertTrue(String.valueOf(fps), fps > 0 && !Double.isInfinite(fps));
+    }
+}
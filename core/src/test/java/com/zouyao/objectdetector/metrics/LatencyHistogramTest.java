@@ -0,0 +1,56 @@
+package com.zouyao.objectdetector.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1ms to 100ms in 1ms steps.
+        for (int i = 1; i <= 100; ++i) {
+            histogram.recordMicros(i * 1000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.0, histogram.getPercentileMillis(50), 50.0 / 16);
+        assertEquals(95.0, histogram.getPercentileMillis(95), 95.0 / 16);
+        assertEquals(99.0, histogram.getPercentileMillis(99), 99.0 / 16);
+        assertEquals(100.0, histogram.getMaxMillis(), 0);
+        assertEquals(50.5, histogram.getMeanMillis(), 1e-9);
+    }
+
+    @Test
+    public void bucketsGrowMonotonically() throws Exception {
+        int previous = -1;
+        for (long value = 0; value < (1L << 45); value = value * 9 / 8 + 1) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index >= previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void concurrentWritersAreAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            new Thread(() -> {
+                for (int i = 0; i < perThread; ++i) {
+                    histogram.recordNanos(i * 1000L);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertEquals(threads * perThread, histogram.getCount());
+        assertEquals((perThread - 1) / 1000.0, histogram.getMaxMillis(), 0);
+    }
+}
@@ -0,0 +1,71 @@
+package com.zouyao.objectdetector.overlay;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OverlayModelTest {
+
+    private int measured;
+    private OverlayModel model;
+
+    @Before
+    public void setUp() throws Exception {
+        measured = 0;
+        // 2 pixels per character, 10 pixel text with a 3 pixel descent, 1 pixel padding.
+        model = new OverlayModel(text -> {
+            measured++;
+            return 2 * text.length();
+        }, 10, 3, 1);
+        model.setSize(200, 100);
+    }
+
+    @Test
+    public void unchangedBoxesNeedNoRepaint() throws Exception {
+        model.begin();
+        model.add(0.1f, 0.1f, 0.5f, 0.5f, "dog", 0.87f);
+        assertTrue(model.commit());
+
+        model.begin();
+        model.add(0.1f, 0.1f, 0.5f, 0.5f, "dog", 0.8701f);
+        assertFalse(model.commit());
+        assertEquals(1, model.size());
+        assertEquals("dog: (87.0%) ", model.getText(0));
+        assertEquals(1, measured);
+    }
+
+    @Test
+    public void dirtyBoundsCoverOldAndNewBoxes() throws Exception {
+        model.begin();
+        model.add(0.125f, 0.125f, 0.25f, 0.25f, "cat", 0.5f);
+        model.commit();
+
+        model.begin();
+        model.add(0.625f, 0.5f, 0.75f, 0.875f, "cat", 0.5f);
+        assertTrue(model.commit());
+        assertEquals(23, model.getDirtyLeft());
+        assertEquals(11, model.getDirtyTop());
+        assertEquals(152, model.getDirtyRight());
+        assertEquals(89, model.getDirtyBottom());
+        assertEquals(125f, model.getLeft(0), 0f);
+        assertEquals(60f, model.getTextBaseline(0), 0f);
+    }
+
+    @Test
+    public void dirtyBoundsIncludeLabelsWiderThanTheirBox() throws Exception {
+        model.begin();
+        // "person: (100.0%) " is 17 characters, 34 pixels centered on a 12.5 pixel wide box.
+        model.add(0.5f, 0.5f, 0.5625f, 0.5625f, "person", 1f);
+        assertTrue(model.commit());
+        assertEquals(88, model.getDirtyLeft());
+        assertEquals(49, model.getDirtyTop());
+        assertEquals(125, model.getDirtyRight());
+        assertEquals(64, model.getDirtyBottom());
+
+        model.begin();
+        assertTrue(model.commit());
+        assertEquals(0, model.size());
+        assertEquals(88, model.getDirtyLeft());
+    }
+}
@@ -0,0 +1,89 @@
+package com.zouyao.objectdetector.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameBufferPoolTest {
+
+    private static final int LENGTH = 640 * 480 * 3 / 2;
+
+    @Test
+    public void steadyState_reusesFrames() {
+        FrameBufferPool pool = FrameBufferPool.getBuilder().capacity(2).build();
+        PreviewFrame first = pool.acquire(LENGTH);
+        PreviewFrame second = pool.acquire(LENGTH);
+        assertNotSame(first, second);
+        pool.release(first);
+        pool.release(second);
+
+        for (int i = 0; i < 100; ++i) {
+            PreviewFrame a = pool.acquire(LENGTH);
+            PreviewFrame b = pool.acquire(LENGTH);
+            assertTrue(a == first || a == second);
+            assertTrue(b == first || b == second);
+            pool.release(b);
+            pool.release(a);
+        }
+        assertEquals(2, pool.getMissCount());
+        assertEquals(200, pool.getHitCount());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void largerFrame_isAMiss() {
+        FrameBufferPool pool = FrameBufferPool.getBuilder().build();
+        PreviewFrame frame = pool.acquire(LENGTH);
+        pool.release(frame);
+        frame = pool.acquire(2 * LENGTH);
+        assertTrue(frame.getCapacity() >= 2 * LENGTH);
+        pool.release(frame);
+        pool.acquire(LENGTH);
+        assertEquals(2, pool.getMissCount());
+        assertEquals(1, pool.getHitCount());
+    }
+
+    @Test
+    public void framesBeyondCapacity_areNotKept() {
+        FrameBufferPool pool = FrameBufferPool.getBuilder().capacity(1).build();
+        PreviewFrame first = pool.acquire(LENGTH);
+        PreviewFrame second = pool.acquire(LENGTH);
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.acquire(LENGTH));
+        assertNotSame(second, pool.acquire(LENGTH));
+        assertEquals(3, pool.getMissCount());
+    }
+
+    @Test
+    public void heldFrame_isReportedOnce() throws Exception {
+        List<Long> leaks = new ArrayList<>();
+        FrameBufferPool pool = FrameBufferPool.getBuilder()
+                .leakTimeoutNanos(1_000_000L)
+                .leakListener((acquiredAt, heldNanos) -> {
+                    assertTrue(acquiredAt.getStackTrace().length > 0);
+                    leaks.add(heldNanos);
+                })
+                .build();
+        pool.acquire(LENGTH);
+        Thread.sleep(5);
+        pool.release(pool.acquire(LENGTH));
+        pool.release(pool.acquire(LENGTH));
+        assertEquals(1, leaks.size());
+        assertTrue(leaks.get(0) >= 1_000_000L);
+        assertEquals(1, pool.getOutstandingCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleRelease_isRejectedWithLeakDetection() {
+        FrameBufferPool pool = FrameBufferPool.getBuilder()
+                .leakListener((acquiredAt, heldNanos) -> { })
+                .build();
+        PreviewFrame frame = pool.acquire(LENGTH);
+        pool.release(frame);
+        pool.release(frame);
+    }
+}
@@ -0,0 +1,113 @@
+package com.zouyao.objectdetector.pipeline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameRecordingTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("frames", ".rec");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void recordedFrames_areReplayedInOrder() throws Exception {
+        final byte[][] frames = {frame(4, 2, 1), frame(6, 4, 2), frame(4, 2, 3)};
+        final List<byte[]> passedOn = new ArrayList<>();
+        try (FrameRecorder recorder = new FrameRecorder(file,
+                (nv21, width, height, rotation, timestampNanos) -> passedOn.add(nv21))) {
+            recorder.onFrame(frames[0], 4, 2, 90, 1000L);
+            recorder.onFrame(frames[1], 6, 4, 90, 2000L);
+            recorder.onFrame(frames[2], 4, 2, 270, 5000L);
+            assertEquals(3, recorder.getFrameCount());
+        }
+        assertEquals(3, passedOn.size());
+
+        try (FrameRecording recording = FrameRecording.open(file)) {
+            assertEquals(3, recording.getFrameCount());
+            assertEquals(0L, recording.getTimestampNanos(0));
+            assertEquals(1000L, recording.getTimestampNanos(1));
+            assertEquals(4000L, recording.getTimestampNanos(2));
+            assertEquals(6, recording.getWidth(1));
+            assertEquals(4, recording.getHeight(1));
+            assertEquals(270, recording.getRotation(2));
+            assertEquals(36, recording.getMaxLength());
+
+            final List<byte[]> replayed = new ArrayList<>();
+            final List<Integer> widths = new ArrayList<>();
+            final long delivered = new FrameReplayer(recording, false, 2).run(
+                    (nv21, width, height, rotation, timestampNanos) -> {
+                        replayed.add(Arrays.copyOf(nv21, width * height * 3 / 2));
+                        widths.add(width);
+                    });
+            assertEquals(6, delivered);
+            for (int i = 0; i < 6; ++i) {
+                assertArrayEquals(frames[i % 3], replayed.get(i));
+            }
+            assertEquals(Arrays.asList(4, 6, 4, 4, 6, 4), widths);
+        }
+    }
+
+    @Test
+    public void truncatedFrame_isIgnored() throws Exception {
+        try (FrameRecorder recorder = new FrameRecorder(file, null)) {
+            recorder.onFrame(frame(4, 2, 1), 4, 2, 0, 0L);
+            recorder.onFrame(frame(4, 2, 2), 4, 2, 0, 1L);
+        }
+        try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+            data.setLength(data.length() - 3);
+        }
+        try (FrameRecording recording = FrameRecording.open(file)) {
+            assertEquals(1, recording.getFrameCount());
+        }
+    }
+
+    @Test
+    public void realTimeReplay_keepsRecordedPace() throws Exception {
+        try (FrameRecorder recorder = new FrameRecorder(file, null)) {
+            for (int i = 0; i < 3; ++i) {
+                recorder.onFrame(frame(4, 2, i), 4, 2, 0, i * 20_000_000L);
+            }
+        }
+        try (FrameRecording recording = FrameRecording.open(file)) {
+            final long start = System.nanoTime();
+            assertEquals(6, new FrameReplayer(recording, true, 2).run(
+                    (nv21, width, height, rotation, timestampNanos) -> { }));
+            // The second loop starts one frame interval after the first one ends.
+            assertTrue(System.nanoTime() - start >= 100_000_000L);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFile_isRejected() throws Exception {
+        try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+            data.write(new byte[32]);
+        }
+        FrameRecording.open(file);
+    }
+
+    private static byte[] frame(int width, int height, int seed) {
+        final byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = 0; i < frame.length; ++i) {
+            frame[i] = (byte) (seed * 31 + i);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,124 @@
+package com.zouyao.objectdetector.pipeline;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LatestFrameSchedulerTest {
+
+    private static final int FRAMES = 20000;
+
+    @Test
+    public void slowWorker_dropsStaleFramesAndProcessesLatest() throws Exception {
+        final AtomicInteger lastProcessed = new AtomicInteger(-1);
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final AtomicLong recycled = new AtomicLong();
+        final CountDownLatch lastFrameDone = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        LatestFrameScheduler<Integer> scheduler = new LatestFrameScheduler<>(executor, item -> {
+            if (item <= lastProcessed.getAndSet(item)) {
+                outOfOrder.incrementAndGet();
+            }
+            if (item % 1000 == 0) {
+                sleep(1);
+            }
+            if (item == FRAMES - 1) {
+                lastFrameDone.countDown();
+            }
+        }, item -> recycled.incrementAndGet());
+
+        for (int i = 0; i < FRAMES; ++i) {
+            scheduler.submit(i);
+        }
+
+        assertTrue(lastFrameDone.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, outOfOrder.get());
+        assertEquals(FRAMES, scheduler.getReceivedCount());
+        assertEquals(FRAMES, scheduler.getDroppedCount() + scheduler.getProcessedCount());
+        assertEquals(FRAMES, recycled.get());
+        assertTrue(scheduler.getDroppedCount() > 0);
+    }
+
+    @Test
+    public void concurrentProducers_neverRunWorkerConcurrently() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        LatestFrameScheduler<Integer> scheduler = new LatestFrameScheduler<>(workers, item -> {
+            if (running.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            running.decrementAndGet();
+        }, null);
+
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; ++p) {
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < FRAMES; ++i) {
+                    scheduler.submit(i);
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        workers.shutdown();
+        assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, overlaps.get());
+        assertEquals(FRAMES * producers.length, scheduler.getReceivedCount());
+        assertEquals(scheduler.getReceivedCount(),
+                scheduler.getDroppedCount() + scheduler.getProcessedCount());
+    }
+
+    @Test
+    public void failingItem_isReportedAndLaterItemsAreProcessed() throws Exception {
+        final AtomicReference<RuntimeException> reported = new AtomicReference<>();
+        final CountDownLatch secondDone = new CountDownLatch(1);
+        LatestFrameScheduler<Integer> scheduler = new LatestFrameScheduler<>("test", item -> {
+            if (item == 1) {
+                throw new IllegalStateException("boom");
+            }
+            secondDone.countDown();
+        }, null, (source, error) -> reported.set(error));
+
+        scheduler.submit(1);
+        while (reported.get() == null) {
+            sleep(1);
+        }
+        scheduler.submit(2);
+
+        assertTrue(secondDone.await(10, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        assertEquals("boom", reported.get().getMessage());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void submitAfterShutdown_throws() throws Exception {
+        LatestFrameScheduler<Integer> scheduler =
+                new LatestFrameScheduler<>("test", item -> { }, null);
+        scheduler.shutdown();
+        scheduler.submit(1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.zouyao.objectdetector.pipeline;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LumaChangeDetectorTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final long FRAME_NANOS = 33_000_000L;
+
+    private final LumaChangeDetector detector = LumaChangeDetector.getBuilder()
+            .grid(16, 12)
+            .cellThreshold(10)
+            .changedCellFraction(0.02f)
+            .maxStalenessNanos(1_000_000_000L)
+            .build();
+
+    @Test
+    public void staticScene_isGatedWithNoise() {
+        final Random random = new Random(7);
+        final byte[] scene = gradient();
+        assertTrue(detect(scene, WIDTH, HEIGHT, 0));
+        for (int i = 1; i < 20; ++i) {
+            assertFalse(detect(noisy(scene, random, 6), WIDTH, HEIGHT,
+                    i * FRAME_NANOS));
+        }
+        assertEquals(1, detector.getDetectedCount());
+        assertEquals(19, detector.getGatedCount());
+    }
+
+    @Test
+    public void movingObject_isDetected() {
+        final byte[] scene = gradient();
+        assertTrue(detect(scene, WIDTH, HEIGHT, 0));
+        // A 60x60 block covers several cells, well over 2% of them.
+        fill(scene, 100, 100, 60, 60, (byte) 255);
+        assertTrue(detect(scene, WIDTH, HEIGHT, FRAME_NANOS));
+        // The moved block is the new reference.
+        assertFalse(detect(scene, WIDTH, HEIGHT, 2 * FRAME_NANOS));
+    }
+
+    @Test
+    public void slowDrift_addsUpToAChange() {
+        final byte[] scene = new byte[WIDTH * HEIGHT * 3 / 2];
+        int detected = 0;
+        for (int level = 0; level <= 40; level += 2) {
+            fill(scene, 0, 0, WIDTH, HEIGHT, (byte) level);
+            if (detect(scene, WIDTH, HEIGHT, level * FRAME_NANOS)) {
+                detected++;
+            }
+        }
+        // Every step is under the threshold, but 12 levels of drift add up to a change.
+        assertEquals(4, detected);
+    }
+
+    @Test
+    public void staleResults_areRefreshed() {
+        final byte[] scene = gradient();
+        assertTrue(detect(scene, WIDTH, HEIGHT, 0));
+        assertFalse(detect(scene, WIDTH, HEIGHT, 999_999_999L));
+        assertTrue(detect(scene, WIDTH, HEIGHT, 1_000_000_000L));
+        assertFalse(detect(scene, WIDTH, HEIGHT, 1_500_000_000L));
+    }
+
+    @Test
+    public void newSizeOrReset_isDetected() {
+        final byte[] scene = gradient();
+        assertTrue(detect(scene, WIDTH, HEIGHT, 0));
+        assertTrue(detect(scene, HEIGHT, WIDTH, 1));
+        assertFalse(detect(scene, HEIGHT, WIDTH, 2));
+        detector.reset();
+        assertTrue(detect(scene, HEIGHT, WIDTH, 3));
+    }
+
+    @Test
+    public void changeSkippedDownstream_isDetectedWithTheNextFrame() {
+        final byte[] scene = gradient();
+        assertTrue(detect(scene, WIDTH, HEIGHT, 0));
+        fill(scene, 100, 100, 60, 60, (byte) 255);
+        // Let through but answered by the tracker, so never committed.
+        assertTrue(detector.shouldDetect(scene, WIDTH, HEIGHT, FRAME_NANOS));
+        assertTrue(detect(scene, WIDTH, HEIGHT, 2 * FRAME_NANOS));
+        assertFalse(detect(scene, WIDTH, HEIGHT, 3 * FRAME_NANOS));
+        assertEquals(2, detector.getDetectedCount());
+    }
+
+    @Test
+    public void staleScene_isLetThroughUntilResultsArePublished() {
+        final byte[] scene = gradient();
+        assertTrue(detect(scene, WIDTH, HEIGHT, 0));
+        assertTrue(detector.shouldDetect(scene, WIDTH, HEIGHT, 1_000_000_000L));
+        detector.commit();
+        // The refresh is still being detected.
+        assertTrue(detector.shouldDetect(scene, WIDTH, HEIGHT, 1_100_000_000L));
+        detector.onDetected(1_000_000_000L);
+        assertFalse(detector.shouldDetect(scene, WIDTH, HEIGHT, 1_200_000_000L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void gatedFrame_cannotBeCommitted() {
+        final byte[] scene = gradient();
+        assertTrue(detect(scene, WIDTH, HEIGHT, 0));
+        assertFalse(detector.shouldDetect(scene, WIDTH, HEIGHT, FRAME_NANOS));
+        detector.commit();
+    }
+
+    /**
+     * Gates a frame and, if let through, detects it with results published right away.
+     */
+    private boolean detect(byte[] frame, int width, int height, long timestampNanos) {
+        if (!detector.shouldDetect(frame, width, height, timestampNanos)) {
+            return false;
+        }
+        detector.commit();
+        detector.onDetected(timestampNanos);
+        return true;
+    }
+
+    private static byte[] gradient() {
+        final byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                frame[y * WIDTH + x] = (byte) ((x + y) * 255 / (WIDTH + HEIGHT));
+            }
+        }
+        return frame;
+    }
+
+    private static byte[] noisy(byte[] frame, Random random, int amplitude) {
+        final byte[] copy = frame.clone();
+        for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+            final int value = (copy[i] & 0xFF) + random.nextInt(2 * amplitude + 1) - amplitude;
+            copy[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+        return copy;
+    }
+
+    private static void fill(byte[] frame, int left, int top, int width, int height, byte value) {
+        for (int y = top; y < top + height; ++y) {
+            for (int x = left; x < left + width; ++x) {
+                frame[y * WIDTH + x] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.zouyao.objectdetector.pipeline;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.zouyao.objectdetector.quality.AdaptiveQualityController;
+import com.zouyao.objectdetector.tracking.ObjectTracker;
+
+import static org.junit.Assert.*;
+
+public class PreviewDetectorTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int INPUT_SIZE = 32;
+
+    private final List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    private PreviewDetector<Integer> detector;
+
+    @After
+    public void tearDown() {
+        if (detector != null) {
+            detector.shutdown();
+        }
+    }
+
+    @Test
+    public void staticScene_isDetectedOnceAndDeliveredAgain() throws Exception {
+        detector = builder().changeDetector(changeDetector()).build();
+        final byte[] frame = frame();
+        detector.onFrame(frame, WIDTH, HEIGHT, 90, System.nanoTime());
+        awaitDetections(1);
+        for (int i = 0; i < 5; ++i) {
+            detector.onFrame(frame, WIDTH, HEIGHT, 90, System.nanoTime());
+        }
+        assertEquals(1, detector.getDetectedCount());
+        assertEquals(Collections.nCopies(6, 1), delivered);
+        assertEquals(5, detector.getChangeDetector().getGatedCount());
+    }
+
+    @Test
+    public void staticScene_withTracker_isNotDeliveredAgain() throws Exception {
+        detector = builder()
+                .changeDetector(changeDetector())
+                .tracker(ObjectTracker.getBuilder().detectionInterval(100).build())
+                .build();
+        final byte[] frame = frame();
+        detector.onFrame(frame, WIDTH, HEIGHT, 90, System.nanoTime());
+        awaitDetections(1);
+        for (int i = 0; i < 5; ++i) {
+            detector.onFrame(frame, WIDTH, HEIGHT, 90, System.nanoTime());
+        }
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    public void qualityFrameInterval_onlyThrottlesDetection() throws Exception {
+        AdaptiveQualityController qualityController = AdaptiveQualityController.getBuilder()
+                .maxFrameInterval(2)
+                .build();
+        // The hottest state forces the last level, detecting every other frame.
+        qualityController.setThermalState(AdaptiveQualityController.ThermalState.CRITICAL);
+        detector = builder()
+                .tracker(ObjectTracker.getBuilder().detectionInterval(1).build())
+                .qualityController(qualityController)
+                .build();
+        final byte[] frame = frame();
+        detector.onFrame(frame, WIDTH, HEIGHT, 90, System.nanoTime());
+        awaitDetections(1);
+        detector.onFrame(frame, WIDTH, HEIGHT, 90, System.nanoTime());
+
+        // The skipped frame is still answered by the tracker.
+        assertEquals(1, detector.getDetectedCount());
+        assertEquals(Arrays.asList(1, 1), delivered);
+    }
+
+    @Test
+    public void failingDetector_isReported() throws Exception {
+        detector = builder()
+                .detector((rgbValues, results) -> {
+                    throw new IllegalStateException("boom");
+                }, INPUT_SIZE)
+                .build();
+        detector.onFrame(frame(), WIDTH, HEIGHT, 90, System.nanoTime());
+        final long deadline = System.nanoTime() + 10_000_000_000L;
+        while (failures.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Collections.singletonList("inference: boom"), failures);
+        assertEquals(0, detector.getDetectedCount());
+        assertTrue(delivered.isEmpty());
+    }
+
+    private PreviewDetector.Builder<Integer> builder() {
+        return PreviewDetector.<Integer>getBuilder()
+                .detector((rgbValues, results) -> {
+                    results.clear();
+                    results.add(1, 0.9f, 4f, 4f, 16f, 16f);
+                }, INPUT_SIZE)
+                .converter((detections, ids, minimumConfidence) -> detections.size())
+                .listener(delivered::add)
+                .errorListener((source, error) -> failures.add(source + ": " + error.getMessage()));
+    }
+
+    private static LumaChangeDetector changeDetector() {
+        return LumaChangeDetector.getBuilder()
+                .grid(16, 12)
+                .maxStalenessNanos(60_000_000_000L)
+                .build();
+    }
+
+    private void awaitDetections(long count) throws InterruptedException {
+        final long deadline = System.nanoTime() + 10_000_000_000L;
+        while (detector.getDetectedCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, detector.getDetectedCount());
+    }
+
+    private static byte[] frame() {
+        final byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+            frame[i] = (byte) (i % WIDTH * 4);
+        }
+        return frame;
+    }
+}
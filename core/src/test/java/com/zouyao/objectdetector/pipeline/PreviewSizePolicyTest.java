@@ -0,0 +1,56 @@
+package com.zouyao.objectdetector.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PreviewSizePolicyTest {
+
+    // Preview sizes reported by a 1080p phone's back camera.
+    private static final int[] PHONE_WIDTHS = {
+            1920, 1440, 1280, 1280, 960, 800, 720, 640, 352, 320, 176};
+    private static final int[] PHONE_HEIGHTS = {
+            1080, 1080, 960, 720, 720, 480, 480, 480, 288, 240, 144};
+
+    @Test
+    public void fullHdPortraitView_picksSmallestSharpSize() {
+        PreviewSizePolicy policy = PreviewSizePolicy.getBuilder()
+                .inputSize(300)
+                .viewSize(1080, 1920)
+                .build();
+        // 960x720 is shown at twice its size, 800x480 would be more than that.
+        assertEquals(4, policy.select(PHONE_WIDTHS, PHONE_HEIGHTS));
+        assertFalse(policy.qualifies(800, 480));
+    }
+
+    @Test
+    public void pixelExactPreview_picksViewSize() {
+        PreviewSizePolicy policy = PreviewSizePolicy.getBuilder()
+                .viewSize(1920, 1080)
+                .minDisplayScale(1f)
+                .build();
+        assertEquals(0, policy.select(PHONE_WIDTHS, PHONE_HEIGHTS));
+    }
+
+    @Test
+    public void smallView_isBoundByTheDetectorInput() {
+        PreviewSizePolicy.Builder builder = PreviewSizePolicy.getBuilder().viewSize(480, 800);
+        assertEquals(7, builder.inputSize(300).build().select(PHONE_WIDTHS, PHONE_HEIGHTS));
+        // 640x480 only shows 640x384 of the frame in a 5:3 view.
+        assertEquals(6, builder.inputSize(400).build().select(PHONE_WIDTHS, PHONE_HEIGHTS));
+    }
+
+    @Test
+    public void noQualifyingSize_picksLargest() {
+        PreviewSizePolicy policy = PreviewSizePolicy.getBuilder()
+                .viewSize(1080, 1920)
+                .build();
+        assertEquals(1, policy.select(new int[] {176, 352, 320}, new int[] {144, 288, 240}));
+        assertEquals(-1, policy.select(new int[0], new int[0]));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingViewSize_isRejected() {
+        PreviewSizePolicy.getBuilder().build();
+    }
+}
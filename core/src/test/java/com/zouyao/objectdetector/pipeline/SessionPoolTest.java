@@ -0,0 +1,71 @@
+package com.zouyao.objectdetector.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.zouyao.objectdetector.pipeline.SessionPool.Priority;
+
+import static org.junit.Assert.*;
+
+public class SessionPoolTest {
+
+    @Test
+    public void interactiveWaiter_servedBeforeBackgroundWaiter() throws Exception {
+        SessionPool<String> pool = new SessionPool<>(Collections.singletonList("session"));
+        String held = pool.acquire(Priority.INTERACTIVE);
+        final List<Priority> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(2);
+
+        Thread background = startWaiter(pool, Priority.BACKGROUND, order, done);
+        awaitWaiting(background);
+        Thread interactive = startWaiter(pool, Priority.INTERACTIVE, order, done);
+        awaitWaiting(interactive);
+        pool.release(held);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Priority.INTERACTIVE, Priority.BACKGROUND), order);
+        assertEquals(2, pool.getWaitMetrics(Priority.INTERACTIVE).getCount());
+        assertEquals(1, pool.getWaitMetrics(Priority.BACKGROUND).getCount());
+        assertTrue(pool.getWaitMetrics(Priority.BACKGROUND).getMaxMillis() > 0);
+    }
+
+    @Test
+    public void sessionsAreUsedConcurrently() throws Exception {
+        SessionPool<String> pool = new SessionPool<>(Arrays.asList("a", "b"));
+        String first = pool.acquire(Priority.BACKGROUND);
+        String second = pool.acquire(Priority.INTERACTIVE);
+
+        assertNotSame(first, second);
+        assertEquals(2, pool.getSize());
+        pool.release(first);
+        pool.release(second);
+    }
+
+    private static Thread startWaiter(SessionPool<String> pool, Priority priority,
+                                      List<Priority> order, CountDownLatch done) {
+        Thread thread = new Thread(() -> {
+            try {
+                String session = pool.acquire(priority);
+                order.add(priority);
+                pool.release(session);
+                done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.zouyao.objectdetector.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StagedPipelineTest {
+
+    @Test
+    public void itemsPassAllStagesInOrder() throws Exception {
+        final int items = 200;
+        final List<Integer> finished = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(items);
+        StagedPipeline<int[]> pipeline = StagedPipeline.<int[]>getBuilder()
+                .stage("add", item -> { item[0] += 1; return true; })
+                .stage("double", item -> { item[0] *= 2; return true; })
+                .stage("collect", item -> { finished.add(item[0]); return true; })
+                .recycler(item -> done.countDown())
+                .build();
+
+        for (int i = 0; i < items; ++i) {
+            pipeline.submit(new int[]{i});
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        for (int i = 0; i < items; ++i) {
+            assertEquals(Integer.valueOf((i + 1) * 2), finished.get(i));
+        }
+        for (int i = 0; i < pipeline.getStageCount(); ++i) {
+            assertEquals(items, pipeline.getMetrics(i).getProcessedCount());
+        }
+    }
+
+    @Test
+    public void stagesOverlap() throws Exception {
+        // Every stage waits until all of them are busy at once, which only happens when
+        // three consecutive items are in flight on different threads.
+        final CountDownLatch allBusy = new CountDownLatch(3);
+        final CountDownLatch done = new CountDownLatch(3);
+        StagedPipeline<Integer> pipeline = StagedPipeline.<Integer>getBuilder()
+                .stage("first", item -> item != 2 || countDownAndAwait(allBusy))
+                .stage("second", item -> item != 1 || countDownAndAwait(allBusy))
+                .stage("third", item -> item != 0 || countDownAndAwait(allBusy))
+                .recycler(item -> done.countDown())
+                .build();
+
+        pipeline.submit(0);
+        pipeline.submit(1);
+        pipeline.submit(2);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void rejectedAndFailedItemsAreRecycled() throws Exception {
+        final AtomicInteger reachedLast = new AtomicInteger();
+        final CountDownLatch recycled = new CountDownLatch(10);
+        StagedPipeline<Integer> pipeline = StagedPipeline.<Integer>getBuilder()
+                .stage("filter", item -> item % 2 == 0)
+                .stage("fail", item -> {
+                    if (item == 4) {
+                        throw new IllegalStateException("boom");
+                    }
+                    return true;
+                })
+                .stage("last", item -> { reachedLast.incrementAndGet(); return true; })
+                .recycler(item -> recycled.countDown())
+                .build();
+
+        for (int i = 0; i < 10; ++i) {
+            pipeline.submit(i);
+        }
+
+        assertTrue(recycled.await(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        assertEquals(4, reachedLast.get());
+        assertEquals(1, pipeline.getMetrics(1).getErrorCount());
+    }
+
+    @Test
+    public void failedItemsAreReportedAndLaterItemsStillPass() throws Exception {
+        final List<String> failedStages = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch recycled = new CountDownLatch(3);
+        final AtomicInteger reachedLast = new AtomicInteger();
+        StagedPipeline<Integer> pipeline = StagedPipeline.<Integer>getBuilder()
+                .stage("first", item -> true)
+                .stage("fail", item -> {
+                    if (item == 0) {
+                        throw new IllegalStateException("boom");
+                    }
+                    return true;
+                })
+                .stage("last", item -> { reachedLast.incrementAndGet(); return true; })
+                .recycler(item -> recycled.countDown())
+                .errorListener((source, error) ->
+                        failedStages.add(source + ": " + error.getMessage()))
+                .build();
+
+        for (int i = 0; i < 3; ++i) {
+            pipeline.submit(i);
+        }
+
+        assertTrue(recycled.await(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        assertEquals(Collections.singletonList("fail: boom"), failedStages);
+        assertEquals(2, reachedLast.get());
+    }
+
+    private static boolean countDownAndAwait(CountDownLatch latch) {
+        latch.countDown();
+        await(latch);
+        return true;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.zouyao.objectdetector.quality;
+
+import org.junit.Test;
+
+import com.zouyao.objectdetector.quality.AdaptiveQualityController.Settings;
+import com.zouyao.objectdetector.quality.AdaptiveQualityController.ThermalState;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveQualityControllerTest {
+
+    private static final long MS = 1000000L;
+
+    private static AdaptiveQualityController controller() {
+        return AdaptiveQualityController.getBuilder()
+                .targetLatencyMillis(100)
+                .windowSize(5)
+                .upgrade(0.7f, 2)
+                .maxFrameInterval(3)
+                .confidence(0.3f, 0.6f)
+                .modelVariants(2)
+                .build();
+    }
+
+    @Test
+    public void ladderDegradesFrameRateThenModel() throws Exception {
+        AdaptiveQualityController controller = controller();
+        assertEquals(4, controller.getLevelCount());
+
+        int[] intervals = new int[4];
+        int[] variants = new int[4];
+        for (int level = 0; level < 4; ++level) {
+            Settings settings = controller.getSettings();
+            intervals[level] = settings.getFrameInterval();
+            variants[level] = settings.getModelVariant();
+            feed(controller, 150 * MS, 5);
+        }
+
+        assertArrayEquals(new int[]{1, 2, 3, 3}, intervals);
+        assertArrayEquals(new int[]{0, 0, 0, 1}, variants);
+        assertEquals(0.6f, controller.getSettings().getMinimumConfidence(), 1e-6f);
+    }
+
+    @Test
+    public void everyLevelLowersLatency() throws Exception {
+        AdaptiveQualityController controller = controller();
+        long previous = Long.MAX_VALUE;
+        for (int level = 0; level < controller.getLevelCount(); ++level) {
+            assertEquals(level, controller.getLevel());
+            long latency = simulatedLatency(controller.getSettings());
+            // A level that does not make detection cheaper only costs quality.
+            assertTrue("level " + level + " takes " + latency / MS + "ms", latency < previous);
+            previous = latency;
+            feed(controller, 150 * MS, 5);
+        }
+    }
+
+    @Test
+    public void slowDeviceSettlesWhereTheTargetIsMet() throws Exception {
+        AdaptiveQualityController controller = AdaptiveQualityController.getBuilder()
+                .targetLatencyMillis(150)
+                .windowSize(5)
+                .upgrade(0.7f, 2)
+                .maxFrameInterval(3)
+                .modelVariants(2)
+                .build();
+        for (int frame = 0; frame < 200; ++frame) {
+            controller.recordLatency(simulatedLatency(controller.getSettings()));
+        }
+
+        // 141ms meets the target without the faster model, and is not far enough under it to
+        // step back up.
+        assertEquals(2, controller.getLevel());
+        assertEquals(0, controller.getSettings().getModelVariant());
+    }
+
+    @Test
+    public void spikeInOneFrameDoesNotDegrade() throws Exception {
+        AdaptiveQualityController controller = AdaptiveQualityController.getBuilder()
+                .targetLatencyMillis(100)
+                .windowSize(10)
+                .build();
+        feed(controller, 50 * MS, 9);
+        assertFalse(controller.recordLatency(400 * MS));
+
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void recoversOnlyAfterSeveralFastWindows() throws Exception {
+        AdaptiveQualityController controller = controller();
+        feed(controller, 150 * MS, 10);
+        assertEquals(2, controller.getLevel());
+
+        feed(controller, 20 * MS, 5);
+        assertEquals(2, controller.getLevel());
+        feed(controller, 20 * MS, 5);
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void thermalAndBatteryStateKeepQualityDown() throws Exception {
+        AdaptiveQualityController controller = controller();
+
+        assertTrue(controller.setThermalState(ThermalState.CRITICAL));
+        assertEquals(3, controller.getLevel());
+        feed(controller, 10 * MS, 50);
+        assertEquals(3, controller.getLevel());
+
+        controller.setThermalState(ThermalState.NOMINAL);
+        controller.setBatteryState(0.1f, false);
+        feed(controller, 10 * MS, 50);
+        assertEquals(2, controller.getLevel());
+
+        controller.setBatteryState(0.1f, true);
+        feed(controller, 10 * MS, 50);
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void batteryTemperatureMapsToThermalState() throws Exception {
+        assertEquals(ThermalState.NOMINAL, ThermalState.fromBatteryTemperature(30f));
+        assertEquals(ThermalState.SERIOUS, ThermalState.fromBatteryTemperature(44f));
+        assertEquals(ThermalState.CRITICAL, ThermalState.fromBatteryTemperature(50f));
+    }
+
+    /**
+     * Simulated device: inference takes 120ms, 60ms with the faster model, and a detected frame
+     * waits for the previous one while detections are due more often than that, at 33ms a frame.
+     */
+    private static long simulatedLatency(Settings settings) {
+        long inference = settings.getModelVariant() == 0 ? 120 : 60;
+        long wait = Math.max(0, inference - 33L * settings.getFrameInterval());
+        return (inference + wait) * MS;
+    }
+
+    private static void feed(AdaptiveQualityController controller, long latency, int frames) {
+        for (int i = 0; i < frames; ++i) {
+            controller.recordLatency(latency);
+        }
+    }
+}
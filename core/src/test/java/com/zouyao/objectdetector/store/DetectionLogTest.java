@@ -0,0 +1,142 @@
+package com.zouyao.objectdetector.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.zouyao.objectdetector.Detections;
+
+import static org.junit.Assert.*;
+
+public class DetectionLogTest {
+
+    private static final int PERSON = 1;
+    private static final int DOG = 18;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("detections", ".log");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        new File(file.getPath() + ".1").delete();
+    }
+
+    @Test
+    public void queriesByClassConfidenceAndTime() throws Exception {
+        try (DetectionLog log = DetectionLog.open(file)) {
+            log.append(1000, 0, PERSON, 0.9f, 0.1f, 0.1f, 0.2f, 0.2f);
+            log.append(1000, 0, DOG, 0.95f, 0.3f, 0.3f, 0.4f, 0.4f);
+            log.append(2000, 1, PERSON, 0.5f, 0.1f, 0.1f, 0.2f, 0.2f);
+            log.append(3000, 2, PERSON, 0.85f, 0.5f, 0.5f, 0.6f, 0.6f);
+
+            List<DetectionRecord> people = log.query(PERSON, 0.8f, 0, 2500);
+            assertEquals(1, people.size());
+            assertEquals(0, people.get(0).getFrameId());
+            assertEquals(0.9f, people.get(0).getConfidence(), 0f);
+            assertEquals(0.2f, people.get(0).getRight(), 0f);
+
+            assertArrayEquals(new long[] {0, 2}, log.findFrames(PERSON, 0.8f, 0, 5000));
+            assertArrayEquals(new long[] {0, 2},
+                    log.findFrames(DetectionLog.ANY_CLASS, 0.8f, 0, 5000));
+            assertEquals(0, log.query(3, 0f, 0, 5000).size());
+        }
+    }
+
+    @Test
+    public void skipsBlocksOutsideTheTimeRange() throws Exception {
+        try (DetectionLog log = DetectionLog.open(file)) {
+            final int records = 3 * DetectionLog.BLOCK_SIZE;
+            for (int i = 0; i < records; ++i) {
+                log.append(i, i, i % 2 == 0 ? PERSON : DOG, 1f, 0f, 0f, 1f, 1f);
+            }
+
+            List<DetectionRecord> dogs = log.query(DOG, 0f,
+                    DetectionLog.BLOCK_SIZE + 10, DetectionLog.BLOCK_SIZE + 20);
+            assertEquals(5, dogs.size());
+            assertEquals(DetectionLog.BLOCK_SIZE + 11, dogs.get(0).getTimestampMillis());
+            assertEquals(records, log.size());
+        }
+    }
+
+    @Test
+    public void reopenKeepsCommittedRecordsOnly() throws Exception {
+        DetectionLog log = DetectionLog.open(file);
+        log.append(1000, 7, PERSON, 0.9f, 0f, 0f, 1f, 1f);
+        log.commit();
+        log.append(2000, 8, PERSON, 0.9f, 0f, 0f, 1f, 1f);
+        // Simulates a crash: the second record was never committed.
+        DetectionLog reader = DetectionLog.open(file);
+        try {
+            assertEquals(1, reader.size());
+            assertEquals(7, reader.getLastFrameId());
+            assertEquals(1, reader.query(PERSON, 0f, 0, 5000).size());
+        } finally {
+            log.close();
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[64]);
+        }
+        DetectionLog.open(file);
+    }
+
+    @Test
+    public void writerNumbersFramesAfterTheLog() throws Exception {
+        try (DetectionLog log = DetectionLog.open(file)) {
+            log.append(1000, 41, DOG, 0.9f, 0f, 0f, 1f, 1f);
+        }
+        Detections detections = new Detections(4);
+        detections.add(PERSON, 0.9f, 0.1f, 0.1f, 0.2f, 0.2f);
+        detections.add(DOG, 0.2f, 0.3f, 0.3f, 0.4f, 0.4f);
+
+        DetectionLogWriter writer = new DetectionLogWriter(file, 2);
+        assertTrue(writer.offer(2000, detections, 0.5f));
+        assertTrue(writer.offer(3000, detections, 0.5f));
+        writer.close();
+
+        try (DetectionLog log = DetectionLog.open(file)) {
+            assertArrayEquals(new long[] {42, 43}, log.findFrames(PERSON, 0.5f, 0, 5000));
+            assertEquals(0, log.query(DOG, 0f, 1500, 5000).size());
+        }
+    }
+
+    @Test
+    public void fullLog_isRotated() throws Exception {
+        Detections detections = new Detections(1);
+        detections.add(PERSON, 0.9f, 0.1f, 0.1f, 0.2f, 0.2f);
+        DetectionLogWriter writer = new DetectionLogWriter(file, 2);
+        assertTrue(writer.offer(1000, detections, 0.5f));
+        assertTrue(writer.offer(2000, detections, 0.5f));
+        writer.close();
+
+        // The log is already at its limit, the next record starts a new one.
+        writer = new DetectionLogWriter(file, 2, 2);
+        assertTrue(writer.offer(3000, detections, 0.5f));
+        assertTrue(writer.offer(4000, detections, 0.5f));
+        writer.close();
+        assertEquals(1, writer.getRotationCount());
+
+        try (DetectionLog previous = DetectionLog.open(new File(file.getPath() + ".1"))) {
+            assertArrayEquals(new long[] {0, 1}, previous.findFrames(PERSON, 0f, 0, 5000));
+        }
+        try (DetectionLog log = DetectionLog.open(file)) {
+            // Frame ids carry on across the rotation.
+            assertArrayEquals(new long[] {2, 3}, log.findFrames(PERSON, 0f, 0, 5000));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.zouyao.objectdetector.tracking;
+
+import org.junit.Test;
+
+import com.zouyao.objectdetector.Detections;
+
+import static org.junit.Assert.*;
+
+public class ObjectTrackerTest {
+
+    private static final long MS = 1000000L;
+    private static final float MINIMUM_CONFIDENCE = 0.3f;
+
+    @Test
+    public void detectsEveryIntervalFrames() throws Exception {
+        ObjectTracker tracker = ObjectTracker.getBuilder().detectionInterval(3).build();
+
+        assertTrue(tracker.shouldDetect(0, MINIMUM_CONFIDENCE));
+        assertFalse(tracker.shouldDetect(33 * MS, MINIMUM_CONFIDENCE));
+        assertFalse(tracker.shouldDetect(66 * MS, MINIMUM_CONFIDENCE));
+        assertTrue(tracker.shouldDetect(100 * MS, MINIMUM_CONFIDENCE));
+    }
+
+    @Test
+    public void matchedDetectionsKeepTheirIds() throws Exception {
+        ObjectTracker tracker = ObjectTracker.getBuilder().build();
+        Detections out = new Detections(10);
+        int[] ids = new int[10];
+
+        tracker.update(detections(1, 0.9f, 0.10f, 2, 0.8f, 0.60f), 0);
+        assertEquals(2, tracker.predict(0, out, ids));
+        int person = ids[0];
+        int dog = ids[1];
+
+        // The dog is now the better detection and both moved a little.
+        Detections moved = new Detections(10);
+        moved.add(2, 0.95f, 0.62f, 0.62f, 0.82f, 0.82f);
+        moved.add(1, 0.85f, 0.12f, 0.12f, 0.32f, 0.32f);
+        tracker.update(moved, 100 * MS);
+        assertEquals(2, tracker.predict(100 * MS, out, ids));
+
+        assertEquals(dog, ids[0]);
+        assertEquals(person, ids[1]);
+    }
+
+    @Test
+    public void unmatchedDetectionsGetNewIds() throws Exception {
+        ObjectTracker tracker = ObjectTracker.getBuilder().build();
+        Detections out = new Detections(10);
+        int[] ids = new int[10];
+
+        tracker.update(detections(1, 0.9f, 0.10f), 0);
+        tracker.predict(0, out, ids);
+        int first = ids[0];
+        tracker.update(detections(1, 0.9f, 0.70f), 100 * MS);
+        tracker.predict(100 * MS, out, ids);
+
+        assertEquals(1, tracker.getTrackCount());
+        assertNotEquals(first, ids[0]);
+    }
+
+    @Test
+    public void predictExtrapolatesVelocity() throws Exception {
+        ObjectTracker tracker = ObjectTracker.getBuilder().confidenceDecayPerSecond(0f).build();
+        Detections out = new Detections(10);
+        int[] ids = new int[10];
+
+        tracker.update(detections(1, 0.9f, 0.10f), 0);
+        tracker.update(detections(1, 0.9f, 0.12f), 100 * MS);
+        tracker.predict(200 * MS, out, ids);
+
+        // Half of the measured 0.2/s, because of smoothing, for another 100ms.
+        assertEquals(0.13f, out.getLeft(0), 1e-4f);
+        assertEquals(0.9f, out.getScore(0), 0f);
+    }
+
+    @Test
+    public void confidenceDrop_requestsDetection() throws Exception {
+        ObjectTracker tracker = ObjectTracker.getBuilder().detectionInterval(100).build();
+        assertTrue(tracker.shouldDetect(0, MINIMUM_CONFIDENCE));
+        tracker.update(detections(1, 0.9f, 0.10f), 0);
+        assertFalse(tracker.shouldDetect(10 * MS, MINIMUM_CONFIDENCE));
+
+        tracker.update(detections(1, 0.5f, 0.10f), 20 * MS);
+
+        assertTrue(tracker.shouldDetect(30 * MS, MINIMUM_CONFIDENCE));
+    }
+
+    @Test
+    public void fastMotion_requestsDetection() throws Exception {
+        ObjectTracker tracker = ObjectTracker.getBuilder()
+                .detectionInterval(100)
+                .motionThreshold(0.1f)
+                .build();
+        assertTrue(tracker.shouldDetect(0, MINIMUM_CONFIDENCE));
+        tracker.update(detections(1, 0.9f, 0.10f), 0);
+        tracker.update(detections(1, 0.9f, 0.15f), 100 * MS);
+
+        // 0.25/s after smoothing: 0.1 is covered after 400ms.
+        assertFalse(tracker.shouldDetect(300 * MS, MINIMUM_CONFIDENCE));
+        assertTrue(tracker.shouldDetect(600 * MS, MINIMUM_CONFIDENCE));
+    }
+
+    @Test
+    public void confidenceDecay_requestsDetectionRelativeToTheDetectedScore() throws Exception {
+        ObjectTracker tracker = ObjectTracker.getBuilder()
+                .detectionInterval(100)
+                .confidenceDecayPerSecond(0.5f)
+                .confidenceLoss(0.5f)
+                .build();
+        assertTrue(tracker.shouldDetect(0, MINIMUM_CONFIDENCE));
+        tracker.update(detections(1, 0.32f, 0.10f), 0);
+
+        // Just above the threshold, it is not lost after a few frames of decay.
+        assertFalse(tracker.shouldDetect(100 * MS, MINIMUM_CONFIDENCE));
+        // Half of 0.32 is gone after 320ms.
+        assertTrue(tracker.shouldDetect(350 * MS, MINIMUM_CONFIDENCE));
+    }
+
+    @Test
+    public void hiddenTracks_doNotRequestDetection() throws Exception {
+        ObjectTracker tracker = ObjectTracker.getBuilder().detectionInterval(100).build();
+        assertTrue(tracker.shouldDetect(0, MINIMUM_CONFIDENCE));
+        tracker.update(detections(1, 0.35f, 0.10f), 0);
+
+        // Shown at 0.3, the track has lost too much; at 0.5 it is not shown at all.
+        assertTrue(tracker.shouldDetect(500 * MS, MINIMUM_CONFIDENCE));
+        tracker.update(detections(1, 0.35f, 0.10f), 500 * MS);
+        assertFalse(tracker.shouldDetect(1000 * MS, 0.5f));
+    }
+
+    private static Detections detections(int classId, float score, float offset) {
+        Detections detections = new Detections(10);
+        detections.add(classId, score, offset, offset, offset + 0.2f, offset + 0.2f);
+        return detections;
+    }
+
+    private static Detections detections(int classIdA, float scoreA, float offsetA,
+                                         int classIdB, float scoreB, float offsetB) {
+        Detections detections = detections(classIdA, scoreA, offsetA);
+        detections.add(classIdB, scoreB, offsetB, offsetB, offsetB + 0.2f, offsetB + 0.2f);
+        return detections;
+    }
+}